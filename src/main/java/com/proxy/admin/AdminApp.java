@@ -30,6 +30,9 @@ public class AdminApp extends JFrame {
     private JLabel cacheHitsLabel;
     private JLabel uptimeLabel;
     private JLabel requestCountLabel;
+    // Cache internals, one line each below the cards
+    private JLabel cacheMemoryLabel;
+    private JLabel admissionLabel;
 
     // Stats data
     private int cacheHits = 0;
@@ -68,7 +71,11 @@ public class AdminApp extends JFrame {
         mainContainer.setBorder(new EmptyBorder(15, 15, 15, 15));
 
         // Top Section - Statistics Dashboard
-        mainContainer.add(createStatisticsPanel(), BorderLayout.NORTH);
+        JPanel topPanel = new JPanel(new BorderLayout(0, 0));
+        topPanel.setBackground(LIGHT_BG);
+        topPanel.add(createStatisticsPanel(), BorderLayout.NORTH);
+        topPanel.add(createCacheDetailsPanel(), BorderLayout.SOUTH);
+        mainContainer.add(topPanel, BorderLayout.NORTH);
 
         // Center Section - Blacklist Management
         mainContainer.add(createBlacklistPanel(), BorderLayout.CENTER);
@@ -115,6 +122,24 @@ public class AdminApp extends JFrame {
         return statsPanel;
     }
 
+    private JPanel createCacheDetailsPanel() {
+        JPanel panel = new JPanel(new GridLayout(0, 1, 0, 4));
+        panel.setBackground(CARD_BG);
+        panel.setBorder(BorderFactory.createCompoundBorder(
+                new LineBorder(new Color(220, 220, 220), 1, true),
+                new EmptyBorder(8, 15, 8, 15)));
+        panel.add(cacheMemoryLabel = createDetailLabel("Cache memory: n/a"));
+        panel.add(admissionLabel = createDetailLabel("Cache admission: n/a"));
+        return panel;
+    }
+
+    private JLabel createDetailLabel(String text) {
+        JLabel label = new JLabel(text);
+        label.setFont(new Font("Segoe UI", Font.PLAIN, 12));
+        label.setForeground(DARK_BG);
+        return label;
+    }
+
     private JPanel createStatCard(String title, JLabel valueLabel, Color accentColor, String icon) {
         JPanel card = new JPanel(new BorderLayout(10, 5));
         card.setBackground(CARD_BG);
@@ -509,6 +534,16 @@ public class AdminApp extends JFrame {
         });
     }
 
+    // Method to update off-heap slab usage and the disk tier
+    public void updateCacheMemoryStats(String report) {
+        SwingUtilities.invokeLater(() -> cacheMemoryLabel.setText("Cache memory: " + report));
+    }
+
+    // Method to update cache admission decisions and bytes admitted per hit
+    public void updateAdmissionStats(String report) {
+        SwingUtilities.invokeLater(() -> admissionLabel.setText("Cache admission: " + report));
+    }
+
     // Method to update active connections
     public void updateActiveConnections(int count) {
         SwingUtilities.invokeLater(() -> {
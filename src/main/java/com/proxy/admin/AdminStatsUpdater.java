@@ -2,6 +2,8 @@ package com.proxy.admin;
 
 import com.proxy.cache.CacheManager;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * Bridge class to update AdminApp statistics from ProxyServer
  * Thread-safe singleton to avoid concurrency issues
@@ -12,7 +14,8 @@ public class AdminStatsUpdater {
     private AdminApp adminApp;
     private CacheManager cacheManager;
     
-    private volatile int totalRequests = 0;
+    // Counted per HTTP request by every reactor thread; pushed to the UI by refreshStats()
+    private final AtomicInteger totalRequests = new AtomicInteger();
     private volatile int blockedRequests = 0;
     private volatile int activeConnections = 0;
     
@@ -40,11 +43,10 @@ public class AdminStatsUpdater {
     }
     
     /**
-     * Increment total request count
+     * Increment total request count (hot path: no UI update here)
      */
-    public synchronized void incrementTotalRequests() {
-        totalRequests++;
-        updateAdminUI();
+    public void incrementTotalRequests() {
+        totalRequests.incrementAndGet();
     }
     
     /**
@@ -70,7 +72,9 @@ public class AdminStatsUpdater {
     private void updateAdminUI() {
         if (adminApp != null && cacheManager != null) {
             int cacheHits = cacheManager.getCacheHits();
-            adminApp.updateCacheStats(cacheHits, totalRequests);
+            adminApp.updateCacheStats(cacheHits, totalRequests.get());
+            adminApp.updateCacheMemoryStats(getCacheMemoryReport());
+            adminApp.updateAdmissionStats(getAdmissionReport());
         }
     }
     
@@ -85,9 +89,39 @@ public class AdminStatsUpdater {
      * Get total requests count
      */
     public int getTotalRequests() {
-        return totalRequests;
+        return totalRequests.get();
     }
     
+    /**
+     * Off-heap cache memory: slabs reserved, utilization and fragmentation, responses over their
+     * size limit, resumed downloads and gzip savings, plus the disk tier
+     */
+    public String getCacheMemoryReport() {
+        if (cacheManager == null) return "n/a";
+        String report = cacheManager.getCachedBytes() / 1024 + " KB of " + cacheManager.getMaxCacheBytes() / 1024
+                + " KB budget, " + cacheManager.getSlabAllocator() + ", " + cacheManager.getTooLarge() + " too large, "
+                + cacheManager.getResumed() + " resumed, " + cacheManager.getCompressed() + " gzip'd (saved "
+                + cacheManager.getCompressionSavedBytes() / 1024 + " KB), " + cacheManager.getRangeHits() + " range hits, "
+                + cacheManager.getRangeFills() + " range fills, " + cacheManager.getExpirySwept() + " expired swept";
+        if (cacheManager.getDiskCache() != null) {
+            report += ", " + cacheManager.getDiskHits() + " disk hits, " + cacheManager.getDiskCache();
+        }
+        return report;
+    }
+
+    /**
+     * Cache admission: the policy, what it let in and kept out, admitted entries that never
+     * got a hit, and admitted bytes per cache hit (the memory each hit costs)
+     */
+    public String getAdmissionReport() {
+        if (cacheManager == null) return "n/a";
+        int hits = cacheManager.getCacheHits();
+        return cacheManager.getAdmissionPolicy() + ": " + cacheManager.getAdmitted() + " admitted ("
+                + cacheManager.getAdmittedBytes() / 1024 + " KB), " + cacheManager.getNotAdmitted() + " kept out, "
+                + cacheManager.getDroppedUnhit() + " dropped without a hit, "
+                + (hits == 0 ? "n/a" : cacheManager.getAdmittedBytes() / hits + " bytes") + " admitted per hit";
+    }
+
     /**
      * Get blocked requests count
      */
@@ -106,7 +140,7 @@ public class AdminStatsUpdater {
      * Reset all statistics
      */
     public synchronized void resetStats() {
-        totalRequests = 0;
+        totalRequests.set(0);
         blockedRequests = 0;
         activeConnections = 0;
         updateAdminUI();
@@ -0,0 +1,44 @@
+package com.proxy.cache;
+
+/**
+ * Decides whether a cacheable response is stored at all, before it takes up cache memory and
+ * competes for the byte budget (W-TinyLFU only chooses between entries already admitted).
+ *
+ * CacheManager reports every lookup to recordRequest() and asks admit() when a response for a
+ * URL arrives; both get the URL without its Vary variant, so a URL's variants share their
+ * request count. Chosen with -Dproxy.cacheAdmission: "all" (the default), "second-request",
+ * "threshold", or the name of a class implementing this interface with a no-argument
+ * constructor. Implementations are called from every reactor thread and must be thread-safe.
+ */
+public interface AdmissionPolicy {
+
+    /**
+     * A cacheable GET for url was looked up (hit or miss)
+     */
+    void recordRequest(String url);
+
+    /**
+     * @param bytes Announced length of the response body, or -1 if unknown
+     * @return whether a response for url should be stored
+     */
+    boolean admit(String url, long bytes);
+
+    /**
+     * Admits everything: every cacheable response is stored
+     */
+    AdmissionPolicy ALL = new AdmissionPolicy() {
+        @Override
+        public void recordRequest(String url) {
+        }
+
+        @Override
+        public boolean admit(String url, long bytes) {
+            return true;
+        }
+
+        @Override
+        public String toString() {
+            return "all";
+        }
+    };
+}
@@ -0,0 +1,171 @@
+package com.proxy.cache;
+
+import com.proxy.core.http.HttpHead;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.TreeSet;
+import java.util.function.Function;
+
+/**
+ * Cache keys: the normalized URL (primary key), extended with the request header values a
+ * response varies on (Vary) for a secondary variant key.
+ *
+ * Normalizing lowercases the scheme and host, drops a default port and the fragment, turns an
+ * empty path into "/" and sorts the query parameters by name (keeping the order of repeated
+ * names), so trivially different spellings of a URL share one entry. Percent-encoding is kept
+ * as sent.
+ *
+ * A variant key is the primary key followed by "#vary" and one ";name=value" per varied
+ * header, with lowercase names in sorted order, URL-encoded values with list whitespace
+ * collapsed, and a bare ";name" for a header the request did not send. A normalized URL never
+ * contains '#', so the URL and the header values can always be recovered from the key: the
+ * background refresher replays them to fetch the same variant.
+ */
+public final class CacheKey {
+
+    private static final String VARY_MARK = "#vary";
+
+    private CacheKey() {
+    }
+
+    /**
+     * Primary key for an absolute URL
+     * @return null if it does not parse as one: such a URL is not cached
+     */
+    public static String normalize(String url) {
+        URI uri;
+        try {
+            uri = new URI(url);
+        } catch (URISyntaxException e) {
+            return null;
+        }
+        if (uri.getScheme() == null || uri.getRawAuthority() == null || uri.getHost() == null) return null;
+
+        String scheme = uri.getScheme().toLowerCase(Locale.ROOT);
+        StringBuilder key = new StringBuilder(url.length()).append(scheme).append("://");
+        if (uri.getRawUserInfo() != null) {
+            key.append(uri.getRawUserInfo()).append('@');
+        }
+        key.append(uri.getHost().toLowerCase(Locale.ROOT));
+        int port = uri.getPort();
+        if (port != -1 && !(port == 80 && scheme.equals("http")) && !(port == 443 && scheme.equals("https"))) {
+            key.append(':').append(port);
+        }
+        String path = uri.getRawPath();
+        key.append(path == null || path.isEmpty() ? "/" : path);
+        String query = uri.getRawQuery();
+        if (query != null) {
+            key.append('?').append(sortQuery(query));
+        }
+        return key.toString();
+    }
+
+    private static String sortQuery(String query) {
+        String[] params = query.split("&");
+        // Stable: repeated names keep their order, which can matter to the origin
+        Arrays.sort(params, Comparator.comparing(param -> {
+            int equals = param.indexOf('=');
+            return equals < 0 ? param : param.substring(0, equals);
+        }));
+        return String.join("&", params);
+    }
+
+    /**
+     * Request headers a response varies on: lowercase, sorted, without duplicates; empty if
+     * it does not vary, null for "Vary: *" (no request can be known to match)
+     */
+    public static List<String> varyNames(HttpHead response) {
+        TreeSet<String> names = new TreeSet<>();
+        for (String value : response.getHeaders("Vary")) {
+            for (String name : value.split(",")) {
+                String trimmed = name.trim().toLowerCase(Locale.ROOT);
+                if (trimmed.equals("*")) return null;
+                if (!trimmed.isEmpty()) {
+                    names.add(trimmed);
+                }
+            }
+        }
+        return new ArrayList<>(names);
+    }
+
+    /**
+     * Variant key of primary for a request, or primary itself if names is empty
+     * @param requestHeader Value of a request header by name, or null if not sent
+     */
+    public static String variant(String primary, List<String> names, Function<String, String> requestHeader) {
+        if (names.isEmpty()) return primary;
+        StringBuilder key = new StringBuilder(primary).append(VARY_MARK);
+        for (String name : names) {
+            key.append(';').append(name);
+            String value = requestHeader.apply(name);
+            if (value != null) {
+                key.append('=').append(URLEncoder.encode(normalizeValue(value), StandardCharsets.UTF_8));
+            }
+        }
+        return key.toString();
+    }
+
+    private static String normalizeValue(String value) {
+        String[] items = value.split(",");
+        for (int i = 0; i < items.length; i++) {
+            items[i] = items[i].trim();
+        }
+        return String.join(",", items);
+    }
+
+    /**
+     * URL a key was made from
+     */
+    public static String urlOf(String key) {
+        int mark = key.indexOf(VARY_MARK);
+        return mark < 0 ? key : key.substring(0, mark);
+    }
+
+    /**
+     * Header names a variant key was made with; empty for a primary key
+     */
+    static List<String> namesOf(String key) {
+        List<String> names = new ArrayList<>();
+        for (String[] header : headersOf(key)) {
+            names.add(header[0]);
+        }
+        return names;
+    }
+
+    /**
+     * Request header lines ("Name: value\r\n") a variant key was made with, for fetching the
+     * same variant again; headers the request did not send are left out
+     */
+    static String requestHeadersOf(String key) {
+        StringBuilder lines = new StringBuilder();
+        for (String[] header : headersOf(key)) {
+            if (header[1] != null) {
+                lines.append(header[0]).append(": ").append(header[1]).append("\r\n");
+            }
+        }
+        return lines.toString();
+    }
+
+    private static List<String[]> headersOf(String key) {
+        List<String[]> headers = new ArrayList<>();
+        int mark = key.indexOf(VARY_MARK);
+        if (mark < 0) return headers;
+        for (String entry : key.substring(mark + VARY_MARK.length()).split(";")) {
+            if (entry.isEmpty()) continue;
+            int equals = entry.indexOf('=');
+            headers.add(equals < 0 ? new String[] { entry, null }
+                    : new String[] { entry.substring(0, equals),
+                            URLDecoder.decode(entry.substring(equals + 1), StandardCharsets.UTF_8) });
+        }
+        return headers;
+    }
+}
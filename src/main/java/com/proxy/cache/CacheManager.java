@@ -1,17 +1,200 @@
 package com.proxy.cache;
 
+import com.proxy.core.http.HttpHead;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
 import java.util.Map;
+import java.util.Set;
 
 public class CacheManager {
     // Sử dụng ConcurrentHashMap để đảm bảo an toàn luồng (Thread-safe)
     private final Map<String, CachedResponse> cache = new ConcurrentHashMap<>();
-    private volatile int cacheHits = 0;
-    private volatile int cacheMisses = 0;
-    private volatile int totalRequests = 0;
+    // Largest response stored (-Dproxy.cacheMaxObjectBytes), per Content-Type with
+    // -Dproxy.cacheMaxObjectBytesByType, e.g. "video/*=512m,application/javascript=8m"
+    private static final ObjectSizeLimits OBJECT_LIMITS = ObjectSizeLimits.parse(
+            System.getProperty("proxy.cacheMaxObjectBytesByType"),
+            ObjectSizeLimits.parseSize(System.getProperty("proxy.cacheMaxObjectBytes", "16m")));
+    // Refresh-ahead: hits in the last N% of an entry's lifetime refresh it early (0 = off)
+    private static final int REFRESH_AHEAD_PERCENT = Integer.getInteger("proxy.refreshAheadPercent", 0);
+    private static final int REFRESH_AHEAD_MIN_HITS = Integer.getInteger("proxy.refreshAheadMinHits", 2);
+    // Byte budget for all stored responses (-Dproxy.cacheMaxBytes), enforced by W-TinyLFU
+    private static final long MAX_CACHE_BYTES = Long.getLong("proxy.cacheMaxBytes", 64L * 1024 * 1024);
+    private static final int READ_BUFFER_SIZE = 128; // power of two
+    // Off-heap slabs for response bytes (-Dproxy.slabBytes)
+    private static final int SLAB_BYTES = Math.max(64 * 1024, Integer.getInteger("proxy.slabBytes", 1024 * 1024));
+    // Responses are captured and stored in pieces of at most this size: a larger one becomes a
+    // chain of full-slab chunks, which fit their size class exactly
+    static final int CHUNK_BYTES = SLAB_BYTES;
+    // Longest response head looked for at the start of a stored response
+    private static final int MAX_HEAD_BYTES = 64 * 1024;
+    // A few slabs beyond the budget absorb size classes that are only partly filled
+    private static final int SPARE_SLABS = 8;
+    private static final int WRITE_BUFFER_MAX = 1024;
+    // Stores not yet charged to the policy may hold at most this many bytes beyond the budget
+    private static final long WRITE_BUFFER_MAX_BYTES = Math.max(SLAB_BYTES, MAX_CACHE_BYTES / 32);
+    // Second tier on local disk (-Dproxy.diskCacheDir), off unless a directory is given
+    private static final String DISK_CACHE_DIR = System.getProperty("proxy.diskCacheDir");
+    private static final long DISK_CACHE_MAX_BYTES = Long.getLong("proxy.diskCacheMaxBytes", 16L * 1024 * 1024 * 1024);
+    private static final int DISK_SEGMENT_BYTES =
+            Math.max(2 * SLAB_BYTES, Integer.getInteger("proxy.diskSegmentBytes", 64 * 1024 * 1024));
+    // Responses at least this large go straight to disk and are served from there with transferTo
+    private static final int DISK_DIRECT_BYTES = Integer.getInteger("proxy.diskDirectBytes", 256 * 1024);
+    // Warm restart: the memory tier is written here on shutdown and reloaded on the next start
+    // (-Dproxy.cacheSnapshot, by default next to the disk tier's segments)
+    private static final String SNAPSHOT_FILE = System.getProperty("proxy.cacheSnapshot",
+            DISK_CACHE_DIR == null ? null : Paths.get(DISK_CACHE_DIR, "memory.snapshot").toString());
+    // Compressible bodies up to this size are gzip'd on the storing thread, larger ones by the
+    // compressor thread (-Dproxy.compressInlineBytes)
+    private static final int COMPRESS_INLINE_BYTES = Integer.getInteger("proxy.compressInlineBytes", 64 * 1024);
+    // A download that breaks off after at least this much body is finished with a Range request
+    private static final int RESUME_MIN_BYTES = Integer.getInteger("proxy.resumeMinBytes", 64 * 1024);
+    // A range miss fetches the whole response in the background (-Dproxy.rangeFill=false to
+    // turn off), at most once per URL in this many milliseconds
+    private static final boolean RANGE_FILL = !"false".equalsIgnoreCase(System.getProperty("proxy.rangeFill"));
+    private static final long RANGE_FILL_RETRY_MS = Long.getLong("proxy.rangeFillRetryMs", 60_000L);
+    private static final int RANGE_FILL_TRACKED = 1024;
+    // Learned Vary names are pruned of URLs with nothing stored any more once there are this many
+    private static final int VARIES_PRUNE_MIN = 1024;
+    // Expired entries are reclaimed in the background, at most EXPIRY_SWEEP_BATCH every
+    // -Dproxy.expirySweepIntervalMs, once past their stale grace; an entry with validators is
+    // kept -Dproxy.cacheKeepValidatedMs longer, since a 304 can still make it fresh again
+    private static final long EXPIRY_SWEEP_INTERVAL_MS = Math.max(10, Long.getLong("proxy.expirySweepIntervalMs", 1000L));
+    static final int EXPIRY_SWEEP_BATCH = Math.max(1, Integer.getInteger("proxy.expirySweepBatch", 256));
+    private static final long KEEP_VALIDATED_MS = Long.getLong("proxy.cacheKeepValidatedMs", 5 * 60 * 1000L);
+    // Which responses are stored at all (-Dproxy.cacheAdmission, see AdmissionPolicy)
+    private static final String ADMISSION = System.getProperty("proxy.cacheAdmission", "all");
+    private static final int ADMISSION_COUNTERS = Integer.getInteger("proxy.admissionCounters", 1 << 20);
+
+    // Updated from every reactor thread and the blocking handlers
+    private final AtomicInteger cacheHits = new AtomicInteger();
+    private final AtomicInteger cacheMisses = new AtomicInteger();
+    private final AtomicInteger totalRequests = new AtomicInteger();
+    private final AtomicInteger abandonedEntries = new AtomicInteger();
+    private final AtomicInteger collapsedFollowers = new AtomicInteger();
+    private final AtomicInteger revalidations = new AtomicInteger();
+    private final AtomicInteger staleHits = new AtomicInteger();
+    private final AtomicInteger diskHits = new AtomicInteger();
+    private final AtomicInteger tooLarge = new AtomicInteger();
+    private final AtomicInteger compressed = new AtomicInteger();
+    private final AtomicLong compressionSavedBytes = new AtomicLong();
+    private final AtomicInteger rangeHits = new AtomicInteger();
+    private final AtomicInteger expirySwept = new AtomicInteger();
+    private final AtomicInteger admitted = new AtomicInteger();
+    private final AtomicInteger notAdmitted = new AtomicInteger();
+    private final AtomicLong admittedBytes = new AtomicLong();
+    // Admitted entries evicted or expired without a single hit since stored (or revalidated)
+    private final AtomicInteger droppedUnhit = new AtomicInteger();
+
+    // Last background fill started per URL after a range miss, so a failing one is not
+    // retried on every range request
+    private final Map<String, Long> rangeFills = new ConcurrentHashMap<>();
+
+    // Request headers each URL's responses vary on (by primary key), learned from their Vary
+    private final Map<String, List<String>> varies = new ConcurrentHashMap<>();
+    // Size past which the sweeper prunes varies, twice what was left after the last pass
+    private volatile int variesPruneAt = VARIES_PRUNE_MIN;
+    // Responses being fetched right now, one leader entry per URL (collapsed forwarding)
+    private final Map<String, PendingCacheEntry> inFlight = new ConcurrentHashMap<>();
+    private final CacheRefresher refresher = new CacheRefresher(this);
+    // When each entry in memory can be reclaimed, for the expiry sweeper
+    private final ExpiryIndex expiryIndex = new ExpiryIndex(EXPIRY_SWEEP_INTERVAL_MS, System.currentTimeMillis());
+
+    // Eviction bookkeeping. Lookups and stores only touch the map and record what they did in
+    // the buffers below; whichever thread gets the eviction lock without waiting replays the
+    // buffers into the policy, so the cost is amortized and readers never block.
+    private final WTinyLfuPolicy<CachedResponse> policy =
+            new WTinyLfuPolicy<>(MAX_CACHE_BYTES, (int) Math.min(1 << 20, Math.max(1024, MAX_CACHE_BYTES / 4096)));
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    // Lossy ring of looked-up keys: when it is full further accesses are simply not recorded
+    private final AtomicReferenceArray<String> readBuffer = new AtomicReferenceArray<>(READ_BUFFER_SIZE);
+    private final AtomicLong readTail = new AtomicLong();
+    private volatile long readHead = 0;
+    // Stores and removals must all reach the policy, so this queue is not lossy
+    private final Queue<Runnable> writeBuffer = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingWrites = new AtomicInteger();
+    private final AtomicLong pendingBytes = new AtomicLong();
+    private volatile long cachedBytes = 0;
+
+    private final SlabAllocator slabs =
+            new SlabAllocator(SLAB_BYTES, (int) ((MAX_CACHE_BYTES + SLAB_BYTES - 1) / SLAB_BYTES) + SPARE_SLABS);
+
+    private final DiskCache disk = openDiskCache();
+    // A shutdown while the snapshot is still loading must not replace it with the partial memory tier
+    private final Object snapshotLock = new Object();
+    private volatile boolean snapshotLoading = false;
+    private boolean shuttingDown = false;
+    private volatile AdmissionPolicy admission = createAdmissionPolicy();
+    // Gzip for large compressible bodies, off the reactor threads; bounded, overflow is stored as is
+    private final ThreadPoolExecutor compressor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(Integer.getInteger("proxy.compressQueue", 64)), runnable -> {
+                Thread thread = new Thread(runnable, "cache-compressor");
+                thread.setDaemon(true);
+                return thread;
+            });
 
     // Private constructor cho Singleton
     private CacheManager() {
+        if (disk != null) {
+            disk.keys().forEach(this::learnVariants);
+        }
+        if (SNAPSHOT_FILE != null && Files.exists(Paths.get(SNAPSHOT_FILE))) {
+            // Reload in the background: the proxy takes traffic meanwhile, early lookups just miss
+            snapshotLoading = true;
+            Thread loader = new Thread(this::loadSnapshot, "cache-snapshot-loader");
+            loader.setDaemon(true);
+            loader.start();
+        }
+        Thread sweeper = new Thread(this::runExpirySweeper, "cache-expiry-sweeper");
+        sweeper.setDaemon(true);
+        sweeper.start();
+    }
+
+    private static DiskCache openDiskCache() {
+        if (DISK_CACHE_DIR == null) return null;
+        try {
+            return new DiskCache(Paths.get(DISK_CACHE_DIR), DISK_CACHE_MAX_BYTES, DISK_SEGMENT_BYTES);
+        } catch (IOException e) {
+            System.err.println("   [CACHE] Disk tier disabled, cannot open " + DISK_CACHE_DIR + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static AdmissionPolicy createAdmissionPolicy() {
+        switch (ADMISSION) {
+            case "all":
+                return AdmissionPolicy.ALL;
+            case "second-request":
+                return new FrequencyAdmission(ADMISSION, 2, 0, ADMISSION_COUNTERS);
+            case "threshold":
+                return new FrequencyAdmission(ADMISSION, Integer.getInteger("proxy.admissionMinRequests", 2),
+                        ObjectSizeLimits.parseSize(System.getProperty("proxy.admissionFreeBytes", "16k")), ADMISSION_COUNTERS);
+            default:
+                try {
+                    return (AdmissionPolicy) Class.forName(ADMISSION).getDeclaredConstructor().newInstance();
+                } catch (ReflectiveOperationException | ClassCastException e) {
+                    System.err.println("   [CACHE] Unknown admission policy " + ADMISSION + ", admitting everything: " + e);
+                    return AdmissionPolicy.ALL;
+                }
+        }
     }
 
     private static class SingletonHelper {
@@ -22,44 +205,945 @@ public class CacheManager {
         return SingletonHelper.INSTANCE;
     }
 
-    public byte[] get(String url) {
+    /**
+     * Cache key for a request: its normalized URL, extended with the values of the request
+     * headers that URL's responses were last seen to vary on
+     * @param requestHeader Value of a request header by name, or null if not sent
+     * @return null if url is not an absolute URL that can be cached
+     */
+    public String keyFor(String url, Function<String, String> requestHeader) {
+        String primary = CacheKey.normalize(url);
+        if (primary == null) return null;
+        List<String> names = varies.get(primary);
+        return names == null ? primary : CacheKey.variant(primary, names, requestHeader);
+    }
+
+    /**
+     * Key to store a response under, given the key its request was looked up with: a variant
+     * key if it has Vary (remembered for later lookups), else the primary key
+     * @param request The request head, or null if unknown
+     * @return null if the response cannot be matched to later requests
+     */
+    String storeKey(String key, HttpHead response, HttpHead request) {
+        String primary = CacheKey.urlOf(key);
+        List<String> names = response == null ? List.of() : CacheKey.varyNames(response);
+        if (names == null || (!names.isEmpty() && request == null)) return null;
+        if (names.isEmpty()) {
+            varies.remove(primary);
+            return primary;
+        }
+        varies.put(primary, names);
+        return CacheKey.variant(primary, names, request::getHeader);
+    }
+
+    private void learnVariants(String key) {
+        List<String> names = CacheKey.namesOf(key);
+        if (!names.isEmpty()) {
+            varies.putIfAbsent(CacheKey.urlOf(key), names);
+        }
+    }
+
+    /**
+     * Look up a cacheable request by its key (keyFor()); every call counts as a hit or a miss.
+     * @return a servable response (fresh, or stale within its grace window while it is refreshed
+     *         in the background; a hit), a stale one the caller should revalidate (a miss), or null
+     */
+    public CachedResponse lookup(String url) {
+        totalRequests.incrementAndGet();
+        admission.recordRequest(CacheKey.urlOf(url));
+        afterRead(url);
         CachedResponse response = cache.get(url);
-        if (response == null)
+        boolean onDisk = false;
+        if (response == null && disk != null) {
+            response = disk.get(url);
+            onDisk = response != null;
+        }
+        if (response == null) {
+            cacheMisses.incrementAndGet();
             return null;
+        }
 
         if (response.isExpired()) {
-            cache.remove(url);
+            if (response.isServable()) {
+                // Stale-while-revalidate: answer now, the refresher asks the origin
+                cacheHits.incrementAndGet();
+                staleHits.incrementAndGet();
+                refresher.schedule(url, response);
+                System.out.println("   [CACHE] STALE HIT (refreshing in background): " + url);
+                return response;
+            }
+            cacheMisses.incrementAndGet();
+            if (response.hasValidators()) {
+                // Kept with its validators: a 304 makes it fresh again without a new download
+                return response;
+            }
+            remove(url, response);
             System.out.println("   [CACHE] Expired and removed: " + url);
             return null;
         }
 
-        System.out.println("   [CACHE] HIT (Serving from cache): " + url);
-        return response.getData();
+        cacheHits.incrementAndGet();
+        if (onDisk) {
+            diskHits.incrementAndGet();
+            if (response.size() < DISK_DIRECT_BYTES) {
+                // Hit again after being evicted: small enough to move back into memory
+                CachedResponse promoted = promote(url, response);
+                if (promoted != null) {
+                    response = promoted;
+                }
+            }
+        }
+        response.recordHit();
+        if (REFRESH_AHEAD_PERCENT > 0 && response.isDueForRefresh(REFRESH_AHEAD_PERCENT, REFRESH_AHEAD_MIN_HITS)) {
+            // Hot entry about to expire: refresh it before any request finds it stale
+            refresher.schedule(url, response);
+        }
+        System.out.println("   [CACHE] HIT (Serving from " + (onDisk ? "disk" : "cache") + "): " + url);
+        return response;
     }
 
-    public void put(String url, byte[] data) {
-        // Chỉ cache GET Request và dữ liệu nhỏ (ví dụ: < 1MB)
-        if (data.length < 1024 * 1024) {
-            cache.put(url, new CachedResponse(data));
-            System.out.println("   [CACHE] Stored: " + url + " (" + data.length + " bytes)");
+    /**
+     * Copy a disk entry into memory and drop it from disk
+     * @return the entry in memory, or null if it stays on disk
+     */
+    private CachedResponse promote(String url, CachedResponse onDisk) {
+        if (!onDisk.retain()) return null;
+        try {
+            StoredBytes bytes = allocate(onDisk.getBuffers());
+            if (bytes == null) return null;
+            CachedResponse promoted = RecordHeader.of(url, onDisk).toResponse(bytes);
+            if (cache.putIfAbsent(url, promoted) != null) {
+                promoted.release();
+                return null;
+            }
+            disk.remove(url, onDisk);
+            trackExpiry(url, promoted);
+            afterWrite(() -> policy.add(url, promoted, promoted.weight(), this::evicted), promoted.weight());
+            return promoted;
+        } finally {
+            onDisk.release();
         }
     }
 
+    /**
+     * Heap copy of a servable response, or null (see lookup)
+     */
+    public byte[] get(String url) {
+        CachedResponse response = lookup(url);
+        if (response == null || !response.isServable() || !response.retain()) {
+            return null;
+        }
+        try {
+            return response.getData();
+        } finally {
+            response.release();
+        }
+    }
+
+    public void put(String url, byte[] data, long ttlMillis) {
+        put(url, data, data.length, ttlMillis);
+    }
+
+    public void put(String url, byte[] data, int length, long ttlMillis) {
+        put(url, new ByteBuffer[] { ByteBuffer.wrap(data, 0, length) }, ttlMillis);
+    }
+
+    /**
+     * Store a complete response, given as consecutive buffers, for ttlMillis (its freshness
+     * lifetime, see FreshnessCalculator). A response that is stale on arrival is only kept if it
+     * can be revalidated, one over its content type's size limit not at all. Compressible
+     * content is stored gzip'd (ContentCoding); a large body is compressed and stored in the
+     * background. The bytes are copied off-heap, or written to the disk tier in the background:
+     * they must not change afterwards.
+     */
+    public void put(String url, ByteBuffer[] data, long ttlMillis) {
+        if (ttlMillis < 0 || data.length == 0) return;
+        long length = lengthOf(data);
+        HttpHead head = parseHead(data[0]);
+        if (length > maxObjectBytes(head)) {
+            tooLarge.incrementAndGet();
+            System.out.println("   [CACHE] Over the size limit, not stored: " + url + " (" + length + " bytes)");
+            return;
+        }
+        boolean hasValidators = head != null && (head.getHeader("ETag") != null || head.getHeader("Last-Modified") != null);
+        if (ttlMillis == 0 && !hasValidators) return;
+
+        long bodyLength = head == null ? 0 : length - head.getLength();
+        if (ContentCoding.isCompressible(head, bodyLength)) {
+            if (bodyLength <= COMPRESS_INLINE_BYTES) {
+                storeCompressed(url, data, head, length, ttlMillis);
+                return;
+            }
+            try {
+                compressor.execute(() -> storeCompressed(url, data, head, length, ttlMillis));
+                return;
+            } catch (RejectedExecutionException e) {
+                // Compressor backed up: store as is
+            }
+        }
+        store(url, data, head, length, ttlMillis);
+    }
+
+    private void storeCompressed(String url, ByteBuffer[] data, HttpHead head, long length, long ttlMillis) {
+        ByteBuffer[] encoded = ContentCoding.compress(data, head.getLength(), length - head.getLength(), CHUNK_BYTES);
+        if (encoded == null) {
+            store(url, data, head, length, ttlMillis); // Does not compress well
+            return;
+        }
+        long encodedLength = lengthOf(encoded);
+        compressed.incrementAndGet();
+        compressionSavedBytes.addAndGet(length - encodedLength);
+        // Validators and grace come from the origin's head, not the rewritten one
+        store(url, encoded, head, encodedLength, ttlMillis);
+    }
+
+    /**
+     * Store a checked (and possibly encoded) response in memory or on disk
+     * @param head The origin's head, for the entry's metadata
+     */
+    private void store(String url, ByteBuffer[] data, HttpHead head, long length, long ttlMillis) {
+        boolean toDisk = disk != null && length >= DISK_DIRECT_BYTES;
+        StoredBytes bytes = toDisk ? null : allocate(data);
+        if (bytes == null) {
+            if (disk != null && disk.put(url, data, head, ttlMillis)) {
+                // Large, or no memory to spare: keep it on disk only
+                CachedResponse previous = cache.remove(url);
+                if (previous != null) {
+                    afterWrite(() -> policy.remove(url, previous));
+                    previous.release();
+                }
+                admitted.incrementAndGet();
+                admittedBytes.addAndGet(length);
+                System.out.println("   [CACHE] Stored on disk: " + url + " (" + length + " bytes, ttl " + ttlMillis / 1000 + "s)");
+                return;
+            }
+            if (toDisk) {
+                bytes = allocate(data); // Larger than a disk segment
+            }
+            if (bytes == null) {
+                System.out.println("   [CACHE] No slab space, not stored: " + url);
+                return;
+            }
+        }
+        CachedResponse response = new CachedResponse(bytes, head, ttlMillis);
+        CachedResponse previous = cache.put(url, response);
+        if (previous != null) {
+            previous.release();
+        }
+        if (disk != null) {
+            disk.remove(url); // Older copy
+        }
+        admitted.incrementAndGet();
+        admittedBytes.addAndGet(length);
+        System.out.println("   [CACHE] Stored: " + url + " (" + length + " bytes, ttl " + ttlMillis / 1000 + "s)");
+        trackExpiry(url, response);
+        afterWrite(() -> policy.add(url, response, response.weight(), this::evicted), response.weight());
+    }
+
+    private static long lengthOf(ByteBuffer[] data) {
+        long length = 0;
+        for (ByteBuffer buffer : data) {
+            length += buffer.remaining();
+        }
+        return length;
+    }
+
+    /**
+     * Copy data into the slabs: one chunk, or a chain of slab-sized chunks for a large response
+     * @return null if the slabs cannot hold it
+     */
+    private StoredBytes allocate(ByteBuffer[] data) {
+        List<StoredBytes> pieces = new ArrayList<>();
+        for (ByteBuffer buffer : data) {
+            for (int start = buffer.position(); start < buffer.limit(); start += CHUNK_BYTES) {
+                ByteBuffer piece = buffer.duplicate().position(start).limit(Math.min(buffer.limit(), start + CHUNK_BYTES));
+                SlabAllocator.Chunk chunk = slabs.allocate(piece);
+                if (chunk == null) {
+                    pieces.forEach(StoredBytes::free);
+                    return null;
+                }
+                pieces.add(chunk);
+            }
+        }
+        if (pieces.isEmpty()) return null;
+        return pieces.size() == 1 ? pieces.get(0) : new ChunkedBytes(pieces.toArray(new StoredBytes[0]));
+    }
+
+    /**
+     * Length of the response head at the start of first, or -1 if it is not all there
+     */
+    static int headEnd(ByteBuffer first) {
+        if (first.hasArray() && first.arrayOffset() == 0 && first.position() == 0) {
+            return HttpHead.findEnd(first.array(), first.limit());
+        }
+        byte[] bytes = new byte[Math.min(first.remaining(), MAX_HEAD_BYTES)];
+        first.duplicate().get(bytes);
+        return HttpHead.findEnd(bytes, bytes.length);
+    }
+
+    private static HttpHead parseHead(ByteBuffer first) {
+        int headEnd = headEnd(first);
+        if (headEnd < 0) return null;
+        byte[] head = new byte[headEnd];
+        first.duplicate().get(head);
+        return HttpHead.parse(head);
+    }
+
+    /**
+     * Largest response that may be stored for this head (by its Content-Type)
+     */
+    public long maxObjectBytes(HttpHead head) {
+        return OBJECT_LIMITS.limitFor(head == null ? null : head.getHeader("Content-Type"));
+    }
+
+    /**
+     * Whether a response for key may be stored, by the admission policy; a new copy of an
+     * entry that is already stored is always let in
+     * @param bytes Announced body length, or -1 if unknown
+     */
+    boolean admit(String key, long bytes) {
+        if (cache.containsKey(key) || (disk != null && disk.get(key) != null)) return true;
+        if (!admission.admit(CacheKey.urlOf(key), bytes)) {
+            notAdmitted.incrementAndGet();
+            return false;
+        }
+        // Counted once stored (store()): a response let in can still break off or not fit
+        return true;
+    }
+
+    /**
+     * A cacheable response for url broke off (client or origin gone) after partial bytes. If
+     * enough of the body arrived, only the rest is fetched, in the background, with a Range
+     * request validated by validator; the whole response is stored when it completes, fresh
+     * for as long as the response completing it says. Takes ownership of partial (not
+     * thread-safe): the caller must not touch it afterwards.
+     */
+    void resume(String url, ChunkedBuffer partial, HttpHead head, String validator) {
+        ByteBuffer first = partial.read(0);
+        int headEnd = first == null ? -1 : headEnd(first);
+        long received = partial.length() - (long) headEnd;
+        if (headEnd < 0 || received < RESUME_MIN_BYTES || received >= head.getContentLength()) return;
+        System.out.println("   [CACHE] Download of " + url + " broke off at " + received + "/" + head.getContentLength()
+                + " bytes, resuming in background");
+        refresher.resume(url, partial, headEnd, head, validator);
+    }
+
+    /**
+     * Answer a Range request from a stored response (see RangeResponse.of())
+     * @return the partial response, or null to send the whole stored response
+     */
+    public RangeResponse rangeResponse(CachedResponse stored, String range, String ifRange, boolean acceptsGzip) {
+        RangeResponse partial = RangeResponse.of(stored, range, ifRange, acceptsGzip);
+        if (partial != null) {
+            rangeHits.incrementAndGet();
+        }
+        return partial;
+    }
+
+    /**
+     * A Range request for url missed and the origin answered it with head: fetch the whole
+     * response in the background, so that later ranges of it are hits. A stored entry that
+     * missed because it is stale is revalidated instead, or refetched if it has no validators.
+     */
+    public void rangeMiss(String url, HttpHead head) {
+        if (!RANGE_FILL || inFlight.containsKey(url)) return;
+        CachedResponse stored = cache.get(url);
+        if (stored == null && disk != null) {
+            stored = disk.get(url);
+        }
+        if (stored != null && stored.isServable()) return;
+        boolean revalidate = stored != null && stored.hasValidators();
+        long total = totalLength(head);
+        if (!revalidate && (total > maxObjectBytes(head) || !admit(url, total))) return;
+        long now = System.currentTimeMillis();
+        Long last = rangeFills.get(url);
+        if (last != null && now - last < RANGE_FILL_RETRY_MS) return;
+        if (rangeFills.size() >= RANGE_FILL_TRACKED) {
+            rangeFills.values().removeIf(started -> now - started >= RANGE_FILL_RETRY_MS);
+        }
+        if (rangeFills.size() >= RANGE_FILL_TRACKED) return;
+        rangeFills.put(url, now);
+        if (revalidate) {
+            System.out.println("   [CACHE] Range miss on stale entry, revalidating " + url + " in background");
+            refresher.schedule(url, stored);
+            return;
+        }
+        System.out.println("   [CACHE] Range miss, filling " + url + " in background");
+        refresher.fill(url);
+    }
+
+    /**
+     * Body length of the whole resource a response is (part of), or -1 if it does not say
+     */
+    private static long totalLength(HttpHead head) {
+        if (head.getStatusCode() != 206) return head.getContentLength();
+        String contentRange = head.getHeader("Content-Range");
+        int slash = contentRange == null ? -1 : contentRange.lastIndexOf('/');
+        try {
+            return slash < 0 ? -1 : Long.parseLong(contentRange.substring(slash + 1).trim());
+        } catch (NumberFormatException e) {
+            return -1; // "*" or garbage
+        }
+    }
+
+    /**
+     * The origin answered notModified (304) to a revalidation of stale: its headers are merged
+     * into the stored head (RFC 9111 4.3.4) and the entry is fresh for the lifetime the merged
+     * head gives, or dropped if it no longer allows storing it. stale is extended in place at
+     * once; the body is then stored again behind the merged head, so later hits and
+     * revalidations use the new Date, Cache-Control and validators.
+     * @param authorized Whether the request carried Authorization (see FreshnessCalculator)
+     */
+    public void revalidated(String url, CachedResponse stale, HttpHead notModified, boolean authorized) {
+        HttpHead storedHead = stale.getHead();
+        HttpHead updated = storedHead == null ? null : HttpHead.parse(updatedHead(storedHead, notModified));
+        long ttlMillis = updated == null ? FreshnessCalculator.NOT_CACHEABLE
+                : FreshnessCalculator.freshnessMillis(updated, authorized, System.currentTimeMillis());
+        if (ttlMillis < 0) {
+            remove(url, stale);
+            System.out.println("   [CACHE] Revalidated but no longer cacheable, removed: " + url);
+            return;
+        }
+        stale.refresh(ttlMillis);
+        revalidations.incrementAndGet();
+        replaceHead(url, stale, storedHead.getLength(), updated, ttlMillis);
+        System.out.println("   [CACHE] Revalidated (304): " + url + " (ttl " + ttlMillis / 1000 + "s)");
+    }
+
+    /**
+     * Stored head with a 304's headers applied. A body the cache gzip'd keeps the coding
+     * headers written for it (Content-Encoding, the weakened ETag, Vary).
+     */
+    static byte[] updatedHead(HttpHead stored, HttpHead notModified) {
+        if (ContentCoding.isGzip(stored)) {
+            notModified = HttpHead.parse(ContentCoding.rewriteHead(notModified.toBytes(),
+                    List.of("Content-Encoding", "ETag", "Vary"), ""));
+        }
+        return stored.updatedWith(notModified).toBytes();
+    }
+
+    /**
+     * Store stale's body again behind head in its place, in whichever tier it is. stale stays
+     * (refreshed) if there is no room for the copy or the entry changed meanwhile.
+     * @param headLength Length of the head stale was stored with
+     */
+    private void replaceHead(String url, CachedResponse stale, int headLength, HttpHead head, long ttlMillis) {
+        if (!stale.retain()) return;
+        try {
+            ByteBuffer[] data = withHead(head.toBytes(), stale.getBuffers(), headLength);
+            if (cache.get(url) == stale) {
+                StoredBytes bytes = allocate(data);
+                if (bytes == null) return;
+                CachedResponse response = new CachedResponse(bytes, head, ttlMillis);
+                if (!cache.replace(url, stale, response)) {
+                    response.release();
+                    return;
+                }
+                stale.release(); // The cache's reference
+                trackExpiry(url, response);
+                afterWrite(() -> policy.add(url, response, response.weight(), this::evicted), response.weight());
+            } else if (disk != null && disk.get(url) == stale) {
+                disk.replace(url, stale, data, head, ttlMillis);
+            }
+        } finally {
+            stale.release();
+        }
+    }
+
+    /**
+     * head followed by the bytes of data after its first skip bytes (views, not copies)
+     */
+    private static ByteBuffer[] withHead(byte[] head, ByteBuffer[] data, int skip) {
+        List<ByteBuffer> buffers = new ArrayList<>(data.length + 1);
+        buffers.add(ByteBuffer.wrap(head));
+        for (ByteBuffer buffer : data) {
+            ByteBuffer view = buffer.duplicate();
+            int dropped = Math.min(skip, view.remaining());
+            view.position(view.position() + dropped);
+            skip -= dropped;
+            if (view.hasRemaining()) {
+                buffers.add(view);
+            }
+        }
+        return buffers.toArray(new ByteBuffer[0]);
+    }
+
+    private void loadSnapshot() {
+        Path file = Paths.get(SNAPSHOT_FILE);
+        long start = System.currentTimeMillis();
+        boolean loaded = false;
+        try {
+            int restored = CacheSnapshot.load(file, this::restore);
+            loaded = true;
+            System.out.println("   [CACHE] Warm restart: " + restored + " entries reloaded from " + file + " in "
+                    + (System.currentTimeMillis() - start) + " ms");
+        } catch (IOException e) {
+            System.err.println("   [CACHE] Could not reload snapshot " + file + ": " + e.getMessage());
+        }
+        synchronized (snapshotLock) {
+            snapshotLoading = false;
+            // Loaded: a crash later on must not bring this old one back. Kept if a shutdown came
+            // first, as that shutdown did not write a new one.
+            if (loaded && !shuttingDown) {
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException e) {
+                    System.err.println("   [CACHE] Could not remove snapshot " + file + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Put a snapshot entry back unless the URL was stored again since startup, in either tier
+     * (an entry lives in one tier at a time, so a disk copy is the newer one)
+     */
+    private boolean restore(RecordHeader header, ByteBuffer data) {
+        if (cache.containsKey(header.key) || (disk != null && disk.get(header.key) != null)) return false;
+        StoredBytes bytes = allocate(new ByteBuffer[] { data });
+        if (bytes == null) return false;
+        CachedResponse response = header.toResponse(bytes);
+        if (cache.putIfAbsent(header.key, response) != null) {
+            response.release();
+            return false;
+        }
+        learnVariants(header.key);
+        trackExpiry(header.key, response);
+        afterWrite(() -> policy.add(header.key, response, response.weight(), this::evicted), response.weight());
+        return true;
+    }
+
+    /**
+     * Start capturing a response for url; see PendingCacheEntry.
+     * The first entry for a URL becomes the in-flight leader that later misses can follow.
+     */
+    public PendingCacheEntry beginEntry(String url) {
+        return beginEntry(url, null);
+    }
+
+    /**
+     * @param request Head of the request, to key a response that varies on its headers
+     */
+    public PendingCacheEntry beginEntry(String url, HttpHead request) {
+        PendingCacheEntry entry = new PendingCacheEntry(this, url, request);
+        inFlight.putIfAbsent(url, entry);
+        return entry;
+    }
+
+    /**
+     * In-flight leader entry for url, or null. A miss that follows a leader is counted as a
+     * collapsed follower instead of a miss, since it causes no origin fetch of its own.
+     */
+    public PendingCacheEntry follow(String url) {
+        PendingCacheEntry leader = inFlight.get(url);
+        if (leader == null || !leader.isOpen()) {
+            return null;
+        }
+        cacheMisses.decrementAndGet();
+        collapsedFollowers.incrementAndGet();
+        return leader;
+    }
+
+    private void afterRead(String url) {
+        long tail = readTail.get();
+        if (tail - readHead < READ_BUFFER_SIZE && readTail.compareAndSet(tail, tail + 1)) {
+            readBuffer.lazySet((int) (tail & (READ_BUFFER_SIZE - 1)), url);
+        }
+        if (tail - readHead >= READ_BUFFER_SIZE / 2) {
+            tryMaintenance();
+        }
+    }
+
+    private void afterWrite(Runnable task) {
+        afterWrite(task, 0);
+    }
+
+    /**
+     * @param bytes size of a store, charged until the policy has taken it in
+     */
+    private void afterWrite(Runnable task, long bytes) {
+        long pending = bytes == 0 ? pendingBytes.get() : pendingBytes.addAndGet(bytes);
+        writeBuffer.add(bytes == 0 ? task : () -> {
+            pendingBytes.addAndGet(-bytes);
+            task.run();
+        });
+        if (pendingWrites.incrementAndGet() >= WRITE_BUFFER_MAX || pending >= WRITE_BUFFER_MAX_BYTES) {
+            // Writers are far ahead of maintenance: wait for the lock so memory stays bounded
+            evictionLock.lock();
+            try {
+                maintenance();
+            } finally {
+                evictionLock.unlock();
+            }
+        } else {
+            tryMaintenance();
+        }
+    }
+
+    private void tryMaintenance() {
+        if (evictionLock.tryLock()) {
+            try {
+                maintenance();
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Replay buffered stores, removals and accesses into the policy (eviction lock held)
+     */
+    private void maintenance() {
+        Runnable task;
+        while ((task = writeBuffer.poll()) != null) {
+            pendingWrites.decrementAndGet();
+            task.run();
+        }
+        long tail = readTail.get();
+        long head = readHead;
+        for (; head < tail; head++) {
+            String url = readBuffer.getAndSet((int) (head & (READ_BUFFER_SIZE - 1)), null);
+            if (url == null) break; // Slot claimed but not written yet: pick it up next time
+            policy.recordAccess(url);
+        }
+        readHead = head;
+        cachedBytes = policy.weightedSize();
+    }
+
+    private void trackExpiry(String url, CachedResponse response) {
+        expiryIndex.add(url, reclaimableAt(response), System.currentTimeMillis());
+    }
+
+    /**
+     * When an entry is no use any more: past its grace, and past the time it is kept for
+     * revalidation if it has validators
+     */
+    private static long reclaimableAt(CachedResponse response) {
+        return response.getExpiresAtMillis() + response.getGraceMillis() + (response.hasValidators() ? KEEP_VALIDATED_MS : 0);
+    }
+
+    private void runExpirySweeper() {
+        while (true) {
+            try {
+                Thread.sleep(EXPIRY_SWEEP_INTERVAL_MS);
+                // A full batch means more are due: keep going, with a short pause between
+                // batches so the sweep never holds up stores and lookups for long
+                while (sweepExpired(System.currentTimeMillis()) == EXPIRY_SWEEP_BATCH) {
+                    Thread.sleep(1);
+                }
+                if (varies.size() > variesPruneAt) {
+                    pruneVariants();
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                System.err.println("   [CACHE] Expiry sweep failed: " + e);
+            }
+        }
+    }
+
+    /**
+     * Reclaim one batch of memory entries that are of no use any more by nowMillis; the
+     * others that come up (refreshed or replaced since they were filed) are filed again
+     * @return entries looked at, EXPIRY_SWEEP_BATCH if more may be due
+     */
+    int sweepExpired(long nowMillis) {
+        List<String> due = expiryIndex.pollDue(nowMillis, EXPIRY_SWEEP_BATCH);
+        int reclaimed = 0;
+        long reclaimedBytes = 0;
+        for (String url : due) {
+            CachedResponse response = cache.get(url);
+            if (response == null) continue; // Gone already (evicted, or moved to disk)
+            long reclaimableAt = reclaimableAt(response);
+            if (reclaimableAt > nowMillis) {
+                expiryIndex.add(url, reclaimableAt, nowMillis);
+                continue;
+            }
+            int size = response.size();
+            if (cache.remove(url, response)) {
+                afterWrite(() -> policy.remove(url, response));
+                if (response.getHits() == 0) {
+                    droppedUnhit.incrementAndGet();
+                }
+                response.release();
+                reclaimed++;
+                reclaimedBytes += size;
+            }
+        }
+        if (reclaimed > 0) {
+            expirySwept.addAndGet(reclaimed);
+            System.out.println("   [CACHE] Expiry sweep reclaimed " + reclaimed + " entries (" + reclaimedBytes / 1024 + " KB)");
+        }
+        return due.size();
+    }
+
+    /**
+     * Forget the Vary names learned for URLs of which no variant is left in either tier (nor
+     * being fetched). Entries leave the tiers in many places, the disk tier's own compaction
+     * included, so this is one pass over the keys rather than bookkeeping on every removal;
+     * doubling the threshold keeps its cost proportional to what was learned meanwhile.
+     * @return URLs forgotten
+     */
+    int pruneVariants() {
+        // Taken before the stored keys; a URL learned while this runs may still lose its names,
+        // which just costs a miss until its next stored response teaches them again
+        List<Map.Entry<String, List<String>>> learned = new ArrayList<>(varies.entrySet());
+        Set<String> stored = new HashSet<>();
+        cache.keySet().forEach(key -> stored.add(CacheKey.urlOf(key)));
+        inFlight.keySet().forEach(key -> stored.add(CacheKey.urlOf(key)));
+        if (disk != null) {
+            disk.keys().forEach(key -> stored.add(CacheKey.urlOf(key)));
+        }
+        int pruned = 0;
+        for (Map.Entry<String, List<String>> entry : learned) {
+            if (!stored.contains(entry.getKey()) && varies.remove(entry.getKey(), entry.getValue())) {
+                pruned++;
+            }
+        }
+        variesPruneAt = Math.max(VARIES_PRUNE_MIN, 2 * varies.size());
+        return pruned;
+    }
+
+    private void evicted(String url, CachedResponse response) {
+        if (cache.remove(url, response)) {
+            if (response.getHits() == 0) {
+                droppedUnhit.incrementAndGet();
+            }
+            // Worth keeping on disk while it can still be served or revalidated
+            boolean demoted = disk != null && (response.isServable() || response.hasValidators())
+                    && disk.store(url, response);
+            System.out.println("   [CACHE] Evicted" + (demoted ? " to disk" : "") + ": " + url + " (" + response.size() + " bytes)");
+            response.release();
+        }
+    }
+
+    /**
+     * Drop url's entry from whichever tier holds it, if it is still response
+     */
+    private void remove(String url, CachedResponse response) {
+        if (cache.remove(url, response)) {
+            afterWrite(() -> policy.remove(url, response));
+            response.release();
+        } else if (disk != null) {
+            disk.remove(url, response);
+        }
+    }
+
+    void entryFinished(PendingCacheEntry entry) {
+        inFlight.remove(entry.getUrl(), entry);
+    }
+
+    void entryAbandoned() {
+        abandonedEntries.incrementAndGet();
+    }
+
      public int getCacheHits() {
-        return cacheHits;
+        return cacheHits.get();
     }
     
     /**
      * Get cache misses count
      */
     public int getCacheMisses() {
-        return cacheMisses;
+        return cacheMisses.get();
     }
     
     /**
-     * Get total requests count
+     * Get total cache lookups (hits + misses)
      */
     public int getTotalRequests() {
-        return totalRequests;
+        return totalRequests.get();
+    }
+
+    /**
+     * Get count of misses served by following another request's in-flight fetch
+     */
+    public int getCollapsedFollowers() {
+        return collapsedFollowers.get();
+    }
+
+    /**
+     * Get count of stale entries the origin confirmed with 304 Not Modified
+     */
+    public int getRevalidations() {
+        return revalidations.get();
+    }
+
+    /**
+     * Get count of hits served stale while the entry was refreshed in the background
+     */
+    public int getStaleHits() {
+        return staleHits.get();
+    }
+
+    /**
+     * Get bytes held by stored responses, as of the last maintenance pass
+     */
+    public long getCachedBytes() {
+        return cachedBytes;
+    }
+
+    /**
+     * Off-heap slabs holding the stored bytes, with utilization and fragmentation figures
+     */
+    public SlabAllocator getSlabAllocator() {
+        return slabs;
+    }
+
+    public long getMaxCacheBytes() {
+        return MAX_CACHE_BYTES;
+    }
+
+    /**
+     * Get count of entries evicted to stay within the byte budget (including rejected newcomers)
+     */
+    public long getEvictions() {
+        evictionLock.lock();
+        try {
+            return policy.evictions();
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Get count of complete responses not stored because of their size limit
+     */
+    public int getTooLarge() {
+        return tooLarge.get();
+    }
+
+    /**
+     * Get count of broken-off downloads completed in the background
+     */
+    public int getResumed() {
+        return refresher.getResumed();
+    }
+
+    /**
+     * Get count of Range requests answered from stored responses
+     */
+    public int getRangeHits() {
+        return rangeHits.get();
+    }
+
+    /**
+     * Get count of whole responses fetched in the background after a range miss
+     */
+    public int getRangeFills() {
+        return refresher.getFilled();
+    }
+
+    /**
+     * Get count of expired entries reclaimed by the background sweeper
+     */
+    public int getExpirySwept() {
+        return expirySwept.get();
+    }
+
+    /**
+     * Admission policy in use, and what it decided
+     */
+    public AdmissionPolicy getAdmissionPolicy() {
+        return admission;
+    }
+
+    void setAdmissionPolicy(AdmissionPolicy admission) {
+        this.admission = admission;
+    }
+
+    /**
+     * Get count of responses the admission policy let in that were stored
+     */
+    public int getAdmitted() {
+        return admitted.get();
+    }
+
+    /**
+     * Get count of responses the admission policy kept out
+     */
+    public int getNotAdmitted() {
+        return notAdmitted.get();
+    }
+
+    /**
+     * Get bytes of the responses admitted, as stored (compressed, head included)
+     */
+    public long getAdmittedBytes() {
+        return admittedBytes.get();
+    }
+
+    /**
+     * Get count of entries evicted or expired without a hit since they were stored (or last
+     * revalidated): admitted for nothing
+     */
+    public int getDroppedUnhit() {
+        return droppedUnhit.get();
+    }
+
+    /**
+     * Get count of responses stored gzip'd
+     */
+    public int getCompressed() {
+        return compressed.get();
+    }
+
+    /**
+     * Get bytes saved by storing responses gzip'd
+     */
+    public long getCompressionSavedBytes() {
+        return compressionSavedBytes.get();
+    }
+
+    /**
+     * Get count of hits served from the disk tier
+     */
+    public int getDiskHits() {
+        return diskHits.get();
+    }
+
+    /**
+     * Disk tier, or null if none is configured
+     */
+    public DiskCache getDiskCache() {
+        return disk;
+    }
+
+    /**
+     * Write the memory tier's snapshot and finish pending disk writes, so the next start is warm
+     */
+    public void shutdown() {
+        boolean loading;
+        synchronized (snapshotLock) {
+            shuttingDown = true;
+            loading = snapshotLoading;
+        }
+        if (loading) {
+            // The memory tier is only part of the old snapshot yet, which is left as it is
+            System.out.println("   [CACHE] Snapshot still loading, " + SNAPSHOT_FILE + " kept as it was");
+        } else if (SNAPSHOT_FILE != null) {
+            long start = System.currentTimeMillis();
+            try {
+                int written = CacheSnapshot.write(Paths.get(SNAPSHOT_FILE), cache);
+                System.out.println("   [CACHE] Snapshot of " + written + " entries written to " + SNAPSHOT_FILE + " in "
+                        + (System.currentTimeMillis() - start) + " ms");
+            } catch (IOException e) {
+                System.err.println("   [CACHE] Could not write snapshot " + SNAPSHOT_FILE + ": " + e.getMessage());
+            }
+        }
+        if (disk != null) {
+            disk.close();
+        }
+    }
+
+    public CacheRefresher getRefresher() {
+        return refresher;
+    }
+
+    /**
+     * Get count of pending entries dropped before commit (aborted, uncacheable or too large)
+     */
+    public int getAbandonedEntries() {
+        return abandonedEntries.get();
     }
 }
\ No newline at end of file
@@ -0,0 +1,357 @@
+package com.proxy.cache;
+
+import com.proxy.core.http.HttpHead;
+import com.proxy.io.ConnectionEstablisher;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Background revalidation for stale-while-revalidate and refresh-ahead.
+ *
+ * A request that finds an entry stale but within its grace window is answered from the cache
+ * right away and the entry is handed to this refresher, which sends a conditional GET to the
+ * origin on one of a few worker threads: 304 extends the entry in place, a cacheable 200
+ * replaces it, anything else leaves it to expire. At most one refresh per URL is queued or
+ * running, and the queue is bounded so a burst of stale hits can never pile up work; a
+ * refresh that does not fit is dropped and the next hit tries again.
+ *
+ * The same workers finish downloads that broke off (resume()): the rest of the body is
+ * requested with Range and If-Range, so the origin sends either exactly the missing bytes of
+ * the same version (206) or the whole current response (200). They also fetch the whole
+ * response after a range miss (fill()), so that later Range requests can be answered from it.
+ */
+public class CacheRefresher {
+
+    private static final int THREADS = Integer.getInteger("proxy.refreshThreads", 2);
+    private static final int QUEUE_SIZE = Integer.getInteger("proxy.refreshQueue", 64);
+    // Longest response head read from the origin
+    private static final int MAX_HEAD_BYTES = 64 * 1024;
+
+    private final CacheManager cacheManager;
+    private final ConnectionEstablisher connectionEstablisher = new ConnectionEstablisher();
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+    private final ThreadPoolExecutor executor;
+
+    private final AtomicInteger scheduled = new AtomicInteger();
+    private final AtomicInteger revalidated = new AtomicInteger();
+    private final AtomicInteger replaced = new AtomicInteger();
+    private final AtomicInteger resumed = new AtomicInteger();
+    private final AtomicInteger filled = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicInteger dropped = new AtomicInteger();
+
+    CacheRefresher(CacheManager cacheManager) {
+        this.cacheManager = cacheManager;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(THREADS, THREADS, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(QUEUE_SIZE), runnable -> {
+                    Thread thread = new Thread(runnable, "cache-refresh-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Queue a background refresh of url unless one is already pending
+     */
+    void schedule(String url, CachedResponse stale) {
+        if (!pending.add(url)) return;
+        if (!stale.retain()) {
+            // Evicted meanwhile: nothing left to refresh
+            pending.remove(url);
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    refresh(url, stale);
+                } finally {
+                    stale.release();
+                    pending.remove(url);
+                }
+            });
+            scheduled.incrementAndGet();
+        } catch (RejectedExecutionException e) {
+            stale.release();
+            pending.remove(url);
+            dropped.incrementAndGet();
+        }
+    }
+
+    /**
+     * Queue fetching the rest of a response whose download broke off after partial bytes, of
+     * which the first headLength are its head (see CacheManager.resume()). partial is owned by
+     * the worker from here on; handing it over through the executor publishes its contents.
+     */
+    void resume(String url, ChunkedBuffer partial, int headLength, HttpHead head, String validator) {
+        if (!pending.add(url)) return;
+        try {
+            executor.execute(() -> {
+                try {
+                    exchange(url, "Range: bytes=" + (partial.length() - headLength) + "-\r\nIf-Range: " + validator + "\r\n",
+                            (in, response, responseBytes) -> finishResume(url, partial, headLength, head, in, response, responseBytes));
+                } finally {
+                    pending.remove(url);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pending.remove(url);
+            dropped.incrementAndGet();
+        }
+    }
+
+    /**
+     * Queue fetching and storing the whole response for url (see CacheManager.rangeMiss())
+     */
+    void fill(String url) {
+        if (!pending.add(url)) return;
+        try {
+            executor.execute(() -> {
+                try {
+                    exchange(url, "", (in, head, headBytes) -> {
+                        if (!store(url, in, head, headBytes)) return false;
+                        filled.incrementAndGet();
+                        return true;
+                    });
+                } finally {
+                    pending.remove(url);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pending.remove(url);
+            dropped.incrementAndGet();
+        }
+    }
+
+    private void refresh(String url, CachedResponse stale) {
+        String conditional = stale.hasValidators()
+                ? new String(stale.conditionalHeaders(), StandardCharsets.ISO_8859_1) : "";
+        exchange(url, conditional, (in, head, headBytes) -> {
+            if (head.getStatusCode() != 304) {
+                if (!store(url, in, head, headBytes)) return false;
+                replaced.incrementAndGet();
+                return true;
+            }
+            cacheManager.revalidated(url, stale, head, false);
+            revalidated.incrementAndGet();
+            return true;
+        });
+    }
+
+    /**
+     * Handles the origin's response to a background request, with the body still unread
+     */
+    private interface ResponseHandler {
+        /**
+         * @return true if the body was consumed and the connection can be reused
+         */
+        boolean handle(InputStream in, HttpHead head, byte[] headBytes) throws IOException;
+    }
+
+    /**
+     * Send GET for a cache key with extra headers (CRLF-terminated lines) and hand the response
+     * to handler
+     */
+    private void exchange(String url, String headers, ResponseHandler handler) {
+        URI uri;
+        try {
+            uri = URI.create(CacheKey.urlOf(url));
+        } catch (IllegalArgumentException e) {
+            failed.incrementAndGet();
+            return;
+        }
+        if (!"http".equalsIgnoreCase(uri.getScheme()) || uri.getHost() == null) {
+            failed.incrementAndGet();
+            return;
+        }
+        String host = uri.getHost();
+        int port = uri.getPort() == -1 ? 80 : uri.getPort();
+        String path = uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath();
+        if (uri.getRawQuery() != null) {
+            path += "?" + uri.getRawQuery();
+        }
+
+        Socket socket = null;
+        boolean reusable = false;
+        try {
+            socket = connectionEstablisher.establishReusable(host, port);
+            OutputStream out = socket.getOutputStream();
+            String hostHeader = uri.getPort() == -1 ? host : host + ":" + port;
+            // A variant is fetched with the request headers it was negotiated for
+            out.write(("GET " + path + " HTTP/1.1\r\nHost: " + hostHeader + "\r\n" + CacheKey.requestHeadersOf(url)
+                    + headers + "\r\n")
+                    .getBytes(StandardCharsets.ISO_8859_1));
+            out.flush();
+
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            byte[] headBytes = readHead(in);
+            if (headBytes == null) {
+                failed.incrementAndGet();
+                return;
+            }
+            HttpHead head = HttpHead.parse(headBytes);
+            reusable = handler.handle(in, head, headBytes) && head.isKeepAlive();
+        } catch (IOException e) {
+            failed.incrementAndGet();
+            System.err.println("   [CACHE] Background fetch failed for " + url + ": " + e.getMessage());
+        } finally {
+            if (socket != null) {
+                if (reusable) {
+                    connectionEstablisher.release(host, port, socket);
+                } else {
+                    try {
+                        socket.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Store a full response if it is cacheable and of known length, under the key its Vary
+     * calls for
+     * @return whether its body was read
+     */
+    private boolean store(String url, InputStream in, HttpHead head, byte[] headBytes) throws IOException {
+        long contentLength = head.getContentLength();
+        long ttlMillis = head.getStatusCode() == 200
+                ? FreshnessCalculator.freshnessMillis(head, false, System.currentTimeMillis())
+                : FreshnessCalculator.NOT_CACHEABLE;
+        String key = storeKey(url, head);
+        if (key == null || !FreshnessCalculator.isStorable(head, ttlMillis) || head.hasToken("Transfer-Encoding", "chunked")
+                || contentLength < 0 || headBytes.length + contentLength > cacheManager.maxObjectBytes(head)) {
+            // Not something we can store; a stale copy simply runs out its grace
+            failed.incrementAndGet();
+            return false;
+        }
+        ChunkedBuffer response = new ChunkedBuffer(CacheManager.CHUNK_BYTES);
+        response.append(headBytes, 0, headBytes.length);
+        if (!readBody(in, response, contentLength)) {
+            failed.incrementAndGet();
+            return false;
+        }
+        cacheManager.put(key, response.buffers(), ttlMillis);
+        return true;
+    }
+
+    /**
+     * Key to store a background response under (CacheManager.storeKey()): the request it
+     * answers carried only the headers replayed from url, so a response that varies on others
+     * is the variant for requests without them
+     * @return null if the response cannot be matched to later requests
+     */
+    private String storeKey(String url, HttpHead head) {
+        HttpHead request = HttpHead.parse(("GET " + CacheKey.urlOf(url) + " HTTP/1.1\r\n"
+                + CacheKey.requestHeadersOf(url) + "\r\n").getBytes(StandardCharsets.ISO_8859_1));
+        return cacheManager.storeKey(url, head, request);
+    }
+
+    private boolean finishResume(String url, ChunkedBuffer partial, int headLength, HttpHead head,
+                                 InputStream in, HttpHead response, byte[] responseBytes) throws IOException {
+        if (response.getStatusCode() == 200) {
+            // The resource changed (If-Range failed) or ranges are not supported
+            if (!store(url, in, response, responseBytes)) return false;
+            replaced.incrementAndGet();
+            return true;
+        }
+        long received = partial.length() - headLength;
+        long total = head.getContentLength();
+        String expected = "bytes " + received + "-" + (total - 1) + "/" + total;
+        if (response.getStatusCode() != 206 || !expected.equals(response.getHeader("Content-Range"))
+                || response.getContentLength() != total - received) {
+            failed.incrementAndGet();
+            return false;
+        }
+        // Fresh from now on as the 206 says, with its headers applied to the stored ones
+        HttpHead updated = head.updatedWith(response);
+        long ttlMillis = FreshnessCalculator.freshnessMillis(updated, false, System.currentTimeMillis());
+        String key = storeKey(url, updated);
+        if (key == null || !FreshnessCalculator.isStorable(head, ttlMillis)) {
+            failed.incrementAndGet();
+            return false;
+        }
+        if (!readBody(in, partial, total - received)) {
+            failed.incrementAndGet();
+            return false;
+        }
+        cacheManager.put(key, partial.buffers(), ttlMillis);
+        resumed.incrementAndGet();
+        System.out.println("   [CACHE] Resumed download of " + url + " completed (" + total + " bytes)");
+        return true;
+    }
+
+    private static boolean readBody(InputStream in, ChunkedBuffer target, long count) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        while (count > 0) {
+            int n = in.read(buffer, 0, (int) Math.min(buffer.length, count));
+            if (n == -1) return false;
+            target.append(buffer, 0, n);
+            count -= n;
+        }
+        return true;
+    }
+
+    /**
+     * Status line and headers up to and including the blank line, or null at end of stream
+     */
+    private static byte[] readHead(InputStream in) throws IOException {
+        ByteArrayOutputStream head = new ByteArrayOutputStream(512);
+        int matched = 0; // progress through the terminating CRLFCRLF
+        int b;
+        while ((b = in.read()) != -1) {
+            head.write(b);
+            matched = (b == (matched % 2 == 0 ? '\r' : '\n')) ? matched + 1 : (b == '\r' ? 1 : 0);
+            if (matched == 4) {
+                return head.toByteArray();
+            }
+            if (head.size() > MAX_HEAD_BYTES) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    public int getScheduled() {
+        return scheduled.get();
+    }
+
+    public int getRevalidated() {
+        return revalidated.get();
+    }
+
+    public int getReplaced() {
+        return replaced.get();
+    }
+
+    public int getResumed() {
+        return resumed.get();
+    }
+
+    public int getFilled() {
+        return filled.get();
+    }
+
+    public int getFailed() {
+        return failed.get();
+    }
+
+    public int getDropped() {
+        return dropped.get();
+    }
+}
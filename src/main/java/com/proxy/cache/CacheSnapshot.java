@@ -0,0 +1,99 @@
+package com.proxy.cache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.function.BiPredicate;
+
+/**
+ * Binary snapshot of the in-memory cache tier, written on shutdown and reloaded on the next
+ * start so a deploy does not begin with an empty cache (warm restart).
+ *
+ * The file is a magic number followed by one record per entry in the disk segment format:
+ * a RecordHeader (key, expiry, validators) and the stored response bytes. Entries of the disk
+ * tier are not repeated, its segment indexes already survive a restart. The snapshot is
+ * written under a temporary name and renamed, so a crash while writing leaves no half file.
+ *
+ * Loading maps the file and hands out each record's bytes as a view of the mapping, so nothing
+ * is read from disk before it is needed and the bytes are copied only once, into the slabs.
+ */
+final class CacheSnapshot {
+
+    private static final int MAGIC = 0x50585331; // "PXS1"
+
+    private CacheSnapshot() {
+    }
+
+    /**
+     * Write every entry that can still be served or revalidated
+     * @return entries written
+     */
+    static int write(Path file, Map<String, CachedResponse> entries) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        long now = System.currentTimeMillis();
+        int written = 0;
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(channel, ByteBuffer.allocate(4).putInt(MAGIC).flip());
+            for (Map.Entry<String, CachedResponse> entry : entries.entrySet()) {
+                CachedResponse response = entry.getValue();
+                if (!response.retain()) continue; // Evicted meanwhile
+                try {
+                    RecordHeader header = RecordHeader.of(entry.getKey(), response);
+                    if (!header.isUsable(now)) continue;
+                    writeFully(channel, ByteBuffer.wrap(header.encode()));
+                    long position = 0;
+                    while (position < response.size()) {
+                        position += response.writeTo(channel, position);
+                    }
+                    written++;
+                } finally {
+                    response.release();
+                }
+            }
+            channel.force(true);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return written;
+    }
+
+    /**
+     * Hand each usable record of file to loader, in the order written. The data buffer is only
+     * valid during the call.
+     * @return records the loader accepted
+     */
+    static int load(Path file, BiPredicate<RecordHeader, ByteBuffer> loader) throws IOException {
+        MappedByteBuffer map;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (map.remaining() < 4 || map.getInt() != MAGIC) {
+            throw new IOException("not a cache snapshot");
+        }
+
+        long now = System.currentTimeMillis();
+        int accepted = 0;
+        while (true) {
+            RecordHeader header = RecordHeader.read(map);
+            if (header == null || header.dataLength > map.remaining()) break;
+            ByteBuffer data = map.slice(map.position(), header.dataLength);
+            map.position(map.position() + header.dataLength);
+            if (header.isUsable(now) && loader.test(header, data)) {
+                accepted++;
+            }
+        }
+        return accepted;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
@@ -1,23 +1,241 @@
 package com.proxy.cache;
 
-import java.time.LocalDateTime;
+import com.proxy.core.http.HttpHead;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A stored response: its bytes live off-heap (a slab chunk, or a disk segment region for the
+ * second tier), this object is the small heap index.
+ *
+ * The bytes are reference counted. The cache holds one reference until the entry is evicted,
+ * removed or replaced; anyone who reads the bytes after the lookup (a client being served, a
+ * background refresh) takes its own with retain() and gives it back with release(), so the
+ * space is never reused while a slow client is still being written from it.
+ */
 public class CachedResponse {
-    private final byte[] data;
-    // Cache hết hạn sau 60 giây (ví dụ)
-    private static final long EXPIRY_SECONDS = 500; 
-    private final LocalDateTime expiryTime;
+    private final StoredBytes chunk;
+    private final AtomicInteger references = new AtomicInteger(1);
+    // Hết hạn theo freshness lifetime của chính response (FreshnessCalculator);
+    // được gia hạn tại chỗ khi origin trả 304
+    private volatile long expiresAtMillis;
+    private volatile long lifetimeMillis;
+    // Validators for conditional revalidation, null if the origin sent none
+    private final String etag;
+    private final String lastModified;
+    // Stale-while-revalidate window after expiry (FreshnessCalculator.staleGraceMillis)
+    private final long graceMillis;
+    // Hits since stored or last refreshed; approximate, only used to spot hot entries
+    private volatile int hits;
+    // Whether the stored bytes are gzip-encoded, read from the head on first use: 0 not yet, 1 yes, 2 no
+    private volatile byte gzipped;
+
+    /**
+     * @param head Head of the stored response, parsed before it was copied off-heap (may be null)
+     */
+    CachedResponse(StoredBytes chunk, HttpHead head, long ttlMillis) {
+        this.chunk = chunk;
+        this.expiresAtMillis = System.currentTimeMillis() + ttlMillis;
+        this.lifetimeMillis = ttlMillis;
+        this.etag = head == null ? null : head.getHeader("ETag");
+        this.lastModified = head == null ? null : head.getHeader("Last-Modified");
+        this.graceMillis = head == null ? 0 : FreshnessCalculator.staleGraceMillis(head);
+    }
+
+    /**
+     * Entry restored or moved with its metadata as it was (disk tier)
+     */
+    CachedResponse(StoredBytes chunk, long expiresAtMillis, long lifetimeMillis, long graceMillis, String etag,
+            String lastModified) {
+        this.chunk = chunk;
+        this.expiresAtMillis = expiresAtMillis;
+        this.lifetimeMillis = lifetimeMillis;
+        this.graceMillis = graceMillis;
+        this.etag = etag;
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * Take a reference before reading the bytes
+     * @return false if the entry was already freed (treat as a miss)
+     */
+    public boolean retain() {
+        while (true) {
+            int count = references.get();
+            if (count == 0) return false;
+            if (references.compareAndSet(count, count + 1)) return true;
+        }
+    }
+
+    /**
+     * Give back a reference; the chunk is freed with the last one
+     */
+    public void release() {
+        if (references.decrementAndGet() == 0) {
+            chunk.free();
+        }
+    }
+
+    /**
+     * Read-only views of the stored bytes in off-heap memory, in order; more than one for a
+     * large response stored in chunks (hold a reference while using them)
+     */
+    public ByteBuffer[] getBuffers() {
+        return chunk.buffers();
+    }
+
+    /**
+     * Write the stored bytes from position on to target without copying them through the heap
+     * (transferTo for disk entries). Hold a reference while calling.
+     * @return bytes written; less than asked if target would block
+     */
+    public long writeTo(WritableByteChannel target, long position) throws IOException {
+        return chunk.transferTo(position, chunk.length() - position, target);
+    }
 
-    public CachedResponse(byte[] data) {
-        this.data = data;
-        this.expiryTime = LocalDateTime.now().plusSeconds(EXPIRY_SECONDS); 
+    /**
+     * Write up to count stored bytes from position on to target, as writeTo(target, position)
+     * @return bytes written; less than asked if target would block
+     */
+    public long writeTo(WritableByteChannel target, long position, long count) throws IOException {
+        return chunk.transferTo(position, count, target);
     }
 
+    /**
+     * Heap copy of the stored bytes (hold a reference while calling)
+     */
     public byte[] getData() {
+        byte[] data = new byte[chunk.length()];
+        chunk.get(0, data, 0, data.length);
         return data;
     }
 
+    public int size() {
+        return chunk.length();
+    }
+
+    /**
+     * Off-heap bytes reserved for the entry, size-class rounding included
+     */
+    int weight() {
+        return chunk.weight();
+    }
+
+    StoredBytes storedBytes() {
+        return chunk;
+    }
+
+    long getLifetimeMillis() {
+        return lifetimeMillis;
+    }
+
+    long getGraceMillis() {
+        return graceMillis;
+    }
+
+    String getEtag() {
+        return etag;
+    }
+
+    String getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * Stored response head, parsed again on every call (only needed on revalidation), or null.
+     * Hold a reference while calling.
+     */
+    public HttpHead getHead() {
+        int length = chunk.length();
+        for (int i = 0; i + 3 < length; i++) {
+            if (chunk.get(i) == '\r' && chunk.get(i + 1) == '\n' && chunk.get(i + 2) == '\r' && chunk.get(i + 3) == '\n') {
+                byte[] head = new byte[i + 4];
+                chunk.get(0, head, 0, head.length);
+                return HttpHead.parse(head);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Whether the stored response is gzip-encoded (ContentCoding), so a client that does not
+     * accept gzip must be served a DecodedResponse. Hold a reference while calling.
+     */
+    public boolean isGzipEncoded() {
+        if (gzipped == 0) {
+            HttpHead head = getHead();
+            gzipped = head != null && ContentCoding.isGzip(head) ? (byte) 1 : (byte) 2;
+        }
+        return gzipped == 1;
+    }
+
+    /**
+     * Wall-clock time the entry stops being fresh
+     */
+    public long getExpiresAtMillis() {
+        return expiresAtMillis;
+    }
+
     public boolean isExpired() {
-        return LocalDateTime.now().isAfter(expiryTime);
+        return System.currentTimeMillis() >= expiresAtMillis;
+    }
+
+    /**
+     * Fresh, or stale but within its stale-while-revalidate grace: can be sent without waiting
+     * for the origin
+     */
+    public boolean isServable() {
+        return System.currentTimeMillis() < expiresAtMillis + graceMillis;
+    }
+
+    /**
+     * Whether a fresh entry is in the last refreshAheadPercent of its lifetime and has had at
+     * least minHits hits, i.e. worth refreshing before it expires
+     */
+    boolean isDueForRefresh(int refreshAheadPercent, int minHits) {
+        long remaining = expiresAtMillis - System.currentTimeMillis();
+        return hits >= minHits && remaining > 0 && remaining * 100 < lifetimeMillis * refreshAheadPercent;
+    }
+
+    void recordHit() {
+        hits++;
+    }
+
+    int getHits() {
+        return hits;
+    }
+
+    /**
+     * Whether a stale copy can be revalidated instead of fetched again
+     */
+    public boolean hasValidators() {
+        return etag != null || lastModified != null;
+    }
+
+    /**
+     * If-None-Match / If-Modified-Since header lines (CRLF-terminated) for revalidating this entry
+     */
+    public byte[] conditionalHeaders() {
+        StringBuilder lines = new StringBuilder();
+        if (etag != null) {
+            lines.append("If-None-Match: ").append(etag).append("\r\n");
+        }
+        if (lastModified != null) {
+            lines.append("If-Modified-Since: ").append(lastModified).append("\r\n");
+        }
+        return lines.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Origin confirmed the stored body (304): fresh again for ttlMillis, body untouched
+     */
+    void refresh(long ttlMillis) {
+        expiresAtMillis = System.currentTimeMillis() + ttlMillis;
+        lifetimeMillis = ttlMillis;
+        hits = 0;
     }
-}
\ No newline at end of file
+}
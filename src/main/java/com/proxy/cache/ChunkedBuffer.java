@@ -0,0 +1,138 @@
+package com.proxy.cache;
+
+import com.proxy.io.RingBuffer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Growing byte capture made of fixed-size heap chunks, so a large response is never copied to
+ * grow and never needs one huge array.
+ *
+ * The first chunk starts small and doubles up to chunkBytes (most responses are small); after
+ * that every chunk is exactly chunkBytes, so chunk i starts at i * chunkBytes. Bytes are never
+ * overwritten once written, which keeps views handed out by read() and buffers() valid.
+ * Not thread-safe; PendingCacheEntry synchronizes.
+ */
+final class ChunkedBuffer {
+
+    private static final int INITIAL_CAPACITY = 8192;
+
+    private final int chunkBytes;
+    private final List<byte[]> chunks = new ArrayList<>();
+    private int length = 0;
+
+    ChunkedBuffer(int chunkBytes) {
+        this.chunkBytes = chunkBytes;
+        chunks.add(new byte[Math.min(INITIAL_CAPACITY, chunkBytes)]);
+    }
+
+    void append(byte[] src, int offset, int count) {
+        while (count > 0) {
+            int n = reserve(count);
+            System.arraycopy(src, offset, last(), length % chunkBytes, n);
+            length += n;
+            offset += n;
+            count -= n;
+        }
+    }
+
+    /**
+     * Append count ring bytes starting at seq, without consuming them from the ring
+     */
+    void append(RingBuffer ring, long seq, int count) {
+        while (count > 0) {
+            int n = reserve(count);
+            ring.copy(seq, last(), length % chunkBytes, n);
+            length += n;
+            seq += n;
+            count -= n;
+        }
+    }
+
+    /**
+     * Make room for up to count bytes in the last chunk
+     * @return how many fit there
+     */
+    private int reserve(int count) {
+        byte[] last = last();
+        int used = length - (chunks.size() - 1) * chunkBytes;
+        if (used == chunkBytes) {
+            chunks.add(new byte[chunkBytes]);
+            return Math.min(count, chunkBytes);
+        }
+        if (used + count > last.length && last.length < chunkBytes) {
+            // Only the first chunk grows; views of the old array keep their (unchanged) bytes
+            last = Arrays.copyOf(last, Math.min(chunkBytes, Math.max(last.length * 2, used + count)));
+            chunks.set(chunks.size() - 1, last);
+        }
+        return Math.min(count, last.length - used);
+    }
+
+    private byte[] last() {
+        return chunks.get(chunks.size() - 1);
+    }
+
+    int length() {
+        return length;
+    }
+
+    /**
+     * Bytes from offset to the end of its chunk, or null if there are none (yet)
+     */
+    ByteBuffer read(int offset) {
+        if (offset >= length) return null;
+        int index = offset / chunkBytes;
+        int end = Math.min(length, (index + 1) * chunkBytes);
+        return ByteBuffer.wrap(chunks.get(index), offset % chunkBytes, end - offset).slice();
+    }
+
+    /**
+     * Views of all captured bytes, one per chunk
+     */
+    ByteBuffer[] buffers() {
+        ByteBuffer[] buffers = new ByteBuffer[(length + chunkBytes - 1) / chunkBytes];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = ByteBuffer.wrap(chunks.get(i), 0, Math.min(chunkBytes, length - i * chunkBytes)).slice();
+        }
+        return buffers;
+    }
+
+    /**
+     * Heap copy of a stored response as a client that does not accept gzip is sent it: decoded
+     * if it is stored gzip'd (hold a reference to it while calling)
+     */
+    static ChunkedBuffer identityCopyOf(CachedResponse stored, int chunkBytes) {
+        DecodedResponse decoded = stored.isGzipEncoded() ? DecodedResponse.open(stored) : null;
+        if (decoded == null) return copyOf(stored, chunkBytes);
+        try {
+            ChunkedBuffer copy = new ChunkedBuffer(chunkBytes);
+            for (ByteBuffer piece = decoded.next(); piece != null; piece = decoded.next()) {
+                copy.append(piece.array(), piece.arrayOffset() + piece.position(), piece.remaining());
+            }
+            return copy;
+        } catch (IOException e) {
+            return copyOf(stored, chunkBytes); // Still a valid (encoded) response
+        } finally {
+            decoded.close();
+        }
+    }
+
+    /**
+     * Heap copy of a stored response in chunks of chunkBytes (hold a reference to it while calling)
+     */
+    static ChunkedBuffer copyOf(CachedResponse stored, int chunkBytes) {
+        ChunkedBuffer copy = new ChunkedBuffer(chunkBytes);
+        for (ByteBuffer buffer : stored.getBuffers()) {
+            while (buffer.hasRemaining()) {
+                int n = copy.reserve(buffer.remaining());
+                buffer.get(copy.last(), copy.length % chunkBytes, n);
+                copy.length += n;
+            }
+        }
+        return copy;
+    }
+}
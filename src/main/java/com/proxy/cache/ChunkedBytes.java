@@ -0,0 +1,95 @@
+package com.proxy.cache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+/**
+ * A large response kept as a sequence of independently allocated pieces (slab chunks), so no
+ * single allocation has to hold it. Pieces are read and freed together.
+ */
+final class ChunkedBytes implements StoredBytes {
+
+    private final StoredBytes[] pieces;
+    // Offset of each piece in the response
+    private final int[] starts;
+    private final int length;
+
+    ChunkedBytes(StoredBytes[] pieces) {
+        this.pieces = pieces;
+        this.starts = new int[pieces.length];
+        int offset = 0;
+        for (int i = 0; i < pieces.length; i++) {
+            starts[i] = offset;
+            offset += pieces[i].length();
+        }
+        this.length = offset;
+    }
+
+    private int pieceAt(int position) {
+        int index = Arrays.binarySearch(starts, position);
+        return index >= 0 ? index : -index - 2;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public int weight() {
+        int weight = 0;
+        for (StoredBytes piece : pieces) {
+            weight += piece.weight();
+        }
+        return weight;
+    }
+
+    @Override
+    public ByteBuffer[] buffers() {
+        ByteBuffer[] buffers = new ByteBuffer[pieces.length];
+        for (int i = 0; i < pieces.length; i++) {
+            buffers[i] = pieces[i].buffers()[0];
+        }
+        return buffers;
+    }
+
+    @Override
+    public byte get(int position) {
+        int index = pieceAt(position);
+        return pieces[index].get(position - starts[index]);
+    }
+
+    @Override
+    public void get(int position, byte[] dst, int offset, int count) {
+        while (count > 0) {
+            int index = pieceAt(position);
+            int n = Math.min(count, starts[index] + pieces[index].length() - position);
+            pieces[index].get(position - starts[index], dst, offset, n);
+            position += n;
+            offset += n;
+            count -= n;
+        }
+    }
+
+    @Override
+    public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+        long written = 0;
+        for (int index = pieceAt((int) position); index < pieces.length && written < count; index++) {
+            long start = Math.max(0, position + written - starts[index]);
+            long wanted = Math.min(count - written, pieces[index].length() - start);
+            long n = pieces[index].transferTo(start, wanted, target);
+            written += n;
+            if (n < wanted) break; // Target is full for now
+        }
+        return written;
+    }
+
+    @Override
+    public void free() {
+        for (StoredBytes piece : pieces) {
+            piece.free();
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.proxy.cache;
+
+import com.proxy.core.http.HttpHead;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Gzip content coding for stored responses.
+ *
+ * Compressible responses (text and similar media types, not already encoded, without
+ * Cache-Control: no-transform) are gzip'd once when the cache is filled and stored that way.
+ * Clients that accept gzip are sent the stored bytes as they are; the others get them
+ * decompressed on the fly (DecodedResponse). The stored head says Content-Encoding: gzip and
+ * Vary: Accept-Encoding, and its ETag is weakened since the bytes are no longer the origin's.
+ */
+public final class ContentCoding {
+
+    // Media types stored compressed (-Dproxy.compressTypes); "major/*" and "+json"/"+xml" suffixes match
+    private static final Set<String> COMPRESSIBLE_TYPES = parseTypes(System.getProperty("proxy.compressTypes",
+            "text/*,application/json,application/javascript,application/x-javascript,application/xml,image/svg+xml"));
+    // Smaller bodies are not worth the gzip framing (-Dproxy.compressMinBytes)
+    private static final int MIN_BYTES = Integer.getInteger("proxy.compressMinBytes", 1024);
+    private static final int LEVEL = Integer.getInteger("proxy.compressLevel", 6);
+    private static final byte[] GZIP_HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+
+    private ContentCoding() {
+    }
+
+    private static Set<String> parseTypes(String spec) {
+        Set<String> types = new HashSet<>();
+        for (String type : spec.split(",")) {
+            if (!type.isBlank()) {
+                types.add(type.trim().toLowerCase(Locale.ROOT));
+            }
+        }
+        return types;
+    }
+
+    /**
+     * Whether a complete stored response should be kept gzip'd
+     * @param bodyLength Bytes after the head
+     */
+    static boolean isCompressible(HttpHead head, long bodyLength) {
+        if (head == null || head.getStatusCode() != 200 || bodyLength < MIN_BYTES) return false;
+        String encoding = head.getHeader("Content-Encoding");
+        if (encoding != null && !encoding.trim().equalsIgnoreCase("identity")) return false;
+        // Only plain Content-Length bodies: a chunked body would be compressed with its framing
+        if (head.getContentLength() != bodyLength || head.getHeader("Transfer-Encoding") != null) return false;
+        if (head.hasToken("Cache-Control", "no-transform")) return false;
+        String contentType = head.getHeader("Content-Type");
+        if (contentType == null) return false;
+        int semicolon = contentType.indexOf(';');
+        String type = (semicolon < 0 ? contentType : contentType.substring(0, semicolon)).trim().toLowerCase(Locale.ROOT);
+        int slash = type.indexOf('/');
+        return COMPRESSIBLE_TYPES.contains(type) || (slash > 0 && COMPRESSIBLE_TYPES.contains(type.substring(0, slash) + "/*"))
+                || type.endsWith("+json") || type.endsWith("+xml");
+    }
+
+    /**
+     * Whether a stored response is gzip-encoded (and nothing else)
+     */
+    public static boolean isGzip(HttpHead head) {
+        String encoding = head.getHeader("Content-Encoding");
+        if (encoding == null) return false;
+        String coding = encoding.trim().toLowerCase(Locale.ROOT);
+        return coding.equals("gzip") || coding.equals("x-gzip");
+    }
+
+    /**
+     * Whether a request's Accept-Encoding value allows gzip (explicitly or through "*")
+     * @param acceptEncoding Header value, or null if not sent
+     */
+    public static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) return false;
+        boolean accepted = false;
+        for (String item : acceptEncoding.split(",")) {
+            String[] parts = item.split(";");
+            String coding = parts[0].trim().toLowerCase(Locale.ROOT);
+            boolean refused = false;
+            for (int i = 1; i < parts.length; i++) {
+                String param = parts[i].trim().toLowerCase(Locale.ROOT);
+                if (param.startsWith("q=")) {
+                    try {
+                        refused = Double.parseDouble(param.substring(2)) <= 0;
+                    } catch (NumberFormatException e) {
+                        refused = true;
+                    }
+                }
+            }
+            if (coding.equals("gzip") || coding.equals("x-gzip")) {
+                return !refused; // An explicit entry wins over "*"
+            }
+            if (coding.equals("*")) {
+                accepted = !refused;
+            }
+        }
+        return accepted;
+    }
+
+    /**
+     * Gzip the body of a complete response, rewriting its head to match
+     * @param headLength Length of the head at the start of response
+     * @return the encoded response, or null if gzip does not save at least an eighth
+     */
+    static ByteBuffer[] compress(ByteBuffer[] response, int headLength, long bodyLength, int chunkBytes) {
+        byte[] head = new byte[headLength];
+        response[0].duplicate().get(head);
+
+        Deflater deflater = new Deflater(LEVEL, true);
+        CRC32 crc = new CRC32();
+        ChunkedBuffer body = new ChunkedBuffer(chunkBytes);
+        byte[] out = new byte[64 * 1024];
+        try {
+            body.append(GZIP_HEADER, 0, GZIP_HEADER.length);
+            long skip = headLength;
+            for (ByteBuffer buffer : response) {
+                ByteBuffer input = buffer.duplicate();
+                int skipped = (int) Math.min(skip, input.remaining());
+                input.position(input.position() + skipped);
+                skip -= skipped;
+                if (!input.hasRemaining()) continue;
+                crc.update(input.duplicate());
+                deflater.setInput(input);
+                while (!deflater.needsInput()) {
+                    body.append(out, 0, deflater.deflate(out));
+                }
+            }
+            deflater.finish();
+            while (!deflater.finished()) {
+                body.append(out, 0, deflater.deflate(out));
+            }
+        } finally {
+            deflater.end();
+        }
+        byte[] trailer = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN)
+                .putInt((int) crc.getValue()).putInt((int) bodyLength).array();
+        body.append(trailer, 0, trailer.length);
+        if (body.length() > bodyLength - bodyLength / 8) return null;
+
+        HttpHead parsed = HttpHead.parse(head);
+        byte[] encodedHead = rewriteHead(head, List.of("Content-Length", "Content-Encoding", "ETag"),
+                "Content-Encoding: gzip\r\nContent-Length: " + body.length() + "\r\n" + weakETagLine(parsed)
+                        + (parsed.hasToken("Vary", "Accept-Encoding") ? "" : "Vary: Accept-Encoding\r\n"));
+        ByteBuffer[] bodyBuffers = body.buffers();
+        ByteBuffer[] encoded = new ByteBuffer[bodyBuffers.length + 1];
+        encoded[0] = ByteBuffer.wrap(encodedHead);
+        System.arraycopy(bodyBuffers, 0, encoded, 1, bodyBuffers.length);
+        return encoded;
+    }
+
+    /**
+     * Head for serving a gzip-stored response decoded
+     */
+    static byte[] identityHead(byte[] head, long identityLength) {
+        return rewriteHead(head, List.of("Content-Length", "Content-Encoding", "ETag"),
+                "Content-Length: " + identityLength + "\r\n" + weakETagLine(HttpHead.parse(head)));
+    }
+
+    private static String weakETagLine(HttpHead head) {
+        String etag = head.getHeader("ETag");
+        if (etag == null) return "";
+        return "ETag: " + (etag.startsWith("W/") ? etag : "W/" + etag) + "\r\n";
+    }
+
+    /**
+     * head without the named headers, with lines (CRLF-terminated) added before the blank line
+     */
+    static byte[] rewriteHead(byte[] head, List<String> drop, String lines) {
+        return rewriteHead(head, null, drop, lines);
+    }
+
+    /**
+     * As rewriteHead(head, drop, lines), with the status (e.g. "206 Partial Content") replaced
+     * unless it is null; the HTTP version is kept
+     */
+    static byte[] rewriteHead(byte[] head, String status, List<String> drop, String lines) {
+        String[] original = new String(head, StandardCharsets.ISO_8859_1).split("\r\n");
+        StringBuilder rewritten = new StringBuilder(head.length + lines.length());
+        for (int i = 0; i < original.length; i++) {
+            String line = original[i];
+            if (line.isEmpty()) continue;
+            int colon = line.indexOf(':');
+            if (i > 0 && colon > 0 && drop.stream().anyMatch(line.substring(0, colon).trim()::equalsIgnoreCase)) continue;
+            if (i == 0 && status != null) {
+                int space = line.indexOf(' ');
+                line = (space < 0 ? line : line.substring(0, space)) + " " + status;
+            }
+            rewritten.append(line).append("\r\n");
+        }
+        return rewritten.append(lines).append("\r\n").toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+}
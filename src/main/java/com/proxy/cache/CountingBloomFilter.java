@@ -0,0 +1,95 @@
+package com.proxy.cache;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Compact approximate request counts for cache admission: a counting Bloom filter of 4-bit
+ * counters.
+ *
+ * A key maps to four counters; adding it bumps each of them (up to 15) and its count is the
+ * smallest, so collisions can only make a key look more popular, never less. Once sampleSize
+ * keys have been added every counter is halved, so counts fade and the filter never fills up
+ * with old traffic. Sixteen counters are packed into each long (like FrequencySketch), but
+ * updated with compare-and-set, since every reactor thread records its requests here without a
+ * lock; a halving racing an add may lose that one add, which admission can live with.
+ */
+final class CountingBloomFilter {
+
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final int[] SEEDS = { 0x8ebc6af1, 0x6c8e9cf5, 0x2545f491, 0x4f1bbcdd };
+
+    private final AtomicLongArray table;
+    private final int mask;
+    private final int sampleSize;
+    private final AtomicInteger additions = new AtomicInteger();
+
+    /**
+     * @param counters Number of counters (rounded up to a multiple of 16 that is a power of two)
+     */
+    CountingBloomFilter(int counters) {
+        int words = Integer.highestOneBit(Math.max(64, counters / 16) - 1) << 1;
+        this.table = new AtomicLongArray(words);
+        this.mask = words - 1;
+        this.sampleSize = 10 * words;
+    }
+
+    /**
+     * Count key once more
+     * @return its count afterwards, saturating at 15
+     */
+    int add(Object key) {
+        int hash = spread(key.hashCode());
+        int count = 15;
+        for (int row = 0; row < 4; row++) {
+            int h = rehash(hash, row);
+            int index = h & mask;
+            int shift = counterShift(h);
+            while (true) {
+                long word = table.get(index);
+                int counter = (int) ((word >>> shift) & 0xf);
+                if (counter == 15 || table.compareAndSet(index, word, word + (1L << shift))) {
+                    count = Math.min(count, Math.min(15, counter + 1));
+                    break;
+                }
+            }
+        }
+        if (additions.incrementAndGet() % sampleSize == 0) {
+            halve();
+        }
+        return count;
+    }
+
+    int count(Object key) {
+        int hash = spread(key.hashCode());
+        int count = 15;
+        for (int row = 0; row < 4; row++) {
+            int h = rehash(hash, row);
+            count = Math.min(count, (int) ((table.get(h & mask) >>> counterShift(h)) & 0xf));
+        }
+        return count;
+    }
+
+    /**
+     * Halve every counter (aging)
+     */
+    private void halve() {
+        for (int i = 0; i < table.length(); i++) {
+            table.updateAndGet(i, word -> (word >>> 1) & RESET_MASK);
+        }
+    }
+
+    private static int counterShift(int h) {
+        return (h >>> 28) << 2; // One of the 16 nibbles of the long
+    }
+
+    private static int rehash(int hash, int row) {
+        int h = (hash + SEEDS[row]) * 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+
+    private static int spread(int hash) {
+        hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+        return (hash >>> 16) ^ hash;
+    }
+}
@@ -0,0 +1,163 @@
+package com.proxy.cache;
+
+import com.proxy.core.http.HttpHead;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * A gzip-stored response served decoded, for a client that does not accept gzip: the head
+ * rewritten for the identity body, then the body inflated piece by piece straight from the
+ * stored bytes, so a large response is never decompressed in full.
+ *
+ * The identity length for Content-Length comes from the gzip trailer; a body that turns out
+ * not to match it (or its CRC) fails with an IOException, and the caller must close the
+ * connection. Only single-member gzip bodies are decoded. Hold a reference to the stored
+ * response until close().
+ */
+public final class DecodedResponse {
+
+    private static final int FHCRC = 2, FEXTRA = 4, FNAME = 8, FCOMMENT = 16;
+
+    private final ByteBuffer[] input;
+    private final int headLength;
+    private final long identityLength;
+    private final int expectedCrc;
+    private final Inflater inflater = new Inflater(true);
+    private final CRC32 crc = new CRC32();
+    private final byte[] out = new byte[64 * 1024];
+    private ByteBuffer head;
+    private int nextInput = 0;
+    private long produced = 0;
+
+    private DecodedResponse(byte[] identityHead, ByteBuffer[] input, long identityLength, int expectedCrc) {
+        this.head = ByteBuffer.wrap(identityHead);
+        this.headLength = identityHead.length;
+        this.input = input;
+        this.identityLength = identityLength;
+        this.expectedCrc = expectedCrc;
+    }
+
+    /**
+     * @return a decoder for a gzip-encoded stored response, or null if it is not one that can
+     *         be decoded (serve it as stored)
+     */
+    public static DecodedResponse open(CachedResponse response) {
+        HttpHead head = response.getHead();
+        if (head == null || !ContentCoding.isGzip(head)) return null;
+        StoredBytes stored = response.storedBytes();
+        int bodyStart = head.getLength();
+        int end = stored.length();
+        if (head.getContentLength() != end - bodyStart || end - bodyStart < 18) return null;
+
+        int deflateStart = skipGzipHeader(stored, bodyStart, end - 8);
+        if (deflateStart < 0) return null;
+        int expectedCrc = littleEndianInt(stored, end - 8);
+        long identityLength = littleEndianInt(stored, end - 4) & 0xffffffffL;
+
+        byte[] headBytes = new byte[bodyStart];
+        stored.get(0, headBytes, 0, bodyStart);
+        return new DecodedResponse(ContentCoding.identityHead(headBytes, identityLength),
+                slices(stored.buffers(), deflateStart, end - 8), identityLength, expectedCrc);
+    }
+
+    /**
+     * @return start of the deflate data after a gzip member header at start, or -1
+     */
+    private static int skipGzipHeader(StoredBytes stored, int start, int limit) {
+        if (stored.get(start) != 0x1f || stored.get(start + 1) != (byte) 0x8b || stored.get(start + 2) != 8) return -1;
+        int flags = stored.get(start + 3);
+        int position = start + 10;
+        if ((flags & FEXTRA) != 0) {
+            if (position + 2 > limit) return -1;
+            position += 2 + ((stored.get(position) & 0xff) | (stored.get(position + 1) & 0xff) << 8);
+        }
+        for (int field : new int[] { FNAME, FCOMMENT }) {
+            if ((flags & field) != 0) {
+                while (position < limit && stored.get(position) != 0) {
+                    position++;
+                }
+                position++;
+            }
+        }
+        if ((flags & FHCRC) != 0) {
+            position += 2;
+        }
+        return position <= limit ? position : -1;
+    }
+
+    private static int littleEndianInt(StoredBytes stored, int position) {
+        return (stored.get(position) & 0xff) | (stored.get(position + 1) & 0xff) << 8
+                | (stored.get(position + 2) & 0xff) << 16 | (stored.get(position + 3) & 0xff) << 24;
+    }
+
+    /**
+     * The parts of buffers (consecutive, starting at 0) covering [from, to)
+     */
+    private static ByteBuffer[] slices(ByteBuffer[] buffers, long from, long to) {
+        ByteBuffer[] slices = new ByteBuffer[buffers.length];
+        long start = 0;
+        for (int i = 0; i < buffers.length; i++) {
+            ByteBuffer buffer = buffers[i].duplicate();
+            int length = buffer.remaining();
+            int base = buffer.position();
+            int sliceStart = (int) Math.max(0, Math.min(length, from - start));
+            int sliceEnd = (int) Math.max(0, Math.min(length, to - start));
+            slices[i] = buffer.limit(base + sliceEnd).position(base + sliceStart).slice();
+            start += length;
+        }
+        return slices;
+    }
+
+    /**
+     * Length of the decoded response, head included
+     */
+    public long size() {
+        return headLength + identityLength;
+    }
+
+    /**
+     * Next piece of the decoded response, valid until the following call; null at the end
+     * @throws IOException if the stored body is corrupt or does not match its trailer
+     */
+    public ByteBuffer next() throws IOException {
+        if (head != null) {
+            ByteBuffer first = head;
+            head = null;
+            return first;
+        }
+        try {
+            while (!inflater.finished()) {
+                if (inflater.needsInput()) {
+                    if (nextInput == input.length) throw new IOException("truncated gzip body");
+                    inflater.setInput(input[nextInput++]);
+                    continue;
+                }
+                if (inflater.needsDictionary()) throw new IOException("gzip body needs a dictionary");
+                int n = inflater.inflate(out);
+                if (n > 0) {
+                    crc.update(out, 0, n);
+                    produced += n;
+                    if (produced > identityLength) throw new IOException("gzip body longer than its trailer says");
+                    return ByteBuffer.wrap(out, 0, n);
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("corrupt gzip body: " + e.getMessage());
+        }
+        if (produced != identityLength || (int) crc.getValue() != expectedCrc) {
+            throw new IOException("gzip body does not match its trailer");
+        }
+        return null;
+    }
+
+    /**
+     * Free the inflater; the stored response can be released afterwards
+     */
+    public void close() {
+        inflater.end();
+    }
+}
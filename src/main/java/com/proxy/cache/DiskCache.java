@@ -0,0 +1,703 @@
+package com.proxy.cache;
+
+import com.proxy.core.http.HttpHead;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Second cache tier: responses evicted from memory, or too large to be worth memory, kept in
+ * append-only segment files on local disk.
+ *
+ * - Segments: segment-N.dat files of at most segmentBytes, memory-mapped. Records are only
+ *   ever appended to the newest (active) segment; a full one is sealed and never written again.
+ * - Index: url -> CachedResponse in memory, whose bytes are a region of a segment. Serving
+ *   uses FileChannel.transferTo, so the body goes from page cache to socket without passing
+ *   through the heap.
+ * - Restart: sealing a segment writes its record headers to segment-N.idx, so opening the
+ *   cache reads those small files instead of the segments. Only a segment that was still
+ *   active (no .idx) is scanned, and it is bounded by segmentBytes. Removals and refreshed
+ *   expiries only exist in the in-memory index, so close() also writes the index as it is
+ *   (live.idx); a clean restart takes the entries from there. After a crash the segment
+ *   records are replayed instead, and entries removed since they were written can come back.
+ * - Compaction: replacing or dropping an entry only leaves dead bytes behind. Segments that
+ *   are mostly dead have their live records copied into the active segment and are deleted;
+ *   past maxBytes the oldest segment is dropped whole.
+ *
+ * All file writes happen on one background writer thread with a bounded queue, so the
+ * callers (the eviction path, reactor threads) never wait for the disk; a write that does not
+ * fit the queue is dropped. Lookups only read the index.
+ */
+public class DiskCache {
+
+    private static final int INDEX_MAGIC = 0x50584931;  // "PXI1"
+    private static final int LIVE_INDEX_MAGIC = 0x50584c31;  // "PXL1"
+    private static final int WRITE_QUEUE = Integer.getInteger("proxy.diskWriteQueue", 256);
+    // Segments with less than this share of live bytes get compacted
+    private static final double COMPACT_LIVE_RATIO = 0.5;
+    private static final Pattern SEGMENT_NAME = Pattern.compile("segment-(\\d+)\\.dat");
+
+    private final class Segment {
+        final int id;
+        final FileChannel channel;
+        final MappedByteBuffer map;
+        int size;                 // Bytes of complete records
+        volatile boolean deleted;
+        final AtomicLong liveBytes = new AtomicLong();
+        // The entries whose records are in this segment, so compaction never walks the whole index
+        final Map<String, CachedResponse> entries = new ConcurrentHashMap<>();
+        // The segment list holds one reference, every region in use one more
+        final AtomicInteger references = new AtomicInteger(1);
+        // Offset + header of every record appended, becomes the .idx file when sealed
+        ByteArrayOutputStream pendingIndex;
+
+        Segment(int id, FileChannel channel, MappedByteBuffer map) {
+            this.id = id;
+            this.channel = channel;
+            this.map = map;
+        }
+
+        void recordIndex(int offset, byte[] header) {
+            pendingIndex.write(offset >>> 24);
+            pendingIndex.write(offset >>> 16);
+            pendingIndex.write(offset >>> 8);
+            pendingIndex.write(offset);
+            pendingIndex.writeBytes(header);
+        }
+
+        void release() {
+            if (references.decrementAndGet() != 0) return;
+            try {
+                channel.close();
+                if (deleted) {
+                    Files.deleteIfExists(segmentPath(id));
+                    Files.deleteIfExists(indexPath(id));
+                }
+            } catch (IOException e) {
+                System.err.println("   [DISK CACHE] Could not remove segment " + id + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * The data bytes of one record
+     */
+    private static final class Region implements StoredBytes {
+        final Segment segment;
+        final int offset;
+        final int length;
+        final int recordBytes;
+
+        Region(Segment segment, int offset, int length, int recordBytes) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.recordBytes = recordBytes;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public int weight() {
+            return recordBytes;
+        }
+
+        @Override
+        public ByteBuffer[] buffers() {
+            return new ByteBuffer[] {
+                    segment.map.duplicate().position(offset).limit(offset + length).slice().asReadOnlyBuffer() };
+        }
+
+        @Override
+        public byte get(int position) {
+            return segment.map.get(offset + position);
+        }
+
+        @Override
+        public void get(int position, byte[] dst, int dstOffset, int count) {
+            segment.map.get(offset + position, dst, dstOffset, count);
+        }
+
+        @Override
+        public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+            return segment.channel.transferTo(offset + position, count, target);
+        }
+
+        @Override
+        public void free() {
+            segment.release();
+        }
+    }
+
+    private final Path directory;
+    private final long maxBytes;
+    private final int segmentBytes;
+    private final Map<String, CachedResponse> index = new ConcurrentHashMap<>();
+    private final NavigableMap<Integer, Segment> segments = new ConcurrentSkipListMap<>();
+    private final ThreadPoolExecutor writer;
+
+    // Owned by the writer thread once open
+    private Segment active;
+    private int nextSegmentId = 0;
+    private volatile long diskBytes = 0;
+
+    private final AtomicLong writes = new AtomicLong();
+    private final AtomicLong droppedWrites = new AtomicLong();
+    private final AtomicLong compactions = new AtomicLong();
+    private final AtomicLong droppedSegments = new AtomicLong();
+
+    /**
+     * Open (or create) the cache in directory, restoring the index of what is already there
+     * @param maxBytes     Disk space the segments may take
+     * @param segmentBytes Size of one segment file, also bounds the largest record
+     */
+    public DiskCache(Path directory, long maxBytes, int segmentBytes) throws IOException {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.segmentBytes = segmentBytes;
+        Files.createDirectories(directory);
+        recover();
+        this.writer = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, new ArrayBlockingQueue<>(WRITE_QUEUE),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "disk-cache-writer");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    /**
+     * Entry for url, or null; its bytes are a segment region (see CachedResponse.writeTo)
+     */
+    public CachedResponse get(String url) {
+        return index.get(url);
+    }
+
+    /**
+     * Queue a copy of an entry leaving memory. The entry is retained until it has been written.
+     * @return false if it could not be queued
+     */
+    public boolean store(String url, CachedResponse response) {
+        if (response.size() > maxRecordData(url) || !response.retain()) return false;
+        boolean queued = submit(() -> {
+            try {
+                append(RecordHeader.of(url, response), response.getBuffers());
+            } finally {
+                response.release();
+            }
+        });
+        if (!queued) response.release();
+        return queued;
+    }
+
+    /**
+     * Queue a complete response for storage, given as consecutive buffers whose bytes must not
+     * change afterwards
+     * @param head Its parsed head (may be null)
+     * @return false if it could not be queued (or is larger than a segment)
+     */
+    public boolean put(String url, ByteBuffer[] data, HttpHead head, long ttlMillis) {
+        RecordHeader header = recordHeader(url, data, head, ttlMillis);
+        if (header == null) return false;
+        return submit(() -> append(header, data));
+    }
+
+    /**
+     * Queue a new copy of url's entry response, given as data (views of the entry's bytes may be
+     * among them), to take its place. The entry is retained until the copy has been written; the
+     * copy is dropped if url's entry has changed by then.
+     * @param head The copy's parsed head
+     * @return false if it could not be queued
+     */
+    public boolean replace(String url, CachedResponse response, ByteBuffer[] data, HttpHead head, long ttlMillis) {
+        RecordHeader header = recordHeader(url, data, head, ttlMillis);
+        if (header == null || !response.retain()) return false;
+        boolean queued = submit(() -> {
+            try {
+                if (index.get(url) == response) {
+                    append(header, data);
+                }
+            } finally {
+                response.release();
+            }
+        });
+        if (!queued) response.release();
+        return queued;
+    }
+
+    /**
+     * @return null if data is larger than a segment can hold
+     */
+    private RecordHeader recordHeader(String url, ByteBuffer[] data, HttpHead head, long ttlMillis) {
+        long length = 0;
+        for (ByteBuffer buffer : data) {
+            length += buffer.remaining();
+        }
+        if (length > maxRecordData(url)) return null;
+        long expiresAtMillis = System.currentTimeMillis() + ttlMillis;
+        long graceMillis = head == null ? 0 : FreshnessCalculator.staleGraceMillis(head);
+        String etag = head == null ? null : head.getHeader("ETag");
+        String lastModified = head == null ? null : head.getHeader("Last-Modified");
+        return new RecordHeader(url, (int) length, expiresAtMillis, ttlMillis, graceMillis, etag, lastModified);
+    }
+
+    /**
+     * Forget url's entry, whatever it is
+     */
+    public void remove(String url) {
+        CachedResponse previous = index.remove(url);
+        if (previous != null) {
+            discard(url, previous);
+        }
+    }
+
+    /**
+     * Forget url's entry if it is still response
+     */
+    public void remove(String url, CachedResponse response) {
+        if (index.remove(url, response)) {
+            discard(url, response);
+        }
+    }
+
+    /**
+     * Finish queued writes and seal the active segment, so the next open reads its index
+     * instead of scanning it
+     */
+    public void close() {
+        writer.shutdown();
+        try {
+            if (!writer.awaitTermination(10, TimeUnit.SECONDS)) {
+                System.err.println("   [DISK CACHE] Writer did not finish, active segment will be scanned on restart");
+                return;
+            }
+            if (active != null) {
+                seal(active);
+                active = null;
+            }
+            writeLiveIndex();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            System.err.println("   [DISK CACHE] Could not seal segment: " + e.getMessage());
+        }
+    }
+
+    private boolean submit(IoTask task) {
+        try {
+            writer.execute(() -> {
+                try {
+                    task.run();
+                } catch (IOException e) {
+                    System.err.println("   [DISK CACHE] Write failed: " + e.getMessage());
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            droppedWrites.incrementAndGet();
+            return false;
+        }
+    }
+
+    private interface IoTask {
+        void run() throws IOException;
+    }
+
+    private int maxRecordData(String url) {
+        return segmentBytes - RecordHeader.FIXED_BYTES - 4 * url.length() - 1024;
+    }
+
+    // ---- Writer thread ----
+
+    /**
+     * Append a record to the active segment and make it url's entry
+     */
+    private void append(RecordHeader header, ByteBuffer[] data) throws IOException {
+        byte[] headerBytes = header.encode();
+        boolean rolled = false;
+        if (active == null || active.size + headerBytes.length + header.dataLength > segmentBytes) {
+            roll();
+            rolled = true;
+        }
+        CachedResponse response = write(header, headerBytes, data);
+        CachedResponse previous = index.put(header.key, response);
+        if (previous != null) {
+            discard(header.key, previous);
+        }
+        writes.incrementAndGet();
+        if (rolled) {
+            compact();
+        }
+    }
+
+    /**
+     * Write a record at the end of the active segment, which must have room for it
+     * @return an entry for it, not yet in the index
+     */
+    private CachedResponse write(RecordHeader header, byte[] headerBytes, ByteBuffer[] data) {
+        Segment segment = active;
+        int offset = segment.size;
+        int recordBytes = headerBytes.length + header.dataLength;
+        // Data first, header (with its magic) last: a crash mid-write leaves no valid record
+        int position = offset + headerBytes.length;
+        for (ByteBuffer buffer : data) {
+            segment.map.put(position, buffer, buffer.position(), buffer.remaining());
+            position += buffer.remaining();
+        }
+        segment.map.put(offset, headerBytes);
+        segment.size += recordBytes;
+        segment.recordIndex(offset, headerBytes);
+        diskBytes += recordBytes;
+        return entry(segment, offset, headerBytes.length, header);
+    }
+
+    private CachedResponse entry(Segment segment, int offset, int headerBytes, RecordHeader header) {
+        int recordBytes = headerBytes + header.dataLength;
+        segment.references.incrementAndGet();
+        segment.liveBytes.addAndGet(recordBytes);
+        Region region = new Region(segment, offset + headerBytes, header.dataLength, recordBytes);
+        CachedResponse response = header.toResponse(region);
+        segment.entries.put(header.key, response);
+        return response;
+    }
+
+    private void discard(String key, CachedResponse response) {
+        Region region = (Region) response.storedBytes();
+        region.segment.liveBytes.addAndGet(-region.recordBytes);
+        region.segment.entries.remove(key, response);
+        response.release();
+    }
+
+    /**
+     * Seal the active segment and start a new one, then keep the disk within budget
+     */
+    private void roll() throws IOException {
+        if (active != null) {
+            seal(active);
+        }
+        int id = nextSegmentId++;
+        FileChannel channel = FileChannel.open(segmentPath(id), StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        Segment segment = new Segment(id, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes));
+        segment.pendingIndex = new ByteArrayOutputStream();
+        segments.put(id, segment);
+        active = segment;
+
+        while (diskBytes > maxBytes && segments.size() > 1) {
+            Segment oldest = segments.firstEntry().getValue();
+            dropSegment(oldest);
+            droppedSegments.incrementAndGet();
+            System.out.println("   [DISK CACHE] Dropped segment " + oldest.id + " to stay within "
+                    + maxBytes / (1024 * 1024) + " MB");
+        }
+    }
+
+    /**
+     * Flush a segment and write its .idx. The file keeps its mapped length: truncating a file
+     * that is still mapped fails on Windows and can SIGBUS readers elsewhere, so the size of
+     * its records is only recorded in the .idx (the unwritten tail stays sparse).
+     */
+    private void seal(Segment segment) throws IOException {
+        segment.map.force();
+        writeIndex(segment);
+        segment.pendingIndex = null;
+    }
+
+    private void writeIndex(Segment segment) throws IOException {
+        Path temp = directory.resolve("segment-" + segment.id + ".idx.tmp");
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(temp))) {
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(segment.size);
+            segment.pendingIndex.writeTo(out);
+        }
+        Files.move(temp, indexPath(segment.id), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Write where every current entry's record is, with its metadata as it is now
+     * (segment id, record offset, header length on disk, then the current header)
+     */
+    private void writeLiveIndex() throws IOException {
+        Path temp = directory.resolve("live.idx.tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(LIVE_INDEX_MAGIC);
+            for (Map.Entry<String, CachedResponse> entry : index.entrySet()) {
+                Region region = (Region) entry.getValue().storedBytes();
+                int headerBytes = region.recordBytes - region.length;
+                out.writeInt(region.segment.id);
+                out.writeInt(region.offset - headerBytes);
+                out.writeInt(headerBytes);
+                out.write(RecordHeader.of(entry.getKey(), entry.getValue()).encode());
+            }
+        }
+        Files.move(temp, liveIndexPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Move the live records of mostly dead sealed segments into the active one
+     */
+    private void compact() throws IOException {
+        for (Segment segment : new ArrayList<>(segments.values())) {
+            if (segment == active || segment.liveBytes.get() >= segmentBytes * COMPACT_LIVE_RATIO) continue;
+            // Don't compact into a roll: the live bytes must fit what is left of the active segment
+            if (active.size + segment.liveBytes.get() > segmentBytes) return;
+
+            int moved = 0;
+            for (Map.Entry<String, CachedResponse> entry : segment.entries.entrySet()) {
+                CachedResponse response = entry.getValue();
+                if (!response.retain()) continue;
+                try {
+                    if (!response.isServable() && !response.hasValidators()) {
+                        remove(entry.getKey(), response); // Expired for good, not worth moving
+                        continue;
+                    }
+                    RecordHeader header = RecordHeader.of(entry.getKey(), response);
+                    CachedResponse relocated = write(header, header.encode(), response.getBuffers());
+                    // Only takes over if nobody replaced or removed the entry meanwhile
+                    if (index.replace(entry.getKey(), response, relocated)) {
+                        discard(entry.getKey(), response);
+                        moved++;
+                    } else {
+                        discard(entry.getKey(), relocated);
+                    }
+                } finally {
+                    response.release();
+                }
+            }
+            dropSegment(segment);
+            compactions.incrementAndGet();
+            System.out.println("   [DISK CACHE] Compacted segment " + segment.id + " (" + moved + " entries moved)");
+        }
+    }
+
+    /**
+     * Delete a segment; entries still in it are forgotten. Files go once the last reader is done.
+     */
+    private void dropSegment(Segment segment) {
+        for (Map.Entry<String, CachedResponse> entry : segment.entries.entrySet()) {
+            remove(entry.getKey(), entry.getValue());
+        }
+        segments.remove(segment.id);
+        diskBytes -= segment.size;
+        segment.deleted = true;
+        segment.release();
+    }
+
+    // ---- Opening ----
+
+    private void recover() throws IOException {
+        List<Integer> ids = new ArrayList<>();
+        try (var files = Files.newDirectoryStream(directory, "segment-*.dat")) {
+            for (Path file : files) {
+                Matcher matcher = SEGMENT_NAME.matcher(file.getFileName().toString());
+                if (matcher.matches()) ids.add(Integer.parseInt(matcher.group(1)));
+            }
+        }
+        ids.sort(null);
+
+        // Written by the last clean close, and only good until something changes
+        ByteBuffer live = Files.exists(liveIndexPath()) ? ByteBuffer.wrap(Files.readAllBytes(liveIndexPath())) : null;
+        Files.deleteIfExists(liveIndexPath());
+        if (live != null && (live.remaining() < 4 || live.getInt() != LIVE_INDEX_MAGIC)) {
+            live = null;
+        }
+
+        int restored = 0;
+        int scanned = 0;
+        for (int id : ids) {
+            FileChannel channel = FileChannel.open(segmentPath(id), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            Segment segment = new Segment(id, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size()));
+            segments.put(id, segment);
+            nextSegmentId = id + 1;
+            if (!loadIndex(segment, live == null)) {
+                // Was still being written to: find its records and seal it now
+                scan(segment, live == null);
+                seal(segment);
+                scanned++;
+            }
+            diskBytes += segment.size;
+            restored++;
+        }
+        if (live != null) {
+            loadLiveIndex(live);
+        }
+        if (restored > 0) {
+            System.out.println("   [DISK CACHE] Opened " + directory + ": " + index.size() + " entries in " + restored
+                    + " segments (" + scanned + " scanned)");
+        }
+    }
+
+    /**
+     * Restore the entries listed in the index written by close()
+     */
+    private void loadLiveIndex(ByteBuffer buffer) {
+        while (buffer.remaining() >= 12) {
+            Segment segment = segments.get(buffer.getInt());
+            int offset = buffer.getInt();
+            int headerBytes = buffer.getInt();
+            RecordHeader header = RecordHeader.read(buffer);
+            if (header == null) break;
+            if (segment != null && offset >= 0 && headerBytes > 0
+                    && (long) offset + headerBytes + header.dataLength <= segment.size) {
+                restore(segment, offset, headerBytes, header);
+            }
+        }
+    }
+
+    /**
+     * Read a sealed segment's .idx: its size, and its records' entries if restoreEntries
+     */
+    private boolean loadIndex(Segment segment, boolean restoreEntries) throws IOException {
+        Path path = indexPath(segment.id);
+        if (!Files.exists(path)) return false;
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+        if (buffer.remaining() < 8 || buffer.getInt() != INDEX_MAGIC) return false;
+        int size = buffer.getInt();
+        if (size > segment.map.capacity()) return false;
+        List<int[]> offsets = new ArrayList<>();
+        List<RecordHeader> headers = new ArrayList<>();
+        while (buffer.remaining() >= 4) {
+            int offset = buffer.getInt();
+            int start = buffer.position();
+            RecordHeader header = RecordHeader.read(buffer);
+            if (header == null) return false;
+            offsets.add(new int[] { offset, buffer.position() - start });
+            headers.add(header);
+        }
+        segment.size = size;
+        for (int i = 0; restoreEntries && i < headers.size(); i++) {
+            restore(segment, offsets.get(i)[0], offsets.get(i)[1], headers.get(i));
+        }
+        return true;
+    }
+
+    private void scan(Segment segment, boolean restoreEntries) {
+        segment.pendingIndex = new ByteArrayOutputStream();
+        ByteBuffer buffer = segment.map.duplicate();
+        int offset = 0;
+        while (true) {
+            buffer.position(offset);
+            RecordHeader header = RecordHeader.read(buffer);
+            if (header == null || header.dataLength > buffer.remaining()) break;
+            int headerBytes = buffer.position() - offset;
+            byte[] headerCopy = new byte[headerBytes];
+            segment.map.get(offset, headerCopy);
+            segment.recordIndex(offset, headerCopy);
+            if (restoreEntries) {
+                restore(segment, offset, headerBytes, header);
+            }
+            offset += headerBytes + header.dataLength;
+        }
+        segment.size = offset;
+    }
+
+    private void restore(Segment segment, int offset, int headerBytes, RecordHeader header) {
+        if (!header.isUsable(System.currentTimeMillis())) {
+            // Expired for good: leave it out (and whatever it replaced), compaction reclaims the space
+            remove(header.key);
+            return;
+        }
+        CachedResponse previous = index.put(header.key, entry(segment, offset, headerBytes, header));
+        if (previous != null) {
+            discard(header.key, previous);
+        }
+    }
+
+    private Path segmentPath(int id) {
+        return directory.resolve("segment-" + id + ".dat");
+    }
+
+    private Path indexPath(int id) {
+        return directory.resolve("segment-" + id + ".idx");
+    }
+
+    private Path liveIndexPath() {
+        return directory.resolve("live.idx");
+    }
+
+    // ---- Stats ----
+
+    /**
+     * Keys of the stored entries (a live view)
+     */
+    Set<String> keys() {
+        return index.keySet();
+    }
+
+    public int getEntryCount() {
+        return index.size();
+    }
+
+    /**
+     * Bytes in segment files, dead records included
+     */
+    public long getDiskBytes() {
+        return diskBytes;
+    }
+
+    /**
+     * Bytes of records that are still somebody's entry
+     */
+    public long getLiveBytes() {
+        long live = 0;
+        for (Segment segment : segments.values()) {
+            live += segment.liveBytes.get();
+        }
+        return live;
+    }
+
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    public long getWrites() {
+        return writes.get();
+    }
+
+    /**
+     * Writes dropped because the writer queue was full
+     */
+    public long getDroppedWrites() {
+        return droppedWrites.get();
+    }
+
+    public long getCompactions() {
+        return compactions.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("DiskCache[%s, entries=%d, segments=%d, disk=%d MB of %d MB, live=%d MB, writes=%d, "
+                        + "dropped writes=%d, compactions=%d, dropped segments=%d]",
+                directory, index.size(), segments.size(), diskBytes / (1024 * 1024), maxBytes / (1024 * 1024),
+                getLiveBytes() / (1024 * 1024), writes.get(), droppedWrites.get(), compactions.get(),
+                droppedSegments.get());
+    }
+}
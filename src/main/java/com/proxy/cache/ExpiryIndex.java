@@ -0,0 +1,86 @@
+package com.proxy.cache;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Time-bucketed index of when stored entries become reclaimable, for the expiry sweeper.
+ *
+ * A key is filed in the bucket of its deadline (bucketMillis wide); pollDue() walks the buckets
+ * that have fully elapsed in time order and hands out at most a given number of keys per call,
+ * so a large batch of expiries is reclaimed a slice at a time. Filing is never undone: a key
+ * whose entry was replaced, refreshed or removed meanwhile simply comes up again, and the
+ * sweeper checks the entry itself before dropping it (and files it again if it is not due).
+ * Thread-safe; pollDue() is meant for a single sweeper thread.
+ */
+final class ExpiryIndex {
+
+    private final long bucketMillis;
+    private final Map<Long, Set<String>> buckets = new ConcurrentHashMap<>();
+    // First bucket not yet swept completely; only moved by pollDue()
+    private volatile long cursor;
+
+    ExpiryIndex(long bucketMillis, long nowMillis) {
+        this.bucketMillis = Math.max(1, bucketMillis);
+        this.cursor = nowMillis / this.bucketMillis;
+    }
+
+    /**
+     * File key under deadlineMillis; a deadline already passed goes into the current bucket
+     * (or the first one not swept yet)
+     */
+    void add(String key, long deadlineMillis, long nowMillis) {
+        long deadlineBucket = Math.max(deadlineMillis, nowMillis) / bucketMillis;
+        Set<String> filed;
+        do {
+            // Never behind the cursor: the sweeper only visits buckets that have fully elapsed,
+            // so a bucket it has moved past is never filed into again. It moves past a bucket
+            // under that bucket's lock, so the check is repeated there; a bucket swept meanwhile
+            // is gone and the key goes into a later one.
+            filed = buckets.compute(Math.max(deadlineBucket, cursor), (b, keys) -> {
+                if (b < cursor) return keys;
+                Set<String> set = keys != null ? keys : ConcurrentHashMap.newKeySet();
+                set.add(key);
+                return set;
+            });
+        } while (filed == null);
+    }
+
+    /**
+     * Take up to max keys whose bucket ended by nowMillis, earliest first
+     */
+    List<String> pollDue(long nowMillis, int max) {
+        List<String> due = new ArrayList<>();
+        long last = nowMillis / bucketMillis; // Still running, not due yet
+        while (cursor < last && due.size() < max) {
+            Set<String> keys = buckets.get(cursor);
+            if (keys != null) {
+                Iterator<String> iterator = keys.iterator();
+                while (iterator.hasNext() && due.size() < max) {
+                    due.add(iterator.next());
+                    iterator.remove();
+                }
+                if (!keys.isEmpty()) break; // Batch is full, carry on from here next time
+            }
+            // Dropped and passed in one step, unless a key was filed into it right at the end
+            // (by a thread whose clock lagged): then it is swept again
+            buckets.compute(cursor, (b, set) -> {
+                if (set != null && !set.isEmpty()) return set;
+                cursor = b + 1;
+                return null;
+            });
+        }
+        return due;
+    }
+
+    /**
+     * Number of buckets holding keys
+     */
+    int buckets() {
+        return buckets.size();
+    }
+}
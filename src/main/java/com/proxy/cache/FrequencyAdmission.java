@@ -0,0 +1,44 @@
+package com.proxy.cache;
+
+/**
+ * Admission by request count: a response is stored once its URL has been asked for
+ * minRequests times recently (counted in a CountingBloomFilter), so URLs requested only once
+ * never take up cache memory. Responses of at most freeBytes are cheap enough to store on
+ * their first request; one of unknown length has to earn its place like a large one.
+ *
+ * "second-request" is minRequests 2 for every size; "threshold" takes both limits from
+ * -Dproxy.admissionMinRequests and -Dproxy.admissionFreeBytes.
+ */
+public final class FrequencyAdmission implements AdmissionPolicy {
+
+    private final String name;
+    private final int minRequests;
+    private final long freeBytes;
+    private final CountingBloomFilter requests;
+
+    /**
+     * @param counters Size of the request count filter; a few per distinct URL in the
+     *                 recent traffic keeps miscounts rare
+     */
+    public FrequencyAdmission(String name, int minRequests, long freeBytes, int counters) {
+        this.name = name;
+        this.minRequests = Math.max(1, Math.min(15, minRequests));
+        this.freeBytes = freeBytes;
+        this.requests = new CountingBloomFilter(counters);
+    }
+
+    @Override
+    public void recordRequest(String url) {
+        requests.add(url);
+    }
+
+    @Override
+    public boolean admit(String url, long bytes) {
+        return (bytes >= 0 && bytes <= freeBytes) || requests.count(url) >= minRequests;
+    }
+
+    @Override
+    public String toString() {
+        return name + " (" + minRequests + " requests" + (freeBytes > 0 ? ", free up to " + freeBytes / 1024 + " KB" : "") + ")";
+    }
+}
@@ -0,0 +1,83 @@
+package com.proxy.cache;
+
+/**
+ * Approximate access frequency of keys (TinyLFU): a count-min sketch of 4-bit counters.
+ *
+ * Each key maps to one counter in each of four rows; its frequency is the smallest of them,
+ * saturating at 15. Once the sketch has seen sampleSize increments every counter is halved,
+ * so frequencies age and keys that used to be popular make room for new ones. Sixteen
+ * counters are packed into each long, so tracking the history of far more keys than the
+ * cache holds costs only a few bytes per cached entry.
+ * Not thread-safe; used under the cache's eviction lock.
+ */
+final class FrequencySketch {
+
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final int[] SEEDS = { 0x97cb3127, 0xc3a5c85c, 0x3c6ef372, 0x510e527f };
+
+    private final long[] table;
+    private final int mask;
+    private final int sampleSize;
+    private int size = 0;
+
+    /**
+     * @param expectedEntries Rough number of distinct keys worth telling apart
+     */
+    FrequencySketch(int expectedEntries) {
+        int capacity = Integer.highestOneBit(Math.max(64, expectedEntries) - 1) << 1;
+        this.table = new long[capacity];
+        this.mask = capacity - 1;
+        this.sampleSize = 10 * capacity;
+    }
+
+    int frequency(Object key) {
+        int hash = spread(key.hashCode());
+        int frequency = 15;
+        for (int row = 0; row < 4; row++) {
+            int h = rehash(hash, row);
+            frequency = Math.min(frequency, (int) ((table[h & mask] >>> counterShift(h)) & 0xf));
+        }
+        return frequency;
+    }
+
+    void increment(Object key) {
+        int hash = spread(key.hashCode());
+        boolean added = false;
+        for (int row = 0; row < 4; row++) {
+            int h = rehash(hash, row);
+            int index = h & mask;
+            int shift = counterShift(h);
+            if (((table[index] >>> shift) & 0xf) < 15) {
+                table[index] += 1L << shift;
+                added = true;
+            }
+        }
+        if (added && ++size == sampleSize) {
+            reset();
+        }
+    }
+
+    /**
+     * Halve every counter (aging)
+     */
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        size /= 2;
+    }
+
+    private static int counterShift(int h) {
+        return (h >>> 28) << 2; // One of the 16 nibbles of the long
+    }
+
+    private static int rehash(int hash, int row) {
+        int h = (hash + SEEDS[row]) * 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+
+    private static int spread(int hash) {
+        hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+        return (hash >>> 16) ^ hash;
+    }
+}
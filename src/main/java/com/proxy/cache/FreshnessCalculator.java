@@ -0,0 +1,162 @@
+package com.proxy.cache;
+
+import com.proxy.core.http.HttpHead;
+
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Freshness lifetime of a response in a shared cache (RFC 9111).
+ *
+ * Order of precedence: s-maxage, max-age, then Expires minus Date. Without any of those the
+ * lifetime is a heuristic fraction of the time since Last-Modified. The Age the response already
+ * accumulated upstream is subtracted. Responses a shared cache must not store (no-store, private,
+ * Set-Cookie, Vary: *, authorized requests without explicit permission) are rejected before the
+ * body is captured.
+ */
+public final class FreshnessCalculator {
+
+    /**
+     * Returned for responses that must not be stored
+     */
+    public static final long NOT_CACHEABLE = -1;
+
+    // Heuristic freshness: 10% of the time since Last-Modified, capped (-Dproxy.heuristicMaxSeconds)
+    private static final double HEURISTIC_FRACTION = 0.1;
+    private static final long HEURISTIC_MAX_MILLIS = Long.getLong("proxy.heuristicMaxSeconds", 86_400) * 1000;
+    // Stale-while-revalidate grace for responses without their own directive, off unless
+    // configured (-Dproxy.staleWhileRevalidateSeconds): RFC 9111 4.2.4 forbids serving stale by default
+    private static final long DEFAULT_GRACE_MILLIS = Long.getLong("proxy.staleWhileRevalidateSeconds", 0) * 1000;
+
+    private FreshnessCalculator() {
+    }
+
+    /**
+     * @param response          Final response head
+     * @param authorizedRequest Whether the request carried an Authorization header
+     * @param nowMillis         Current wall-clock time
+     * @return Remaining freshness in milliseconds (0 = stale on arrival), or NOT_CACHEABLE
+     */
+    public static long freshnessMillis(HttpHead response, boolean authorizedRequest, long nowMillis) {
+        if (response.hasToken("Cache-Control", "no-store") || hasDirective(response, "private")
+                || response.getHeader("Set-Cookie") != null || response.hasToken("Vary", "*")) {
+            return NOT_CACHEABLE;
+        }
+        long sMaxAge = directiveSeconds(response, "s-maxage");
+        if (authorizedRequest && sMaxAge < 0 && !response.hasToken("Cache-Control", "public")
+                && !response.hasToken("Cache-Control", "must-revalidate")) {
+            return NOT_CACHEABLE;
+        }
+
+        long dateMillis = parseDate(response.getHeader("Date"));
+        if (dateMillis < 0) {
+            dateMillis = nowMillis;
+        }
+
+        long lifetimeMillis;
+        long maxAge = directiveSeconds(response, "max-age");
+        String expires = response.getHeader("Expires");
+        if (sMaxAge >= 0) {
+            lifetimeMillis = sMaxAge * 1000;
+        } else if (maxAge >= 0) {
+            lifetimeMillis = maxAge * 1000;
+        } else if (expires != null) {
+            // An invalid Expires (e.g. "0") means already expired
+            long expiresMillis = parseDate(expires);
+            lifetimeMillis = expiresMillis < 0 ? 0 : Math.max(0, expiresMillis - dateMillis);
+        } else {
+            long lastModified = parseDate(response.getHeader("Last-Modified"));
+            if (lastModified < 0 || lastModified > dateMillis) {
+                return NOT_CACHEABLE; // No explicit lifetime and nothing to base a heuristic on
+            }
+            lifetimeMillis = Math.min(HEURISTIC_MAX_MILLIS, (long) ((dateMillis - lastModified) * HEURISTIC_FRACTION));
+        }
+        if (response.hasToken("Cache-Control", "no-cache")) {
+            lifetimeMillis = 0; // Storable, but must be revalidated before every use
+        }
+
+        long ageMillis = Math.max(0, directiveValue(response.getHeader("Age"))) * 1000;
+        // Time spent between the origin generating the response and now also counts
+        ageMillis = Math.max(ageMillis, nowMillis - dateMillis);
+        return Math.max(0, lifetimeMillis - ageMillis);
+    }
+
+    /**
+     * How long after expiry the response may still be served while it is revalidated in the
+     * background (RFC 5861): its stale-while-revalidate directive, otherwise none unless a
+     * proxy-wide default is configured. Responses that forbid serving stale (must-revalidate,
+     * proxy-revalidate, s-maxage, no-cache) get no grace either way.
+     */
+    public static long staleGraceMillis(HttpHead response) {
+        if (hasDirective(response, "must-revalidate") || hasDirective(response, "proxy-revalidate")
+                || hasDirective(response, "s-maxage") || hasDirective(response, "no-cache")) {
+            return 0;
+        }
+        long seconds = directiveSeconds(response, "stale-while-revalidate");
+        return seconds >= 0 ? seconds * 1000 : DEFAULT_GRACE_MILLIS;
+    }
+
+    /**
+     * Whether a response with this freshness is worth capturing: fresh, or stale (no-cache,
+     * stale on arrival) but carrying a validator so it can be revalidated later
+     */
+    public static boolean isStorable(HttpHead response, long freshnessMillis) {
+        return freshnessMillis > 0 || (freshnessMillis == 0
+                && (response.getHeader("ETag") != null || response.getHeader("Last-Modified") != null));
+    }
+
+    /**
+     * Parse an HTTP-date (IMF-fixdate / RFC 1123)
+     * @return epoch milliseconds, or -1 if absent or invalid
+     */
+    public static long parseDate(String value) {
+        if (value == null) return -1;
+        try {
+            return ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Whether Cache-Control has the directive, with or without an argument (private="Set-Cookie")
+     */
+    private static boolean hasDirective(HttpHead response, String name) {
+        return directive(response, name) != null;
+    }
+
+    /**
+     * Delta-seconds argument of a Cache-Control directive, or -1
+     */
+    private static long directiveSeconds(HttpHead response, String name) {
+        String value = directive(response, name);
+        return value == null ? -1 : directiveValue(value);
+    }
+
+    /**
+     * @return "" for a bare directive, its argument, or null if absent
+     */
+    private static String directive(HttpHead response, String name) {
+        for (String value : response.getHeaders("Cache-Control")) {
+            for (String element : value.split(",")) {
+                String trimmed = element.trim();
+                int eq = trimmed.indexOf('=');
+                String key = eq < 0 ? trimmed : trimmed.substring(0, eq).trim();
+                if (key.equalsIgnoreCase(name)) {
+                    return eq < 0 ? "" : trimmed.substring(eq + 1).trim().replace("\"", "");
+                }
+            }
+        }
+        return null;
+    }
+
+    private static long directiveValue(String value) {
+        if (value == null || value.isEmpty()) return -1;
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.proxy.cache;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Largest response the cache stores, by Content-Type.
+ *
+ * Limits are given as "type=size" pairs separated by commas, e.g.
+ * "video/*=512m, application/javascript=8m, text/html=256k": an exact media type wins over its
+ * "major/*" wildcard, and anything else gets the default limit. Sizes take an optional k, m
+ * or g suffix. Parameters such as "; charset=utf-8" are ignored when matching.
+ */
+public final class ObjectSizeLimits {
+
+    // A stored response is addressed with int offsets
+    private static final long MAX_LIMIT = Integer.MAX_VALUE;
+
+    private final long defaultLimit;
+    private final Map<String, Long> limits;
+
+    private ObjectSizeLimits(long defaultLimit, Map<String, Long> limits) {
+        this.defaultLimit = defaultLimit;
+        this.limits = limits;
+    }
+
+    /**
+     * @throws IllegalArgumentException on an entry that is not "type=size"
+     */
+    public static ObjectSizeLimits parse(String spec, long defaultLimit) {
+        Map<String, Long> limits = new HashMap<>();
+        if (spec != null) {
+            for (String entry : spec.split(",")) {
+                if (entry.isBlank()) continue;
+                int equals = entry.indexOf('=');
+                if (equals <= 0) {
+                    throw new IllegalArgumentException("Expected type=size: " + entry.trim());
+                }
+                limits.put(entry.substring(0, equals).trim().toLowerCase(Locale.ROOT),
+                        parseSize(entry.substring(equals + 1)));
+            }
+        }
+        return new ObjectSizeLimits(Math.min(defaultLimit, MAX_LIMIT), limits);
+    }
+
+    /**
+     * "512m", "64k", "1g" or plain bytes
+     */
+    public static long parseSize(String text) {
+        String size = text.trim().toLowerCase(Locale.ROOT);
+        long unit = 1;
+        if (size.endsWith("k")) {
+            unit = 1024;
+        } else if (size.endsWith("m")) {
+            unit = 1024 * 1024;
+        } else if (size.endsWith("g")) {
+            unit = 1024 * 1024 * 1024;
+        }
+        if (unit > 1) {
+            size = size.substring(0, size.length() - 1).trim();
+        }
+        try {
+            return Math.min(Long.parseLong(size) * unit, MAX_LIMIT);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a size: " + text.trim());
+        }
+    }
+
+    /**
+     * @param contentType Content-Type header value, or null
+     */
+    public long limitFor(String contentType) {
+        if (contentType == null || limits.isEmpty()) return defaultLimit;
+        int semicolon = contentType.indexOf(';');
+        String type = (semicolon < 0 ? contentType : contentType.substring(0, semicolon)).trim().toLowerCase(Locale.ROOT);
+        Long limit = limits.get(type);
+        if (limit == null) {
+            int slash = type.indexOf('/');
+            limit = slash < 0 ? null : limits.get(type.substring(0, slash) + "/*");
+        }
+        return limit != null ? limit : defaultLimit;
+    }
+
+    public long getDefaultLimit() {
+        return defaultLimit;
+    }
+}
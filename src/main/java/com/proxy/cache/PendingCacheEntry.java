@@ -0,0 +1,231 @@
+package com.proxy.cache;
+
+import com.proxy.core.http.HttpHead;
+import com.proxy.io.RingBuffer;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Response being cached while it streams to the client (tee).
+ *
+ * The proxy appends each chunk right after releasing it to the client, so the client never
+ * waits for the cache. The entry only reaches CacheManager through commit(), once the caller
+ * knows the response completed; an abort, a non-cacheable response or a response growing past
+ * its size limit (CacheManager.maxObjectBytes) abandons it and frees the bytes collected so far.
+ * Bytes are captured in chunks of CacheManager.CHUNK_BYTES, so a large response is never copied
+ * to grow. An aborted download of a validated, length-delimited response is handed to
+ * CacheManager.resume() to be finished in the background instead of thrown away.
+ *
+ * The entry is looked up under the request's key, but stored under the key the response head
+ * calls for (CacheManager.storeKey()): a response with Vary goes to the variant of the request
+ * headers it was negotiated for.
+ *
+ * While open, the entry is also the in-flight buffer for collapsed forwarding: concurrent
+ * misses for the same URL follow it instead of contacting the origin. Followers may live on
+ * other threads, so access is synchronized; they are notified through their listener on every
+ * append, commit and abandon, and read with read(), which hands out views of bytes that are
+ * never written again.
+ */
+public class PendingCacheEntry {
+
+    private final CacheManager cacheManager;
+    private final String url;
+    private final HttpHead request;
+    private String storeKey;
+    private ChunkedBuffer captured = new ChunkedBuffer(CacheManager.CHUNK_BYTES);
+    private boolean open = true;
+    private boolean committed = false;
+    private boolean admitted = true; // false: captured for followers only, not stored
+    private long ttlMillis = 0;
+    private long maxBytes;
+    private HttpHead responseHead;
+    private String resumeValidator; // If-Range value when a broken download can be resumed
+    private final List<Runnable> followers = new ArrayList<>();
+
+    PendingCacheEntry(CacheManager cacheManager, String url, HttpHead request) {
+        this.cacheManager = cacheManager;
+        this.url = url;
+        this.request = request;
+        this.storeKey = url;
+        this.maxBytes = cacheManager.maxObjectBytes(null);
+    }
+
+    /**
+     * @return false if the entry is (now) abandoned and further bytes are ignored
+     */
+    public synchronized boolean append(byte[] src, int offset, int count) {
+        if (!reserve(count)) return false;
+        captured.append(src, offset, count);
+        notifyFollowers();
+        return true;
+    }
+
+    /**
+     * Append count ring bytes starting at seq, without consuming them from the ring
+     */
+    public synchronized boolean append(RingBuffer ring, long seq, int count) {
+        if (!reserve(count)) return false;
+        captured.append(ring, seq, count);
+        notifyFollowers();
+        return true;
+    }
+
+    /**
+     * Freshness lifetime the entry is stored with; decided from the response head
+     */
+    public synchronized void setTtlMillis(long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * Head of the cacheable response: sets its size limit (by Content-Type) and, for a strongly
+     * validated response of known length, makes an aborted download resumable. A response that
+     * announces a length over the limit, or that the admission policy keeps out, is abandoned
+     * right away.
+     */
+    public synchronized void setResponseHead(HttpHead head) {
+        if (!open) return;
+        storeKey = cacheManager.storeKey(url, head, request);
+        if (storeKey == null) {
+            System.out.println("   [CACHE] Varies on unknown request headers, abandoned: " + url);
+            abandon();
+            return;
+        }
+        responseHead = head;
+        maxBytes = cacheManager.maxObjectBytes(head);
+        long contentLength = head.getContentLength();
+        if (contentLength > maxBytes) {
+            System.out.println("   [CACHE] Too large to cache, abandoned: " + url + " (" + contentLength + " bytes)");
+            abandon();
+            return;
+        }
+        if (!cacheManager.admit(storeKey, contentLength)) {
+            if (followers.isEmpty()) {
+                // Kept out of the cache: no need to capture the body at all
+                System.out.println("   [CACHE] Not admitted: " + storeKey);
+                abandon();
+                return;
+            }
+            // Collapsed requests are already waiting on the bytes; they are just not stored
+            admitted = false;
+            return;
+        }
+        String etag = head.getHeader("ETag");
+        if (contentLength >= 0 && !head.hasToken("Transfer-Encoding", "chunked")) {
+            // If-Range needs a strong validator: a weak ETag could splice two versions
+            resumeValidator = etag != null && !etag.startsWith("W/") ? etag : head.getHeader("Last-Modified");
+        }
+    }
+
+    /**
+     * The response completed: publish it to the cache
+     */
+    public synchronized void commit() {
+        if (!open) return;
+        open = false;
+        committed = true;
+        // The bytes stay readable for followers that have not caught up yet
+        if (admitted) {
+            cacheManager.put(storeKey, captured.buffers(), ttlMillis);
+        }
+        cacheManager.entryFinished(this);
+        notifyFollowers();
+    }
+
+    /**
+     * The origin confirmed the stored copy (304): finish with its bytes so followers are
+     * served from them. Nothing is stored, CacheManager.revalidated() refreshes the entry.
+     */
+    public synchronized void completeFrom(CachedResponse stored) {
+        if (!open) return;
+        open = false;
+        committed = true;
+        // Followers may not accept gzip
+        captured = ChunkedBuffer.identityCopyOf(stored, CacheManager.CHUNK_BYTES);
+        cacheManager.entryFinished(this);
+        notifyFollowers();
+    }
+
+    /**
+     * Drop the entry (aborted, not cacheable or too large). Safe to call after commit().
+     */
+    public synchronized void abandon() {
+        if (!open) return;
+        open = false;
+        if (resumeValidator != null) {
+            // Handed over: the buffer is the refresher's from here on, this entry never touches
+            // it again (followers keep only views of bytes already written)
+            cacheManager.resume(storeKey, captured, responseHead, resumeValidator);
+        }
+        captured = null;
+        cacheManager.entryAbandoned();
+        cacheManager.entryFinished(this);
+        notifyFollowers();
+    }
+
+    public synchronized boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * Whether the complete response was captured (followers can finish from it)
+     */
+    public synchronized boolean isCommitted() {
+        return committed;
+    }
+
+    public synchronized int size() {
+        return captured == null ? 0 : captured.length();
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * Whether the response varies on request headers its lookup key did not account for, so a
+     * follower may have asked for another variant
+     */
+    public synchronized boolean isOtherVariant() {
+        return !storeKey.equals(url);
+    }
+
+    /**
+     * Register a follower; the listener must only hand work over to the follower's own thread
+     */
+    public synchronized void addFollower(Runnable listener) {
+        followers.add(listener);
+    }
+
+    public synchronized void removeFollower(Runnable listener) {
+        followers.remove(listener);
+    }
+
+    /**
+     * Bytes captured from offset on, up to the end of their chunk, or null if there are none
+     * (yet, or the entry was abandoned)
+     */
+    public synchronized ByteBuffer read(int offset) {
+        // Captured bytes are never overwritten, so the view stays valid unlocked
+        return captured == null ? null : captured.read(offset);
+    }
+
+    private void notifyFollowers() {
+        for (Runnable follower : followers) {
+            follower.run();
+        }
+    }
+
+    private boolean reserve(int count) {
+        if (!open) return false;
+        if ((long) captured.length() + count > maxBytes) {
+            System.out.println("   [CACHE] Too large to cache, abandoned: " + url);
+            resumeValidator = null; // It would only be dropped again
+            abandon();
+            return false;
+        }
+        return true;
+    }
+}
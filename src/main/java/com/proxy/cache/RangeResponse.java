@@ -0,0 +1,219 @@
+package com.proxy.cache;
+
+import com.proxy.core.http.HttpHead;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A Range request answered from a stored 200 response: 206 Partial Content with the requested
+ * byte ranges of its body (a single range as is, several as multipart/byteranges), or 416 if
+ * none of them can be satisfied.
+ *
+ * Only the head and the multipart part headers are built on the heap; the ranges themselves
+ * are written straight from the stored bytes (transferTo for disk entries), never copied.
+ * Ranges address the body as stored, so a gzip-stored response is only sliced for clients that
+ * accept gzip. Hold a reference to the stored response while writing.
+ */
+public final class RangeResponse {
+
+    // Requests for more ranges than this get the whole response (-Dproxy.maxRanges)
+    private static final int MAX_RANGES = Integer.getInteger("proxy.maxRanges", 16);
+
+    private final CachedResponse stored;
+    // Pieces in order: heap bytes, or (where the heap piece is null) stored bytes {start, count}
+    private final List<ByteBuffer> heapPieces = new ArrayList<>();
+    private final List<long[]> storedPieces = new ArrayList<>();
+    private final int statusCode;
+    private long size = 0;
+
+    private RangeResponse(CachedResponse stored, int statusCode) {
+        this.stored = stored;
+        this.statusCode = statusCode;
+    }
+
+    /**
+     * @param range Range header value, or null if not sent
+     * @param ifRange If-Range header value, or null if not sent
+     * @return the partial (or 416) response, or null if the whole stored response should be
+     *         sent instead: no or unusable Range, If-Range not matching, or a stored response
+     *         that cannot be sliced
+     */
+    public static RangeResponse of(CachedResponse stored, String range, String ifRange, boolean acceptsGzip) {
+        if (range == null) return null;
+        HttpHead head = stored.getHead();
+        if (head == null || head.getStatusCode() != 200 || head.getHeader("Transfer-Encoding") != null) return null;
+        int headLength = head.getLength();
+        long length = stored.size() - headLength;
+        if (head.getContentLength() != length || (!acceptsGzip && stored.isGzipEncoded())) return null;
+        if (ifRange != null && !matchesIfRange(head, ifRange.trim())) return null;
+        List<long[]> ranges = parseRanges(range, length);
+        if (ranges == null) return null;
+
+        byte[] headBytes = new byte[headLength];
+        stored.storedBytes().get(0, headBytes, 0, headLength);
+        RangeResponse response;
+        if (ranges.isEmpty()) {
+            response = new RangeResponse(stored, 416);
+            response.addHeap(ContentCoding.rewriteHead(headBytes, "416 Range Not Satisfiable",
+                    List.of("Content-Length", "Content-Type", "Content-Encoding", "Content-Range"),
+                    "Content-Range: bytes */" + length + "\r\nContent-Length: 0\r\n"));
+        } else if (ranges.size() == 1) {
+            long[] only = ranges.get(0);
+            response = new RangeResponse(stored, 206);
+            response.addHeap(ContentCoding.rewriteHead(headBytes, "206 Partial Content",
+                    List.of("Content-Length", "Content-Range"),
+                    "Content-Range: " + contentRange(only, length) + "\r\nContent-Length: " + (only[1] - only[0] + 1) + "\r\n"));
+            response.addStored(headLength + only[0], only[1] - only[0] + 1);
+        } else {
+            response = multipart(stored, head, headBytes, ranges, length);
+        }
+        return response;
+    }
+
+    private static RangeResponse multipart(CachedResponse stored, HttpHead head, byte[] headBytes, List<long[]> ranges, long length) {
+        String boundary = "proxy" + Long.toHexString(ThreadLocalRandom.current().nextLong());
+        String contentType = head.getHeader("Content-Type");
+        List<byte[]> partHeads = new ArrayList<>(ranges.size());
+        long bodyLength = 0;
+        for (long[] range : ranges) {
+            byte[] partHead = ("\r\n--" + boundary + "\r\n" + (contentType == null ? "" : "Content-Type: " + contentType + "\r\n")
+                    + "Content-Range: " + contentRange(range, length) + "\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1);
+            partHeads.add(partHead);
+            bodyLength += partHead.length + range[1] - range[0] + 1;
+        }
+        byte[] end = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.ISO_8859_1);
+        bodyLength += end.length;
+
+        RangeResponse response = new RangeResponse(stored, 206);
+        response.addHeap(ContentCoding.rewriteHead(headBytes, "206 Partial Content",
+                List.of("Content-Length", "Content-Type", "Content-Range"),
+                "Content-Type: multipart/byteranges; boundary=" + boundary + "\r\nContent-Length: " + bodyLength + "\r\n"));
+        int bodyStart = head.getLength();
+        for (int i = 0; i < ranges.size(); i++) {
+            long[] range = ranges.get(i);
+            response.addHeap(partHeads.get(i));
+            response.addStored(bodyStart + range[0], range[1] - range[0] + 1);
+        }
+        response.addHeap(end);
+        return response;
+    }
+
+    private static String contentRange(long[] range, long length) {
+        return "bytes " + range[0] + "-" + range[1] + "/" + length;
+    }
+
+    /**
+     * If-Range holds when its strong ETag or its date is exactly the stored one's
+     */
+    private static boolean matchesIfRange(HttpHead head, String ifRange) {
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            String etag = head.getHeader("ETag");
+            return !ifRange.startsWith("W/") && etag != null && etag.trim().equals(ifRange);
+        }
+        String lastModified = head.getHeader("Last-Modified");
+        return lastModified != null && lastModified.trim().equals(ifRange);
+    }
+
+    /**
+     * Satisfiable ranges of a "bytes=" range set as inclusive [first, last] body offsets, in the
+     * order asked; empty if none is satisfiable, null if the value is not one we serve
+     * (another unit, bad syntax, too many ranges or overlapping ones)
+     */
+    static List<long[]> parseRanges(String value, long length) {
+        String spec = value.trim();
+        if (!spec.toLowerCase(Locale.ROOT).startsWith("bytes=")) return null;
+        String[] items = spec.substring(6).split(",");
+        if (items.length > MAX_RANGES) return null;
+        List<long[]> ranges = new ArrayList<>();
+        boolean any = false;
+        for (String item : items) {
+            String range = item.trim();
+            if (range.isEmpty()) continue;
+            if (!range.matches("\\d*-\\d*") || range.equals("-")) return null;
+            int dash = range.indexOf('-');
+            long first, last;
+            try {
+                if (dash == 0) {
+                    long suffix = Long.parseLong(range.substring(1));
+                    first = Math.max(0, length - suffix);
+                    last = suffix == 0 ? -1 : length - 1;
+                } else {
+                    first = Long.parseLong(range.substring(0, dash));
+                    long end = dash == range.length() - 1 ? Long.MAX_VALUE : Long.parseLong(range.substring(dash + 1));
+                    if (end < first) return null;
+                    last = Math.min(length - 1, end);
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            any = true;
+            if (first < length && first <= last) {
+                ranges.add(new long[] { first, last });
+            }
+        }
+        if (!any) return null;
+
+        List<long[]> sorted = new ArrayList<>(ranges);
+        sorted.sort(Comparator.comparingLong(range -> range[0]));
+        for (int i = 1; i < sorted.size(); i++) {
+            if (sorted.get(i)[0] <= sorted.get(i - 1)[1]) return null;
+        }
+        return ranges;
+    }
+
+    private void addHeap(byte[] bytes) {
+        heapPieces.add(ByteBuffer.wrap(bytes));
+        storedPieces.add(null);
+        size += bytes.length;
+    }
+
+    private void addStored(long start, long count) {
+        heapPieces.add(null);
+        storedPieces.add(new long[] { start, count });
+        size += count;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * Length of the whole response, head included
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Write the response from position on to target, as far as it accepts it without blocking
+     * @return bytes written
+     */
+    public long writeTo(WritableByteChannel target, long position) throws IOException {
+        long written = 0;
+        long pieceStart = 0;
+        for (int i = 0; i < heapPieces.size(); i++) {
+            ByteBuffer heap = heapPieces.get(i);
+            long[] slice = storedPieces.get(i);
+            long pieceEnd = pieceStart + (heap != null ? heap.remaining() : slice[1]);
+            long from = position + written;
+            if (from < pieceEnd) {
+                long offset = from - pieceStart;
+                long wanted = pieceEnd - from;
+                long n = heap != null ? target.write(heap.duplicate().position((int) offset))
+                        : stored.writeTo(target, slice[0] + offset, wanted);
+                written += n;
+                if (n < wanted) break; // Target is full for now
+            }
+            pieceStart = pieceEnd;
+        }
+        return written;
+    }
+}
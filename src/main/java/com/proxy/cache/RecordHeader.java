@@ -0,0 +1,115 @@
+package com.proxy.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Metadata in front of each stored response in a disk segment, segment index or cache
+ * snapshot: fixed fields, then the key, etag and last-modified. The response bytes (dataLength
+ * of them) follow the header in segments and snapshots.
+ */
+final class RecordHeader {
+
+    static final int MAGIC = 0x50584331; // "PXC1"
+    // magic, key length, data length, expires, lifetime, grace, etag length, last-modified length
+    static final int FIXED_BYTES = 4 + 4 + 4 + 8 + 8 + 8 + 2 + 2;
+
+    final String key;
+    final int dataLength;
+    final long expiresAtMillis;
+    final long lifetimeMillis;
+    final long graceMillis;
+    final String etag;
+    final String lastModified;
+
+    RecordHeader(String key, int dataLength, long expiresAtMillis, long lifetimeMillis, long graceMillis,
+            String etag, String lastModified) {
+        this.key = key;
+        this.dataLength = dataLength;
+        this.expiresAtMillis = expiresAtMillis;
+        this.lifetimeMillis = lifetimeMillis;
+        this.graceMillis = graceMillis;
+        this.etag = etag;
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * Header for storing response (whose metadata is read as it is now) under key
+     */
+    static RecordHeader of(String key, CachedResponse response) {
+        return new RecordHeader(key, response.size(), response.getExpiresAtMillis(), response.getLifetimeMillis(),
+                response.getGraceMillis(), response.getEtag(), response.getLastModified());
+    }
+
+    /**
+     * Whether the record can still be served or revalidated
+     */
+    boolean isUsable(long now) {
+        return now < expiresAtMillis + graceMillis || etag != null || lastModified != null;
+    }
+
+    /**
+     * A new entry holding the record's bytes with its metadata
+     */
+    CachedResponse toResponse(StoredBytes bytes) {
+        return new CachedResponse(bytes, expiresAtMillis, lifetimeMillis, graceMillis, etag, lastModified);
+    }
+
+    byte[] encode() {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        byte[] etagBytes = etag == null ? null : etag.getBytes(StandardCharsets.ISO_8859_1);
+        byte[] lastModifiedBytes = lastModified == null ? null : lastModified.getBytes(StandardCharsets.ISO_8859_1);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(FIXED_BYTES + keyBytes.length + 64);
+        try (DataOutputStream data = new DataOutputStream(out)) {
+            data.writeInt(MAGIC);
+            data.writeInt(keyBytes.length);
+            data.writeInt(dataLength);
+            data.writeLong(expiresAtMillis);
+            data.writeLong(lifetimeMillis);
+            data.writeLong(graceMillis);
+            data.writeShort(etagBytes == null ? -1 : etagBytes.length);
+            data.writeShort(lastModifiedBytes == null ? -1 : lastModifiedBytes.length);
+            data.write(keyBytes);
+            if (etagBytes != null) data.write(etagBytes);
+            if (lastModifiedBytes != null) data.write(lastModifiedBytes);
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // In-memory stream
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Header at the buffer's position, which is moved past it; null if there is no valid
+     * one (end of the written part, or a record torn by a crash)
+     */
+    static RecordHeader read(ByteBuffer buffer) {
+        if (buffer.remaining() < FIXED_BYTES || buffer.getInt(buffer.position()) != MAGIC) return null;
+        buffer.getInt();
+        int keyLength = buffer.getInt();
+        int dataLength = buffer.getInt();
+        long expiresAtMillis = buffer.getLong();
+        long lifetimeMillis = buffer.getLong();
+        long graceMillis = buffer.getLong();
+        int etagLength = buffer.getShort();
+        int lastModifiedLength = buffer.getShort();
+        if (keyLength <= 0 || dataLength < 0 || keyLength + Math.max(0, etagLength)
+                + Math.max(0, lastModifiedLength) > buffer.remaining()) {
+            return null;
+        }
+        String key = string(buffer, keyLength, StandardCharsets.UTF_8);
+        String etag = string(buffer, etagLength, StandardCharsets.ISO_8859_1);
+        String lastModified = string(buffer, lastModifiedLength, StandardCharsets.ISO_8859_1);
+        return new RecordHeader(key, dataLength, expiresAtMillis, lifetimeMillis, graceMillis, etag, lastModified);
+    }
+
+    private static String string(ByteBuffer buffer, int length, Charset charset) {
+        if (length < 0) return null;
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, charset);
+    }
+}
@@ -0,0 +1,304 @@
+package com.proxy.cache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Off-heap memory for cached responses, carved from large direct-buffer slabs by size class.
+ *
+ * Sizes are rounded up to the nearest class (64 bytes growing by 1.25x up to the slab size),
+ * and each slab serves chunks of exactly one class, so allocation and free are a pop and a
+ * push on the slab's free stack. A slab whose chunks are all free goes back to a shared pool
+ * and can be re-carved for another class, which keeps a shift in response sizes from
+ * stranding memory. Only the small Chunk handles live on the heap; the bytes themselves are
+ * invisible to the garbage collector.
+ *
+ * Allocation and free are synchronized (store and eviction paths only). Reading a chunk needs
+ * no lock: its view is never modified after it was written.
+ */
+public class SlabAllocator {
+
+    private static final int MIN_CHUNK = 64;
+    private static final double GROWTH_FACTOR = 1.25;
+
+    /**
+     * One allocation: length bytes at the start of a chunk of its size class
+     */
+    public final class Chunk implements StoredBytes {
+        private final Slab slab;
+        private final int index;
+        private final int length;
+        private final ByteBuffer view;
+
+        private Chunk(Slab slab, int index, int length) {
+            this.slab = slab;
+            this.index = index;
+            this.length = length;
+            int offset = index * slab.sizeClass.chunkSize;
+            this.view = slab.memory.duplicate().position(offset).limit(offset + length).slice();
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        /**
+         * Bytes of the chunk actually reserved (its size class)
+         */
+        public int capacity() {
+            return slab.sizeClass.chunkSize;
+        }
+
+        @Override
+        public int weight() {
+            return capacity();
+        }
+
+        /**
+         * Independent read-only view of the stored bytes
+         */
+        public ByteBuffer buffer() {
+            return view.asReadOnlyBuffer();
+        }
+
+        @Override
+        public ByteBuffer[] buffers() {
+            return new ByteBuffer[] { buffer() };
+        }
+
+        @Override
+        public byte get(int position) {
+            return view.get(position);
+        }
+
+        @Override
+        public void get(int position, byte[] dst, int offset, int count) {
+            view.duplicate().position(position).get(dst, offset, count);
+        }
+
+        @Override
+        public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+            return target.write(view.duplicate().position((int) position).limit((int) (position + count)));
+        }
+
+        @Override
+        public void free() {
+            SlabAllocator.this.free(this);
+        }
+    }
+
+    private static final class SizeClass {
+        final int chunkSize;
+        final int chunksPerSlab;
+        // Slabs of this class with at least one free chunk
+        final ArrayDeque<Slab> partial = new ArrayDeque<>();
+        int slabs = 0;
+
+        SizeClass(int chunkSize, int slabBytes) {
+            this.chunkSize = chunkSize;
+            this.chunksPerSlab = slabBytes / chunkSize;
+        }
+    }
+
+    private static final class Slab {
+        final ByteBuffer memory;
+        final SizeClass sizeClass;
+        final int[] freeStack;
+        int freeCount;
+
+        Slab(ByteBuffer memory, SizeClass sizeClass) {
+            this.memory = memory;
+            this.sizeClass = sizeClass;
+            this.freeStack = new int[sizeClass.chunksPerSlab];
+            for (int i = 0; i < freeStack.length; i++) {
+                freeStack[i] = freeStack.length - 1 - i; // Lowest offsets handed out first
+            }
+            this.freeCount = freeStack.length;
+        }
+    }
+
+    private final int slabBytes;
+    private final int maxSlabs;
+    private final SizeClass[] classes;
+    private final ArrayDeque<ByteBuffer> freeSlabs = new ArrayDeque<>();
+    private int slabCount = 0;
+
+    private long requestedBytes = 0;
+    private long allocatedBytes = 0;
+    private long chunkCount = 0;
+    private long failures = 0;
+
+    /**
+     * @param slabBytes Size of each slab, also the largest allocation
+     * @param maxSlabs  Slabs that may be reserved in total
+     */
+    public SlabAllocator(int slabBytes, int maxSlabs) {
+        this.slabBytes = slabBytes;
+        this.maxSlabs = maxSlabs;
+
+        List<SizeClass> sizes = new ArrayList<>();
+        int size = MIN_CHUNK;
+        while (size < slabBytes) {
+            sizes.add(new SizeClass(size, slabBytes));
+            size = Math.min(slabBytes, ((int) (size * GROWTH_FACTOR) + 7) & ~7);
+        }
+        sizes.add(new SizeClass(slabBytes, slabBytes));
+        this.classes = sizes.toArray(new SizeClass[0]);
+    }
+
+    /**
+     * Reserve room for length bytes and copy them in
+     * @return the chunk, or null if no slab can be spared for its size class
+     */
+    public synchronized Chunk allocate(byte[] src, int offset, int length) {
+        Chunk chunk = reserve(length);
+        if (chunk != null) {
+            chunk.view.duplicate().put(src, offset, length);
+        }
+        return chunk;
+    }
+
+    /**
+     * Reserve room for src's remaining bytes and copy them in (src's position is not moved)
+     * @return the chunk, or null if no slab can be spared for its size class
+     */
+    public synchronized Chunk allocate(ByteBuffer src) {
+        Chunk chunk = reserve(src.remaining());
+        if (chunk != null) {
+            chunk.view.duplicate().put(src.duplicate());
+        }
+        return chunk;
+    }
+
+    private Chunk reserve(int length) {
+        SizeClass sizeClass = classFor(length);
+        if (sizeClass == null) {
+            failures++;
+            return null;
+        }
+
+        Slab slab = sizeClass.partial.peekFirst();
+        if (slab == null) {
+            ByteBuffer memory = freeSlabs.pollFirst();
+            if (memory == null) {
+                if (slabCount == maxSlabs) {
+                    failures++;
+                    return null;
+                }
+                memory = ByteBuffer.allocateDirect(slabBytes);
+                slabCount++;
+            }
+            slab = new Slab(memory, sizeClass);
+            sizeClass.partial.addFirst(slab);
+            sizeClass.slabs++;
+        }
+
+        int index = slab.freeStack[--slab.freeCount];
+        if (slab.freeCount == 0) {
+            sizeClass.partial.remove(slab);
+        }
+        Chunk chunk = new Chunk(slab, index, length);
+
+        requestedBytes += length;
+        allocatedBytes += sizeClass.chunkSize;
+        chunkCount++;
+        return chunk;
+    }
+
+    private synchronized void free(Chunk chunk) {
+        Slab slab = chunk.slab;
+        SizeClass sizeClass = slab.sizeClass;
+        if (slab.freeCount == 0) {
+            sizeClass.partial.addLast(slab);
+        }
+        slab.freeStack[slab.freeCount++] = chunk.index;
+
+        requestedBytes -= chunk.length;
+        allocatedBytes -= sizeClass.chunkSize;
+        chunkCount--;
+
+        if (slab.freeCount == sizeClass.chunksPerSlab) {
+            // Completely free: hand the memory back so any size class can use it
+            sizeClass.partial.remove(slab);
+            sizeClass.slabs--;
+            freeSlabs.addLast(slab.memory);
+        }
+    }
+
+    private SizeClass classFor(int length) {
+        if (length > slabBytes) return null;
+        int low = 0;
+        int high = classes.length - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (classes[mid].chunkSize < length) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return classes[low];
+    }
+
+    /**
+     * Off-heap bytes reserved from the OS (slabs allocated so far)
+     */
+    public synchronized long getReservedBytes() {
+        return (long) slabCount * slabBytes;
+    }
+
+    /**
+     * Bytes of chunks in use, size-class rounding included
+     */
+    public synchronized long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /**
+     * Bytes actually stored in the chunks in use
+     */
+    public synchronized long getRequestedBytes() {
+        return requestedBytes;
+    }
+
+    /**
+     * Stored bytes / reserved bytes
+     */
+    public synchronized double getUtilization() {
+        return slabCount == 0 ? 0 : (double) requestedBytes / ((long) slabCount * slabBytes);
+    }
+
+    /**
+     * Share of allocated chunk space lost to size-class rounding
+     */
+    public synchronized double getInternalFragmentation() {
+        return allocatedBytes == 0 ? 0 : 1 - (double) requestedBytes / allocatedBytes;
+    }
+
+    /**
+     * Share of reserved memory sitting in free chunks or free slabs
+     */
+    public synchronized double getExternalFragmentation() {
+        return slabCount == 0 ? 0 : 1 - (double) allocatedBytes / ((long) slabCount * slabBytes);
+    }
+
+    /**
+     * Allocations refused because no slab could be spared
+     */
+    public synchronized long getFailures() {
+        return failures;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("SlabAllocator[slabs=%d/%d x %d KB, chunks=%d, stored=%d KB, utilization=%.1f%%, "
+                        + "internal fragmentation=%.1f%%, free space=%.1f%%, failures=%d]",
+                slabCount, maxSlabs, slabBytes / 1024, chunkCount, requestedBytes / 1024, getUtilization() * 100,
+                getInternalFragmentation() * 100, getExternalFragmentation() * 100, failures);
+    }
+}
@@ -0,0 +1,39 @@
+package com.proxy.cache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Where the bytes of a CachedResponse live: a slab chunk in memory or a region of a disk segment
+ */
+interface StoredBytes {
+
+    int length();
+
+    /**
+     * Bytes the storage reserves for this entry (at least length())
+     */
+    int weight();
+
+    /**
+     * Independent read-only views of the bytes, in order (one unless stored in chunks)
+     */
+    ByteBuffer[] buffers();
+
+    byte get(int position);
+
+    void get(int position, byte[] dst, int offset, int count);
+
+    /**
+     * Write up to count bytes from position on to target, as far as it accepts them without
+     * blocking
+     * @return bytes written
+     */
+    long transferTo(long position, long count, WritableByteChannel target) throws IOException;
+
+    /**
+     * The last reference to the entry is gone: give the space back
+     */
+    void free();
+}
@@ -0,0 +1,239 @@
+package com.proxy.cache;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * Byte-weighted W-TinyLFU eviction policy (Einziger et al.), the bookkeeping behind CacheManager.
+ *
+ * - Window: new entries enter a small LRU (1% of the budget) so bursts of fresh keys get a
+ *   chance to build up frequency.
+ * - Main: a segmented LRU with a probation and a protected segment (80% of main). A hit in
+ *   probation promotes to protected; protected overflow is demoted back to probation.
+ * - Admission: entries leaving the window compete with main's LRU victim and only get in if
+ *   the FrequencySketch has seen them more often. A scan of one-off URLs therefore churns
+ *   through the window without displacing the frequently used entries in main.
+ *
+ * Keys are mapped to the value they were added with, so an eviction can tell the caller
+ * exactly which mapping to drop. Not thread-safe; CacheManager replays its read and write
+ * buffers into it under the eviction lock.
+ */
+final class WTinyLfuPolicy<V> {
+
+    private enum Segment {
+        WINDOW, PROBATION, PROTECTED
+    }
+
+    private static final class Node<V> {
+        final String key;
+        V value;
+        long weight;
+        Segment segment;
+        Node<V> prev;
+        Node<V> next;
+
+        Node(String key, V value, long weight) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * Doubly linked LRU list, least recently used first
+     */
+    private static final class Queue<V> {
+        Node<V> head;
+        Node<V> tail;
+        long bytes;
+
+        void addLast(Node<V> node) {
+            node.prev = tail;
+            node.next = null;
+            if (tail == null) {
+                head = node;
+            } else {
+                tail.next = node;
+            }
+            tail = node;
+            bytes += node.weight;
+        }
+
+        void remove(Node<V> node) {
+            if (node.prev == null) {
+                head = node.next;
+            } else {
+                node.prev.next = node.next;
+            }
+            if (node.next == null) {
+                tail = node.prev;
+            } else {
+                node.next.prev = node.prev;
+            }
+            node.prev = null;
+            node.next = null;
+            bytes -= node.weight;
+        }
+    }
+
+    private final long maximumBytes;
+    private final long windowMaximum;
+    private final long protectedMaximum;
+    private final FrequencySketch sketch;
+    private final Map<String, Node<V>> nodes = new HashMap<>();
+    private final Queue<V> window = new Queue<>();
+    private final Queue<V> probation = new Queue<>();
+    private final Queue<V> protectedQueue = new Queue<>();
+
+    private long evictions = 0;
+    private long evictedBytes = 0;
+    private long rejected = 0;
+
+    /**
+     * @param maximumBytes    Total weight the cache may hold
+     * @param expectedEntries Rough entry count, sizes the frequency sketch
+     */
+    WTinyLfuPolicy(long maximumBytes, int expectedEntries) {
+        this.maximumBytes = maximumBytes;
+        this.windowMaximum = Math.max(1, maximumBytes / 100);
+        this.protectedMaximum = (maximumBytes - windowMaximum) * 8 / 10;
+        this.sketch = new FrequencySketch(expectedEntries);
+    }
+
+    /**
+     * A lookup of key, hit or miss: count it and refresh its recency
+     */
+    void recordAccess(String key) {
+        sketch.increment(key);
+        Node<V> node = nodes.get(key);
+        if (node == null) return;
+
+        switch (node.segment) {
+            case WINDOW -> {
+                window.remove(node);
+                window.addLast(node);
+            }
+            case PROBATION -> {
+                probation.remove(node);
+                node.segment = Segment.PROTECTED;
+                protectedQueue.addLast(node);
+                // Demote the coldest protected entries to make room
+                while (protectedQueue.bytes > protectedMaximum && protectedQueue.head != node) {
+                    Node<V> demoted = protectedQueue.head;
+                    protectedQueue.remove(demoted);
+                    demoted.segment = Segment.PROBATION;
+                    probation.addLast(demoted);
+                }
+            }
+            case PROTECTED -> {
+                protectedQueue.remove(node);
+                protectedQueue.addLast(node);
+            }
+        }
+    }
+
+    /**
+     * key was stored (or replaced) with value; entries that no longer fit are passed to evicted
+     */
+    void add(String key, V value, long weight, BiConsumer<String, V> evicted) {
+        Node<V> node = nodes.get(key);
+        if (node != null) {
+            // Replacement keeps the entry's position, only its value and weight change
+            queueOf(node).remove(node);
+            node.value = value;
+            node.weight = weight;
+            queueOf(node).addLast(node);
+        } else {
+            node = new Node<>(key, value, weight);
+            node.segment = Segment.WINDOW;
+            nodes.put(key, node);
+            window.addLast(node);
+        }
+        evict(evicted);
+    }
+
+    /**
+     * key was removed by the cache itself (expired, no longer cacheable); ignored if it has
+     * since been replaced by another value
+     */
+    void remove(String key, V value) {
+        Node<V> node = nodes.get(key);
+        if (node != null && node.value == value) {
+            nodes.remove(key);
+            queueOf(node).remove(node);
+        }
+    }
+
+    private void evict(BiConsumer<String, V> evicted) {
+        // Window overflow moves to probation; the first one moved is the first admission candidate
+        Node<V> candidate = null;
+        while (window.bytes > windowMaximum && window.head != null) {
+            Node<V> spilled = window.head;
+            window.remove(spilled);
+            spilled.segment = Segment.PROBATION;
+            probation.addLast(spilled);
+            if (candidate == null) candidate = spilled;
+        }
+
+        while (weightedSize() > maximumBytes) {
+            Node<V> victim = probation.head != null ? probation.head
+                    : protectedQueue.head != null ? protectedQueue.head : window.head;
+            if (candidate == null || candidate == victim) {
+                if (candidate == victim) candidate = victim.next;
+                discard(victim, evicted);
+            } else if (sketch.frequency(candidate.key) > sketch.frequency(victim.key)) {
+                discard(victim, evicted);
+            } else {
+                // Candidates lose ties: a newcomer must prove itself more popular than the victim
+                Node<V> next = candidate.next;
+                discard(candidate, evicted);
+                rejected++;
+                candidate = next;
+            }
+        }
+    }
+
+    private void discard(Node<V> node, BiConsumer<String, V> evicted) {
+        nodes.remove(node.key);
+        queueOf(node).remove(node);
+        evictions++;
+        evictedBytes += node.weight;
+        evicted.accept(node.key, node.value);
+    }
+
+    private Queue<V> queueOf(Node<V> node) {
+        return switch (node.segment) {
+            case WINDOW -> window;
+            case PROBATION -> probation;
+            case PROTECTED -> protectedQueue;
+        };
+    }
+
+    long weightedSize() {
+        return window.bytes + probation.bytes + protectedQueue.bytes;
+    }
+
+    long maximumBytes() {
+        return maximumBytes;
+    }
+
+    int size() {
+        return nodes.size();
+    }
+
+    long evictions() {
+        return evictions;
+    }
+
+    long evictedBytes() {
+        return evictedBytes;
+    }
+
+    /**
+     * Newcomers evicted because main's victim was used more often (admission rejections)
+     */
+    long rejected() {
+        return rejected;
+    }
+}
@@ -1,13 +1,25 @@
 package com.proxy.core;
 
 import com.proxy.cache.CacheManager;
+import com.proxy.cache.CachedResponse;
+import com.proxy.cache.ContentCoding;
+import com.proxy.cache.DecodedResponse;
+import com.proxy.cache.FreshnessCalculator;
+import com.proxy.cache.PendingCacheEntry;
+import com.proxy.cache.RangeResponse;
+import com.proxy.core.http.BodyFramer;
+import com.proxy.core.http.HttpHead;
 import com.proxy.io.ConnectionEstablisher;
+import com.proxy.io.RingBuffer;
 import com.proxy.io.TunnelingHelper;
 
 import java.io.*;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 
 public class HttpRequestProcessor {
     private final CacheManager cacheManager;
@@ -109,11 +121,16 @@ public class HttpRequestProcessor {
 
         // Khai báo socket ngoài khối try-catch để đóng socket trong finally
         Socket serverSocket = null;
+        String host = null;
+        int port = 80;
+        boolean serverReusable = false;
+        PendingCacheEntry cacheEntry = null;
+        CachedResponse staleResponse = null;
 
         try {
             String urlString = requestLine.split(" ")[1];
             URL url = new URL(urlString);
-            String host = url.getHost();
+            host = url.getHost();
             if (com.proxy.cache.BlacklistManager.getInstance().isBlocked(host)) {
                 String forbiddenMessage = "HTTP/1.1 403 Forbidden\r\nContent-Type: text/plain\r\nContent-Length: 13\r\n\r\nAccess Denied!";
                 clientOut.write(forbiddenMessage.getBytes());
@@ -121,21 +138,59 @@ public class HttpRequestProcessor {
                 System.out.println("   [SECURITY] Blocked access to: " + host + " (HTTP)");
                 return; // Dừng xử lý
             }
-            // Bước 1: Kiểm tra Cache
-            byte[] cachedData = cacheManager.get(urlString);
-            if (cachedData != null) {
-                clientOut.write(cachedData);
+            // Client headers are read up front: the cache key can depend on them (Vary)
+            ByteArrayOutputStream requestBytes = new ByteArrayOutputStream();
+            requestBytes.write((requestLine + "\r\n").getBytes());
+            String headerLine;
+            while (!(headerLine = clientIn.readLine()).isEmpty()) {
+                requestBytes.write((headerLine + "\r\n").getBytes());
+            }
+            requestBytes.write('\r');
+            requestBytes.write('\n');
+            HttpHead requestHead = HttpHead.parse(requestBytes.toByteArray());
+            BodyFramer requestFramer = requestHead.requestBodyFramer(0);
+            if (requestFramer == null) {
+                // Transfer-Encoding not ending in chunked or a bad Content-Length: the body length is unknown (RFC 9112 6.3)
+                clientOut.write("HTTP/1.1 400 Bad Request\r\nContent-Length: 0\r\nConnection: close\r\n\r\n".getBytes());
                 clientOut.flush();
                 return;
             }
+            // Only the head is forwarded: after a request body the origin would still be waiting
+            // for it, so the connection cannot carry another request
+            boolean requestBodyless = requestFramer.isComplete();
+            String cacheKey = cacheManager.keyFor(urlString, requestHead::getHeader);
+            boolean acceptsGzip = ContentCoding.acceptsGzip(requestHead.getHeader("Accept-Encoding"));
+            String range = requestHead.getHeader("Range");
+
+            // Bước 1: Kiểm tra Cache (a URL that cannot be keyed is just forwarded)
+            CachedResponse cached = cacheKey == null ? null : cacheManager.lookup(cacheKey);
+            if (cached != null && cached.isServable() && cached.retain()) {
+                try {
+                    RangeResponse partial = range == null ? null
+                            : cacheManager.rangeResponse(cached, range, requestHead.getHeader("If-Range"), acceptsGzip);
+                    if (partial != null) {
+                        writeRange(partial, clientOut);
+                    } else {
+                        writeCached(cached, clientOut, acceptsGzip);
+                    }
+                } finally {
+                    cached.release();
+                }
+                return;
+            }
+            if (cached != null && !cached.retain()) {
+                cached = null; // Evicted meanwhile, nothing left to revalidate
+            }
+            staleResponse = cached;
 
             // Bước 2: Cache MISS - Phân tích URL và kết nối Server đích
-            int port = url.getPort() == -1 ? 80 : url.getPort();
+            port = url.getPort() == -1 ? 80 : url.getPort();
 
-            // Kết nối Server đích (sẽ có timeout 10s)
-            serverSocket = connectionEstablisher.establish(host, port);
+            // Kết nối Server đích (sẽ có timeout 10s), reusing an idle keep-alive connection if pooled
+            serverSocket = connectionEstablisher.establishReusable(host, port);
             OutputStream serverOut = serverSocket.getOutputStream();
-            InputStream serverIn = serverSocket.getInputStream();
+            // Buffered once per exchange so header lines are not read with one syscall per byte
+            InputStream serverIn = new BufferedInputStream(serverSocket.getInputStream());
 
             // --- BƯỚC GỬI REQUEST ---
             // 1. Sửa Request Line (chỉ gửi path)
@@ -148,42 +203,65 @@ public class HttpRequestProcessor {
             // 2. Gửi Request Line và Headers
             serverOut.write((newRequestLine + "\r\n").getBytes());
 
-            String headerLine;
-            while (!(headerLine = clientIn.readLine()).isEmpty()) {
-                serverOut.write((headerLine + "\r\n").getBytes());
+            boolean authorized = false;
+            boolean conditional = false;
+            String[] requestLines = requestBytes.toString().split("\r\n");
+            for (int i = 1; i < requestLines.length; i++) {
+                String header = requestLines[i];
+                int colon = header.indexOf(':');
+                if (colon > 0 && requestHead.isHopByHop(header.substring(0, colon).trim())) {
+                    continue; // Proxy-Connection and the headers named in Connection end here
+                }
+                serverOut.write((header + "\r\n").getBytes());
+                authorized |= header.regionMatches(true, 0, "Authorization:", 0, 14);
+                conditional |= header.regionMatches(true, 0, "If-", 0, 3)
+                        || header.regionMatches(true, 0, "Range:", 0, 6);
+            }
+            // Stale entry with validators: ask the origin whether it changed (a client's own
+            // conditional or range request is forwarded untouched)
+            boolean revalidating = cached != null && !conditional && requestLine.startsWith("GET");
+            if (revalidating) {
+                serverOut.write(cached.conditionalHeaders());
             }
             serverOut.write('\r');
             serverOut.write('\n'); // Kết thúc Headers bằng dòng trống
             serverOut.flush();
 
-            System.out.println("   [DEBUG-REQUEST] Request completely forwarded to origin server.");
-
             // --- BƯỚC NHẬN RESPONSE ---
-            ByteArrayOutputStream fullResponse = new ByteArrayOutputStream();
-            // Lớp serverIn (InputStream) đã có
-            byte[] buffer = new byte[8192];
-            int bytesRead;
-
-            // *Sử dụng BufferedReader để đọc Header (vì nó cần đọc từng dòng)*
-            BufferedReader serverReader = new BufferedReader(new InputStreamReader(serverIn));
+            // Tee: every chunk goes to the client as soon as it arrives and is appended to the
+            // pending cache entry, which is only committed if the response completes
+            // (a range miss is not captured, the whole response is filled in the background instead)
+            if (cacheKey != null && requestLine.startsWith("GET") && range == null) {
+                cacheEntry = cacheManager.beginEntry(cacheKey, requestHead);
+            }
+            // Header lines come off the same stream as the body: a separate BufferedReader would
+            // swallow body bytes and leave the connection unusable for the next request
             String line;
-            int contentLength = -1;
-            boolean isChunked = false;
             boolean headerFound = false;
+            boolean isHttp10 = false;
+            boolean connectionClose = false;
+            boolean connectionKeepAlive = false;
+            boolean statusLine = true;
+            boolean statusOk = false;
+            ByteArrayOutputStream headBytes = new ByteArrayOutputStream();
 
             // Đọc và phân tích Header
-            while ((line = serverReader.readLine()) != null) {
+            while ((line = readHeaderLine(serverIn)) != null) {
                 
-                fullResponse.write(headerLine.getBytes());
-
-                if (line.toLowerCase().startsWith("content-length:")) {
-                    try {
-                        contentLength = Integer.parseInt(line.substring("content-length:".length()).trim());
-                    } catch (NumberFormatException ignored) {
-                    }
-                } else if (line.toLowerCase().startsWith("transfer-encoding:")
-                        && line.toLowerCase().contains("chunked")) {
-                    isChunked = true;
+                byte[] lineBytes = (line + "\r\n").getBytes();
+                if (!revalidating) {
+                    // Captured only once the response head is known (see below)
+                    clientOut.write(lineBytes);
+                }
+                headBytes.write(lineBytes);
+
+                if (statusLine) {
+                    isHttp10 = line.startsWith("HTTP/1.0");
+                    statusOk = line.matches("HTTP/1\\.\\d 200( .*)?");
+                    statusLine = false;
+                } else if (line.toLowerCase().startsWith("connection:")) {
+                    connectionClose = line.toLowerCase().contains("close");
+                    connectionKeepAlive = line.toLowerCase().contains("keep-alive");
                 }
 
                 if (line.isEmpty()) {
@@ -197,73 +275,182 @@ public class HttpRequestProcessor {
                 System.err.println("   [ERROR] Failed to read HTTP Response Headers.");
                 throw new IOException("Failed to read HTTP Response Headers.");
             }
+            HttpHead responseHead = HttpHead.parse(headBytes.toByteArray());
+            if (revalidating) {
+                if (responseHead.getStatusCode() == 304) {
+                    // Not modified: refresh the stored entry in place and send it, the 304 has no body
+                    cacheManager.revalidated(cacheKey, cached, responseHead, authorized);
+                    if (cacheEntry != null) {
+                        cacheEntry.completeFrom(cached);
+                    }
+                    writeCached(cached, clientOut, acceptsGzip);
+                    serverReusable = requestBodyless && !connectionClose && (!isHttp10 || connectionKeepAlive);
+                    return;
+                }
+                // Changed: relay the new response like any miss
+                clientOut.write(headBytes.toByteArray());
+            }
+            // Headers reach the client before the body is read
+            clientOut.flush();
 
-            // --- BƯỚC B2: ĐỌC BODY DỰA TRÊN HEADER HOẶC TIMEOUT ---
+            int status = responseHead.getStatusCode();
+            if (cacheKey != null && range != null && requestLine.startsWith("GET") && (status == 200 || status == 206)) {
+                cacheManager.rangeMiss(cacheKey, responseHead);
+            }
 
-            if (isChunked) {
-                // Để xử lý Chunked, chúng ta cần dùng thư viện hoặc chuyển sang NIO.
-                // Tạm thời, dùng timeout. Cần đóng serverReader để không làm hỏng stream.
-                System.err.println("   [WARNING] Encountered Chunked Encoding. Using Socket Timeout Fallback.");
-                // THỰC HIỆN LOGIC TIMEOUT FALLBACK CŨ:
-                try {
-                    while ((bytesRead = serverIn.read(buffer)) != -1) {
-                        fullResponse.write(buffer, 0, bytesRead);
-                    }
-                } catch (SocketTimeoutException ignored) {
-                    /* Exit loop */ }
+            // Content-Length, chunked or until the origin closes, same rules as the NIO relay
+            BodyFramer responseFramer = responseHead.responseBodyFramer(0, requestHead.getMethod());
+            if (cacheEntry != null) {
+                // Uncacheable responses are dropped before the body is captured; whether the
+                // origin keeps the connection open only matters for reusing it. A body that ends
+                // when the connection does cannot be told apart from one cut short, so it is not stored
+                long ttlMillis = statusOk && responseFramer.isSelfDelimited()
+                        ? FreshnessCalculator.freshnessMillis(responseHead, authorized, System.currentTimeMillis())
+                        : FreshnessCalculator.NOT_CACHEABLE;
+                if (FreshnessCalculator.isStorable(responseHead, ttlMillis)) {
+                    cacheEntry.setTtlMillis(ttlMillis);
+                    // The variant is decided before any byte reaches the followers
+                    cacheEntry.setResponseHead(responseHead);
+                    cacheEntry.append(headBytes.toByteArray(), 0, headBytes.size());
+                } else {
+                    abandon(cacheEntry);
+                }
+            }
 
-            } else if (contentLength != -1) {
-                // Đọc chính xác số byte (Content-Length)
-                System.out.println("   [DEBUG-READ] Reading exactly " + contentLength + " bytes (Content-Length).");
-                int totalBytesRead = 0;
+            // --- BƯỚC B2: ĐỌC BODY THEO FRAMING CỦA RESPONSE ---
+            boolean complete = relayBody(serverIn, responseFramer, clientOut, cacheEntry);
 
-                // Vòng lặp đọc Body: LƯU Ý: Phải đọc từ InputStream gốc vì BufferedReader đã
-                // hoàn thành vai trò của nó.
-                // Dữ liệu còn lại trong InputStream là Body
+            // Body read exactly to its end: the connection can carry another request
+            serverReusable = complete && responseFramer.isSelfDelimited() && requestBodyless && !connectionClose
+                    && (!isHttp10 || connectionKeepAlive);
+            clientOut.flush();
 
-                while (totalBytesRead < contentLength && (bytesRead = serverIn.read(buffer)) != -1) {
-                    int bytesToRead = Math.min(bytesRead, contentLength - totalBytesRead);
-                    fullResponse.write(buffer, 0, bytesToRead);
-                    totalBytesRead += bytesToRead;
+            // Bước 4: Lưu vào Cache khi response đã hoàn tất
+            if (cacheEntry != null && complete && statusOk) {
+                cacheEntry.commit();
+            }
 
-                    if (totalBytesRead >= contentLength) {
-                        break; // Đã đọc đủ số byte
-                    }
+        } catch (IOException e) {
+            System.err.println("   [ERROR] HTTP processing failed: " + e.getMessage());
+            serverReusable = false;
+        } finally {
+            // No-op after commit; drops a partial capture if the client or origin aborted
+            abandon(cacheEntry);
+            if (staleResponse != null) {
+                staleResponse.release();
+            }
+            if (serverSocket != null) {
+                if (serverReusable) {
+                    connectionEstablisher.release(host, port, serverSocket);
+                } else {
+                    serverSocket.close();
                 }
-
-            } else {
-                // Không có Content-Length và không phải Chunked: Dùng timeout
-                System.err.println("   [WARNING] No Content-Length or Chunked. Using Socket Timeout Fallback.");
-                // THỰC HIỆN LOGIC TIMEOUT FALLBACK CŨ:
-                try {
-                    while ((bytesRead = serverIn.read(buffer)) != -1) {
-                        fullResponse.write(buffer, 0, bytesRead);
-                    }
-                } catch (SocketTimeoutException ignored) {
-                    /* Exit loop */ }
             }
+        }
+    }
 
-            // Chú ý: Đảm bảo không gọi serverReader.close() để tránh đóng serverIn quá sớm.
-            // Dù vậy, việc trộn BufferedReader và InputStream gốc vẫn tiềm ẩn rủi ro trong
-            // Java.
-            // Tuy nhiên, đây là cách triển khai Task B chính xác nhất trong mô hình
-            // Blocking I/O.
+    /**
+     * Relay the response body as far as its framing goes, teeing it into the pending cache entry.
+     * The framer scans each read through a ring, so a chunked body ends at its last chunk.
+     * @return whether the body ended where its framing says, with no bytes after it
+     */
+    private static boolean relayBody(InputStream serverIn, BodyFramer framer, OutputStream clientOut,
+            PendingCacheEntry cacheEntry) throws IOException {
+        byte[] buffer = new byte[8192];
+        RingBuffer ring = new RingBuffer(ByteBuffer.allocate(buffer.length));
+        try {
+            while (!framer.isComplete()) {
+                int bytesRead = serverIn.read(buffer);
+                if (bytesRead == -1) {
+                    framer.onEndOfStream();
+                    break;
+                }
+                // Everything scanned so far has been relayed, so the ring starts where buffer does
+                ring.put(ByteBuffer.wrap(buffer, 0, bytesRead));
+                int length = (int) (framer.advance(ring) - ring.readSequence());
+                tee(buffer, length, clientOut, cacheEntry);
+                ring.skip(length);
+            }
+        } catch (SocketTimeoutException e) {
+            if (framer.isSelfDelimited()) throw e;
+            // Close-delimited body from an origin that keeps the connection open: the end is a guess
+            return false;
+        }
+        return framer.isComplete() && ring.isEmpty();
+    }
 
-            byte[] responseData = fullResponse.toByteArray();
+    /**
+     * Send bytes to the client right away and append them to the pending cache entry
+     */
+    private static void tee(byte[] data, int length, OutputStream clientOut, PendingCacheEntry cacheEntry)
+            throws IOException {
+        clientOut.write(data, 0, length);
+        if (cacheEntry != null) {
+            cacheEntry.append(data, 0, length);
+        }
+    }
 
-            // Bước 4: Lưu vào Cache và gửi về Client
-            if (requestLine.startsWith("GET") && responseData.length > 0) {
-                cacheManager.put(urlString, responseData);
+    /**
+     * Write a cached response straight from its off-heap chunk (caller holds a reference)
+     */
+    private static void writeCached(CachedResponse cached, OutputStream clientOut, boolean acceptsGzip)
+            throws IOException {
+        DecodedResponse decoded = !acceptsGzip && cached.isGzipEncoded() ? DecodedResponse.open(cached) : null;
+        if (decoded != null) {
+            // Stored gzip'd, the client does not accept it: inflate on the way out
+            try {
+                for (ByteBuffer piece = decoded.next(); piece != null; piece = decoded.next()) {
+                    clientOut.write(piece.array(), piece.arrayOffset() + piece.position(), piece.remaining());
+                }
+            } finally {
+                decoded.close();
             }
-
-            clientOut.write(responseData);
             clientOut.flush();
+            return;
+        }
+        WritableByteChannel channel = Channels.newChannel(clientOut);
+        long position = 0;
+        while (position < cached.size()) {
+            position += cached.writeTo(channel, position);
+        }
+        clientOut.flush();
+    }
 
-        } catch (IOException e) {
-            System.err.println("   [ERROR] HTTP processing failed: " + e.getMessage());
-        } finally {
-            if (serverSocket != null)
-                serverSocket.close();
+    /**
+     * Write the requested ranges of a cached response, sliced from its stored bytes (caller
+     * holds a reference)
+     */
+    private static void writeRange(RangeResponse partial, OutputStream clientOut) throws IOException {
+        WritableByteChannel channel = Channels.newChannel(clientOut);
+        long position = 0;
+        while (position < partial.size()) {
+            position += partial.writeTo(channel, position);
+        }
+        clientOut.flush();
+    }
+
+    private static void abandon(PendingCacheEntry cacheEntry) {
+        if (cacheEntry != null) {
+            cacheEntry.abandon();
+        }
+    }
+
+    /**
+     * One CRLF-terminated header line read byte by byte, or null at end of stream
+     */
+    private static String readHeaderLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                int length = line.length();
+                if (length > 0 && line.charAt(length - 1) == '\r') {
+                    line.setLength(length - 1);
+                }
+                return line.toString();
+            }
+            line.append((char) b);
         }
+        return line.length() > 0 ? line.toString() : null;
     }
 }
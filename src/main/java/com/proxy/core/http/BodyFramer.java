@@ -0,0 +1,177 @@
+package com.proxy.core.http;
+
+import com.proxy.io.RingBuffer;
+
+import java.io.IOException;
+
+/**
+ * Incremental message-body framing over a RingBuffer.
+ *
+ * Tells the relay how far the bytes of the current message extend, without copying them:
+ * Content-Length bodies are a simple count, chunked bodies are scanned with a small state
+ * machine that jumps over chunk data, and close-delimited bodies end at EOF.
+ * Positions are ring sequences, so scanning resumes exactly where the last read stopped.
+ */
+public class BodyFramer {
+
+    private enum Mode {
+        LENGTH, CHUNKED, UNTIL_CLOSE
+    }
+
+    private enum ChunkState {
+        SIZE, EXTENSION, SIZE_LF, DATA, DATA_CR, DATA_LF, TRAILER_START, TRAILER, FINAL_LF
+    }
+
+    private static final int MAX_CHUNK_SIZE_DIGITS = 15;
+
+    private final Mode mode;
+    private long position;   // next sequence to scan
+    private long remaining;  // bytes left in the body (LENGTH) or current chunk (CHUNKED)
+    private boolean complete;
+
+    private ChunkState chunkState = ChunkState.SIZE;
+    private int chunkSizeDigits = 0;
+
+    private BodyFramer(Mode mode, long start, long remaining) {
+        this.mode = mode;
+        this.position = start;
+        this.remaining = remaining;
+        this.complete = mode == Mode.LENGTH && remaining == 0;
+    }
+
+    public static BodyFramer fixedLength(long start, long length) {
+        return new BodyFramer(Mode.LENGTH, start, length);
+    }
+
+    /**
+     * Message without a body (GET requests, HEAD/204/304 responses)
+     */
+    public static BodyFramer empty(long start) {
+        return new BodyFramer(Mode.LENGTH, start, 0);
+    }
+
+    public static BodyFramer chunked(long start) {
+        return new BodyFramer(Mode.CHUNKED, start, 0);
+    }
+
+    public static BodyFramer untilClose(long start) {
+        return new BodyFramer(Mode.UNTIL_CLOSE, start, 0);
+    }
+
+    /**
+     * Scan the bytes that have arrived since the last call.
+     * @return sequence up to which ring bytes belong to this message
+     * @throws IOException on malformed chunked framing
+     */
+    public long advance(RingBuffer ring) throws IOException {
+        long available = ring.writeSequence();
+        if (complete || position >= available) {
+            return position;
+        }
+
+        switch (mode) {
+            case LENGTH -> {
+                long n = Math.min(remaining, available - position);
+                position += n;
+                remaining -= n;
+                complete = remaining == 0;
+            }
+            case UNTIL_CLOSE -> position = available;
+            case CHUNKED -> scanChunked(ring, available);
+        }
+        return position;
+    }
+
+    /**
+     * Peer closed its side. Only close-delimited bodies end cleanly this way.
+     */
+    public void onEndOfStream() {
+        if (mode == Mode.UNTIL_CLOSE) {
+            complete = true;
+        }
+    }
+
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Sequence just past the last byte scanned so far (the message end once complete)
+     */
+    public long position() {
+        return position;
+    }
+
+    /**
+     * Whether the connection can carry another message after this one
+     */
+    public boolean isSelfDelimited() {
+        return mode != Mode.UNTIL_CLOSE;
+    }
+
+    private void scanChunked(RingBuffer ring, long available) throws IOException {
+        while (position < available && !complete) {
+            if (chunkState == ChunkState.DATA) {
+                // Chunk payload is skipped in one jump
+                long n = Math.min(remaining, available - position);
+                position += n;
+                remaining -= n;
+                if (remaining == 0) {
+                    chunkState = ChunkState.DATA_CR;
+                }
+                continue;
+            }
+
+            byte b = ring.get(position++);
+            switch (chunkState) {
+                case SIZE -> {
+                    int digit = Character.digit(b, 16);
+                    if (digit >= 0) {
+                        if (++chunkSizeDigits > MAX_CHUNK_SIZE_DIGITS) {
+                            throw new IOException("Chunk size too large");
+                        }
+                        remaining = remaining * 16 + digit;
+                    } else if (chunkSizeDigits > 0 && (b == ';' || b == ' ' || b == '\t')) {
+                        chunkState = ChunkState.EXTENSION;
+                    } else if (chunkSizeDigits > 0 && b == '\r') {
+                        chunkState = ChunkState.SIZE_LF;
+                    } else {
+                        throw new IOException("Malformed chunk size");
+                    }
+                }
+                case EXTENSION -> {
+                    if (b == '\r') chunkState = ChunkState.SIZE_LF;
+                }
+                case SIZE_LF -> {
+                    expect(b, '\n');
+                    chunkState = remaining == 0 ? ChunkState.TRAILER_START : ChunkState.DATA;
+                }
+                case DATA_CR -> {
+                    expect(b, '\r');
+                    chunkState = ChunkState.DATA_LF;
+                }
+                case DATA_LF -> {
+                    expect(b, '\n');
+                    chunkState = ChunkState.SIZE;
+                    chunkSizeDigits = 0;
+                    remaining = 0;
+                }
+                case TRAILER_START -> chunkState = (b == '\r') ? ChunkState.FINAL_LF : ChunkState.TRAILER;
+                case TRAILER -> {
+                    if (b == '\n') chunkState = ChunkState.TRAILER_START;
+                }
+                case FINAL_LF -> {
+                    expect(b, '\n');
+                    complete = true;
+                }
+                default -> throw new IllegalStateException("Unexpected chunk state " + chunkState);
+            }
+        }
+    }
+
+    private static void expect(byte actual, char expected) throws IOException {
+        if (actual != expected) {
+            throw new IOException("Malformed chunked body: expected " + (int) expected + " got " + actual);
+        }
+    }
+}
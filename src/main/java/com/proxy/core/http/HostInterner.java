@@ -0,0 +1,80 @@
+package com.proxy.core.http;
+
+import com.proxy.core.usecase.ProxyRequestUseCase.HostPort;
+import com.proxy.io.RingBuffer;
+
+/**
+ * Direct-mapped cache of HostPort instances, looked up straight from the bytes of a request head.
+ *
+ * A client keeps asking for the same few origins, so after the first request the host name is
+ * hashed and compared in place in the ring and the cached HostPort (with its lower-cased host
+ * String) is returned without allocating. A colliding host simply replaces the slot, which keeps
+ * memory bounded no matter how many distinct names clients send.
+ * Not thread-safe; one instance per reactor.
+ */
+public class HostInterner {
+
+    public static final int DEFAULT_SLOTS = 256;
+
+    private final HostPort[] slots;
+    private final int mask;
+
+    private long hits = 0;
+    private long misses = 0;
+
+    public HostInterner(int slotCount) {
+        int capacity = Integer.highestOneBit(Math.max(1, slotCount - 1)) << 1;
+        this.slots = new HostPort[capacity];
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * HostPort for the host name in ring sequences [start, end)
+     */
+    public HostPort intern(RingBuffer ring, long start, long end, int port, boolean tunneling) {
+        int hash = port * 31 + (tunneling ? 1 : 0);
+        for (long i = start; i < end; i++) {
+            hash = hash * 31 + toLower(ring.get(i));
+        }
+        int index = (hash ^ (hash >>> 16)) & mask;
+
+        HostPort cached = slots[index];
+        if (cached != null && cached.getPort() == port && cached.isTunneling() == tunneling
+                && matches(cached.getHost(), ring, start, end)) {
+            hits++;
+            return cached;
+        }
+
+        char[] chars = new char[(int) (end - start)];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char) toLower(ring.get(start + i));
+        }
+        HostPort hostPort = new HostPort(new String(chars), port, tunneling);
+        slots[index] = hostPort;
+        misses++;
+        return hostPort;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    private static boolean matches(String host, RingBuffer ring, long start, long end) {
+        if (host.length() != end - start) return false;
+        for (int i = 0; i < host.length(); i++) {
+            if (host.charAt(i) != toLower(ring.get(start + i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int toLower(byte b) {
+        int c = b & 0xff;
+        return (c >= 'A' && c <= 'Z') ? c + ('a' - 'A') : c;
+    }
+}
@@ -0,0 +1,302 @@
+package com.proxy.core.http;
+
+import com.proxy.io.RingBuffer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Start line and headers of one HTTP/1.x request or response, read from a RingBuffer.
+ * Also knows the keep-alive and body framing rules (RFC 9112) for the message it describes.
+ */
+public class HttpHead {
+
+    private final String startLine;
+    private final List<String[]> headers;
+    private final int length;
+
+    private HttpHead(String startLine, List<String[]> headers, int length) {
+        this.startLine = startLine;
+        this.headers = headers;
+        this.length = length;
+    }
+
+    /**
+     * Find the blank line ending a message head that starts at {@code start}.
+     * @return sequence just past the terminating CRLFCRLF, or -1 if it has not arrived yet
+     */
+    public static long findEnd(RingBuffer ring, long start) {
+        long limit = ring.writeSequence();
+        for (long i = start; i + 3 < limit; i++) {
+            if (ring.get(i) == '\r' && ring.get(i + 1) == '\n' && ring.get(i + 2) == '\r' && ring.get(i + 3) == '\n') {
+                return i + 4;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Same as findEnd(RingBuffer, long) for a message held in a byte array (cached responses)
+     * @return index just past the terminating CRLFCRLF, or -1 if there is none
+     */
+    public static int findEnd(byte[] bytes) {
+        return findEnd(bytes, bytes.length);
+    }
+
+    /**
+     * findEnd(byte[]) over the first length bytes only
+     */
+    public static int findEnd(byte[] bytes, int length) {
+        for (int i = 0; i + 3 < length; i++) {
+            if (bytes[i] == '\r' && bytes[i + 1] == '\n' && bytes[i + 2] == '\r' && bytes[i + 3] == '\n') {
+                return i + 4;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Parse the head occupying ring sequences [start, end)
+     */
+    public static HttpHead parse(RingBuffer ring, long start, long end) {
+        byte[] bytes = new byte[(int) (end - start)];
+        ring.copy(start, bytes, 0, bytes.length);
+        return parse(bytes);
+    }
+
+    /**
+     * Parse a head held in a byte array (blocking path, cached responses)
+     */
+    public static HttpHead parse(byte[] bytes) {
+        String[] lines = new String(bytes, StandardCharsets.ISO_8859_1).split("\r\n");
+
+        List<String[]> headers = new ArrayList<>();
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            if (colon > 0) {
+                headers.add(new String[] { lines[i].substring(0, colon).trim(), lines[i].substring(colon + 1).trim() });
+            }
+        }
+        return new HttpHead(lines.length > 0 ? lines[0].trim() : "", headers, bytes.length);
+    }
+
+    /**
+     * This (stored) head with the headers of a 304 response applied, as a cache updates a stored
+     * response on revalidation (RFC 9111 4.3.4). Framing headers are kept from the stored head,
+     * the 304's connection headers are not taken over.
+     */
+    public HttpHead updatedWith(HttpHead notModified) {
+        List<String[]> merged = new ArrayList<>(headers.size());
+        for (String[] header : headers) {
+            if (!notModified.updates(header[0])) {
+                merged.add(header);
+            }
+        }
+        for (String[] header : notModified.headers) {
+            if (notModified.updates(header[0])) {
+                merged.add(header);
+            }
+        }
+        return new HttpHead(startLine, merged, length);
+    }
+
+    /**
+     * Whether this 304 has a header name that replaces the stored one
+     */
+    private boolean updates(String name) {
+        return getHeader(name) != null && !isFramingHeader(name) && !name.equalsIgnoreCase("Connection")
+                && !isHopByHop(name);
+    }
+
+    /**
+     * The head as sent on the wire: start line, headers and the blank line
+     */
+    public byte[] toBytes() {
+        StringBuilder head = new StringBuilder(length > 0 ? length : 256).append(startLine).append("\r\n");
+        for (String[] header : headers) {
+            head.append(header[0]).append(": ").append(header[1]).append("\r\n");
+        }
+        return head.append("\r\n").toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static boolean isFramingHeader(String name) {
+        return name.equalsIgnoreCase("Content-Length") || name.equalsIgnoreCase("Transfer-Encoding");
+    }
+
+    public String getStartLine() {
+        return startLine;
+    }
+
+    /**
+     * Size of the head in bytes, including the blank line
+     */
+    public int getLength() {
+        return length;
+    }
+
+    public String getHeader(String name) {
+        for (String[] header : headers) {
+            if (header[0].equalsIgnoreCase(name)) {
+                return header[1];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Values of every header with this name, in order
+     */
+    public List<String> getHeaders(String name) {
+        List<String> values = new ArrayList<>(1);
+        for (String[] header : headers) {
+            if (header[0].equalsIgnoreCase(name)) {
+                values.add(header[1]);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Whether a comma-separated header (Connection, Transfer-Encoding) contains the token
+     */
+    public boolean hasToken(String name, String token) {
+        for (String[] header : headers) {
+            if (header[0].equalsIgnoreCase(name)) {
+                for (String value : header[1].split(",")) {
+                    if (value.trim().equalsIgnoreCase(token)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    public String getMethod() {
+        int space = startLine.indexOf(' ');
+        return space > 0 ? startLine.substring(0, space) : startLine;
+    }
+
+    /**
+     * Version token: last word of a request line, first word of a status line
+     */
+    public String getVersion() {
+        if (startLine.startsWith("HTTP/")) {
+            int space = startLine.indexOf(' ');
+            return space > 0 ? startLine.substring(0, space) : startLine;
+        }
+        return startLine.substring(startLine.lastIndexOf(' ') + 1);
+    }
+
+    public int getStatusCode() {
+        String[] parts = startLine.split(" ", 3);
+        try {
+            return parts.length > 1 ? Integer.parseInt(parts[1]) : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * HTTP/1.1 is persistent unless "close" is sent; HTTP/1.0 only with an explicit keep-alive.
+     * Proxy-Connection is honoured because browsers still send it to proxies.
+     */
+    public boolean isKeepAlive() {
+        if (hasToken("Connection", "close") || hasToken("Proxy-Connection", "close")) {
+            return false;
+        }
+        if ("HTTP/1.0".equalsIgnoreCase(getVersion())) {
+            return hasToken("Connection", "keep-alive") || hasToken("Proxy-Connection", "keep-alive");
+        }
+        return true;
+    }
+
+    /**
+     * Whether Transfer-Encoding is sent and its final coding is chunked, the only coding that
+     * delimits a message (RFC 9112 6.1)
+     */
+    public boolean isChunked() {
+        List<String> values = getHeaders("Transfer-Encoding");
+        if (values.isEmpty()) return false;
+        String last = values.get(values.size() - 1);
+        return last.substring(last.lastIndexOf(',') + 1).trim().equalsIgnoreCase("chunked");
+    }
+
+    /**
+     * Hop-by-hop header a proxy must not forward (RFC 9110 7.6.1): Proxy-Connection, Keep-Alive
+     * and whatever Connection names. Connection itself and the framing headers are kept,
+     * the proxy frames the message with them.
+     */
+    public boolean isHopByHop(String name) {
+        if (name.equalsIgnoreCase("Proxy-Connection") || name.equalsIgnoreCase("Keep-Alive")) return true;
+        return !name.equalsIgnoreCase("Connection") && !name.equalsIgnoreCase("Host") && !isFramingHeader(name)
+                && hasToken("Connection", name);
+    }
+
+    /**
+     * Framing of a request body starting at {@code bodyStart}: chunked, Content-Length, or none.
+     * @return null if Transfer-Encoding does not end in chunked or comes with Content-Length, or
+     *         if the Content-Length values are not all the same decimal number: the length cannot
+     *         be determined and the request is answered with 400 (RFC 9112 6.3)
+     */
+    public BodyFramer requestBodyFramer(long bodyStart) {
+        if (getHeader("Transfer-Encoding") != null) {
+            return isChunked() && getHeader("Content-Length") == null ? BodyFramer.chunked(bodyStart) : null;
+        }
+        long contentLength = -1;
+        for (String[] header : headers) {
+            if (!header[0].equalsIgnoreCase("Content-Length")) continue;
+            for (String value : header[1].split(",", -1)) {
+                long parsed = parseLength(value.trim());
+                if (parsed < 0 || (contentLength >= 0 && parsed != contentLength)) return null;
+                contentLength = parsed;
+            }
+        }
+        return contentLength > 0 ? BodyFramer.fixedLength(bodyStart, contentLength) : BodyFramer.empty(bodyStart);
+    }
+
+    /**
+     * @return the value of 1 to 18 digits, or -1 for anything else (signs, spaces, overflow)
+     */
+    private static long parseLength(String value) {
+        if (value.isEmpty() || value.length() > 18) return -1;
+        long length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') return -1;
+            length = length * 10 + (c - '0');
+        }
+        return length;
+    }
+
+    /**
+     * Framing of a response body; HEAD requests and 1xx/204/304 responses never have one,
+     * and a response without length information (or with a Transfer-Encoding not ending in
+     * chunked, which overrides Content-Length) runs until the origin closes.
+     */
+    public BodyFramer responseBodyFramer(long bodyStart, String requestMethod) {
+        int status = getStatusCode();
+        if ("HEAD".equalsIgnoreCase(requestMethod) || (status >= 100 && status < 200) || status == 204 || status == 304) {
+            return BodyFramer.empty(bodyStart);
+        }
+        if (getHeader("Transfer-Encoding") != null) {
+            return isChunked() ? BodyFramer.chunked(bodyStart) : BodyFramer.untilClose(bodyStart);
+        }
+        long contentLength = getContentLength();
+        return contentLength >= 0 ? BodyFramer.fixedLength(bodyStart, contentLength) : BodyFramer.untilClose(bodyStart);
+    }
+
+    /**
+     * @return Content-Length, or -1 if absent or invalid
+     */
+    public long getContentLength() {
+        String value = getHeader("Content-Length");
+        if (value == null) return -1;
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
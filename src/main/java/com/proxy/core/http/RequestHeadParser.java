@@ -0,0 +1,642 @@
+package com.proxy.core.http;
+
+import com.proxy.core.usecase.ProxyRequestUseCase.HostPort;
+import com.proxy.io.RingBuffer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Incremental HTTP/1.x request-head parser working in place on a RingBuffer.
+ *
+ * parse() is called after every read and resumes at the byte where the previous call stopped,
+ * so each byte of a head is looked at once no matter how it was split across reads. Nothing is
+ * copied: the request line and headers are recorded as offsets into the ring (zero-copy slices)
+ * and the accessors compare against them in place. The target authority is resolved to an
+ * interned HostPort, for absolute-form URIs and CONNECT authorities alike.
+ * The head is capped at maxHeadBytes and maxHeaders to bound the memory a client can pin.
+ *
+ * One parser per connection, reused for every request through reset().
+ */
+public class RequestHeadParser {
+
+    public enum Result {
+        INCOMPLETE, COMPLETE, TOO_LARGE, MALFORMED
+    }
+
+    private enum State {
+        METHOD, TARGET, VERSION, LINE_LF, HEADER_START, HEADER_NAME, HEADER_VALUE, HEADER_LF, FINAL_LF, DONE
+    }
+
+    public static final int DEFAULT_MAX_HEADERS = 100;
+
+    private static final String[] KNOWN_METHODS = {
+            "GET", "HEAD", "POST", "PUT", "DELETE", "CONNECT", "OPTIONS", "PATCH", "TRACE"
+    };
+
+    // RFC 9110 tchar
+    private static final boolean[] TOKEN_CHARS = new boolean[128];
+    static {
+        for (int c = 0x21; c < 0x7f; c++) {
+            TOKEN_CHARS[c] = "\"(),/:;<=>?@[\\]{}".indexOf(c) < 0;
+        }
+    }
+
+    private final int maxHeadBytes;
+    private final int maxHeaders;
+    private final HostInterner interner;
+
+    private RingBuffer ring;
+    private State state = State.METHOD;
+    private boolean started = false;
+    private long start;
+    private long position;
+
+    // Offsets relative to start
+    private int methodEnd;
+    private int targetStart;
+    private int targetEnd;
+    private int versionStart;
+    private int versionEnd;
+    private int pathStart;
+    // Per header: name start, name end, value start, value end (value trimmed of whitespace)
+    private int[] headerSpans = new int[16 * 4];
+    private int headerCount;
+
+    private String method;
+    private HostPort target;
+    private boolean targetResolved;
+    // Validated by complete(), -1 if there is no Content-Length
+    private long contentLength = -1;
+
+    public RequestHeadParser(int maxHeadBytes, int maxHeaders, HostInterner interner) {
+        this.maxHeadBytes = maxHeadBytes;
+        this.maxHeaders = maxHeaders;
+        this.interner = interner;
+    }
+
+    /**
+     * Forget the current head; the next parse() starts at the ring's read sequence
+     */
+    public void reset() {
+        state = State.METHOD;
+        started = false;
+        headerCount = 0;
+        method = null;
+        target = null;
+        targetResolved = false;
+        contentLength = -1;
+    }
+
+    /**
+     * Scan the bytes that arrived since the last call
+     */
+    public Result parse(RingBuffer ring) {
+        if (!started) {
+            this.ring = ring;
+            start = ring.readSequence();
+            position = start;
+            started = true;
+        }
+        if (state == State.DONE) return Result.COMPLETE;
+
+        long limit = Math.min(ring.writeSequence(), start + maxHeadBytes);
+        while (position < limit) {
+            byte b = ring.get(position);
+            int offset = (int) (position - start);
+            position++;
+
+            switch (state) {
+                case METHOD -> {
+                    if (b == ' ' && offset > 0) {
+                        methodEnd = offset;
+                        targetStart = offset + 1;
+                        state = State.TARGET;
+                    } else if (!isTokenChar(b)) {
+                        return Result.MALFORMED;
+                    }
+                }
+                case TARGET -> {
+                    if (b == ' ' && offset > targetStart) {
+                        targetEnd = offset;
+                        versionStart = offset + 1;
+                        state = State.VERSION;
+                    } else if (b <= ' ' || b == 0x7f) {
+                        return Result.MALFORMED;
+                    }
+                }
+                case VERSION -> {
+                    if (b == '\r' || b == '\n') {
+                        versionEnd = offset;
+                        if (!regionStartsWith(start + versionStart, start + versionEnd, "HTTP/")) {
+                            return Result.MALFORMED;
+                        }
+                        state = (b == '\r') ? State.LINE_LF : State.HEADER_START;
+                    } else if (b <= ' ') {
+                        return Result.MALFORMED;
+                    }
+                }
+                case LINE_LF, HEADER_LF -> {
+                    if (b != '\n') return Result.MALFORMED;
+                    state = State.HEADER_START;
+                }
+                case HEADER_START -> {
+                    if (b == '\r') {
+                        state = State.FINAL_LF;
+                    } else if (b == '\n') {
+                        return complete();
+                    } else if (isTokenChar(b)) {
+                        // Obsolete line folding (leading whitespace) is rejected with the rest
+                        if (headerCount == maxHeaders) return Result.TOO_LARGE;
+                        beginHeader(offset);
+                        state = State.HEADER_NAME;
+                    } else {
+                        return Result.MALFORMED;
+                    }
+                }
+                case HEADER_NAME -> {
+                    if (b == ':') {
+                        int base = (headerCount - 1) * 4;
+                        headerSpans[base + 1] = offset;
+                        headerSpans[base + 2] = -1;
+                        state = State.HEADER_VALUE;
+                    } else if (!isTokenChar(b)) {
+                        return Result.MALFORMED;
+                    }
+                }
+                case HEADER_VALUE -> {
+                    int base = (headerCount - 1) * 4;
+                    if (b == '\r' || b == '\n') {
+                        if (headerSpans[base + 2] < 0) {
+                            headerSpans[base + 2] = offset;
+                            headerSpans[base + 3] = offset;
+                        }
+                        state = (b == '\r') ? State.HEADER_LF : State.HEADER_START;
+                    } else if (b != ' ' && b != '\t') {
+                        if (headerSpans[base + 2] < 0) {
+                            headerSpans[base + 2] = offset;
+                        }
+                        headerSpans[base + 3] = offset + 1;
+                    }
+                }
+                case FINAL_LF -> {
+                    if (b != '\n') return Result.MALFORMED;
+                    return complete();
+                }
+                default -> throw new IllegalStateException("Unexpected parser state " + state);
+            }
+        }
+        return (position - start >= maxHeadBytes) ? Result.TOO_LARGE : Result.INCOMPLETE;
+    }
+
+    public boolean isComplete() {
+        return state == State.DONE;
+    }
+
+    /**
+     * First sequence of the head in the ring
+     */
+    public long getStart() {
+        return start;
+    }
+
+    /**
+     * Sequence just past the blank line ending the head (valid once complete)
+     */
+    public long getEnd() {
+        return position;
+    }
+
+    /**
+     * Size of the head in bytes, including the blank line
+     */
+    public int getLength() {
+        return (int) (position - start);
+    }
+
+    /**
+     * Method name; common methods are shared constants
+     */
+    public String getMethod() {
+        return method;
+    }
+
+    public boolean isConnect() {
+        return "CONNECT".equals(method);
+    }
+
+    /**
+     * Ring sequences [targetStart, targetEnd) hold the request target as sent
+     */
+    public long getTargetStart() {
+        return start + targetStart;
+    }
+
+    public long getTargetEnd() {
+        return start + targetEnd;
+    }
+
+    /**
+     * Sequence where the path of an absolute-form target starts (target end if it has none)
+     */
+    public long getPathStart() {
+        getTarget();
+        return start + pathStart;
+    }
+
+    /**
+     * Request target as a String (allocates)
+     */
+    public String getTargetString() {
+        return slice(start + targetStart, start + targetEnd);
+    }
+
+    /**
+     * Whole request line as a String, for logging (allocates)
+     */
+    public String getRequestLine() {
+        return slice(start, start + versionEnd);
+    }
+
+    public boolean isHttp10() {
+        return regionEqualsIgnoreCase(start + versionStart, start + versionEnd, "HTTP/1.0");
+    }
+
+    /**
+     * Origin server named by the target: the authority of an absolute-form URI, or the
+     * host:port of a CONNECT request. Null for origin-form targets and malformed authorities.
+     */
+    public HostPort getTarget() {
+        if (!targetResolved) {
+            target = resolveTarget();
+            targetResolved = true;
+        }
+        return target;
+    }
+
+    public int getHeaderCount() {
+        return headerCount;
+    }
+
+    /**
+     * Index of the first header with this name, or -1
+     */
+    public int indexOfHeader(String name) {
+        for (int i = 0; i < headerCount; i++) {
+            if (regionEqualsIgnoreCase(start + headerSpans[i * 4], start + headerSpans[i * 4 + 1], name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public long getHeaderValueStart(int index) {
+        return start + headerSpans[index * 4 + 2];
+    }
+
+    public long getHeaderValueEnd(int index) {
+        return start + headerSpans[index * 4 + 3];
+    }
+
+    /**
+     * Value of the first header with this name (allocates), or null
+     */
+    public String getHeader(String name) {
+        int index = indexOfHeader(name);
+        return index < 0 ? null : slice(getHeaderValueStart(index), getHeaderValueEnd(index));
+    }
+
+    /**
+     * Whether a comma-separated header (Connection, Transfer-Encoding) contains the token
+     */
+    public boolean hasToken(String name, String token) {
+        for (int i = 0; i < headerCount; i++) {
+            if (!regionEqualsIgnoreCase(start + headerSpans[i * 4], start + headerSpans[i * 4 + 1], name)) {
+                continue;
+            }
+            long end = getHeaderValueEnd(i);
+            long element = getHeaderValueStart(i);
+            while (element <= end) {
+                long comma = element;
+                while (comma < end && ring.get(comma) != ',') comma++;
+                long from = element;
+                long to = comma;
+                while (from < to && isWhitespace(ring.get(from))) from++;
+                while (to > from && isWhitespace(ring.get(to - 1))) to--;
+                if (regionEqualsIgnoreCase(from, to, token)) {
+                    return true;
+                }
+                element = comma + 1;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return Content-Length, or -1 if absent (an invalid one never gets here, see complete())
+     */
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    /**
+     * Same rules as HttpHead.isKeepAlive(): HTTP/1.1 unless "close", HTTP/1.0 only if asked
+     */
+    public boolean isKeepAlive() {
+        if (hasToken("Connection", "close") || hasToken("Proxy-Connection", "close")) {
+            return false;
+        }
+        if (isHttp10()) {
+            return hasToken("Connection", "keep-alive") || hasToken("Proxy-Connection", "keep-alive");
+        }
+        return true;
+    }
+
+    /**
+     * Framing of the request body that follows the head: chunked, Content-Length, or none
+     * (a Transfer-Encoding that does not end in chunked never gets here, see complete())
+     */
+    public BodyFramer bodyFramer() {
+        if (indexOfHeader("Transfer-Encoding") >= 0) {
+            return BodyFramer.chunked(position);
+        }
+        long contentLength = getContentLength();
+        return contentLength > 0 ? BodyFramer.fixedLength(position, contentLength) : BodyFramer.empty(position);
+    }
+
+    /**
+     * Whether the header at index is hop-by-hop and must not be forwarded: Proxy-Connection,
+     * Keep-Alive, or a header named in Connection (Connection itself, Host and the framing
+     * headers are kept, same rules as HttpHead.isHopByHop())
+     */
+    public boolean isHopByHop(int index) {
+        long from = start + headerSpans[index * 4];
+        long to = start + headerSpans[index * 4 + 1];
+        if (regionEqualsIgnoreCase(from, to, "Proxy-Connection") || regionEqualsIgnoreCase(from, to, "Keep-Alive")) {
+            return true;
+        }
+        if (regionEqualsIgnoreCase(from, to, "Connection") || regionEqualsIgnoreCase(from, to, "Host")
+                || regionEqualsIgnoreCase(from, to, "Content-Length") || regionEqualsIgnoreCase(from, to, "Transfer-Encoding")) {
+            return false;
+        }
+        for (int i = 0; i < headerCount; i++) {
+            if (!regionEqualsIgnoreCase(start + headerSpans[i * 4], start + headerSpans[i * 4 + 1], "Connection")) {
+                continue;
+            }
+            long end = getHeaderValueEnd(i);
+            long element = getHeaderValueStart(i);
+            while (element <= end) {
+                long comma = element;
+                while (comma < end && ring.get(comma) != ',') comma++;
+                long tokenFrom = element;
+                long tokenTo = comma;
+                while (tokenFrom < tokenTo && isWhitespace(ring.get(tokenFrom))) tokenFrom++;
+                while (tokenTo > tokenFrom && isWhitespace(ring.get(tokenTo - 1))) tokenTo--;
+                if (regionsEqualIgnoreCase(from, to, tokenFrom, tokenTo)) {
+                    return true;
+                }
+                element = comma + 1;
+            }
+        }
+        return false;
+    }
+
+    public boolean hasHopByHopHeaders() {
+        for (int i = 0; i < headerCount; i++) {
+            if (isHopByHop(i)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Copy of the head without its hop-by-hop header lines, with extraHeaders (complete lines)
+     * added before the blank line (allocates)
+     */
+    public byte[] copyForwardedHead(byte[] extraHeaders) {
+        long end = getEnd();
+        long blankLine = ring.get(end - 2) == '\r' ? end - 2 : end - 1;
+        byte[] copy = new byte[getLength() + extraHeaders.length];
+        int length = 0;
+        long kept = start; // Start of the run of bytes still to be copied
+        for (int i = 0; i < headerCount; i++) {
+            if (!isHopByHop(i)) continue;
+            long lineStart = start + headerSpans[i * 4];
+            long lineEnd = i + 1 < headerCount ? start + headerSpans[(i + 1) * 4] : blankLine;
+            ring.copy(kept, copy, length, (int) (lineStart - kept));
+            length += (int) (lineStart - kept);
+            kept = lineEnd;
+        }
+        ring.copy(kept, copy, length, (int) (blankLine - kept));
+        length += (int) (blankLine - kept);
+        System.arraycopy(extraHeaders, 0, copy, length, extraHeaders.length);
+        length += extraHeaders.length;
+        ring.copy(blankLine, copy, length, (int) (end - blankLine));
+        length += (int) (end - blankLine);
+        return Arrays.copyOf(copy, length);
+    }
+
+    /**
+     * A body is delimited by Content-Length or by a Transfer-Encoding ending in chunked; any
+     * other Transfer-Encoding, one sent alongside Content-Length, or Content-Length values that
+     * are not all the same decimal number leave the length in doubt and the request is rejected
+     * as malformed (RFC 9112 6.3)
+     */
+    private Result complete() {
+        state = State.DONE;
+        method = internMethod();
+        int encoding = -1;
+        for (int i = 0; i < headerCount; i++) {
+            long nameFrom = start + headerSpans[i * 4];
+            long nameTo = start + headerSpans[i * 4 + 1];
+            if (regionEqualsIgnoreCase(nameFrom, nameTo, "Transfer-Encoding")) {
+                encoding = i; // The last one holds the final coding
+            } else if (regionEqualsIgnoreCase(nameFrom, nameTo, "Content-Length") && !addContentLength(i)) {
+                return Result.MALFORMED;
+            }
+        }
+        if (encoding >= 0) {
+            long from = getHeaderValueStart(encoding);
+            long to = getHeaderValueEnd(encoding);
+            long last = to;
+            while (last > from && ring.get(last - 1) != ',') last--;
+            while (last < to && isWhitespace(ring.get(last))) last++;
+            if (!regionEqualsIgnoreCase(last, to, "chunked") || indexOfHeader("Content-Length") >= 0) {
+                return Result.MALFORMED;
+            }
+        }
+        return Result.COMPLETE;
+    }
+
+    /**
+     * Fold the comma-separated values of the Content-Length header at index into contentLength
+     * @return false if a value is not 1 to 18 digits or differs from one seen before
+     */
+    private boolean addContentLength(int index) {
+        long end = getHeaderValueEnd(index);
+        long element = getHeaderValueStart(index);
+        while (element <= end) {
+            long comma = element;
+            while (comma < end && ring.get(comma) != ',') comma++;
+            long from = element;
+            long to = comma;
+            while (from < to && isWhitespace(ring.get(from))) from++;
+            while (to > from && isWhitespace(ring.get(to - 1))) to--;
+            if (from == to || to - from > 18) return false;
+            long value = 0;
+            for (long i = from; i < to; i++) {
+                int digit = ring.get(i) - '0';
+                if (digit < 0 || digit > 9) return false;
+                value = value * 10 + digit;
+            }
+            if (contentLength >= 0 && value != contentLength) return false;
+            contentLength = value;
+            element = comma + 1;
+        }
+        return true;
+    }
+
+    private void beginHeader(int offset) {
+        if (headerCount * 4 == headerSpans.length) {
+            int[] grown = new int[headerSpans.length * 2];
+            System.arraycopy(headerSpans, 0, grown, 0, headerSpans.length);
+            headerSpans = grown;
+        }
+        headerSpans[headerCount * 4] = offset;
+        headerCount++;
+    }
+
+    private String internMethod() {
+        for (String known : KNOWN_METHODS) {
+            if (known.length() == methodEnd && regionStartsWith(start, start + methodEnd, known)) {
+                return known;
+            }
+        }
+        return slice(start, start + methodEnd);
+    }
+
+    private HostPort resolveTarget() {
+        long from = start + targetStart;
+        long to = start + targetEnd;
+        pathStart = targetEnd;
+        if (state != State.DONE) return null;
+
+        boolean tunneling = isConnect();
+        int defaultPort = 443;
+        if (!tunneling) {
+            if (regionStartsWithIgnoreCase(from, to, "http://")) {
+                from += 7;
+                defaultPort = 80;
+            } else if (regionStartsWithIgnoreCase(from, to, "https://")) {
+                from += 8;
+            } else {
+                return null;
+            }
+            // Authority ends where the path, query or fragment begins
+            long authorityEnd = from;
+            while (authorityEnd < to) {
+                byte b = ring.get(authorityEnd);
+                if (b == '/' || b == '?' || b == '#') break;
+                authorityEnd++;
+            }
+            pathStart = (int) (authorityEnd - start);
+            to = authorityEnd;
+            // Drop userinfo
+            for (long i = to - 1; i >= from; i--) {
+                if (ring.get(i) == '@') {
+                    from = i + 1;
+                    break;
+                }
+            }
+        }
+
+        long hostStart = from;
+        long hostEnd = to;
+        int port = defaultPort;
+        if (from < to && ring.get(from) == '[') {
+            // IPv6 literal
+            long close = from + 1;
+            while (close < to && ring.get(close) != ']') close++;
+            if (close == to) return null;
+            hostStart = from + 1;
+            hostEnd = close;
+            if (close + 1 < to) {
+                if (ring.get(close + 1) != ':') return null;
+                port = parsePort(close + 2, to, defaultPort);
+            }
+        } else {
+            for (long i = to - 1; i >= from; i--) {
+                if (ring.get(i) == ':') {
+                    hostEnd = i;
+                    port = parsePort(i + 1, to, defaultPort);
+                    break;
+                }
+            }
+        }
+
+        if (hostEnd <= hostStart || port <= 0 || port > 65535) {
+            return null;
+        }
+        return interner.intern(ring, hostStart, hostEnd, port, tunneling);
+    }
+
+    private int parsePort(long from, long to, int defaultPort) {
+        if (from == to) return defaultPort; // "host:" means the default port
+        if (to - from > 5) return -1;
+        int port = 0;
+        for (long i = from; i < to; i++) {
+            int digit = ring.get(i) - '0';
+            if (digit < 0 || digit > 9) return -1;
+            port = port * 10 + digit;
+        }
+        return port;
+    }
+
+    private String slice(long from, long to) {
+        byte[] bytes = new byte[(int) (to - from)];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = ring.get(from + i);
+        }
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    private boolean regionStartsWith(long from, long to, String prefix) {
+        if (to - from < prefix.length()) return false;
+        for (int i = 0; i < prefix.length(); i++) {
+            if (ring.get(from + i) != prefix.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private boolean regionStartsWithIgnoreCase(long from, long to, String prefix) {
+        return to - from >= prefix.length() && regionEqualsIgnoreCase(from, from + prefix.length(), prefix);
+    }
+
+    private boolean regionEqualsIgnoreCase(long from, long to, String value) {
+        if (to - from != value.length()) return false;
+        for (int i = 0; i < value.length(); i++) {
+            if (toLower(ring.get(from + i)) != toLower(value.charAt(i))) return false;
+        }
+        return true;
+    }
+
+    private boolean regionsEqualIgnoreCase(long from, long to, long otherFrom, long otherTo) {
+        if (to - from != otherTo - otherFrom) return false;
+        for (long i = 0; i < to - from; i++) {
+            if (toLower(ring.get(from + i)) != toLower(ring.get(otherFrom + i))) return false;
+        }
+        return true;
+    }
+
+    private static boolean isTokenChar(byte b) {
+        return b > 0 && TOKEN_CHARS[b];
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t';
+    }
+
+    private static int toLower(int c) {
+        c &= 0xff;
+        return (c >= 'A' && c <= 'Z') ? c + ('a' - 'A') : c;
+    }
+}
@@ -2,7 +2,7 @@ package com.proxy.core.usecase;
 
 import com.proxy.cache.BlacklistManager;
 import com.proxy.cache.CacheManager;
-import java.net.URL; 
+import com.proxy.core.http.RequestHeadParser;
 
 /**
  * Use Case xử lý Request đầu tiên, độc lập với tầng I/O.
@@ -19,40 +19,18 @@ public class ProxyRequestUseCase {
     }
 
     /**
-     * Thực thi logic nghiệp vụ (Blacklist/Parsing) trên request line.
-     * @param requestLine Dòng đầu tiên của Request HTTP/HTTPS.
+     * Thực thi logic nghiệp vụ (Blacklist/Parsing) trên request head đã parse.
+     * @param requestHead Request head hoàn chỉnh (CONNECT authority hoặc absolute URI).
      * @return HostPort chứa thông tin server đích, hoặc null nếu bị chặn/lỗi.
      */
-    public HostPort processInitialRequest(String requestLine) {
-        String[] parts = requestLine.split(" ");
-        if (parts.length < 3) return null;
-        
-        String method = parts[0];
-        String urlString = parts[1];
-        
-        HostPort hp = null;
-
-        if (method.equalsIgnoreCase("CONNECT")) {
-            // HTTPS Tunneling
-            String[] hostPort = urlString.split(":");
-            String host = hostPort[0];
-            int port = (hostPort.length > 1) ? Integer.parseInt(hostPort[1]) : 443;
-            hp = new HostPort(host, port, true);
-        } else {
-            // HTTP
-            try {
-                URL url = new URL(urlString);
-                String host = url.getHost();
-                int port = url.getPort() == -1 ? 80 : url.getPort();
-                hp = new HostPort(host, port, false);
-            } catch (Exception e) {
-                System.err.println("   [CORE ERROR] Invalid URL: " + urlString);
-                return null;
-            }
+    public HostPort processInitialRequest(RequestHeadParser requestHead) {
+        // Authority is resolved in place from the buffered head, without split() or new URL()
+        HostPort hp = requestHead.getTarget();
+        if (hp == null) {
+            System.err.println("   [CORE ERROR] Invalid URL: " + requestHead.getTargetString());
+            return null;
         }
         
-        if (hp == null) return null;
-        
         // --- Business Rule: Blacklist Check ---
         if (blacklistManager.isBlocked(hp.getHost())) {
             System.out.println("   [CORE] Blocked access to: " + hp.getHost());
@@ -82,5 +60,28 @@ public class ProxyRequestUseCase {
         public String getHost() { return host; }
         public int getPort() { return port; }
         public boolean isTunneling() { return isTunneling; }
+
+        /**
+         * Same origin server (host case-insensitive, tunneling flag ignored)
+         */
+        public boolean sameTarget(HostPort other) {
+            return other != null && port == other.port && host.equalsIgnoreCase(other.host);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof HostPort)) return false;
+            HostPort other = (HostPort) o;
+            return port == other.port && isTunneling == other.isTunneling && host.equalsIgnoreCase(other.host);
+        }
+
+        @Override
+        public int hashCode() {
+            return (host.toLowerCase().hashCode() * 31 + port) * 31 + (isTunneling ? 1 : 0);
+        }
+
+        @Override
+        public String toString() { return host + ":" + port; }
     }
 }
\ No newline at end of file
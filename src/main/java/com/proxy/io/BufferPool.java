@@ -0,0 +1,153 @@
+package com.proxy.io;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Slab-based pool of direct ByteBuffers for the NIO path.
+ *
+ * Buffers are carved out of large direct slabs, so socket reads/writes skip the JDK's
+ * temporary direct-buffer copy and connections do not produce per-connection garbage.
+ * One pool per reactor thread: the pool is NOT thread-safe and must only be used from its owner thread.
+ * Counters are volatile so the admin/stats thread can read them.
+ */
+public class BufferPool {
+
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+    private static final int SLAB_SIZE = 1024 * 1024;
+
+    private final int bufferSize;
+    private final int buffersPerSlab;
+    private final int maxSlabs;
+
+    private final ArrayDeque<ByteBuffer> freeBuffers = new ArrayDeque<>();
+    // Identity map: ByteBuffer.equals() compares content. Value = true if the buffer belongs to a slab.
+    private final Map<ByteBuffer, Boolean> leasedBuffers = new IdentityHashMap<>();
+
+    private volatile int slabCount = 0;
+    private volatile int leasedCount = 0;
+    private volatile int peakLeasedCount = 0;
+    private volatile long totalLeases = 0;
+    private volatile long unpooledAllocations = 0;
+    private volatile long invalidReleases = 0;
+
+    /**
+     * @param bufferSize Size of each leased buffer (should divide the slab size)
+     * @param maxBytes   Upper bound of direct memory held in slabs; beyond it leases fall back to unpooled buffers
+     */
+    public BufferPool(int bufferSize, long maxBytes) {
+        this.bufferSize = bufferSize;
+        this.buffersPerSlab = Math.max(1, SLAB_SIZE / bufferSize);
+        this.maxSlabs = (int) Math.max(1, maxBytes / ((long) buffersPerSlab * bufferSize));
+    }
+
+    /**
+     * Lease a cleared buffer. Must be returned with release().
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = freeBuffers.poll();
+        boolean pooled = true;
+        if (buffer == null) {
+            if (slabCount < maxSlabs) {
+                allocateSlab();
+                buffer = freeBuffers.poll();
+            } else {
+                // Pool exhausted: serve the request anyway, it just will not be recycled
+                buffer = ByteBuffer.allocateDirect(bufferSize);
+                pooled = false;
+                unpooledAllocations++;
+            }
+        }
+
+        buffer.clear();
+        leasedBuffers.put(buffer, pooled);
+        totalLeases++;
+        leasedCount++;
+        if (leasedCount > peakLeasedCount) {
+            peakLeasedCount = leasedCount;
+        }
+        return buffer;
+    }
+
+    /**
+     * Return a leased buffer. Releasing null is a no-op; releasing a buffer that is not
+     * currently leased (double release or foreign buffer) is counted and ignored.
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null) return;
+
+        Boolean pooled = leasedBuffers.remove(buffer);
+        if (pooled == null) {
+            invalidReleases++;
+            return;
+        }
+
+        leasedCount--;
+        if (pooled) {
+            freeBuffers.push(buffer);
+        }
+    }
+
+    private void allocateSlab() {
+        ByteBuffer slab = ByteBuffer.allocateDirect(buffersPerSlab * bufferSize);
+        for (int i = 0; i < buffersPerSlab; i++) {
+            slab.limit((i + 1) * bufferSize).position(i * bufferSize);
+            freeBuffers.add(slab.slice());
+        }
+        slabCount++;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Buffers currently leased to handlers
+     */
+    public int getLeasedCount() {
+        return leasedCount;
+    }
+
+    public int getPeakLeasedCount() {
+        return peakLeasedCount;
+    }
+
+    /**
+     * Total buffers carved out of slabs so far
+     */
+    public int getCapacity() {
+        return slabCount * buffersPerSlab;
+    }
+
+    public long getAllocatedBytes() {
+        return (long) slabCount * buffersPerSlab * bufferSize;
+    }
+
+    public long getTotalLeases() {
+        return totalLeases;
+    }
+
+    /**
+     * Leases served outside the slabs because the pool was at its byte cap
+     */
+    public long getUnpooledAllocations() {
+        return unpooledAllocations;
+    }
+
+    /**
+     * Double releases or releases of buffers this pool never leased
+     */
+    public long getInvalidReleases() {
+        return invalidReleases;
+    }
+
+    @Override
+    public String toString() {
+        return "BufferPool[leased=" + leasedCount + "/" + getCapacity()
+                + ", peak=" + peakLeasedCount
+                + ", unpooled=" + unpooledAllocations
+                + ", invalidReleases=" + invalidReleases + "]";
+    }
+}
@@ -1,5 +1,7 @@
 package com.proxy.io;
 
+import com.proxy.core.usecase.ProxyRequestUseCase.HostPort;
+
 import java.io.IOException;
 import java.net.Socket;
 import java.net.SocketTimeoutException; 
@@ -7,6 +9,19 @@ import java.net.SocketTimeoutException;
 public class ConnectionEstablisher {
     // Thêm Timeout 5 giây (5000ms)
     private static final int TIMEOUT_MS = 10000; 
+    // Liveness probe on a pooled socket: a read that times out means the origin is still there
+    private static final int PROBE_TIMEOUT_MS = 1;
+    // The probe blocks (under the pool lock), so sockets idle for less than this skip it (-Dproxy.upstreamProbeAfterMs)
+    private static final long PROBE_AFTER_MS = Long.getLong("proxy.upstreamProbeAfterMs", 2_000);
+
+    // Shared by every ClientHandler thread; same per-host and total limits as the NIO reactors' pools
+    private static final UpstreamConnectionPool<Socket> POOL = new UpstreamConnectionPool<>(
+            Integer.getInteger("proxy.upstreamPerHost", 8),
+            Integer.getInteger("proxy.upstreamMaxIdle", 256),
+            Long.getLong("proxy.upstreamIdleMs", 30_000),
+            PROBE_AFTER_MS,
+            ConnectionEstablisher::isAlive,
+            ConnectionEstablisher::closeQuietly);
 
     public Socket establish(String host, int port) throws IOException {
         System.out.println("   [IO] Establishing connection to " + host + ":" + port);
@@ -18,4 +33,62 @@ public class ConnectionEstablisher {
         
         return socket;
     }
-}
\ No newline at end of file
+
+    /**
+     * Like establish(), but reuses an idle keep-alive connection to the host when one is pooled.
+     * Only for plain HTTP exchanges; the socket goes back through release().
+     */
+    public Socket establishReusable(String host, int port) throws IOException {
+        Socket pooled = POOL.acquire(new HostPort(host, port, false), monotonicMillis());
+        if (pooled != null) {
+            System.out.println("   [IO] Reusing pooled connection to " + host + ":" + port);
+            return pooled;
+        }
+        return establish(host, port);
+    }
+
+    /**
+     * Return a socket whose response was read completely and that the origin keeps open
+     */
+    public void release(String host, int port, Socket socket) {
+        if (socket.isClosed() || socket.isInputShutdown() || socket.isOutputShutdown()) {
+            return;
+        }
+        long now = monotonicMillis();
+        // No reactor timer on this path: expire stale idle sockets whenever one comes back
+        POOL.evictIdle(now);
+        POOL.release(new HostPort(host, port, false), socket, now);
+    }
+
+    public static UpstreamConnectionPool<Socket> getPool() {
+        return POOL;
+    }
+
+    private static boolean isAlive(Socket socket) {
+        if (socket.isClosed()) return false;
+        try {
+            socket.setSoTimeout(PROBE_TIMEOUT_MS);
+            try {
+                // Idle connections must have nothing to read: data or EOF both mean unusable
+                socket.getInputStream().read();
+                return false;
+            } catch (SocketTimeoutException e) {
+                socket.setSoTimeout(TIMEOUT_MS);
+                return true;
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private static long monotonicMillis() {
+        return System.nanoTime() / 1_000_000;
+    }
+}
@@ -0,0 +1,265 @@
+package com.proxy.io;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.security.Security;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Asynchronous, caching host name resolver for the NIO path.
+ *
+ * Lookups run on a small resolver pool so a slow DNS server never stalls a selector thread.
+ * Results are delivered through a caller-supplied Executor (the owning reactor's task queue),
+ * so callbacks always run on the reactor thread that asked.
+ * - Positive answers are cached for the TTL reported by the Lookup.
+ * - Failures are cached for a short negative TTL.
+ * - The cache holds at most maxEntries hosts: expired answers are swept when it fills, then the
+ *   answer closest to expiry makes room.
+ * - Concurrent lookups of the same host share one in-flight query.
+ */
+public class DnsResolver {
+
+    /**
+     * Pluggable lookup backend (the system resolver by default, a stub in tests).
+     */
+    public interface Lookup {
+        Resolution lookup(String host) throws UnknownHostException;
+    }
+
+    /**
+     * Lookup result: an address and how long it may be cached.
+     */
+    public static class Resolution {
+        private final InetAddress address;
+        private final long ttlMillis;
+
+        public Resolution(InetAddress address, long ttlMillis) {
+            this.address = address;
+            this.ttlMillis = ttlMillis;
+        }
+
+        public InetAddress getAddress() { return address; }
+        public long getTtlMillis() { return ttlMillis; }
+    }
+
+    /**
+     * Receives the result on the completion executor. Exactly one argument is non-null.
+     */
+    public interface Callback {
+        void onResolved(InetAddress address, UnknownHostException error);
+    }
+
+    private static class CacheEntry {
+        final InetAddress address;
+        final UnknownHostException error;
+        final long expiresAt;
+
+        CacheEntry(InetAddress address, UnknownHostException error, long expiresAt) {
+            this.address = address;
+            this.error = error;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    public static final int DEFAULT_MAX_ENTRIES = 10_000;
+
+    private final Lookup lookup;
+    private final ExecutorService lookupExecutor;
+    private final long negativeTtlMillis;
+    private final int maxEntries;
+
+    private final Map<String, CacheEntry> cache = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<CacheEntry>> inFlight = new ConcurrentHashMap<>();
+
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong lookups = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public DnsResolver(Lookup lookup, int threads, long negativeTtlMillis) {
+        this(lookup, threads, negativeTtlMillis, DEFAULT_MAX_ENTRIES);
+    }
+
+    public DnsResolver(Lookup lookup, int threads, long negativeTtlMillis, int maxEntries) {
+        this.lookup = lookup;
+        this.negativeTtlMillis = negativeTtlMillis;
+        this.maxEntries = Math.max(1, maxEntries);
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.lookupExecutor = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "dns-resolver-" + threadIndex.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Resolver backed by InetAddress, caching answers for the JVM's networkaddress.cache.ttl
+     * (the system resolver does not expose per-record TTLs).
+     */
+    public static DnsResolver createSystemResolver(int threads) {
+        return createSystemResolver(threads, DEFAULT_MAX_ENTRIES);
+    }
+
+    public static DnsResolver createSystemResolver(int threads, int maxEntries) {
+        long positiveTtl = securityTtlMillis("networkaddress.cache.ttl", 30_000);
+        long negativeTtl = securityTtlMillis("networkaddress.cache.negative.ttl", 10_000);
+        return new DnsResolver(host -> new Resolution(InetAddress.getByName(host), positiveTtl),
+                threads, negativeTtl, maxEntries);
+    }
+
+    /**
+     * Resolve a host. Cached answers and IP literals complete inline on the calling thread;
+     * everything else completes later through completionExecutor.
+     */
+    public void resolve(String host, Executor completionExecutor, Callback callback) {
+        String key = host.toLowerCase();
+
+        CacheEntry cached = cache.get(key);
+        if (cached != null) {
+            if (System.currentTimeMillis() < cached.expiresAt) {
+                cacheHits.incrementAndGet();
+                callback.onResolved(cached.address, cached.error);
+                return;
+            }
+            cache.remove(key, cached);
+        }
+
+        if (isIpLiteral(key)) {
+            try {
+                // No DNS query is made for literals
+                callback.onResolved(InetAddress.getByName(key), null);
+            } catch (UnknownHostException e) {
+                callback.onResolved(null, e);
+            }
+            return;
+        }
+
+        CompletableFuture<CacheEntry> created = new CompletableFuture<>();
+        CompletableFuture<CacheEntry> future = inFlight.putIfAbsent(key, created);
+        if (future == null) {
+            // First asker for this host: start the query, later askers attach to it
+            future = created;
+            startLookup(key, created);
+        }
+        future.thenAccept(entry ->
+                completionExecutor.execute(() -> callback.onResolved(entry.address, entry.error)));
+    }
+
+    private void startLookup(String host, CompletableFuture<CacheEntry> future) {
+        lookups.incrementAndGet();
+        lookupExecutor.execute(() -> {
+            CacheEntry entry = doLookup(host);
+            // Publish to the cache before leaving the in-flight map so no lookup is repeated
+            store(host, entry);
+            inFlight.remove(host, future);
+            future.complete(entry);
+        });
+    }
+
+    /**
+     * Cache an answer, keeping the cache within maxEntries. Runs on the lookup pool, so the
+     * occasional full scan never lands on a reactor thread.
+     */
+    private void store(String host, CacheEntry entry) {
+        long now = System.currentTimeMillis();
+        if (entry.expiresAt <= now) {
+            cache.remove(host);
+            return;
+        }
+        if (cache.size() >= maxEntries && !cache.containsKey(host)) {
+            // Hosts looked up once are never asked for again: drop every expired answer, positive or negative
+            cache.values().removeIf(cached -> cached.expiresAt <= now);
+            while (cache.size() >= maxEntries) {
+                Map.Entry<String, CacheEntry> soonest = null;
+                for (Map.Entry<String, CacheEntry> cached : cache.entrySet()) {
+                    if (soonest == null || cached.getValue().expiresAt < soonest.getValue().expiresAt) {
+                        soonest = cached;
+                    }
+                }
+                if (soonest == null || !cache.remove(soonest.getKey(), soonest.getValue())) {
+                    break;
+                }
+                evictions.incrementAndGet();
+            }
+        }
+        cache.put(host, entry);
+    }
+
+    private CacheEntry doLookup(String host) {
+        try {
+            Resolution resolution = lookup.lookup(host);
+            return new CacheEntry(resolution.getAddress(), null,
+                    System.currentTimeMillis() + Math.max(0, resolution.getTtlMillis()));
+        } catch (UnknownHostException e) {
+            failures.incrementAndGet();
+            return new CacheEntry(null, e, System.currentTimeMillis() + negativeTtlMillis);
+        } catch (RuntimeException e) {
+            failures.incrementAndGet();
+            // Do not cache unexpected backend errors
+            UnknownHostException error = new UnknownHostException(host + ": " + e.getMessage());
+            return new CacheEntry(null, error, 0);
+        }
+    }
+
+    private static boolean isIpLiteral(String host) {
+        if (host.indexOf(':') >= 0) {
+            return true; // IPv6
+        }
+        for (int i = 0; i < host.length(); i++) {
+            char c = host.charAt(i);
+            if ((c < '0' || c > '9') && c != '.') {
+                return false;
+            }
+        }
+        return !host.isEmpty();
+    }
+
+    private static long securityTtlMillis(String property, long defaultMillis) {
+        try {
+            String value = Security.getProperty(property);
+            if (value != null) {
+                long seconds = Long.parseLong(value.trim());
+                return seconds < 0 ? Long.MAX_VALUE / 2 : seconds * 1000;
+            }
+        } catch (NumberFormatException | SecurityException ignored) {
+        }
+        return defaultMillis;
+    }
+
+    public long getCacheHits() {
+        return cacheHits.get();
+    }
+
+    /**
+     * Queries actually sent to the backend (after de-duplication)
+     */
+    public long getLookups() {
+        return lookups.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    /**
+     * Unexpired answers dropped to keep the cache within maxEntries
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public int getCacheSize() {
+        return cache.size();
+    }
+
+    public void shutdown() {
+        lookupExecutor.shutdownNow();
+    }
+}
@@ -0,0 +1,180 @@
+package com.proxy.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ScatteringByteChannel;
+
+/**
+ * Fixed-size ring buffer over a (pooled) ByteBuffer, used as the single relay buffer of one direction:
+ * the source channel reads straight into the free region and the sink channel writes straight
+ * from the filled region, using scattering/gathering I/O when the region wraps.
+ * No bytes are ever copied or compacted in user space.
+ *
+ * Positions are absolute stream sequences (long): readSequence() is the first unconsumed byte,
+ * writeSequence() is one past the last stored byte. Capacity must be a power of two.
+ * Not thread-safe; owned by a single reactor thread.
+ */
+public class RingBuffer {
+
+    private final ByteBuffer buffer;
+    private final int capacity;
+    private final int mask;
+
+    // Reusable views of the backing buffer for the (at most two) contiguous segments
+    private final ByteBuffer first;
+    private final ByteBuffer second;
+    private final ByteBuffer[] segments;
+
+    private long readSeq = 0;
+    private long writeSeq = 0;
+
+    public RingBuffer(ByteBuffer buffer) {
+        this.capacity = buffer.capacity();
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Ring capacity must be a power of two: " + capacity);
+        }
+        this.buffer = buffer;
+        this.mask = capacity - 1;
+        this.first = buffer.duplicate();
+        this.second = buffer.duplicate();
+        this.segments = new ByteBuffer[] { first, second };
+    }
+
+    /**
+     * Backing buffer, so it can be returned to the pool it was leased from
+     */
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public int size() {
+        return (int) (writeSeq - readSeq);
+    }
+
+    public int free() {
+        return capacity - size();
+    }
+
+    public boolean isEmpty() {
+        return readSeq == writeSeq;
+    }
+
+    public boolean isFull() {
+        return size() == capacity;
+    }
+
+    public long readSequence() {
+        return readSeq;
+    }
+
+    public long writeSequence() {
+        return writeSeq;
+    }
+
+    /**
+     * Byte at an absolute sequence in [readSequence(), writeSequence())
+     */
+    public byte get(long seq) {
+        return buffer.get((int) (seq & mask));
+    }
+
+    /**
+     * Copy stored bytes starting at seq into dst without consuming them (cache capture)
+     */
+    public void copy(long seq, byte[] dst, int offset, int length) {
+        int start = (int) (seq & mask);
+        int firstLength = Math.min(length, capacity - start);
+        buffer.get(start, dst, offset, firstLength);
+        if (length > firstLength) {
+            buffer.get(0, dst, offset + firstLength, length - firstLength);
+        }
+    }
+
+    /**
+     * Read from the channel into the free region.
+     * @return bytes read, 0 if the ring is full, -1 on end of stream
+     */
+    public int readFrom(ScatteringByteChannel channel) throws IOException {
+        int free = free();
+        if (free == 0) return 0;
+
+        int start = (int) (writeSeq & mask);
+        int firstLength = Math.min(free, capacity - start);
+        setSegment(first, start, firstLength);
+        setSegment(second, 0, free - firstLength);
+
+        long n = second.hasRemaining() ? channel.read(segments) : channel.read(first);
+        if (n > 0) {
+            writeSeq += n;
+        }
+        return (int) n;
+    }
+
+    /**
+     * Write up to maxBytes of stored data to the channel.
+     * @return bytes written
+     */
+    public int writeTo(GatheringByteChannel channel, int maxBytes) throws IOException {
+        int length = Math.min(size(), maxBytes);
+        if (length <= 0) return 0;
+
+        int start = (int) (readSeq & mask);
+        int firstLength = Math.min(length, capacity - start);
+        setSegment(first, start, firstLength);
+        setSegment(second, 0, length - firstLength);
+
+        long n = second.hasRemaining() ? channel.write(segments) : channel.write(first);
+        if (n > 0) {
+            readSeq += n;
+        }
+        return (int) n;
+    }
+
+    public int writeTo(GatheringByteChannel channel) throws IOException {
+        return writeTo(channel, size());
+    }
+
+    /**
+     * Append proxy-generated bytes (status lines, cached responses). Copies at most free() bytes.
+     * @return bytes appended
+     */
+    public int put(ByteBuffer src) {
+        int length = Math.min(src.remaining(), free());
+        int start = (int) (writeSeq & mask);
+        int firstLength = Math.min(length, capacity - start);
+        int oldLimit = src.limit();
+
+        setSegment(first, start, firstLength);
+        src.limit(src.position() + firstLength);
+        first.put(src);
+        if (length > firstLength) {
+            setSegment(second, 0, length - firstLength);
+            src.limit(src.position() + length - firstLength);
+            second.put(src);
+        }
+        src.limit(oldLimit);
+
+        writeSeq += length;
+        return length;
+    }
+
+    /**
+     * Drop up to n stored bytes without writing them anywhere
+     */
+    public void skip(int n) {
+        readSeq += Math.min(n, size());
+    }
+
+    public void clear() {
+        readSeq = writeSeq;
+    }
+
+    private static void setSegment(ByteBuffer view, int position, int length) {
+        view.limit(position + length).position(position);
+    }
+}
@@ -0,0 +1,151 @@
+package com.proxy.io;
+
+/**
+ * Hashed timing wheel for connection deadlines.
+ *
+ * Scheduling and cancelling are O(1): a timeout is linked into the bucket of the tick it
+ * expires on, and unlinked on cancel. The owning event loop calls advance() after each
+ * select(timeout) and only visits the buckets whose ticks have elapsed, so it never scans
+ * every connection. Deadlines further away than one rotation simply stay in their bucket
+ * until their tick comes around.
+ * Not thread-safe; owned by a single reactor thread.
+ */
+public class TimingWheel {
+
+    /**
+     * Handle of a scheduled task
+     */
+    public static final class Timeout {
+        private final Runnable task;
+        private final long targetTick;
+        private TimingWheel wheel;
+        private Timeout prev;
+        private Timeout next;
+
+        private Timeout(Runnable task, long targetTick) {
+            this.task = task;
+            this.targetTick = targetTick;
+        }
+
+        /**
+         * @return true if the timeout was pending and will no longer run
+         */
+        public boolean cancel() {
+            if (wheel == null) return false;
+            wheel.unlink(this);
+            return true;
+        }
+
+        public boolean isPending() {
+            return wheel != null;
+        }
+    }
+
+    private final long tickMillis;
+    private final Timeout[] buckets;
+    private final int mask;
+    private final long startMillis;
+
+    // Next tick to be processed; its start time is always in the future between advance() calls
+    private long tick = 0;
+    private int size = 0;
+
+    /**
+     * @param tickMillis  Resolution of the wheel
+     * @param wheelSize   Number of buckets (rounded up to a power of two)
+     * @param nowMillis   Current monotonic time
+     */
+    public TimingWheel(long tickMillis, int wheelSize, long nowMillis) {
+        int capacity = Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1;
+        this.tickMillis = tickMillis;
+        this.buckets = new Timeout[capacity];
+        this.mask = capacity - 1;
+        this.startMillis = nowMillis;
+    }
+
+    public Timeout schedule(long delayMillis, long nowMillis, Runnable task) {
+        if (size == 0) {
+            // The loop may have slept for a long time with an empty wheel; catch up for free
+            tick = Math.max(tick, (nowMillis - startMillis) / tickMillis);
+        }
+        long deadline = nowMillis + Math.max(0, delayMillis);
+        long targetTick = Math.max(tick, (deadline - startMillis + tickMillis - 1) / tickMillis);
+
+        Timeout timeout = new Timeout(task, targetTick);
+        int index = (int) (targetTick & mask);
+        timeout.wheel = this;
+        timeout.next = buckets[index];
+        if (buckets[index] != null) {
+            buckets[index].prev = timeout;
+        }
+        buckets[index] = timeout;
+        size++;
+        return timeout;
+    }
+
+    /**
+     * Run every task whose tick has elapsed.
+     * @return number of expired tasks
+     */
+    public int advance(long nowMillis) {
+        int expired = 0;
+        while (size > 0 && startMillis + tick * tickMillis <= nowMillis) {
+            // Tasks scheduled while expiring land on the next tick at the earliest
+            long current = tick++;
+            int index = (int) (current & mask);
+            Timeout timeout = buckets[index];
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                if (timeout.targetTick <= current) {
+                    unlink(timeout);
+                    expired++;
+                    try {
+                        timeout.task.run();
+                    } catch (RuntimeException e) {
+                        System.err.println("  [TIMER ERROR] Timeout task failed: " + e.getMessage());
+                    }
+                    if (next != null && next.wheel == null) {
+                        // The task cancelled our successor; restart from the bucket head
+                        next = buckets[index];
+                    }
+                }
+                timeout = next;
+            }
+        }
+
+        if (size == 0) {
+            // Nothing pending: jump to the current time instead of replaying empty ticks later
+            tick = Math.max(tick, (nowMillis - startMillis) / tickMillis + 1);
+        }
+        return expired;
+    }
+
+    /**
+     * How long the event loop may block in select() before the next tick is due.
+     * @return milliseconds (at least 1), or 0 when nothing is scheduled (block indefinitely)
+     */
+    public long millisUntilNextTick(long nowMillis) {
+        if (size == 0) return 0;
+        return Math.max(1, startMillis + tick * tickMillis - nowMillis);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void unlink(Timeout timeout) {
+        int index = (int) (timeout.targetTick & mask);
+        if (timeout.prev != null) {
+            timeout.prev.next = timeout.next;
+        } else {
+            buckets[index] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.prev = timeout.prev;
+        }
+        timeout.prev = null;
+        timeout.next = null;
+        timeout.wheel = null;
+        size--;
+    }
+}
@@ -0,0 +1,209 @@
+package com.proxy.io;
+
+import com.proxy.core.usecase.ProxyRequestUseCase.HostPort;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Idle keep-alive connections to origin servers, keyed by HostPort.
+ *
+ * - Per-host and total caps: a release beyond the host cap closes the connection,
+ *   beyond the total cap the pool's least recently used idle connection is closed instead.
+ *   Pools built with the same idle counter share the total cap, so one limit can span the
+ *   per-reactor pools while each pool only ever closes its own connections.
+ * - Idle eviction: connections idle longer than the idle timeout are closed by evictIdle()
+ *   and skipped by acquire().
+ * - Liveness: acquire() runs the liveness check before handing a connection out, so
+ *   connections the origin closed while idle are not reused. Where the check is costly it can
+ *   be limited to connections idle for at least probeAfterMillis: origins close keep-alive
+ *   connections after seconds of idleness, not right after a response.
+ *
+ * Generic over the connection type so the NIO path (SelectionKey) and the blocking path
+ * (Socket) share the policy. Methods are synchronized; the NIO path uses one pool per reactor
+ * so the lock is never contended there.
+ */
+public class UpstreamConnectionPool<C> {
+
+    private final class Entry {
+        final HostPort key;
+        final C connection;
+        final long idleSince;
+
+        Entry(HostPort key, C connection, long idleSince) {
+            this.key = key;
+            this.connection = connection;
+            this.idleSince = idleSince;
+        }
+    }
+
+    private final int maxPerHost;
+    private final int maxTotal;
+    // Idle connections held by every pool sharing maxTotal
+    private final AtomicInteger totalIdle;
+    private final long idleTimeoutMillis;
+    private final long probeAfterMillis;
+    private final Predicate<C> livenessCheck;
+    private final Consumer<C> closer;
+
+    // Per host: most recently released last, so acquire() takes the warmest connection
+    private final Map<HostPort, ArrayDeque<Entry>> idleByHost = new HashMap<>();
+    // All idle entries, least recently released first (identity semantics)
+    private final LinkedHashSet<Entry> idleLru = new LinkedHashSet<>();
+
+    private long reused = 0;
+    private long misses = 0;
+    private long evicted = 0;
+    private long deadOnAcquire = 0;
+
+    public UpstreamConnectionPool(int maxPerHost, int maxTotal, long idleTimeoutMillis,
+            Predicate<C> livenessCheck, Consumer<C> closer) {
+        this(maxPerHost, maxTotal, new AtomicInteger(), idleTimeoutMillis, 0, livenessCheck, closer);
+    }
+
+    /**
+     * @param probeAfterMillis connections idle for less than this are handed out unchecked
+     */
+    public UpstreamConnectionPool(int maxPerHost, int maxTotal, long idleTimeoutMillis, long probeAfterMillis,
+            Predicate<C> livenessCheck, Consumer<C> closer) {
+        this(maxPerHost, maxTotal, new AtomicInteger(), idleTimeoutMillis, probeAfterMillis, livenessCheck, closer);
+    }
+
+    /**
+     * @param totalIdle idle count shared by every pool that maxTotal applies to together
+     * @param probeAfterMillis connections idle for less than this are handed out unchecked
+     */
+    public UpstreamConnectionPool(int maxPerHost, int maxTotal, AtomicInteger totalIdle, long idleTimeoutMillis,
+            long probeAfterMillis, Predicate<C> livenessCheck, Consumer<C> closer) {
+        this.maxPerHost = maxPerHost;
+        this.maxTotal = maxTotal;
+        this.totalIdle = totalIdle;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.probeAfterMillis = probeAfterMillis;
+        this.livenessCheck = livenessCheck;
+        this.closer = closer;
+    }
+
+    /**
+     * Take a live idle connection to the host, or null if there is none.
+     */
+    public synchronized C acquire(HostPort key, long nowMillis) {
+        ArrayDeque<Entry> entries = idleByHost.get(key);
+        while (entries != null && !entries.isEmpty()) {
+            Entry entry = entries.pollLast();
+            idleLru.remove(entry);
+            totalIdle.decrementAndGet();
+
+            long idle = nowMillis - entry.idleSince;
+            if (idle >= idleTimeoutMillis) {
+                evicted++;
+                closer.accept(entry.connection);
+            } else if (idle >= probeAfterMillis && !livenessCheck.test(entry.connection)) {
+                deadOnAcquire++;
+                closer.accept(entry.connection);
+            } else {
+                if (entries.isEmpty()) idleByHost.remove(key);
+                reused++;
+                return entry.connection;
+            }
+        }
+        idleByHost.remove(key);
+        misses++;
+        return null;
+    }
+
+    /**
+     * Return a connection whose last response completed cleanly.
+     * @return false if the pool closed it instead (host cap, or total cap with nothing older to close)
+     */
+    public synchronized boolean release(HostPort key, C connection, long nowMillis) {
+        ArrayDeque<Entry> entries = idleByHost.computeIfAbsent(key, k -> new ArrayDeque<>());
+        if (entries.size() >= maxPerHost) {
+            closer.accept(connection);
+            return false;
+        }
+
+        Entry entry = new Entry(key, connection, nowMillis);
+        entries.addLast(entry);
+        idleLru.add(entry);
+
+        if (totalIdle.incrementAndGet() > maxTotal) {
+            // Total cap: drop this pool's least recently used idle connection of any host
+            Entry oldest = idleLru.iterator().next();
+            removeEntry(oldest);
+            evicted++;
+            closer.accept(oldest.connection);
+            return oldest != entry;
+        }
+        return true;
+    }
+
+    /**
+     * Close connections idle for longer than the idle timeout.
+     * @return number of connections closed
+     */
+    public synchronized int evictIdle(long nowMillis) {
+        int count = 0;
+        while (!idleLru.isEmpty()) {
+            Entry oldest = idleLru.iterator().next();
+            if (nowMillis - oldest.idleSince < idleTimeoutMillis) {
+                break; // LRU order: everything after this is younger
+            }
+            removeEntry(oldest);
+            closer.accept(oldest.connection);
+            count++;
+        }
+        evicted += count;
+        return count;
+    }
+
+    public synchronized void closeAll() {
+        for (Entry entry : idleLru) {
+            closer.accept(entry.connection);
+        }
+        totalIdle.addAndGet(-idleLru.size());
+        idleLru.clear();
+        idleByHost.clear();
+    }
+
+    private void removeEntry(Entry entry) {
+        idleLru.remove(entry);
+        totalIdle.decrementAndGet();
+        ArrayDeque<Entry> entries = idleByHost.get(entry.key);
+        if (entries != null) {
+            entries.remove(entry);
+            if (entries.isEmpty()) idleByHost.remove(entry.key);
+        }
+    }
+
+    public synchronized int getIdleCount() {
+        return idleLru.size();
+    }
+
+    public synchronized long getReused() {
+        return reused;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvicted() {
+        return evicted;
+    }
+
+    public synchronized long getDeadOnAcquire() {
+        return deadOnAcquire;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "UpstreamConnectionPool[idle=" + idleLru.size() + ", reused=" + reused + ", misses=" + misses
+                + ", evicted=" + evicted + ", dead=" + deadOnAcquire + "]";
+    }
+}
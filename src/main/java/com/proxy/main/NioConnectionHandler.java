@@ -1,26 +1,69 @@
 package com.proxy.main;
 
 import com.proxy.cache.CacheManager;
+import com.proxy.cache.CachedResponse;
+import com.proxy.cache.ContentCoding;
+import com.proxy.cache.DecodedResponse;
+import com.proxy.cache.FreshnessCalculator;
+import com.proxy.cache.PendingCacheEntry;
+import com.proxy.cache.RangeResponse;
+import com.proxy.core.http.BodyFramer;
+import com.proxy.core.http.HttpHead;
+import com.proxy.core.http.RequestHeadParser;
 import com.proxy.core.usecase.ProxyRequestUseCase;
 import com.proxy.core.usecase.ProxyRequestUseCase.HostPort;
+import com.proxy.io.BufferPool;
+import com.proxy.io.RingBuffer;
+import com.proxy.io.TimingWheel;
 
 import java.io.IOException;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
 
+/**
+ * One client connection on a worker reactor.
+ *
+ * CONNECT requests turn the connection into a raw tunnel. Plain HTTP requests are framed one
+ * at a time on a persistent client connection: each request head is parsed and run through
+ * ProxyRequestUseCase, its body (Content-Length or chunked) is forwarded, and the response is
+ * framed so the next request can start as soon as it completes. Pipelined requests simply wait
+ * in the upstream buffer, which keeps responses in request order. The upstream connection is
+ * reused while consecutive requests target the same host:port; when the target changes or the
+ * client goes away, a cleanly finished upstream connection is parked in the reactor's
+ * UpstreamConnectionPool, and new targets are served from that pool before dialing.
+ *
+ * GETs are looked up in CacheManager as soon as their head is parsed. A hit is written to the
+ * client straight from the cached bytes without touching the origin; a miss is captured as it
+ * streams through to the client and stored once the response completes. Concurrent misses for
+ * a URL that is already being fetched follow that leader's pending entry instead of going to the
+ * origin themselves, and fall back to their own fetch if the leader fails or is too slow.
+ */
 public class NioConnectionHandler {
 
-  private static final int BUFFER_SIZE = 8192;
-  private final ByteBuffer clientReadBuffer = ByteBuffer.allocate(BUFFER_SIZE);
-  private final ByteBuffer clientWriteBuffer = ByteBuffer.allocate(BUFFER_SIZE);
-  private final ByteBuffer serverReadBuffer = ByteBuffer.allocate(BUFFER_SIZE);
-  private final ByteBuffer serverWriteBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+  // How long a collapsed request waits for the leader's first bytes before fetching itself
+  private static final long COLLAPSE_TIMEOUT_MS = Long.getLong("proxy.collapseTimeoutMs", 5_000);
+  // Per-connection deadlines (-Dproxy.connectTimeoutMs, -Dproxy.headerTimeoutMs, -Dproxy.idleTimeoutMs)
+  private static final long CONNECT_TIMEOUT_MS = Long.getLong("proxy.connectTimeoutMs", 10_000);
+  private static final long HEADER_TIMEOUT_MS = Long.getLong("proxy.headerTimeoutMs", 30_000);
+  private static final long IDLE_TIMEOUT_MS = Long.getLong("proxy.idleTimeoutMs", 300_000);
+  // Largest request head accepted before answering 431 (-Dproxy.maxRequestHeadBytes)
+  private static final int MAX_REQUEST_HEAD_BYTES = Integer.getInteger("proxy.maxRequestHeadBytes", 8192);
+
+  // One relay buffer per direction, leased from the reactor's pool only when needed and
+  // returned in closeConnection(). The source channel reads straight into the ring the sink
+  // channel writes from, so relayed bytes are never copied in user space.
+  private RingBuffer upstreamBuffer;   // client -> server
+  private RingBuffer downstreamBuffer; // server -> client
 
   private final SelectionKey clientKey;
+  private final NioReactor reactor;
+  private final BufferPool bufferPool;
   private final Selector selector;
   private SocketChannel serverChannel;
   private SelectionKey serverKey;
@@ -30,18 +73,71 @@ public class NioConnectionHandler {
   private final CacheManager cacheManager;
 
   private enum State {
-    READING_REQUEST_LINE, CONNECTING, FORWARDING
+    READING_REQUEST_HEAD, SERVING_CACHE, FOLLOWING, CONNECTING, FORWARDING, TUNNELING
   }
 
-  private State state = State.READING_REQUEST_LINE;
+  private State state = State.READING_REQUEST_HEAD;
   private volatile boolean isClosed = false;
+  private boolean tunnelRequested = false;
+
+  // Current HTTP exchange
+  private final RequestHeadParser requestParser;
+  private String requestMethod;
+  private boolean requestKeepAlive;
+  private BodyFramer requestFramer;
+  private long responseStart;          // downstream sequence where the pending response head starts
+  private HttpHead responseHead;
+  private BodyFramer responseFramer;
+  private long clientWriteLimit;       // downstream bytes below this sequence may go to the client
+  private boolean serverEndOfStream = false;
+  private boolean serverReusable = true;
+  private boolean serverIdle = false;  // upstream finished its last response cleanly and may be pooled
+
+  // Cache: key of the current GET, the hit being written, or the miss being captured
+  private String cacheKey;
+  private HttpHead cacheRequestHead;    // request head of a miss, keys a response with Vary
+  private String requestRange;          // Range (and If-Range) of the current GET, or null
+  private String requestIfRange;
+  private boolean requestAuthorized;
+  private ByteBuffer cachedResponse;    // leader bytes being written to this follower
+  private PendingCacheEntry cacheEntry; // null when the current response is not being cached
+  private long captureSequence;         // next downstream sequence to copy into the entry
+  private CachedResponse staleResponse; // stale entry the current request revalidates, or null (retained)
+  private CachedResponse servedResponse; // hit being written (retained)
+  private DecodedResponse decodedResponse; // servedResponse decoded for a client without gzip, or null
+  private RangeResponse servedRange;    // ranges of servedResponse asked for, or null for all of it
+  private ByteBuffer decodedPiece;      // piece of decodedResponse being written
+  private boolean clientAcceptsGzip;
+  private long servedPosition;          // bytes of servedResponse already written
+  private ByteBuffer headPatch;         // bytes still to be sent in place of upstream [patchStart, patchEnd)
+  private long patchStart;
+  private long patchEnd;
 
-  public NioConnectionHandler(SelectionKey clientKey, ProxyRequestUseCase useCase, CacheManager cacheManager) {
+  // Collapsed forwarding: the leader entry this request streams from instead of the origin
+  private PendingCacheEntry leaderEntry;
+  private Runnable leaderListener;
+  private HostPort followTarget;
+  private int followOffset;
+
+  // At most one deadline is armed at a time: header, then connect, then idle
+  private TimingWheel.Timeout deadline;
+  private long lastActivityMillis;
+
+  public NioConnectionHandler(SelectionKey clientKey, NioReactor reactor, ProxyRequestUseCase useCase,
+      CacheManager cacheManager) {
     this.clientKey = clientKey;
-    this.selector = clientKey.selector();
+    this.reactor = reactor;
+    this.bufferPool = reactor.getBufferPool();
+    // Upstream channel is registered on the same worker selector as the client
+    this.selector = reactor.getSelector();
     this.clientKey.attach(this);
     this.useCase = useCase;
     this.cacheManager = cacheManager;
+    this.requestParser = new RequestHeadParser(MAX_REQUEST_HEAD_BYTES, RequestHeadParser.DEFAULT_MAX_HEADERS,
+        reactor.getHostInterner());
+
+    // The client must send its request head within the header timeout
+    armDeadline(HEADER_TIMEOUT_MS, this::onHeaderTimeout);
   }
 
   public SelectionKey getClientKey() {
@@ -50,12 +146,17 @@ public class NioConnectionHandler {
 
   public void handleRead() throws IOException {
     if (isClosed) return;
+    lastActivityMillis = reactor.currentTimeMillis();
 
     SocketChannel clientChannel = (SocketChannel) clientKey.channel();
     int bytesRead;
-    
+
+    if (upstreamBuffer == null) {
+      upstreamBuffer = new RingBuffer(bufferPool.acquire());
+    }
+
     try {
-      bytesRead = clientChannel.read(clientReadBuffer);
+      bytesRead = upstreamBuffer.readFrom(clientChannel);
     } catch (IOException e) {
       closeConnection();
       throw e;
@@ -67,133 +168,90 @@ public class NioConnectionHandler {
     }
 
     if (bytesRead > 0) {
-      if (state == State.READING_REQUEST_LINE) {
-        String requestLine = extractRequestLineFromBuffer();
-        if (requestLine != null) {
-          targetHostPort = useCase.processInitialRequest(requestLine);
-
-          if (targetHostPort == null) {
-            sendForbiddenResponse(clientChannel, requestLine.startsWith("CONNECT"));
-            closeConnection();
-            return;
-          }
+      processClientData();
+    }
 
-          state = State.CONNECTING;
-          
-          // Clear buffer for CONNECT tunneling
-          if (targetHostPort.isTunneling()) {
-            clientReadBuffer.clear();
-          }
-          
-          startNonBlockingConnect();
-        }
-      } else if (state == State.FORWARDING) {
-        // Client -> Server: Transfer data with overflow protection
-        clientReadBuffer.flip();
-
-        if (clientReadBuffer.hasRemaining()) {
-          // FIX: Check available space in serverWriteBuffer before putting
-          int availableSpace = serverWriteBuffer.remaining();
-          int dataToTransfer = Math.min(clientReadBuffer.remaining(), availableSpace);
-          
-          if (dataToTransfer > 0) {
-            // Transfer only what fits
-            int oldLimit = clientReadBuffer.limit();
-            clientReadBuffer.limit(clientReadBuffer.position() + dataToTransfer);
-            serverWriteBuffer.put(clientReadBuffer);
-            clientReadBuffer.limit(oldLimit);
-            
-            // Enable server write
-            if (serverKey != null && serverKey.isValid()) {
-              serverKey.interestOps(serverKey.interestOps() | SelectionKey.OP_WRITE);
-            } else {
-              closeConnection();
-              return;
-            }
-          }
-          
-          // If serverWriteBuffer is full, disable client read until it drains
-          if (serverWriteBuffer.remaining() == 0 && clientKey.isValid()) {
-            clientKey.interestOps(clientKey.interestOps() & ~SelectionKey.OP_READ);
-          }
-        }
-        clientReadBuffer.compact();
-      }
+    // If the upstream buffer is full, disable client read until it drains
+    if (!isClosed && upstreamBuffer.isFull() && clientKey.isValid()) {
+      clientKey.interestOps(clientKey.interestOps() & ~SelectionKey.OP_READ);
     }
   }
 
   public void handleWrite() throws IOException {
     if (isClosed) return;
+    lastActivityMillis = reactor.currentTimeMillis();
+
+    if (state == State.SERVING_CACHE) {
+      writeCachedResponse();
+      return;
+    }
+    if (state == State.FOLLOWING) {
+      onLeaderProgress();
+      return;
+    }
 
     SocketChannel clientChannel = (SocketChannel) clientKey.channel();
-    clientWriteBuffer.flip();
-    
+
     try {
-      clientChannel.write(clientWriteBuffer);
+      downstreamBuffer.writeTo(clientChannel, (int) (clientWriteLimit - downstreamBuffer.readSequence()));
     } catch (IOException e) {
       closeConnection();
       throw e;
     }
-    
-    if (clientWriteBuffer.hasRemaining()) {
-      clientWriteBuffer.compact();
-    } else {
-      clientWriteBuffer.clear();
-      if (clientKey.isValid()) {
-        clientKey.interestOps(clientKey.interestOps() & ~SelectionKey.OP_WRITE);
-        
-        // Re-enable server read if it was disabled due to full buffer
-        if (serverKey != null && serverKey.isValid()) {
-          serverKey.interestOps(serverKey.interestOps() | SelectionKey.OP_READ);
-        }
-      }
+
+    if (downstreamBuffer.readSequence() >= clientWriteLimit && clientKey.isValid()) {
+      clientKey.interestOps(clientKey.interestOps() & ~SelectionKey.OP_WRITE);
+    }
+
+    // Re-enable server read if it was disabled due to full buffer
+    if (!downstreamBuffer.isFull() && serverKey != null && serverKey.isValid() && !serverEndOfStream
+        && (serverKey.interestOps() & SelectionKey.OP_CONNECT) == 0) {
+      serverKey.interestOps(serverKey.interestOps() | SelectionKey.OP_READ);
+    }
+
+    if (isResponseDelivered()) {
+      finishExchange();
+    } else if (serverEndOfStream && downstreamBuffer.readSequence() >= clientWriteLimit) {
+      // Origin is gone and everything it sent has been delivered
+      closeConnection();
     }
   }
 
   public void handleServerRead(SelectionKey serverKey) throws IOException {
     if (isClosed) return;
+    if (serverKey != this.serverKey) {
+      serverKey.cancel(); // Event for an upstream connection we already replaced
+      return;
+    }
+    lastActivityMillis = reactor.currentTimeMillis();
 
     SocketChannel serverChannel = (SocketChannel) serverKey.channel();
     int bytesRead;
-    
+
     try {
-      bytesRead = serverChannel.read(serverReadBuffer);
+      bytesRead = downstreamBuffer.readFrom(serverChannel);
     } catch (IOException e) {
+      serverReusable = false;
       closeConnection();
       throw e;
     }
 
     if (bytesRead == -1) {
-      closeConnection();
+      onServerEndOfStream();
       return;
     }
 
     if (bytesRead > 0) {
-      serverReadBuffer.flip();
-      
-      // FIX: Check available space in clientWriteBuffer before putting
-      int availableSpace = clientWriteBuffer.remaining();
-      int dataToTransfer = Math.min(serverReadBuffer.remaining(), availableSpace);
-      
-      if (dataToTransfer > 0) {
-        // Transfer only what fits
-        int oldLimit = serverReadBuffer.limit();
-        serverReadBuffer.limit(serverReadBuffer.position() + dataToTransfer);
-        clientWriteBuffer.put(serverReadBuffer);
-        serverReadBuffer.limit(oldLimit);
-        
-        // Enable client write
-        if (clientKey.isValid()) {
-          clientKey.interestOps(clientKey.interestOps() | SelectionKey.OP_WRITE);
-        }
-      }
-      
-      serverReadBuffer.compact();
-      
-      // If clientWriteBuffer is full, disable server read until it drains
-      if (clientWriteBuffer.remaining() == 0 && serverKey.isValid()) {
-        serverKey.interestOps(serverKey.interestOps() & ~SelectionKey.OP_READ);
+      if (state == State.READING_REQUEST_HEAD || state == State.SERVING_CACHE || state == State.FOLLOWING) {
+        // Unsolicited origin output between exchanges: this connection cannot be reused
+        serverReusable = false;
       }
+      processServerData();
+    }
+
+    // If the downstream buffer is full, disable server read until it drains
+    if (!isClosed && downstreamBuffer.isFull() && serverKey.isValid()) {
+      serverKey.interestOps(serverKey.interestOps() & ~SelectionKey.OP_READ);
     }
   }
 
@@ -201,89 +259,704 @@ public class NioConnectionHandler {
     if (isClosed) return;
 
     SocketChannel serverChannel = (SocketChannel) serverKey.channel();
-    
+
     try {
       if (serverChannel.isConnectionPending()) {
         serverChannel.finishConnect();
       }
     } catch (IOException e) {
       System.err.println("  [NIO ERROR] Server connection failed: " + e.getMessage());
+      sendErrorResponse((SocketChannel) clientKey.channel(), "502 Bad Gateway");
       closeConnection();
       throw e;
     }
 
-    System.out.println("  [NIO] Server connection established: " + 
+    System.out.println("  [NIO] Server connection established: " +
         (targetHostPort != null ? targetHostPort.getHost() + ":" + targetHostPort.getPort() : "unknown"));
 
-    state = State.FORWARDING;
-    
+    lastActivityMillis = reactor.currentTimeMillis();
+    armDeadline(IDLE_TIMEOUT_MS, this::onIdleTimeout);
+
     if (!serverKey.isValid()) {
       closeConnection();
       return;
     }
-    
-    serverKey.interestOps(SelectionKey.OP_READ);
 
-    if (targetHostPort != null && targetHostPort.isTunneling()) {
+    if (tunnelRequested) {
+      state = State.TUNNELING;
       // Send CONNECT response
       String connectResponse = "HTTP/1.1 200 Connection Established\r\nProxy-agent: Clean-Java-Proxy\r\n\r\n";
-      clientWriteBuffer.put(connectResponse.getBytes(StandardCharsets.ISO_8859_1));
+      downstreamBuffer.put(ByteBuffer.wrap(connectResponse.getBytes(StandardCharsets.ISO_8859_1)));
+      clientWriteLimit = downstreamBuffer.writeSequence();
       if (clientKey.isValid()) {
         clientKey.interestOps(clientKey.interestOps() | SelectionKey.OP_WRITE);
       }
     } else {
-      // HTTP: Forward initial request to server
-      clientReadBuffer.flip();
-      
-      if (clientReadBuffer.hasRemaining()) {
-        // FIX: Check space before putting
-        int availableSpace = serverWriteBuffer.remaining();
-        int dataToTransfer = Math.min(clientReadBuffer.remaining(), availableSpace);
-        
-        if (dataToTransfer > 0) {
-          int oldLimit = clientReadBuffer.limit();
-          clientReadBuffer.limit(clientReadBuffer.position() + dataToTransfer);
-          serverWriteBuffer.put(clientReadBuffer);
-          clientReadBuffer.limit(oldLimit);
-        }
-      }
-      clientReadBuffer.clear();
+      state = State.FORWARDING;
+    }
 
-      int ops = SelectionKey.OP_READ;
-      if (serverWriteBuffer.position() > 0) {
-        ops |= SelectionKey.OP_WRITE;
-      }
-      if (serverKey.isValid()) {
-        serverKey.interestOps(ops);
-      }
+    // HTTP: the request is already buffered and goes out as-is
+    int ops = SelectionKey.OP_READ;
+    if (forwardableRequestBytes() > 0) {
+      ops |= SelectionKey.OP_WRITE;
     }
+    serverKey.interestOps(ops);
   }
 
   public void handleServerWrite(SelectionKey serverKey) throws IOException {
     if (isClosed) return;
+    if (serverKey != this.serverKey) {
+      serverKey.cancel();
+      return;
+    }
+    lastActivityMillis = reactor.currentTimeMillis();
 
     SocketChannel serverChannel = (SocketChannel) serverKey.channel();
-    serverWriteBuffer.flip();
-    
+
     try {
-      serverChannel.write(serverWriteBuffer);
+      if (headPatch != null) {
+        upstreamBuffer.writeTo(serverChannel, (int) (patchStart - upstreamBuffer.readSequence()));
+        if (upstreamBuffer.readSequence() == patchStart) {
+          serverChannel.write(headPatch);
+          if (!headPatch.hasRemaining()) {
+            upstreamBuffer.skip((int) (patchEnd - patchStart));
+            headPatch = null;
+          }
+        }
+      }
+      if (headPatch == null) {
+        upstreamBuffer.writeTo(serverChannel, forwardableRequestBytes());
+      }
     } catch (IOException e) {
       closeConnection();
       throw e;
     }
-    
-    if (serverWriteBuffer.hasRemaining()) {
-      serverWriteBuffer.compact();
+
+    if (forwardableRequestBytes() == 0 && serverKey.isValid()) {
+      serverKey.interestOps(serverKey.interestOps() & ~SelectionKey.OP_WRITE);
+    }
+
+    // Re-enable client read if it was disabled due to full buffer
+    if (!upstreamBuffer.isFull() && clientKey.isValid()) {
+      clientKey.interestOps(clientKey.interestOps() | SelectionKey.OP_READ);
+    }
+  }
+
+  /**
+   * New client bytes arrived: start a request, or extend the one being forwarded.
+   */
+  private void processClientData() throws IOException {
+    switch (state) {
+      case READING_REQUEST_HEAD -> startNextRequest();
+      case SERVING_CACHE, FOLLOWING -> {
+        // Pipelined request: parsed once the current response is written
+      }
+      case FORWARDING -> {
+        requestFramer.advance(upstreamBuffer);
+        enableServerWriteIfNeeded();
+      }
+      case TUNNELING -> enableServerWriteIfNeeded();
+      case CONNECTING -> {
+        if (requestFramer != null) {
+          requestFramer.advance(upstreamBuffer);
+        }
+      }
+    }
+  }
+
+  /**
+   * Parse the next request head from the upstream buffer (it may already be there if pipelined).
+   * The parser resumes where the previous read left off, so a head split over many reads is
+   * still scanned only once.
+   */
+  private void startNextRequest() throws IOException {
+    if (upstreamBuffer == null || upstreamBuffer.isEmpty()) return;
+
+    RequestHeadParser.Result result = requestParser.parse(upstreamBuffer);
+    if (result == RequestHeadParser.Result.INCOMPLETE && upstreamBuffer.isFull()) {
+      // Request head does not fit in the relay buffer
+      result = RequestHeadParser.Result.TOO_LARGE;
+    }
+    switch (result) {
+      case INCOMPLETE -> {
+        return;
+      }
+      case TOO_LARGE -> {
+        System.err.println("  [NIO ERROR] Request head too large, closing");
+        sendErrorResponse((SocketChannel) clientKey.channel(), "431 Request Header Fields Too Large");
+        closeConnection();
+        return;
+      }
+      case MALFORMED -> {
+        System.err.println("  [NIO ERROR] Malformed request head, closing");
+        sendErrorResponse((SocketChannel) clientKey.channel(), "400 Bad Request");
+        closeConnection();
+        return;
+      }
+      case COMPLETE -> ProxyServer.requestReceived();
+    }
+
+    HostPort hostPort = useCase.processInitialRequest(requestParser);
+
+    if (hostPort == null) {
+      sendForbiddenResponse((SocketChannel) clientKey.channel(), requestParser.isConnect());
+      closeConnection();
+      return;
+    }
+
+    requestMethod = requestParser.getMethod();
+    if (hostPort.isTunneling()) {
+      // Drop the CONNECT request itself, only the tunneled bytes go upstream
+      upstreamBuffer.skip(requestParser.getLength());
+      requestParser.reset();
+      tunnelRequested = true;
+      requestFramer = null;
+      releaseServerChannel();
+      targetHostPort = hostPort;
+      state = State.CONNECTING;
+      startNonBlockingConnect();
+      return;
+    }
+
+    requestKeepAlive = requestParser.isKeepAlive();
+    requestAuthorized = requestParser.indexOfHeader("Authorization") >= 0;
+    requestFramer = requestParser.bodyFramer();
+    // Only body-less GETs are looked up, keyed by their normalized absolute URI (and the
+    // request headers the response varies on) like the blocking path
+    cacheKey = "GET".equals(requestMethod) && requestFramer.isComplete()
+        ? cacheManager.keyFor(requestParser.getTargetString(), requestParser::getHeader) : null;
+    cacheRequestHead = null;
+    requestRange = cacheKey != null ? requestParser.getHeader("Range") : null;
+    requestIfRange = requestRange != null ? requestParser.getHeader("If-Range") : null;
+    releaseStaleResponse();
+    if (cacheKey != null) {
+      clientAcceptsGzip = ContentCoding.acceptsGzip(requestParser.getHeader("Accept-Encoding"));
+      CachedResponse cached = cacheManager.lookup(cacheKey);
+      if (cached != null && cached.isServable() && cached.retain()) {
+        upstreamBuffer.skip(requestParser.getLength());
+        requestParser.reset();
+        serveFromCache(cached);
+        return;
+      }
+      // Copied only on a miss, the parser's view is gone once the request is forwarded
+      cacheRequestHead = HttpHead.parse(upstreamBuffer, requestParser.getStart(), requestParser.getEnd());
+      // A range miss is forwarded on its own: it neither leads nor follows a full fetch
+      PendingCacheEntry leader = requestRange == null ? cacheManager.follow(cacheKey) : null;
+      if (leader != null) {
+        followLeader(leader, hostPort);
+        return;
+      }
+      // A client's own conditional or range request is forwarded untouched
+      if (cached != null && !hasConditionalHeaders() && cached.retain()) {
+        staleResponse = cached;
+      }
+    }
+    forwardRequest(hostPort);
+  }
+
+  /**
+   * Send the parsed request (still in the upstream buffer) to the origin and prepare for its response
+   */
+  private void forwardRequest(HostPort hostPort) throws IOException {
+    headPatch = null;
+    if (requestParser.hasHopByHopHeaders()) {
+      // Proxy-Connection and the headers named in Connection stop here: the head goes out as a
+      // rewritten copy (with the conditional headers of a revalidation in it)
+      patchStart = requestParser.getStart();
+      patchEnd = requestParser.getEnd();
+      headPatch = ByteBuffer.wrap(requestParser.copyForwardedHead(
+          staleResponse != null ? staleResponse.conditionalHeaders() : new byte[0]));
+    } else if (staleResponse != null) {
+      // Revalidate: splice If-None-Match / If-Modified-Since in before the blank line ending the head
+      long headEnd = requestParser.getEnd();
+      patchStart = upstreamBuffer.get(headEnd - 2) == '\r' ? headEnd - 2 : headEnd - 1;
+      patchEnd = patchStart;
+      headPatch = ByteBuffer.wrap(staleResponse.conditionalHeaders());
+    }
+    requestFramer.advance(upstreamBuffer);
+    // The head stays in the ring and is forwarded as-is; the next parse starts after this request
+    requestParser.reset();
+
+    if (downstreamBuffer == null) {
+      // The response buffer is only needed once a request is allowed through
+      downstreamBuffer = new RingBuffer(bufferPool.acquire());
+    }
+    // The previous response was fully delivered; anything left is stray origin output
+    downstreamBuffer.clear();
+    responseStart = downstreamBuffer.writeSequence();
+    clientWriteLimit = responseStart;
+    responseHead = null;
+    responseFramer = null;
+    if (cacheKey != null && requestRange == null) {
+      cacheEntry = cacheManager.beginEntry(cacheKey, cacheRequestHead);
+      captureSequence = responseStart;
+    }
+
+    if (serverChannel != null && serverChannel.isOpen() && !serverEndOfStream && serverReusable
+        && hostPort.sameTarget(targetHostPort)) {
+      // Persistent upstream connection to the same origin: send right away
+      serverIdle = false;
+      state = State.FORWARDING;
+      armDeadline(IDLE_TIMEOUT_MS, this::onIdleTimeout);
+      enableServerWriteIfNeeded();
+      processServerData();
+      return;
+    }
+
+    releaseServerChannel();
+    targetHostPort = hostPort;
+    SelectionKey pooledKey = reactor.getUpstreamPool().acquire(hostPort, reactor.currentTimeMillis());
+    if (pooledKey != null) {
+      // Idle keep-alive connection left behind by another client of this reactor
+      System.out.println("  [NIO] Reusing pooled connection to " + hostPort);
+      serverKey = pooledKey;
+      serverChannel = (SocketChannel) pooledKey.channel();
+      serverKey.attach(this);
+      serverKey.interestOps(SelectionKey.OP_READ);
+      state = State.FORWARDING;
+      armDeadline(IDLE_TIMEOUT_MS, this::onIdleTimeout);
+      enableServerWriteIfNeeded();
     } else {
-      serverWriteBuffer.clear();
-      if (serverKey.isValid()) {
-        serverKey.interestOps(serverKey.interestOps() & ~SelectionKey.OP_WRITE);
-        
-        // Re-enable client read if it was disabled due to full buffer
-        if (clientKey.isValid()) {
-          clientKey.interestOps(clientKey.interestOps() | SelectionKey.OP_READ);
+      state = State.CONNECTING;
+      startNonBlockingConnect();
+    }
+  }
+
+  /**
+   * New origin bytes arrived: frame the response and release framed bytes to the client.
+   */
+  private void processServerData() throws IOException {
+    if (state == State.TUNNELING) {
+      clientWriteLimit = downstreamBuffer.writeSequence();
+    } else if (state == State.FORWARDING) {
+      while (responseHead == null) {
+        long headEnd = HttpHead.findEnd(downstreamBuffer, responseStart);
+        if (headEnd == -1) {
+          if (downstreamBuffer.isFull()) {
+            throw new IOException("Response head too large from " + targetHostPort);
+          }
+          break;
+        }
+
+        HttpHead head = HttpHead.parse(downstreamBuffer, responseStart, headEnd);
+        int status = head.getStatusCode();
+        if (status == 101) {
+          // Protocol upgrade (WebSocket): from here on both directions are raw bytes
+          state = State.TUNNELING;
+          clientWriteLimit = downstreamBuffer.writeSequence();
+          requestFramer = null;
+          abandonCacheEntry();
+          enableServerWriteIfNeeded();
+          break;
+        }
+        if (status >= 100 && status < 200) {
+          // Interim response: pass it through and wait for the final one
+          // (held back while revalidating, in case the client gets the stored response instead)
+          responseStart = headEnd;
+          if (staleResponse == null) {
+            clientWriteLimit = headEnd;
+          }
+          captureSequence = headEnd;
+          continue;
+        }
+        if (staleResponse != null) {
+          if (status == 304) {
+            finishRevalidation(head, headEnd);
+            return;
+          }
+          releaseStaleResponse(); // A full response replaces the stale copy like any miss
+        }
+
+        responseHead = head;
+        responseFramer = head.responseBodyFramer(headEnd, requestMethod);
+        if (requestRange != null && (status == 200 || status == 206)) {
+          // The whole response is fetched in the background, later ranges of it are hits
+          cacheManager.rangeMiss(cacheKey, head);
+        }
+        if (cacheEntry != null) {
+          // Only fresh 200 responses that end on their own can be replayed to another client
+          // (Connection: close included, it only keeps the upstream connection out of the pool);
+          // anything else is dropped before its body takes up cache memory
+          long ttlMillis = status == 200 && responseFramer.isSelfDelimited()
+              ? FreshnessCalculator.freshnessMillis(head, requestAuthorized, System.currentTimeMillis())
+              : FreshnessCalculator.NOT_CACHEABLE;
+          if (FreshnessCalculator.isStorable(head, ttlMillis)) {
+            cacheEntry.setTtlMillis(ttlMillis);
+            cacheEntry.setResponseHead(head);
+          } else {
+            abandonCacheEntry();
+          }
+        }
+      }
+
+      if (responseFramer != null) {
+        clientWriteLimit = responseFramer.advance(downstreamBuffer);
+        captureResponseBytes();
+        if (responseFramer.isComplete() && downstreamBuffer.writeSequence() > clientWriteLimit) {
+          System.err.println("  [NIO WARN] Dropping bytes sent past the end of the response from " + targetHostPort);
+          serverReusable = false;
+        }
+      }
+    }
+
+    if (downstreamBuffer.readSequence() < clientWriteLimit && clientKey.isValid()) {
+      // Enable client write
+      clientKey.interestOps(clientKey.interestOps() | SelectionKey.OP_WRITE);
+    } else if (isResponseDelivered()) {
+      finishExchange();
+    }
+  }
+
+  private void onServerEndOfStream() throws IOException {
+    serverEndOfStream = true;
+    if (serverKey != null && serverKey.isValid()) {
+      serverKey.interestOps(0);
+    }
+
+    if (state == State.READING_REQUEST_HEAD || state == State.SERVING_CACHE || state == State.FOLLOWING) {
+      // Idle persistent upstream closed between requests: drop it, keep the client
+      closeServerChannel();
+      return;
+    }
+    if (responseFramer != null) {
+      responseFramer.onEndOfStream();
+    }
+
+    if (downstreamBuffer.readSequence() >= clientWriteLimit) {
+      if (isResponseDelivered()) {
+        finishExchange();
+      } else {
+        closeConnection();
+      }
+    }
+    // Otherwise handleWrite() closes once the remaining bytes are delivered
+  }
+
+  private boolean isResponseDelivered() {
+    return state == State.FORWARDING && responseFramer != null && responseFramer.isComplete()
+        && downstreamBuffer.readSequence() >= responseFramer.position();
+  }
+
+  /**
+   * The response has been fully delivered: go back to reading the next request, or close.
+   */
+  private void finishExchange() throws IOException {
+    if (cacheEntry != null) {
+      cacheEntry.commit();
+      cacheEntry = null;
+    }
+
+    boolean cleanExchange = requestFramer != null && requestFramer.isComplete()
+        && responseHead.isKeepAlive() && responseFramer.isSelfDelimited();
+    serverIdle = cleanExchange && !serverEndOfStream && serverReusable;
+
+    if (!cleanExchange || !requestKeepAlive) {
+      // closeConnection() still pools the upstream side if it is idle
+      closeConnection();
+      return;
+    }
+
+    if (!serverIdle) {
+      closeServerChannel();
+    }
+
+    state = State.READING_REQUEST_HEAD;
+    requestFramer = null;
+    responseHead = null;
+    responseFramer = null;
+    armDeadline(HEADER_TIMEOUT_MS, this::onHeaderTimeout);
+
+    if (clientKey.isValid()) {
+      clientKey.interestOps(SelectionKey.OP_READ);
+    }
+
+    // A pipelined request may already be waiting
+    startNextRequest();
+  }
+
+  /**
+   * The origin answered 304 to our conditional request: refresh the stale entry in place and
+   * send the client the stored response. The 304 itself has no body and never reaches the client.
+   */
+  private void finishRevalidation(HttpHead notModified, long headEnd) throws IOException {
+    CachedResponse stored = staleResponse;
+    staleResponse = null;
+    cacheManager.revalidated(cacheKey, stored, notModified, requestAuthorized);
+    if (cacheEntry != null) {
+      // Collapsed followers finish from the stored bytes too
+      cacheEntry.completeFrom(stored);
+      cacheEntry = null;
+    }
+
+    // Drop the 304 (and any interim responses before it) from the relay buffer
+    downstreamBuffer.skip((int) (headEnd - downstreamBuffer.readSequence()));
+    if (downstreamBuffer.writeSequence() > headEnd) {
+      System.err.println("  [NIO WARN] Dropping bytes sent past the end of the response from " + targetHostPort);
+      serverReusable = false;
+    }
+    serverIdle = notModified.isKeepAlive() && requestFramer.isComplete() && !serverEndOfStream && serverReusable;
+    responseHead = null;
+    responseFramer = null;
+    serveFromCache(stored);
+  }
+
+  /**
+   * Cache hit: write the stored response straight from its off-heap chunk (or disk segment,
+   * with transferTo), the origin is not contacted. Takes over the caller's reference to cached.
+   */
+  private void serveFromCache(CachedResponse cached) throws IOException {
+    servedResponse = cached;
+    servedPosition = 0;
+    // Only the ranges asked for, sliced from the stored bytes
+    servedRange = requestRange != null
+        ? cacheManager.rangeResponse(cached, requestRange, requestIfRange, clientAcceptsGzip) : null;
+    // Stored gzip'd: sent as is to clients that accept it, decoded on the fly to the others
+    decodedResponse = servedRange == null && !clientAcceptsGzip && cached.isGzipEncoded()
+        ? DecodedResponse.open(cached) : null;
+    state = State.SERVING_CACHE;
+    armDeadline(IDLE_TIMEOUT_MS, this::onIdleTimeout);
+    writeCachedResponse();
+  }
+
+  private void writeCachedResponse() throws IOException {
+    if (decodedResponse != null) {
+      writeDecodedResponse();
+      return;
+    }
+    long size = servedRange != null ? servedRange.size() : servedResponse.size();
+    try {
+      SocketChannel client = (SocketChannel) clientKey.channel();
+      while (servedPosition < size) {
+        long written = servedRange != null ? servedRange.writeTo(client, servedPosition)
+            : servedResponse.writeTo(client, servedPosition);
+        if (written == 0) break;
+        servedPosition += written;
+      }
+    } catch (IOException e) {
+      closeConnection();
+      throw e;
+    }
+
+    if (servedPosition < size) {
+      clientKey.interestOps(clientKey.interestOps() | SelectionKey.OP_WRITE);
+      return;
+    }
+
+    releaseServedResponse();
+    finishLocalResponse();
+  }
+
+  private void writeDecodedResponse() throws IOException {
+    try {
+      SocketChannel client = (SocketChannel) clientKey.channel();
+      while (true) {
+        if (decodedPiece == null || !decodedPiece.hasRemaining()) {
+          decodedPiece = decodedResponse.next();
+          if (decodedPiece == null) break;
+        }
+        client.write(decodedPiece);
+        if (decodedPiece.hasRemaining()) {
+          clientKey.interestOps(clientKey.interestOps() | SelectionKey.OP_WRITE);
+          return;
         }
       }
+    } catch (IOException e) {
+      closeConnection();
+      throw e;
+    }
+
+    releaseServedResponse();
+    finishLocalResponse();
+  }
+
+  private void releaseServedResponse() {
+    servedRange = null;
+    if (decodedResponse != null) {
+      decodedResponse.close();
+      decodedResponse = null;
+      decodedPiece = null;
+    }
+    if (servedResponse != null) {
+      servedResponse.release();
+      servedResponse = null;
+    }
+  }
+
+  private void releaseStaleResponse() {
+    if (staleResponse != null) {
+      staleResponse.release();
+      staleResponse = null;
+    }
+  }
+
+  /**
+   * Cache miss for a URL another request is already fetching: stream that leader's response
+   * as it is captured. The request head stays buffered and parsed until then, so a fallback
+   * still forwards it with its hop-by-hop headers stripped.
+   */
+  private void followLeader(PendingCacheEntry leader, HostPort hostPort) throws IOException {
+    System.out.println("  [NIO] Collapsed onto in-flight fetch of " + cacheKey);
+    leaderEntry = leader;
+    followTarget = hostPort;
+    followOffset = 0;
+    state = State.FOLLOWING;
+    armDeadline(COLLAPSE_TIMEOUT_MS, this::onCollapseTimeout);
+
+    // The leader may append from another reactor; progress is always handled on ours
+    leaderListener = () -> reactor.execute(this::onLeaderProgressSafely);
+    leader.addFollower(leaderListener);
+    onLeaderProgress();
+  }
+
+  private void onLeaderProgressSafely() {
+    try {
+      onLeaderProgress();
+    } catch (IOException e) {
+      System.err.println("  [NIO ERROR] Collapsed response failed: " + e.getMessage());
+      closeConnection();
+    }
+  }
+
+  private void onLeaderProgress() throws IOException {
+    if (isClosed || state != State.FOLLOWING) return;
+
+    while (true) {
+      if (cachedResponse != null) {
+        try {
+          ((SocketChannel) clientKey.channel()).write(cachedResponse);
+        } catch (IOException e) {
+          closeConnection();
+          throw e;
+        }
+        if (cachedResponse.hasRemaining()) {
+          clientKey.interestOps(clientKey.interestOps() | SelectionKey.OP_WRITE);
+          return;
+        }
+        cachedResponse = null;
+        clientKey.interestOps(clientKey.interestOps() & ~SelectionKey.OP_WRITE);
+      }
+
+      ByteBuffer next = leaderEntry.read(followOffset);
+      if (next == null) break;
+      if (followOffset == 0 && leaderEntry.isOtherVariant()) {
+        // The response varies on request headers this request may not share
+        fallBackFromLeader("leader's response varies");
+        return;
+      }
+      if (followOffset == 0) {
+        armDeadline(IDLE_TIMEOUT_MS, this::onIdleTimeout);
+      }
+      followOffset += next.remaining();
+      cachedResponse = next;
+    }
+
+    if (leaderEntry.isCommitted()) {
+      // Everything the leader captured has been written
+      detachFromLeader();
+      upstreamBuffer.skip(requestParser.getLength());
+      requestParser.reset();
+      finishLocalResponse();
+    } else if (!leaderEntry.isOpen()) {
+      fallBackFromLeader("leader abandoned the response");
+    }
+  }
+
+  private void onCollapseTimeout() {
+    if (isClosed || state != State.FOLLOWING || followOffset > 0) return;
+    try {
+      fallBackFromLeader("leader sent nothing for " + COLLAPSE_TIMEOUT_MS + " ms");
+    } catch (IOException e) {
+      System.err.println("  [NIO ERROR] Collapsed request fallback failed: " + e.getMessage());
+      closeConnection();
+    }
+  }
+
+  /**
+   * Stop following and fetch from the origin ourselves, if the client has not seen any bytes yet
+   */
+  private void fallBackFromLeader(String reason) throws IOException {
+    detachFromLeader();
+    if (followOffset > 0) {
+      // Part of the leader's response already went out; it cannot be restarted
+      System.err.println("  [NIO ERROR] Collapsed response cut short (" + reason + "), closing");
+      closeConnection();
+      return;
+    }
+    System.out.println("  [NIO] Collapsed request fetching on its own: " + reason);
+    forwardRequest(followTarget);
+  }
+
+  private void detachFromLeader() {
+    if (leaderEntry != null) {
+      leaderEntry.removeFollower(leaderListener);
+      leaderEntry = null;
+      leaderListener = null;
+    }
+  }
+
+  /**
+   * A response the proxy produced itself (cache hit, collapsed follower) is fully written
+   */
+  private void finishLocalResponse() throws IOException {
+    if (!requestKeepAlive) {
+      closeConnection();
+      return;
+    }
+    state = State.READING_REQUEST_HEAD;
+    requestFramer = null;
+    armDeadline(HEADER_TIMEOUT_MS, this::onHeaderTimeout);
+    if (clientKey.isValid()) {
+      clientKey.interestOps(SelectionKey.OP_READ);
+    }
+    startNextRequest();
+  }
+
+  /**
+   * Tee the response bytes just released to the client into the pending cache entry
+   */
+  private void captureResponseBytes() {
+    if (cacheEntry == null || clientWriteLimit <= captureSequence) return;
+
+    if (!cacheEntry.append(downstreamBuffer, captureSequence, (int) (clientWriteLimit - captureSequence))) {
+      cacheEntry = null; // Too large to cache; keep relaying without capturing
+      return;
+    }
+    captureSequence = clientWriteLimit;
+  }
+
+  private void abandonCacheEntry() {
+    if (cacheEntry != null) {
+      cacheEntry.abandon();
+      cacheEntry = null;
+    }
+  }
+
+  /**
+   * Whether the client made its own conditional or range request; its validators would clash
+   * with the ones the proxy adds to revalidate a stale entry
+   */
+  private boolean hasConditionalHeaders() {
+    return requestParser.indexOfHeader("If-None-Match") >= 0 || requestParser.indexOfHeader("If-Modified-Since") >= 0
+        || requestParser.indexOfHeader("If-Match") >= 0 || requestParser.indexOfHeader("If-Unmodified-Since") >= 0
+        || requestParser.indexOfHeader("If-Range") >= 0 || requestParser.indexOfHeader("Range") >= 0;
+  }
+
+  /**
+   * Upstream bytes that belong to the current request (or tunnel) and may be sent now
+   */
+  private int forwardableRequestBytes() {
+    if (upstreamBuffer == null) return 0;
+    if (state == State.TUNNELING) {
+      return upstreamBuffer.size();
+    }
+    if (requestFramer == null) return 0;
+    return (int) Math.max(0, requestFramer.position() - upstreamBuffer.readSequence());
+  }
+
+  private void enableServerWriteIfNeeded() {
+    if (serverKey == null || !serverKey.isValid() || state == State.CONNECTING) return;
+    if (forwardableRequestBytes() > 0) {
+      serverKey.interestOps(serverKey.interestOps() | SelectionKey.OP_WRITE);
     }
   }
 
@@ -295,7 +968,7 @@ public class NioConnectionHandler {
         }
       } catch (Exception ignored) {
       }
-      
+
       try {
         if (key.channel() != null && key.channel().isOpen()) {
           key.channel().close();
@@ -305,23 +978,33 @@ public class NioConnectionHandler {
     }
   }
 
-  public void closeConnection() {
-    if (isClosed) return;
-    isClosed = true;
-
-    try {
-      System.out.println("  [NIO] Closing connection for client: " + 
-          (clientKey.channel() != null ? clientKey.channel().toString() : "null"));
-    } catch (Exception ignored) {
+  /**
+   * Detach from the upstream connection: park it in the reactor's pool if its last exchange
+   * finished cleanly, otherwise close it.
+   */
+  private void releaseServerChannel() {
+    if (serverIdle && serverKey != null && serverKey.isValid() && !serverEndOfStream && serverReusable) {
+      reactor.releaseUpstream(targetHostPort, serverKey);
+      serverKey = null;
+      serverChannel = null;
+      serverIdle = false;
+      if (downstreamBuffer != null) {
+        downstreamBuffer.clear();
+      }
+      return;
     }
+    closeServerChannel();
+  }
 
-    deregisterAndClose(clientKey);
-
+  /**
+   * Close only the upstream side (broken exchange or the origin closed an idle connection)
+   */
+  private void closeServerChannel() {
     if (serverKey != null) {
       deregisterAndClose(serverKey);
       serverKey = null;
     }
-    
+
     if (serverChannel != null) {
       try {
         if (serverChannel.isOpen()) {
@@ -331,6 +1014,89 @@ public class NioConnectionHandler {
       }
       serverChannel = null;
     }
+    serverEndOfStream = false;
+    serverReusable = true;
+    serverIdle = false;
+
+    // Drop anything the old origin sent that was not part of a response
+    if (downstreamBuffer != null) {
+      downstreamBuffer.clear();
+    }
+  }
+
+  public void closeConnection() {
+    if (isClosed) return;
+    isClosed = true;
+    abandonCacheEntry();
+    detachFromLeader();
+    cachedResponse = null;
+    releaseServedResponse();
+    releaseStaleResponse();
+    headPatch = null;
+
+    try {
+      System.out.println("  [NIO] Closing connection for client: " +
+          (clientKey.channel() != null ? clientKey.channel().toString() : "null"));
+    } catch (Exception ignored) {
+    }
+
+    if (deadline != null) {
+      deadline.cancel();
+      deadline = null;
+    }
+
+    deregisterAndClose(clientKey);
+    releaseServerChannel();
+    releaseBuffers();
+
+    reactor.connectionClosed();
+  }
+
+  private void armDeadline(long delayMillis, Runnable onExpired) {
+    if (deadline != null) {
+      deadline.cancel();
+    }
+    deadline = reactor.schedule(delayMillis, onExpired);
+  }
+
+  private void onHeaderTimeout() {
+    if (isClosed || state != State.READING_REQUEST_HEAD) return;
+    System.err.println("  [NIO] Request header timeout, closing client");
+    if (upstreamBuffer != null && !upstreamBuffer.isEmpty()) {
+      // Only answer a client that started a request; idle keep-alive connections just close
+      sendErrorResponse((SocketChannel) clientKey.channel(), "408 Request Timeout");
+    }
+    closeConnection();
+  }
+
+  private void onConnectTimeout() {
+    if (isClosed || state != State.CONNECTING) return;
+    System.err.println("  [NIO] Connect timeout to " + targetHostPort.getHost() + ":" + targetHostPort.getPort());
+    sendErrorResponse((SocketChannel) clientKey.channel(), "504 Gateway Timeout");
+    closeConnection();
+  }
+
+  private void onIdleTimeout() {
+    if (isClosed) return;
+    // Activity only stamps a timestamp; the timer re-arms itself for the remaining time
+    long idleMillis = reactor.currentTimeMillis() - lastActivityMillis;
+    if (idleMillis < IDLE_TIMEOUT_MS) {
+      deadline = reactor.schedule(IDLE_TIMEOUT_MS - idleMillis, this::onIdleTimeout);
+      return;
+    }
+    System.out.println("  [NIO] Idle timeout, closing connection");
+    closeConnection();
+  }
+
+  private void releaseBuffers() {
+    if (upstreamBuffer != null) {
+      bufferPool.release(upstreamBuffer.getBuffer());
+      upstreamBuffer = null;
+    }
+    if (downstreamBuffer != null) {
+      bufferPool.release(downstreamBuffer.getBuffer());
+      downstreamBuffer = null;
+    }
   }
 
   private void startNonBlockingConnect() throws IOException {
@@ -338,27 +1104,58 @@ public class NioConnectionHandler {
       closeConnection();
       return;
     }
-    
+
+    if (downstreamBuffer == null) {
+      downstreamBuffer = new RingBuffer(bufferPool.acquire());
+    }
+
+    // Covers both DNS resolution and the TCP handshake
+    armDeadline(CONNECT_TIMEOUT_MS, this::onConnectTimeout);
+
+    // Resolve off the selector thread; the result comes back through the reactor task queue
+    reactor.getDnsResolver().resolve(targetHostPort.getHost(), reactor::execute, this::onHostResolved);
+  }
+
+  private void onHostResolved(InetAddress address, UnknownHostException error) {
+    if (isClosed || state != State.CONNECTING) return;
+
+    if (error != null) {
+      System.err.println("  [NIO ERROR] Cannot resolve " + targetHostPort.getHost() + " - " + error.getMessage());
+      sendErrorResponse((SocketChannel) clientKey.channel(), "502 Bad Gateway");
+      closeConnection();
+      return;
+    }
+
     try {
       serverChannel = SocketChannel.open();
       serverChannel.configureBlocking(false);
-      serverChannel.connect(new InetSocketAddress(targetHostPort.getHost(), targetHostPort.getPort()));
+      serverChannel.connect(new InetSocketAddress(address, targetHostPort.getPort()));
 
       serverKey = serverChannel.register(selector, SelectionKey.OP_CONNECT);
       serverKey.attach(this);
     } catch (IOException e) {
-      System.err.println("  [NIO ERROR] Failed to start connection to " + 
+      System.err.println("  [NIO ERROR] Failed to start connection to " +
           targetHostPort.getHost() + ":" + targetHostPort.getPort() + " - " + e.getMessage());
+      sendErrorResponse((SocketChannel) clientKey.channel(), "502 Bad Gateway");
       closeConnection();
-      throw e;
+    }
+  }
+
+  private void sendErrorResponse(SocketChannel clientChannel, String status) {
+    String response = "HTTP/1.1 " + status + "\r\nProxy-agent: Clean-Java-Proxy\r\nContent-Length: 0\r\n\r\n";
+    ByteBuffer buffer = ByteBuffer.wrap(response.getBytes(StandardCharsets.ISO_8859_1));
+    try {
+      clientChannel.write(buffer);
+    } catch (IOException ignored) {
+      // Best effort: the connection is being closed anyway
     }
   }
 
   private void sendForbiddenResponse(SocketChannel clientChannel, boolean isTunneling) throws IOException {
-    String forbiddenResponse = isTunneling 
+    String forbiddenResponse = isTunneling
         ? "HTTP/1.1 403 Forbidden\r\nProxy-agent: Clean-Java-Proxy\r\n\r\n"
         : "HTTP/1.1 403 Forbidden\r\nContent-Type: text/plain\r\nContent-Length: 13\r\n\r\nAccess Denied!";
-    
+
     ByteBuffer buffer = ByteBuffer.wrap(forbiddenResponse.getBytes(StandardCharsets.ISO_8859_1));
     try {
       while (buffer.hasRemaining()) {
@@ -368,30 +1165,4 @@ public class NioConnectionHandler {
       // Client may have already disconnected
     }
   }
-
-  private String extractRequestLineFromBuffer() {
-    clientReadBuffer.flip();
-    int limit = clientReadBuffer.limit();
-    int requestLineEnd = -1;
-    
-    for (int i = clientReadBuffer.position(); i < limit - 1; i++) {
-      if (clientReadBuffer.get(i) == '\r' && clientReadBuffer.get(i + 1) == '\n') {
-        requestLineEnd = i;
-        break;
-      }
-    }
-
-    if (requestLineEnd == -1) {
-      clientReadBuffer.compact();
-      return null;
-    }
-
-    byte[] lineBytes = new byte[requestLineEnd - clientReadBuffer.position()];
-    clientReadBuffer.get(lineBytes);
-    String requestLine = new String(lineBytes, StandardCharsets.ISO_8859_1);
-    clientReadBuffer.position(clientReadBuffer.position() + 2);
-    clientReadBuffer.compact();
-
-    return requestLine.trim();
-  }
-}
\ No newline at end of file
+}
@@ -0,0 +1,417 @@
+package com.proxy.main;
+
+import com.proxy.cache.CacheManager;
+import com.proxy.core.http.HostInterner;
+import com.proxy.core.usecase.ProxyRequestUseCase;
+import com.proxy.io.BufferPool;
+import com.proxy.io.DnsResolver;
+import com.proxy.io.TimingWheel;
+import com.proxy.io.UpstreamConnectionPool;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Worker event loop: owns one Selector and every client/upstream channel pair registered on it.
+ * All NioConnectionHandler callbacks run on this thread, so handlers need no locking.
+ * Other threads hand work over through execute(), which queues the task and wakes the selector.
+ */
+public class NioReactor implements Runnable {
+
+    // Max connections accepted per OP_ACCEPT event so a storm cannot starve established connections
+    private static final int ACCEPT_BATCH = 64;
+    // Direct memory each reactor may hold in buffer slabs (-Dproxy.bufferPoolMb)
+    private static final long BUFFER_POOL_BYTES = Long.getLong("proxy.bufferPoolMb", 64) * 1024 * 1024;
+    // Deadline resolution and wheel size: 100 ms x 512 buckets = one rotation every 51.2 s
+    private static final long TIMER_TICK_MS = 100;
+    private static final int TIMER_WHEEL_SIZE = 512;
+    // Idle upstream keep-alive connections kept per origin and reactor, in total across all reactors
+    // (-Dproxy.upstreamMaxIdle), and how long they may idle
+    private static final int UPSTREAM_PER_HOST = Integer.getInteger("proxy.upstreamPerHost", 8);
+    private static final int UPSTREAM_MAX_IDLE = Integer.getInteger("proxy.upstreamMaxIdle", 256);
+    private static final long UPSTREAM_IDLE_MS = Long.getLong("proxy.upstreamIdleMs", 30_000);
+    private static final AtomicInteger UPSTREAM_IDLE = new AtomicInteger();
+
+    private final String name;
+    private final Selector selector;
+    private final ProxyRequestUseCase useCase;
+    private final CacheManager cacheManager;
+    private final DnsResolver dnsResolver;
+    private final BufferPool bufferPool = new BufferPool(BufferPool.DEFAULT_BUFFER_SIZE, BUFFER_POOL_BYTES);
+
+    private final HostInterner hostInterner = new HostInterner(HostInterner.DEFAULT_SLOTS);
+    private final TimingWheel timingWheel = new TimingWheel(TIMER_TICK_MS, TIMER_WHEEL_SIZE, monotonicMillis());
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger connectionCount = new AtomicInteger();
+    // One pool per reactor so it is only touched by its own thread; the total cap is shared
+    private final UpstreamConnectionPool<SelectionKey> upstreamPool = new UpstreamConnectionPool<>(
+            UPSTREAM_PER_HOST, UPSTREAM_MAX_IDLE, UPSTREAM_IDLE, UPSTREAM_IDLE_MS, 0,
+            this::isUpstreamAlive, NioReactor::closeUpstream);
+    // Scratch buffer for liveness probes; an idle origin connection must have nothing to read
+    private final ByteBuffer probeBuffer = ByteBuffer.allocate(1);
+    private TimingWheel.Timeout poolSweep;
+
+    private volatile boolean isRunning = true;
+    private Thread thread;
+    // Time sampled once per loop iteration, cheap enough to read on every I/O event
+    private long loopTimeMillis = monotonicMillis();
+
+    public NioReactor(String name, ProxyRequestUseCase useCase, CacheManager cacheManager,
+            DnsResolver dnsResolver) throws IOException {
+        this.name = name;
+        this.selector = Selector.open();
+        this.useCase = useCase;
+        this.cacheManager = cacheManager;
+        this.dnsResolver = dnsResolver;
+    }
+
+    public void start() {
+        thread = new Thread(this, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Selector getSelector() {
+        return selector;
+    }
+
+    /**
+     * Shared resolver; callbacks come back to this reactor through execute()
+     */
+    public DnsResolver getDnsResolver() {
+        return dnsResolver;
+    }
+
+    /**
+     * Buffer pool owned by this reactor thread; only handlers on this reactor may use it
+     */
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    /**
+     * Host name cache shared by the request parsers of this reactor (reactor thread only)
+     */
+    public HostInterner getHostInterner() {
+        return hostInterner;
+    }
+
+    /**
+     * Idle upstream connections of this reactor. Pooled keys stay registered with no interest ops
+     * and no attachment; a handler that acquires one attaches itself before using it.
+     */
+    public UpstreamConnectionPool<SelectionKey> getUpstreamPool() {
+        return upstreamPool;
+    }
+
+    /**
+     * Park an upstream connection whose last exchange completed cleanly (reactor thread only)
+     */
+    public void releaseUpstream(ProxyRequestUseCase.HostPort target, SelectionKey serverKey) {
+        serverKey.interestOps(0);
+        serverKey.attach(null);
+        if (upstreamPool.release(target, serverKey, loopTimeMillis) && poolSweep == null) {
+            poolSweep = schedule(UPSTREAM_IDLE_MS, this::sweepUpstreamPool);
+        }
+    }
+
+    /**
+     * Monotonic time of the current loop iteration (reactor thread only)
+     */
+    public long currentTimeMillis() {
+        return loopTimeMillis;
+    }
+
+    /**
+     * Arm a deadline on this reactor's timing wheel. Reactor thread only; cancel() is O(1).
+     */
+    public TimingWheel.Timeout schedule(long delayMillis, Runnable task) {
+        return timingWheel.schedule(delayMillis, loopTimeMillis, task);
+    }
+
+    /**
+     * Number of live client connections owned by this reactor
+     */
+    public int getConnectionCount() {
+        return connectionCount.get();
+    }
+
+    public boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * Run a task on the reactor thread. Safe to call from any thread.
+     */
+    public void execute(Runnable task) {
+        tasks.add(task);
+        if (!inEventLoop()) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Hand an accepted client channel over to this reactor.
+     * Registration happens on the reactor thread to avoid blocking on a concurrent select().
+     */
+    public void registerClient(SocketChannel clientChannel) {
+        connectionCount.incrementAndGet();
+        ProxyServer.incrementActiveConnections();
+        Runnable register = () -> {
+            try {
+                SelectionKey clientKey = clientChannel.register(selector, SelectionKey.OP_READ);
+                new NioConnectionHandler(clientKey, this, useCase, cacheManager);
+            } catch (IOException e) {
+                System.err.println("  [NIO ERROR] " + name + " failed to register client: " + e.getMessage());
+                try {
+                    clientChannel.close();
+                } catch (IOException ignored) {
+                }
+                connectionClosed();
+            }
+        };
+        if (inEventLoop()) {
+            register.run();
+        } else {
+            execute(register);
+        }
+    }
+
+    /**
+     * Let this reactor accept on its own listening channel (SO_REUSEPORT shard).
+     * Accepted connections stay on this reactor instead of going through a shared acceptor.
+     */
+    public void bindListener(ServerSocketChannel listenerChannel) throws IOException {
+        listenerChannel.configureBlocking(false);
+        listenerChannel.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    /**
+     * Called by a handler once its client connection is fully closed
+     */
+    void connectionClosed() {
+        connectionCount.decrementAndGet();
+        ProxyServer.decrementActiveConnections();
+    }
+
+    public void shutdown() {
+        isRunning = false;
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (isRunning) {
+                long timeout = timingWheel.millisUntilNextTick(monotonicMillis());
+                if (!tasks.isEmpty()) {
+                    selector.selectNow();
+                } else if (timeout > 0) {
+                    selector.select(timeout);
+                } else {
+                    selector.select();
+                }
+                loopTimeMillis = monotonicMillis();
+                runTasks();
+
+                Set<SelectionKey> selectedKeys = selector.selectedKeys();
+                Iterator<SelectionKey> keyIterator = selectedKeys.iterator();
+
+                while (keyIterator.hasNext()) {
+                    SelectionKey key = keyIterator.next();
+                    keyIterator.remove();
+
+                    // Check if key is still valid
+                    if (!key.isValid()) {
+                        continue;
+                    }
+
+                    processKey(key);
+                }
+
+                // Expire connect/header/idle deadlines whose tick has passed
+                timingWheel.advance(monotonicMillis());
+            }
+        } catch (Exception e) {
+            System.err.println("❌ Critical NIO Loop Error in " + name + ": " + e.getClass().getName() + ": " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            closeAll();
+        }
+    }
+
+    private void sweepUpstreamPool() {
+        upstreamPool.evictIdle(loopTimeMillis);
+        // Only keep the sweep armed while there is something to evict
+        poolSweep = upstreamPool.getIdleCount() > 0 ? schedule(UPSTREAM_IDLE_MS / 2, this::sweepUpstreamPool) : null;
+    }
+
+    private boolean isUpstreamAlive(SelectionKey key) {
+        if (!key.isValid()) return false;
+        try {
+            probeBuffer.clear();
+            // Idle connections must have nothing pending: data is a protocol error, -1 a close
+            return ((SocketChannel) key.channel()).read(probeBuffer) == 0;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static void closeUpstream(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private static long monotonicMillis() {
+        return System.nanoTime() / 1_000_000;
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (Exception e) {
+                System.err.println("  [NIO ERROR] " + name + " task failed: " + e.getMessage());
+            }
+        }
+    }
+
+    private void processKey(SelectionKey key) {
+        if (key.isAcceptable()) {
+            handleAccept(key);
+            return;
+        }
+
+        try {
+            // Get handler and check for null BEFORE any operations
+            NioConnectionHandler handler = (NioConnectionHandler) key.attachment();
+            if (handler == null) {
+                System.err.println("  [NIO WARN] Key has no handler attachment, skipping");
+                key.cancel();
+                return;
+            }
+
+            // Get client key safely
+            SelectionKey clientKey = handler.getClientKey();
+            if (clientKey == null) {
+                System.err.println("  [NIO WARN] Handler has no client key, closing");
+                handler.closeConnection();
+                return;
+            }
+
+            // Determine if this is the client or server key
+            boolean isClientKey = (key == clientKey);
+
+            if (key.isConnectable()) {
+                handler.handleServerConnect(key);
+            } else if (key.isReadable()) {
+                if (isClientKey) {
+                    handler.handleRead();
+                } else {
+                    handler.handleServerRead(key);
+                }
+            } else if (key.isWritable()) {
+                if (isClientKey) {
+                    handler.handleWrite();
+                } else {
+                    handler.handleServerWrite(key);
+                }
+            }
+        } catch (IOException e) {
+            // Handle I/O errors and close connection
+            System.err.println("  [NIO ERROR] Connection error: " + e.getMessage());
+            closeKey(key);
+        } catch (Exception e) {
+            // Catch ANY other exception to prevent loop crash
+            System.err.println("  [NIO ERROR] Unexpected error: " + e.getClass().getName() + ": " + e.getMessage());
+            e.printStackTrace();
+            closeKey(key);
+        }
+    }
+
+    private void handleAccept(SelectionKey key) {
+        ServerSocketChannel listenerChannel = (ServerSocketChannel) key.channel();
+        for (int i = 0; i < ACCEPT_BATCH; i++) {
+            SocketChannel clientChannel = null;
+            try {
+                clientChannel = listenerChannel.accept();
+                if (clientChannel == null) {
+                    return; // Accept queue drained
+                }
+                clientChannel.configureBlocking(false);
+                System.out.println("-> [NIO NEW] " + name + " connection from: " + clientChannel.getRemoteAddress());
+                registerClient(clientChannel);
+            } catch (IOException e) {
+                System.err.println("  [NIO ERROR] " + name + " failed to accept connection: " + e.getMessage());
+                if (clientChannel != null && clientChannel.isOpen()) {
+                    try {
+                        clientChannel.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+                return;
+            }
+        }
+    }
+
+    private void closeKey(SelectionKey key) {
+        NioConnectionHandler handler = (NioConnectionHandler) key.attachment();
+        if (handler != null) {
+            try {
+                handler.closeConnection();
+            } catch (Exception cleanupError) {
+                System.err.println("  [NIO ERROR] Error during cleanup: " + cleanupError.getMessage());
+            }
+        }
+        key.cancel();
+        try {
+            if (key.channel() != null && key.channel().isOpen()) {
+                key.channel().close();
+            }
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void closeAll() {
+        for (SelectionKey key : selector.keys()) {
+            if (key.attachment() instanceof NioConnectionHandler handler) {
+                handler.closeConnection();
+            } else if (key.channel() instanceof ServerSocketChannel) {
+                try {
+                    key.channel().close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+        // After the handlers, which may have parked their upstream connections on the way out
+        upstreamPool.closeAll();
+        try {
+            if (selector.isOpen()) {
+                selector.close();
+            }
+        } catch (IOException ignored) {
+        }
+
+        // Every handler has been closed, so anything still leased was never returned
+        if (bufferPool.getLeasedCount() > 0 || bufferPool.getInvalidReleases() > 0) {
+            System.err.println("  [NIO WARN] " + name + " buffer leak detected: " + bufferPool);
+        }
+    }
+}
@@ -5,27 +5,44 @@ import com.proxy.admin.AdminStatsUpdater;
 import com.proxy.cache.BlacklistManager;
 import com.proxy.cache.CacheManager;
 import com.proxy.core.usecase.ProxyRequestUseCase;
+import com.proxy.io.DnsResolver;
 
 import javax.swing.*;
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
 
 public class ProxyServer {
 
     private static final int PROXY_PORT = 8888;
+    // Number of worker selector threads (-Dproxy.workers=N), defaults to one per core
+    private static final int WORKER_COUNT = Math.max(1,
+            Integer.getInteger("proxy.workers", Runtime.getRuntime().availableProcessors()));
     private static Selector selector;
+    // Number of SO_REUSEPORT listener shards (-Dproxy.listeners=K); 1 keeps the acceptor + workers mode
+    private static final int LISTENER_COUNT = Math.max(1, Integer.getInteger("proxy.listeners", 1));
+    // Threads doing blocking DNS lookups for the reactors (-Dproxy.dnsThreads)
+    private static final int DNS_THREADS = Math.max(1, Integer.getInteger("proxy.dnsThreads", 4));
+    // Hosts whose answers (positive or negative) the resolver keeps (-Dproxy.dnsCacheSize)
+    private static final int DNS_CACHE_SIZE = Integer.getInteger("proxy.dnsCacheSize", DnsResolver.DEFAULT_MAX_ENTRIES);
+    private static NioReactor[] workers;
+    private static int nextWorkerIndex = 0;
     
     private static CacheManager cacheManager;
     private static BlacklistManager blacklistManager;
     private static ProxyRequestUseCase proxyRequestUseCase;
+    private static DnsResolver dnsResolver;
     private static AdminApp adminApp;
-    private static AdminStatsUpdater statsUpdater;
+    // Handlers count requests and connections here, before main() has wired up the rest
+    private static final AdminStatsUpdater statsUpdater = AdminStatsUpdater.getInstance();
     
     // Server state
     private static volatile boolean isRunning = true;
@@ -40,7 +57,7 @@ public class ProxyServer {
         cacheManager = CacheManager.getInstance();
         blacklistManager = BlacklistManager.getInstance();
         proxyRequestUseCase = new ProxyRequestUseCase(cacheManager, blacklistManager);
-        statsUpdater = AdminStatsUpdater.getInstance();
+        dnsResolver = DnsResolver.createSystemResolver(DNS_THREADS, DNS_CACHE_SIZE);
         
         // Set cache manager for stats updater
         statsUpdater.setCacheManager(cacheManager);
@@ -54,6 +71,9 @@ public class ProxyServer {
             e.printStackTrace();
             System.exit(1);
         }
+        // Ctrl+C / SIGTERM: stop cleanly and leave a cache snapshot for the next start
+        // (registered once startup can no longer fail, so a failed start leaves the old one)
+        Runtime.getRuntime().addShutdownHook(new Thread(ProxyServer::shutdown, "proxy-shutdown"));
 
         // 2) START UI/ADMIN
         SwingUtilities.invokeLater(() -> {
@@ -82,20 +102,22 @@ public class ProxyServer {
         }
 
         // 3) START INFRASTRUCTURE (NIO Server)
+        if (LISTENER_COUNT > 1 && isReusePortSupported()) {
+            runShardedListeners();
+            return;
+        }
+
         try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
 
             serverChannel.configureBlocking(false);
             serverChannel.socket().bind(new InetSocketAddress(PROXY_PORT));
             
+            startWorkers();
+
             selector = Selector.open();
             serverChannel.register(selector, SelectionKey.OP_ACCEPT);
 
-            System.out.println("✅ NIO Proxy Server running on port " + PROXY_PORT);
-            System.out.println("  📡 Configure browser proxy to: 127.0.0.1:" + PROXY_PORT);
-            System.out.println("  🎛️  Admin Panel is ready for monitoring");
-            System.out.println("\n" + "=".repeat(60));
-            System.out.println("  Server is listening for connections...");
-            System.out.println("=".repeat(60) + "\n");
+            printListening();
 
             nioEventLoop();
 
@@ -110,10 +132,96 @@ public class ProxyServer {
         }
     }
 
+    private static void printListening() {
+        System.out.println("✅ NIO Proxy Server running on port " + PROXY_PORT);
+        System.out.println("  📡 Configure browser proxy to: 127.0.0.1:" + PROXY_PORT);
+        System.out.println("  🎛️  Admin Panel is ready for monitoring");
+        System.out.println("\n" + "=".repeat(60));
+        System.out.println("  Server is listening for connections...");
+        System.out.println("=".repeat(60) + "\n");
+    }
+
+    private static boolean isReusePortSupported() {
+        try (ServerSocketChannel probe = ServerSocketChannel.open()) {
+            if (probe.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+                return true;
+            }
+        } catch (IOException ignored) {
+        }
+        System.err.println("  [WARNING] SO_REUSEPORT not supported on this platform, using single acceptor");
+        return false;
+    }
+
+    /**
+     * Sharded mode: K listening channels bound to the same port with SO_REUSEPORT.
+     * Each channel has its own reactor that accepts and serves its own connections,
+     * so the kernel spreads new connections across shards without a shared accept queue.
+     */
+    private static void runShardedListeners() {
+        List<ServerSocketChannel> listenerChannels = new ArrayList<>();
+        try {
+            workers = new NioReactor[LISTENER_COUNT];
+            for (int i = 0; i < LISTENER_COUNT; i++) {
+                ServerSocketChannel listenerChannel = ServerSocketChannel.open();
+                listenerChannels.add(listenerChannel);
+                listenerChannel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+                listenerChannel.bind(new InetSocketAddress(PROXY_PORT));
+
+                workers[i] = new NioReactor("nio-listener-" + i, proxyRequestUseCase, cacheManager, dnsResolver);
+                workers[i].bindListener(listenerChannel);
+                workers[i].start();
+            }
+            System.out.println("  [NIO] Started " + LISTENER_COUNT + " SO_REUSEPORT listener shard(s)");
+
+            printListening();
+
+            while (isRunning) {
+                try {
+                    Thread.sleep(STATS_UPDATE_INTERVAL);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                updateStatsIfNeeded();
+            }
+        } catch (IOException e) {
+            System.err.println("❌ NIO Server Error: " + e.getMessage());
+            e.printStackTrace();
+
+            // Update admin UI
+            if (adminApp != null) {
+                adminApp.updateProxyStatus(false);
+            }
+        } finally {
+            stopWorkers();
+            for (ServerSocketChannel listenerChannel : listenerChannels) {
+                try {
+                    listenerChannel.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Start the worker reactors that own all client and upstream channels
+     */
+    private static void startWorkers() throws IOException {
+        workers = new NioReactor[WORKER_COUNT];
+        for (int i = 0; i < WORKER_COUNT; i++) {
+            workers[i] = new NioReactor("nio-worker-" + i, proxyRequestUseCase, cacheManager, dnsResolver);
+            workers[i].start();
+        }
+        System.out.println("  [NIO] Started " + WORKER_COUNT + " worker reactor(s)");
+    }
+
+    /**
+     * Acceptor loop: only accepts connections, all I/O runs on the worker reactors.
+     */
     private static void nioEventLoop() {
         try {
             while (isRunning) {
-                selector.select();
+                selector.select(STATS_UPDATE_INTERVAL);
 
                 Set<SelectionKey> selectedKeys = selector.selectedKeys();
                 Iterator<SelectionKey> keyIterator = selectedKeys.iterator();
@@ -130,76 +238,9 @@ public class ProxyServer {
                     try {
                         if (key.isAcceptable()) {
                             handleAccept(key);
-                        } else {
-                            // Get handler and check for null BEFORE any operations
-                            NioConnectionHandler handler = (NioConnectionHandler) key.attachment();
-                            if (handler == null) {
-                                System.err.println("  [NIO WARN] Key has no handler attachment, skipping");
-                                key.cancel();
-                                continue;
-                            }
-
-                            // Get client key safely
-                            SelectionKey clientKey = handler.getClientKey();
-                            if (clientKey == null) {
-                                System.err.println("  [NIO WARN] Handler has no client key, closing");
-                                handler.closeConnection();
-                                decrementActiveConnections();
-                                continue;
-                            }
-
-                            // Determine if this is the client or server key
-                            boolean isClientKey = (key == clientKey);
-
-                            if (key.isConnectable()) {
-                                handler.handleServerConnect(key);
-                            } else if (key.isReadable()) {
-                                if (isClientKey) {
-                                    handler.handleRead();
-                                } else {
-                                    handler.handleServerRead(key);
-                                }
-                            } else if (key.isWritable()) {
-                                if (isClientKey) {
-                                    handler.handleWrite();
-                                } else {
-                                    handler.handleServerWrite(key);
-                                }
-                            }
                         }
                     } catch (IOException e) {
-                        // Handle I/O errors and close connection
-                        System.err.println("  [NIO ERROR] Connection error: " + e.getMessage());
-                        
-                        NioConnectionHandler handler = (NioConnectionHandler) key.attachment();
-                        if (handler != null) {
-                            handler.closeConnection();
-                            decrementActiveConnections();
-                        } else {
-                            key.cancel();
-                            try {
-                                if (key.channel() != null && key.channel().isOpen()) {
-                                    key.channel().close();
-                                }
-                            } catch (IOException ignored) {
-                            }
-                        }
-                    } catch (Exception e) {
-                        // Catch ANY other exception to prevent loop crash
-                        System.err.println("  [NIO ERROR] Unexpected error: " + e.getClass().getName() + ": " + e.getMessage());
-                        e.printStackTrace();
-                        
-                        // Try to clean up
-                        NioConnectionHandler handler = (NioConnectionHandler) key.attachment();
-                        if (handler != null) {
-                            try {
-                                handler.closeConnection();
-                                decrementActiveConnections();
-                            } catch (Exception cleanupError) {
-                                System.err.println("  [NIO ERROR] Error during cleanup: " + cleanupError.getMessage());
-                            }
-                        }
-                        key.cancel();
+                        System.err.println("  [NIO ERROR] Accept error: " + e.getMessage());
                     }
                 }
                 
@@ -221,6 +262,7 @@ public class ProxyServer {
                 }
             } catch (IOException ignored) {
             }
+            stopWorkers();
         }
     }
 
@@ -235,16 +277,10 @@ public class ProxyServer {
             }
             
             clientChannel.configureBlocking(false);
-            SelectionKey clientKey = clientChannel.register(selector, SelectionKey.OP_READ);
-            
-            // Wire: Inject Core Use Case into Infrastructure Handler
-            new NioConnectionHandler(clientKey, proxyRequestUseCase, cacheManager);
-
             System.out.println("-> [NIO NEW] Connection from: " + clientChannel.getRemoteAddress());
-            
-            // Update stats
-            incrementActiveConnections();
-            statsUpdater.incrementTotalRequests();
+
+            // Hand the channel to a worker; its upstream channel will live on the same selector
+            nextWorker().registerClient(clientChannel);
             
         } catch (IOException e) {
             System.err.println("  [NIO ERROR] Failed to accept connection: " + e.getMessage());
@@ -257,13 +293,38 @@ public class ProxyServer {
             throw e;
         }
     }
+
+    /**
+     * Round-robin worker selection (only called from the acceptor thread)
+     */
+    private static NioReactor nextWorker() {
+        NioReactor worker = workers[nextWorkerIndex];
+        nextWorkerIndex = (nextWorkerIndex + 1) % workers.length;
+        return worker;
+    }
+
+    private static void stopWorkers() {
+        if (workers == null) return;
+        for (NioReactor worker : workers) {
+            if (worker != null) {
+                worker.shutdown();
+            }
+        }
+    }
     
-    private static synchronized void incrementActiveConnections() {
+    /**
+     * Called by a handler for every request head it accepts (several per keep-alive connection)
+     */
+    static void requestReceived() {
+        statsUpdater.incrementTotalRequests();
+    }
+
+    static synchronized void incrementActiveConnections() {
         activeConnections++;
         statsUpdater.setActiveConnections(activeConnections);
     }
     
-    private static synchronized void decrementActiveConnections() {
+    static synchronized void decrementActiveConnections() {
         activeConnections--;
         if (activeConnections < 0) activeConnections = 0;
         statsUpdater.setActiveConnections(activeConnections);
@@ -303,7 +364,8 @@ public class ProxyServer {
     /**
      * Gracefully shutdown the server
      */
-    public static void shutdown() {
+    public static synchronized void shutdown() {
+        if (!isRunning) return; // Already stopped (explicitly, then again from the shutdown hook)
         System.out.println("\n[SHUTDOWN] Stopping proxy server...");
         isRunning = false;
         
@@ -311,6 +373,15 @@ public class ProxyServer {
             if (selector != null && selector.isOpen()) {
                 selector.wakeup();
             }
+            stopWorkers();
+            if (dnsResolver != null) {
+                dnsResolver.shutdown();
+            }
+            if (cacheManager != null) {
+                System.out.println("[SHUTDOWN] Cache memory: " + statsUpdater.getCacheMemoryReport());
+                System.out.println("[SHUTDOWN] Cache admission: " + statsUpdater.getAdmissionReport());
+                cacheManager.shutdown();
+            }
         } catch (Exception e) {
             System.err.println("  [ERROR] Error during shutdown: " + e.getMessage());
         }
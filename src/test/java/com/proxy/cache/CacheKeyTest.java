@@ -0,0 +1,46 @@
+package com.proxy.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import com.proxy.core.http.HttpHead;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class CacheKeyTest {
+
+    private static HttpHead head(String text) {
+        return HttpHead.parse(text.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    @Test
+    public void normalizesTriviallyDifferentUrls() {
+        String key = "http://example.com/a?a=1&a=0&b=2";
+        assertEquals(key, CacheKey.normalize("HTTP://Example.COM:80/a?b=2&a=1&a=0#top"));
+        assertEquals(key, CacheKey.normalize("http://example.com/a?a=1&b=2&a=0"));
+        assertEquals("http://example.com/", CacheKey.normalize("http://example.com"));
+        assertEquals("http://example.com:8080/%7Ex", CacheKey.normalize("http://example.com:8080/%7Ex"));
+        // Not cached at all: its key could not be told apart from a variant key
+        assertNull(CacheKey.normalize("http://example.com/a b#vary;x"));
+        assertNull(CacheKey.normalize("/relative"));
+    }
+
+    @Test
+    public void variantKeysCarryTheVariedRequestHeaders() {
+        List<String> names = CacheKey.varyNames(head("HTTP/1.1 200 OK\r\nVary: User-Agent\r\nVary: accept-encoding\r\n\r\n"));
+        assertEquals(List.of("accept-encoding", "user-agent"), names);
+        assertNull(CacheKey.varyNames(head("HTTP/1.1 200 OK\r\nVary: *\r\n\r\n")));
+
+        Map<String, String> request = Map.of("accept-encoding", "gzip,  br");
+        String key = CacheKey.variant("http://example.com/", names, request::get);
+        assertEquals(CacheKey.variant("http://example.com/", names, name -> name.equals("accept-encoding") ? "gzip,br" : null), key);
+        assertEquals("http://example.com/", CacheKey.urlOf(key));
+        assertEquals(names, CacheKey.namesOf(key));
+        // A header the request did not send is not replayed
+        assertEquals("accept-encoding: gzip,br\r\n", CacheKey.requestHeadersOf(key));
+    }
+}
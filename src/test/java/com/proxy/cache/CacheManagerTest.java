@@ -0,0 +1,193 @@
+package com.proxy.cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.proxy.core.http.HttpHead;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class CacheManagerTest {
+
+    private final CacheManager cache = CacheManager.getInstance();
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    @Test
+    public void staleEntriesWithValidatorsAreRevalidatedInPlace() {
+        byte[] response = bytes("HTTP/1.1 200 OK\r\nETag: \"v1\"\r\nContent-Length: 2\r\n\r\nok");
+        cache.put("http://revalidate.test/etag", response, 0);
+
+        CachedResponse stale = cache.lookup("http://revalidate.test/etag");
+        assertTrue(stale.isExpired());
+        assertNull(cache.get("http://revalidate.test/etag"));
+        assertArrayEquals(bytes("If-None-Match: \"v1\"\r\n"), stale.conditionalHeaders());
+
+        cache.revalidated("http://revalidate.test/etag", stale,
+                HttpHead.parse(bytes("HTTP/1.1 304 Not Modified\r\nCache-Control: max-age=60\r\nETag: \"v2\"\r\n"
+                        + "Connection: close\r\n\r\n")), false);
+        assertFalse(stale.isExpired());
+        // The 304's headers replace the stored ones, its connection header is not stored
+        assertArrayEquals(bytes("HTTP/1.1 200 OK\r\nContent-Length: 2\r\nCache-Control: max-age=60\r\nETag: \"v2\"\r\n\r\nok"),
+                cache.get("http://revalidate.test/etag"));
+        CachedResponse updated = cache.lookup("http://revalidate.test/etag");
+        assertFalse(updated.isExpired());
+        assertArrayEquals(bytes("If-None-Match: \"v2\"\r\n"), updated.conditionalHeaders());
+    }
+
+    @Test
+    public void revalidationWithoutFreshnessLeavesEntryStale() {
+        String url = "http://revalidate.test/no-max-age";
+        cache.put(url, bytes("HTTP/1.1 200 OK\r\nETag: \"v1\"\r\nCache-Control: max-age=0\r\nContent-Length: 2\r\n\r\nok"), 0);
+        CachedResponse stale = cache.lookup(url);
+
+        // The stored max-age=0 still applies: the 304 says nothing about freshness
+        cache.revalidated(url, stale, HttpHead.parse(bytes("HTTP/1.1 304 Not Modified\r\nETag: \"v1\"\r\n\r\n")), false);
+        assertTrue(cache.lookup(url).isExpired());
+    }
+
+    @Test
+    public void staleEntriesWithoutValidatorsAreDropped() {
+        cache.put("http://revalidate.test/none", bytes("HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\nok"), 0);
+        assertNull(cache.lookup("http://revalidate.test/none"));
+    }
+
+    @Test
+    public void expirySweepReclaimsEntriesKeptForRevalidation() {
+        String url = "http://sweep.test/etag";
+        cache.put(url, bytes("HTTP/1.1 200 OK\r\nETag: \"v1\"\r\nContent-Length: 2\r\n\r\nok"), 0);
+        long now = System.currentTimeMillis();
+        cache.sweepExpired(now);
+        CachedResponse stale = cache.lookup(url);
+        assertTrue(stale.isExpired()); // Still there, a 304 could make it fresh again
+
+        // Everything filed by this test run fits in one batch
+        int swept = cache.sweepExpired(now + 24 * 60 * 60 * 1000L);
+        assertTrue(swept > 0 && swept < CacheManager.EXPIRY_SWEEP_BATCH);
+        assertNull(cache.lookup(url));
+    }
+
+    @Test
+    public void staleEntriesWithinGraceAreServedWhileRefreshing() {
+        // https: the background refresh gives up without touching the network
+        String url = "https://revalidate.test/swr";
+        cache.put(url, bytes("HTTP/1.1 200 OK\r\nCache-Control: max-age=0, stale-while-revalidate=30\r\n"
+                + "ETag: \"v1\"\r\n\r\n"), 0);
+        int staleHits = cache.getStaleHits();
+
+        CachedResponse stale = cache.lookup(url);
+        assertTrue(stale.isExpired());
+        assertTrue(stale.isServable());
+        assertEquals(staleHits + 1, cache.getStaleHits());
+    }
+
+    @Test
+    public void rangeMissOnStaleEntryRevalidatesIt() {
+        // https: the background refresh gives up without touching the network
+        String url = "https://revalidate.test/range";
+        cache.put(url, bytes("HTTP/1.1 200 OK\r\nETag: \"v1\"\r\nContent-Length: 2\r\n\r\nok"), 0);
+        int scheduled = cache.getRefresher().getScheduled();
+
+        cache.rangeMiss(url, HttpHead.parse(bytes("HTTP/1.1 206 Partial Content\r\nContent-Range: bytes 0-0/2\r\n\r\n")));
+        assertEquals(scheduled + 1, cache.getRefresher().getScheduled());
+    }
+
+    @Test
+    public void revalidationCompletesCollapsedEntryWithStoredBytes() {
+        byte[] response = bytes("HTTP/1.1 200 OK\r\nLast-Modified: Mon, 14 Nov 1994 08:12:31 GMT\r\n\r\n");
+        cache.put("http://revalidate.test/collapsed", response, 0);
+        CachedResponse stale = cache.lookup("http://revalidate.test/collapsed");
+
+        PendingCacheEntry leader = cache.beginEntry("http://revalidate.test/collapsed");
+        assertSame(leader, cache.follow("http://revalidate.test/collapsed"));
+        leader.completeFrom(stale);
+        assertTrue(leader.isCommitted());
+        ByteBuffer captured = leader.read(0);
+        byte[] copy = new byte[captured.remaining()];
+        captured.get(copy);
+        assertArrayEquals(response, copy);
+        assertNull(cache.follow("http://revalidate.test/collapsed"));
+    }
+
+    @Test
+    public void entriesKeptOutAreStillStreamedToFollowersButNotCounted() {
+        String url = "http://admission.test/followed";
+        AdmissionPolicy previous = cache.getAdmissionPolicy();
+        cache.setAdmissionPolicy(new AdmissionPolicy() {
+            @Override
+            public void recordRequest(String url) {
+            }
+
+            @Override
+            public boolean admit(String url, long bytes) {
+                return false;
+            }
+        });
+        try {
+            int admitted = cache.getAdmitted();
+            long admittedBytes = cache.getAdmittedBytes();
+            int notAdmitted = cache.getNotAdmitted();
+            PendingCacheEntry leader = cache.beginEntry(url);
+            assertSame(leader, cache.follow(url));
+            leader.addFollower(() -> { });
+
+            byte[] response = bytes("HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\nok");
+            leader.setTtlMillis(60_000);
+            leader.setResponseHead(HttpHead.parse(response));
+            assertTrue(leader.append(response, 0, response.length));
+            leader.commit();
+
+            assertEquals(response.length, leader.read(0).remaining());
+            assertNull(cache.get(url));
+            assertEquals(notAdmitted + 1, cache.getNotAdmitted());
+            assertEquals(admitted, cache.getAdmitted());
+            assertEquals(admittedBytes, cache.getAdmittedBytes());
+        } finally {
+            cache.setAdmissionPolicy(previous);
+        }
+    }
+
+    @Test
+    public void variantsAreStoredPerVariedRequestHeader() {
+        String url = "http://VARY.test:80/page";
+        HttpHead gzipRequest = HttpHead.parse(bytes("GET " + url + " HTTP/1.1\r\nAccept-Encoding: gzip\r\n\r\n"));
+        String key = cache.keyFor(url, gzipRequest::getHeader);
+        assertEquals("http://vary.test/page", key);
+
+        PendingCacheEntry entry = cache.beginEntry(key, gzipRequest);
+        byte[] head = bytes("HTTP/1.1 200 OK\r\nVary: Accept-Encoding\r\nContent-Length: 2\r\n\r\n");
+        entry.setTtlMillis(60_000);
+        entry.setResponseHead(HttpHead.parse(head));
+        entry.append(head, 0, head.length);
+        entry.append(bytes("gz"), 0, 2);
+        entry.commit();
+
+        assertTrue(entry.isOtherVariant());
+        assertNull(cache.get(key));
+        assertArrayEquals(bytes("gz"), Arrays.copyOfRange(cache.get(cache.keyFor(url, gzipRequest::getHeader)), head.length, head.length + 2));
+        assertNull(cache.get(cache.keyFor(url, name -> null)));
+    }
+
+    @Test
+    public void varyNamesAreForgottenOnceNoVariantIsStored() {
+        HttpHead request = HttpHead.parse(bytes("GET / HTTP/1.1\r\nAccept-Encoding: gzip\r\n\r\n"));
+        HttpHead response = HttpHead.parse(bytes("HTTP/1.1 200 OK\r\nVary: Accept-Encoding\r\n\r\n"));
+        cache.storeKey("http://vary.test/gone", response, request);
+        String kept = cache.storeKey("http://vary.test/kept", response, request);
+        cache.put(kept, bytes("HTTP/1.1 200 OK\r\nVary: Accept-Encoding\r\nContent-Length: 2\r\n\r\nok"), 60_000);
+
+        cache.pruneVariants();
+        assertEquals("http://vary.test/gone", cache.keyFor("http://vary.test/gone", request::getHeader));
+        assertEquals(kept, cache.keyFor("http://vary.test/kept", request::getHeader));
+    }
+}
@@ -0,0 +1,64 @@
+package com.proxy.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class CacheRefresherTest {
+
+    private final CacheManager cache = CacheManager.getInstance();
+
+    @Test
+    public void fillOfVariedResponseIsStoredAsTheVariantItWasFetchedFor() throws Exception {
+        try (ServerSocket origin = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            origin.setSoTimeout(10_000);
+            String url = "http://127.0.0.1:" + origin.getLocalPort() + "/refresher/vary";
+            Thread server = new Thread(() -> {
+                try (Socket socket = origin.accept()) {
+                    readHead(socket.getInputStream());
+                    socket.getOutputStream().write(("HTTP/1.1 200 OK\r\nCache-Control: max-age=60\r\n"
+                            + "Vary: Accept-Language\r\nContent-Language: en\r\nConnection: close\r\n"
+                            + "Content-Length: 5\r\n\r\nhello").getBytes(StandardCharsets.ISO_8859_1));
+                } catch (IOException ignored) {
+                }
+            });
+            server.start();
+
+            int filled = cache.getRefresher().getFilled();
+            cache.getRefresher().fill(url);
+            server.join(10_000);
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (cache.getRefresher().getFilled() == filled && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            assertEquals(filled + 1, cache.getRefresher().getFilled());
+
+            // The fill sent no Accept-Language: it is that variant, not the URL's only response
+            assertNull(cache.lookup(url));
+            String withoutLanguage = cache.keyFor(url, name -> null);
+            assertEquals(url + "#vary;accept-language", withoutLanguage);
+            assertNotNull(cache.lookup(withoutLanguage));
+            String french = cache.keyFor(url, name -> name.equals("accept-language") ? "fr" : null);
+            assertFalse(french.equals(withoutLanguage));
+            assertNull(cache.lookup(french));
+        }
+    }
+
+    private static void readHead(InputStream in) throws IOException {
+        int matched = 0;
+        int b;
+        while (matched < 4 && (b = in.read()) != -1) {
+            matched = b == (matched % 2 == 0 ? '\r' : '\n') ? matched + 1 : (b == '\r' ? 1 : 0);
+        }
+    }
+}
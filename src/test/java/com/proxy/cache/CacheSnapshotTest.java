@@ -0,0 +1,61 @@
+package com.proxy.cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import com.proxy.core.http.HttpHead;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CacheSnapshotTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final SlabAllocator slabs = new SlabAllocator(64 * 1024, 4);
+
+    private CachedResponse entry(String headers, String body, long ttlMillis) {
+        byte[] data = ("HTTP/1.1 200 OK\r\n" + headers + "Content-Length: " + body.length() + "\r\n\r\n" + body)
+                .getBytes(StandardCharsets.ISO_8859_1);
+        HttpHead head = HttpHead.parse(Arrays.copyOf(data, HttpHead.findEnd(data)));
+        return new CachedResponse(slabs.allocate(data, 0, data.length), head, ttlMillis);
+    }
+
+    @Test
+    public void reloadsEntriesWithTheirMetadata() throws Exception {
+        Map<String, CachedResponse> entries = new LinkedHashMap<>();
+        CachedResponse fresh = entry("ETag: \"a\"\r\n", "fresh body", 60_000);
+        entries.put("http://example.com/fresh", fresh);
+        entries.put("http://example.com/revalidate", entry("Last-Modified: Mon, 01 Jan 2024 00:00:00 GMT\r\n", "old", 0));
+        // Expired without validators or grace: useless after a restart, left out
+        entries.put("http://example.com/dead", entry("Cache-Control: must-revalidate\r\n", "gone", -1));
+
+        Path file = folder.getRoot().toPath().resolve("memory.snapshot");
+        assertEquals(2, CacheSnapshot.write(file, entries));
+
+        Map<String, RecordHeader> headers = new HashMap<>();
+        Map<String, byte[]> bodies = new HashMap<>();
+        int loaded = CacheSnapshot.load(file, (header, data) -> {
+            byte[] copy = new byte[data.remaining()];
+            data.get(copy);
+            headers.put(header.key, header);
+            bodies.put(header.key, copy);
+            return true;
+        });
+
+        assertEquals(2, loaded);
+        assertArrayEquals(fresh.getData(), bodies.get("http://example.com/fresh"));
+        assertEquals(fresh.getExpiresAtMillis(), headers.get("http://example.com/fresh").expiresAtMillis);
+        assertEquals("\"a\"", headers.get("http://example.com/fresh").etag);
+        assertEquals("Mon, 01 Jan 2024 00:00:00 GMT", headers.get("http://example.com/revalidate").lastModified);
+    }
+}
@@ -0,0 +1,71 @@
+package com.proxy.cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import com.proxy.core.http.HttpHead;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class ContentCodingTest {
+
+    @Test
+    public void readsAcceptEncoding() {
+        assertTrue(ContentCoding.acceptsGzip("gzip, deflate, br"));
+        assertTrue(ContentCoding.acceptsGzip("br;q=1.0, *;q=0.5"));
+        assertFalse(ContentCoding.acceptsGzip("gzip;q=0, *"));
+        assertFalse(ContentCoding.acceptsGzip("identity"));
+        assertFalse(ContentCoding.acceptsGzip(null));
+    }
+
+    @Test
+    public void storesTextGzippedAndDecodesItOnTheFly() throws Exception {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            body.append("line ").append(i % 50).append('\n');
+        }
+        byte[] response = ("HTTP/1.1 200 OK\r\nContent-Type: text/plain; charset=utf-8\r\nETag: \"v1\"\r\n"
+                + "Content-Length: " + body.length() + "\r\n\r\n" + body).getBytes(StandardCharsets.ISO_8859_1);
+        HttpHead head = HttpHead.parse(Arrays.copyOf(response, HttpHead.findEnd(response)));
+        assertTrue(ContentCoding.isCompressible(head, body.length()));
+
+        ByteBuffer[] encoded = ContentCoding.compress(new ByteBuffer[] { ByteBuffer.wrap(response) }, head.getLength(),
+                body.length(), 8192);
+        assertNotNull(encoded);
+        ByteArrayOutputStream stored = new ByteArrayOutputStream();
+        for (ByteBuffer buffer : encoded) {
+            stored.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        }
+        byte[] storedBytes = stored.toByteArray();
+        assertTrue(storedBytes.length * 3 < response.length);
+
+        SlabAllocator slabs = new SlabAllocator(64 * 1024, 1);
+        CachedResponse cached = new CachedResponse(slabs.allocate(storedBytes, 0, storedBytes.length), head, 60_000);
+        assertTrue(cached.isGzipEncoded());
+        HttpHead storedHead = cached.getHead();
+        assertEquals("W/\"v1\"", storedHead.getHeader("ETag"));
+        assertTrue(storedHead.hasToken("Vary", "Accept-Encoding"));
+        // Revalidation still uses the origin's validator
+        assertEquals("\"v1\"", cached.getEtag());
+
+        DecodedResponse decoded = DecodedResponse.open(cached);
+        ByteArrayOutputStream identity = new ByteArrayOutputStream();
+        for (ByteBuffer piece = decoded.next(); piece != null; piece = decoded.next()) {
+            identity.write(piece.array(), piece.arrayOffset() + piece.position(), piece.remaining());
+        }
+        decoded.close();
+        assertEquals(decoded.size(), identity.size());
+        byte[] served = identity.toByteArray();
+        int bodyStart = HttpHead.findEnd(served);
+        assertEquals(String.valueOf(body.length()), HttpHead.parse(Arrays.copyOf(served, bodyStart)).getHeader("Content-Length"));
+        assertArrayEquals(body.toString().getBytes(StandardCharsets.ISO_8859_1), Arrays.copyOfRange(served, bodyStart, served.length));
+    }
+}
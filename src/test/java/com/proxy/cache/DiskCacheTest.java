@@ -0,0 +1,164 @@
+package com.proxy.cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.proxy.core.http.HttpHead;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DiskCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static byte[] response(String body) {
+        return ("HTTP/1.1 200 OK\r\nETag: \"v1\"\r\nContent-Length: " + body.length() + "\r\n\r\n" + body)
+                .getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static void put(DiskCache disk, String url, byte[] data) {
+        HttpHead head = HttpHead.parse(Arrays.copyOf(data, HttpHead.findEnd(data)));
+        assertTrue(disk.put(url, new ByteBuffer[] { ByteBuffer.wrap(data) }, head, 60_000));
+    }
+
+    private static void awaitWrites(DiskCache disk, long writes) throws InterruptedException {
+        for (int i = 0; i < 500 && disk.getWrites() < writes; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(writes, disk.getWrites());
+    }
+
+    private static byte[] transfer(CachedResponse response) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long position = 0;
+        while (position < response.size()) {
+            position += response.writeTo(Channels.newChannel(out), position);
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    public void reopensFromSegmentIndexes() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        byte[] a = response("alpha");
+        byte[] b = response("bravo");
+        DiskCache disk = new DiskCache(dir, 1 << 20, 64 * 1024);
+        put(disk, "http://example.com/a", a);
+        put(disk, "http://example.com/b", b);
+        awaitWrites(disk, 2);
+        long expires = disk.get("http://example.com/a").getExpiresAtMillis();
+        disk.close();
+        assertTrue(Files.exists(dir.resolve("segment-0.idx")));
+
+        DiskCache reopened = new DiskCache(dir, 1 << 20, 64 * 1024);
+        CachedResponse restored = reopened.get("http://example.com/a");
+        assertNotNull(restored);
+        assertEquals(expires, restored.getExpiresAtMillis());
+        assertEquals("\"v1\"", restored.getEtag());
+        assertArrayEquals(a, transfer(restored));
+        assertArrayEquals(b, reopened.get("http://example.com/b").getData());
+        reopened.close();
+    }
+
+    @Test
+    public void replacesAnEntryWithACopyBehindANewHead() throws Exception {
+        DiskCache disk = new DiskCache(folder.getRoot().toPath(), 1 << 20, 64 * 1024);
+        put(disk, "http://example.com/r", response("romeo"));
+        awaitWrites(disk, 1);
+        CachedResponse stored = disk.get("http://example.com/r");
+        assertTrue(stored.retain()); // As a revalidating request holds it
+
+        byte[] head = "HTTP/1.1 200 OK\r\nETag: \"v2\"\r\nContent-Length: 5\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+        ByteBuffer body = stored.getBuffers()[0].duplicate();
+        body.position(body.limit() - 5);
+        assertTrue(disk.replace("http://example.com/r", stored, new ByteBuffer[] { ByteBuffer.wrap(head), body },
+                HttpHead.parse(head), 60_000));
+        awaitWrites(disk, 2);
+        CachedResponse replaced = disk.get("http://example.com/r");
+        assertEquals("\"v2\"", replaced.getEtag());
+        assertArrayEquals("HTTP/1.1 200 OK\r\nETag: \"v2\"\r\nContent-Length: 5\r\n\r\nromeo"
+                .getBytes(StandardCharsets.ISO_8859_1), replaced.getData());
+
+        // A copy of an entry that has been replaced since is dropped
+        assertTrue(disk.replace("http://example.com/r", stored, new ByteBuffer[] { ByteBuffer.wrap(head) },
+                HttpHead.parse(head), 60_000));
+        Thread.sleep(50);
+        assertEquals(2, disk.getWrites());
+        stored.release();
+        disk.close();
+    }
+
+    @Test
+    public void reopensWithoutRemovedEntriesAndWithRefreshedExpiries() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        byte[] replacement = response("charlie");
+        DiskCache disk = new DiskCache(dir, 1 << 20, 64 * 1024);
+        put(disk, "http://example.com/a", response("alpha"));
+        put(disk, "http://example.com/b", response("bravo"));
+        put(disk, "http://example.com/b", replacement);
+        awaitWrites(disk, 3);
+        disk.remove("http://example.com/a");
+        CachedResponse refreshed = disk.get("http://example.com/b");
+        refreshed.refresh(3_600_000);
+        long expires = refreshed.getExpiresAtMillis();
+        disk.close();
+
+        DiskCache reopened = new DiskCache(dir, 1 << 20, 64 * 1024);
+        assertNull(reopened.get("http://example.com/a"));
+        assertArrayEquals(replacement, reopened.get("http://example.com/b").getData());
+        assertEquals(expires, reopened.get("http://example.com/b").getExpiresAtMillis());
+        assertEquals(1, reopened.getEntryCount());
+        reopened.close();
+    }
+
+    @Test
+    public void recoversActiveSegmentWithoutIndex() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        DiskCache disk = new DiskCache(dir, 1 << 20, 64 * 1024);
+        byte[] data = response("written before a crash");
+        put(disk, "http://example.com/crash", data);
+        awaitWrites(disk, 1);
+        // Not closed: the segment has no .idx yet and must be scanned
+        assertTrue(!Files.exists(dir.resolve("segment-0.idx")));
+
+        DiskCache reopened = new DiskCache(dir, 1 << 20, 64 * 1024);
+        assertArrayEquals(data, reopened.get("http://example.com/crash").getData());
+        assertTrue(Files.exists(dir.resolve("segment-0.idx")));
+        reopened.close();
+    }
+
+    @Test
+    public void compactsSegmentsOfReplacedEntries() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        DiskCache disk = new DiskCache(dir, 1 << 20, 8 * 1024);
+        char[] filler = new char[1000];
+        for (int i = 0; i < 60; i++) {
+            Arrays.fill(filler, (char) ('a' + i % 26));
+            put(disk, "http://example.com/" + (i % 3), response(new String(filler)));
+        }
+        awaitWrites(disk, 60);
+
+        // 60 records of ~1 KB went through 8 KB segments, only the last 3 are live
+        assertTrue(disk.getCompactions() > 0);
+        assertTrue(disk.getSegmentCount() <= 3);
+        assertEquals(3, disk.getEntryCount());
+        Arrays.fill(filler, (char) ('a' + 59 % 26));
+        assertArrayEquals(response(new String(filler)), disk.get("http://example.com/2").getData());
+        assertNull(disk.get("http://example.com/3"));
+        disk.close();
+    }
+}
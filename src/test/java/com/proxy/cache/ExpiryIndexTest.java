@@ -0,0 +1,37 @@
+package com.proxy.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+public class ExpiryIndexTest {
+
+    @Test
+    public void handsOutElapsedBucketsInTimeOrder() {
+        ExpiryIndex index = new ExpiryIndex(1000, 10_000);
+        index.add("late", 14_500, 10_000);
+        index.add("early", 11_200, 10_000);
+        index.add("overdue", 5_000, 10_000);
+
+        assertTrue(index.pollDue(10_999, 10).isEmpty());
+        assertEquals(List.of("overdue"), index.pollDue(11_000, 10));
+        assertEquals(List.of("early"), index.pollDue(14_999, 10));
+        assertEquals(List.of("late"), index.pollDue(15_000, 10));
+        assertEquals(0, index.buckets());
+    }
+
+    @Test
+    public void sweepsLargeBucketsInBoundedBatches() {
+        ExpiryIndex index = new ExpiryIndex(1000, 0);
+        for (int i = 0; i < 25; i++) {
+            index.add("key" + i, 500, 0);
+        }
+        assertEquals(10, index.pollDue(5_000, 10).size());
+        assertEquals(10, index.pollDue(5_000, 10).size());
+        assertEquals(5, index.pollDue(5_000, 10).size());
+        assertTrue(index.pollDue(5_000, 10).isEmpty());
+    }
+}
@@ -0,0 +1,45 @@
+package com.proxy.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class FrequencyAdmissionTest {
+
+    @Test
+    public void admitsOnTheSecondRequest() {
+        FrequencyAdmission admission = new FrequencyAdmission("second-request", 2, 0, 4096);
+        admission.recordRequest("http://a.test/once");
+        assertFalse(admission.admit("http://a.test/once", 100));
+
+        admission.recordRequest("http://a.test/twice");
+        admission.recordRequest("http://a.test/twice");
+        assertTrue(admission.admit("http://a.test/twice", 100));
+        assertFalse(admission.admit("http://a.test/never", 100));
+    }
+
+    @Test
+    public void smallResponsesGetInOnTheirFirstRequest() {
+        FrequencyAdmission admission = new FrequencyAdmission("threshold", 3, 1024, 4096);
+        admission.recordRequest("http://a.test/small");
+        assertTrue(admission.admit("http://a.test/small", 1024));
+        assertFalse(admission.admit("http://a.test/small", 1025));
+        assertFalse(admission.admit("http://a.test/small", -1)); // Unknown length
+    }
+
+    @Test
+    public void requestCountsFadeOverTime() {
+        CountingBloomFilter filter = new CountingBloomFilter(1024);
+        for (int i = 0; i < 8; i++) {
+            filter.add("hot");
+        }
+        assertEquals(8, filter.count("hot"));
+        // Enough other traffic to trigger a halving
+        for (int i = 8; i < 10 * 64; i++) {
+            filter.add("other");
+        }
+        assertEquals(4, filter.count("hot"));
+    }
+}
@@ -0,0 +1,67 @@
+package com.proxy.cache;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import com.proxy.core.http.HttpHead;
+
+public class FreshnessCalculatorTest {
+
+    private static final String DATE = "Tue, 15 Nov 1994 08:12:31 GMT";
+    private static final long NOW = FreshnessCalculator.parseDate(DATE);
+
+    private static long freshness(String headers) {
+        return freshness(headers, false);
+    }
+
+    private static long freshness(String headers, boolean authorized) {
+        String head = "HTTP/1.1 200 OK\r\nDate: " + DATE + "\r\n" + headers + "\r\n";
+        return FreshnessCalculator.freshnessMillis(HttpHead.parse(head.getBytes(StandardCharsets.ISO_8859_1)),
+                authorized, NOW);
+    }
+
+    @Test
+    public void explicitLifetimePrecedence() {
+        assertEquals(30_000, freshness("Cache-Control: max-age=60, s-maxage=30\r\n"));
+        assertEquals(60_000, freshness("Cache-Control: max-age=60\r\nExpires: Tue, 15 Nov 1994 09:12:31 GMT\r\n"));
+        assertEquals(3_600_000, freshness("Expires: Tue, 15 Nov 1994 09:12:31 GMT\r\n"));
+        assertEquals(0, freshness("Expires: 0\r\n"));
+        assertEquals(0, freshness("Cache-Control: no-cache, max-age=60\r\n"));
+    }
+
+    @Test
+    public void staleGraceOnlyWhenTheResponseAllowsIt() {
+        assertEquals(0, grace("Cache-Control: max-age=0\r\nETag: \"v1\"\r\n"));
+        assertEquals(30_000, grace("Cache-Control: max-age=0, stale-while-revalidate=30\r\n"));
+        assertEquals(0, grace("Cache-Control: must-revalidate, stale-while-revalidate=30\r\n"));
+    }
+
+    private static long grace(String headers) {
+        String head = "HTTP/1.1 200 OK\r\n" + headers + "\r\n";
+        return FreshnessCalculator.staleGraceMillis(HttpHead.parse(head.getBytes(StandardCharsets.ISO_8859_1)));
+    }
+
+    @Test
+    public void subtractsAge() {
+        assertEquals(40_000, freshness("Cache-Control: max-age=60\r\nAge: 20\r\n"));
+        assertEquals(0, freshness("Cache-Control: max-age=60\r\nAge: 90\r\n"));
+    }
+
+    @Test
+    public void heuristicFromLastModified() {
+        assertEquals(8_640_000, freshness("Last-Modified: Mon, 14 Nov 1994 08:12:31 GMT\r\n"));
+        assertEquals(FreshnessCalculator.NOT_CACHEABLE, freshness("Content-Type: text/plain\r\n"));
+    }
+
+    @Test
+    public void rejectsResponsesSharedCachesMustNotStore() {
+        assertEquals(FreshnessCalculator.NOT_CACHEABLE, freshness("Cache-Control: no-store, max-age=60\r\n"));
+        assertEquals(FreshnessCalculator.NOT_CACHEABLE, freshness("Cache-Control: private, max-age=60\r\n"));
+        assertEquals(FreshnessCalculator.NOT_CACHEABLE, freshness("Cache-Control: max-age=60\r\nSet-Cookie: a=b\r\n"));
+        assertEquals(FreshnessCalculator.NOT_CACHEABLE, freshness("Cache-Control: max-age=60\r\n", true));
+        assertEquals(60_000, freshness("Cache-Control: public, max-age=60\r\n", true));
+    }
+}
@@ -0,0 +1,29 @@
+package com.proxy.cache;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class ObjectSizeLimitsTest {
+
+    @Test
+    public void exactTypesWinOverWildcards() {
+        ObjectSizeLimits limits = ObjectSizeLimits.parse("video/*=512m, video/mp2t=4m,text/html = 256k", 1024);
+        assertEquals(512L * 1024 * 1024, limits.limitFor("video/mp4"));
+        assertEquals(4L * 1024 * 1024, limits.limitFor("video/MP2T"));
+        assertEquals(256 * 1024, limits.limitFor("text/html; charset=utf-8"));
+        assertEquals(1024, limits.limitFor("image/png"));
+        assertEquals(1024, limits.limitFor(null));
+    }
+
+    @Test
+    public void sizesAreCappedToIntRange() {
+        assertEquals(64 * 1024, ObjectSizeLimits.parseSize("64k"));
+        assertEquals(Integer.MAX_VALUE, ObjectSizeLimits.parseSize("8g"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEntriesWithoutASize() {
+        ObjectSizeLimits.parse("video/*", 1024);
+    }
+}
@@ -0,0 +1,169 @@
+package com.proxy.cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.proxy.core.http.HttpHead;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class PendingCacheEntryTest {
+
+    private final CacheManager cache = CacheManager.getInstance();
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    @Test
+    public void commitsOnlyCompletedEntries() {
+        PendingCacheEntry entry = cache.beginEntry("http://tee.test/ok");
+        entry.setTtlMillis(60_000);
+        entry.append(bytes("HTTP/1.1 200 OK\r\n\r\n"), 0, 19);
+        entry.append(bytes("body"), 0, 4);
+        assertNull(cache.get("http://tee.test/ok"));
+        entry.commit();
+        assertArrayEquals(bytes("HTTP/1.1 200 OK\r\n\r\nbody"), cache.get("http://tee.test/ok"));
+
+        PendingCacheEntry aborted = cache.beginEntry("http://tee.test/aborted");
+        aborted.append(bytes("partial"), 0, 7);
+        aborted.abandon();
+        aborted.commit();
+        assertNull(cache.get("http://tee.test/aborted"));
+    }
+
+    @Test
+    public void abandonsEntriesOverTheSizeCap() {
+        PendingCacheEntry entry = cache.beginEntry("http://tee.test/huge");
+        byte[] chunk = new byte[64 * 1024];
+        int appended = 0;
+        while (entry.append(chunk, 0, chunk.length)) {
+            appended += chunk.length;
+        }
+        assertTrue(appended <= cache.maxObjectBytes(null));
+        assertFalse(entry.isOpen());
+        entry.commit();
+        assertNull(cache.get("http://tee.test/huge"));
+
+        // An announced length over the limit is dropped before any body is captured
+        PendingCacheEntry announced = cache.beginEntry("http://tee.test/announced");
+        byte[] head = bytes("HTTP/1.1 200 OK\r\nContent-Length: " + (cache.maxObjectBytes(null) + 1) + "\r\n\r\n");
+        announced.setResponseHead(HttpHead.parse(head));
+        assertFalse(announced.isOpen());
+    }
+
+    @Test
+    public void capturesLargeResponsesInChunks() {
+        PendingCacheEntry entry = cache.beginEntry("http://tee.test/large");
+        entry.setTtlMillis(60_000);
+        byte[] head = bytes("HTTP/1.1 200 OK\r\n\r\n");
+        byte[] body = new byte[CacheManager.CHUNK_BYTES * 2 + 123];
+        for (int i = 0; i < body.length; i++) {
+            body[i] = (byte) i;
+        }
+        entry.append(head, 0, head.length);
+        entry.append(body, 0, body.length);
+        // Followers read up to the end of a chunk at a time
+        assertEquals(CacheManager.CHUNK_BYTES, entry.read(0).remaining());
+        entry.commit();
+
+        byte[] stored = cache.get("http://tee.test/large");
+        assertEquals(head.length + body.length, stored.length);
+        assertEquals(body[body.length - 1], stored[stored.length - 1]);
+        assertEquals(body[CacheManager.CHUNK_BYTES], stored[head.length + CacheManager.CHUNK_BYTES]);
+    }
+
+    @Test
+    public void followersStreamFromTheLeader() {
+        PendingCacheEntry leader = cache.beginEntry("http://tee.test/collapsed");
+        leader.setTtlMillis(60_000);
+        int followersBefore = cache.getCollapsedFollowers();
+        assertSame(leader, cache.follow("http://tee.test/collapsed"));
+        assertEquals(followersBefore + 1, cache.getCollapsedFollowers());
+
+        AtomicInteger notifications = new AtomicInteger();
+        leader.addFollower(notifications::incrementAndGet);
+        leader.append(bytes("abc"), 0, 3);
+        leader.append(bytes("def"), 0, 3);
+        ByteBuffer tail = leader.read(2);
+        assertEquals(4, tail.remaining());
+        assertEquals('c', tail.get(0));
+
+        leader.commit();
+        assertEquals(3, notifications.get());
+        assertTrue(leader.isCommitted());
+        // Committed bytes stay readable for followers that are behind
+        assertEquals(6, leader.read(0).remaining());
+        // Later misses hit the cache instead of following a finished leader
+        assertNull(cache.follow("http://tee.test/collapsed"));
+    }
+
+    @Test
+    public void resumesBrokenDownloadsWithTheFreshnessOfThePartialResponse() throws Exception {
+        byte[] body = new byte[100_000];
+        for (int i = 0; i < body.length; i++) {
+            body[i] = (byte) (i * 31);
+        }
+        int received = 70_000;
+        AtomicReference<String> request = new AtomicReference<>();
+        try (ServerSocket origin = new ServerSocket(0)) {
+            // Origin answering the Range request for the rest of the body
+            Thread server = new Thread(() -> {
+                try (Socket socket = origin.accept()) {
+                    InputStream in = socket.getInputStream();
+                    ByteArrayOutputStream head = new ByteArrayOutputStream();
+                    while (!head.toString(StandardCharsets.ISO_8859_1).endsWith("\r\n\r\n")) {
+                        head.write(in.read());
+                    }
+                    request.set(head.toString(StandardCharsets.ISO_8859_1));
+                    OutputStream out = socket.getOutputStream();
+                    out.write(bytes("HTTP/1.1 206 Partial Content\r\nCache-Control: max-age=3600\r\nETag: \"r1\"\r\n"
+                            + "Content-Range: bytes " + received + "-" + (body.length - 1) + "/" + body.length + "\r\n"
+                            + "Content-Length: " + (body.length - received) + "\r\nConnection: close\r\n\r\n"));
+                    out.write(body, received, body.length - received);
+                } catch (Exception ignored) {
+                }
+            });
+            server.start();
+
+            String url = "http://127.0.0.1:" + origin.getLocalPort() + "/resume";
+            byte[] head = bytes("HTTP/1.1 200 OK\r\nCache-Control: max-age=1\r\nETag: \"r1\"\r\n"
+                    + "Content-Type: application/octet-stream\r\nContent-Length: " + body.length + "\r\n\r\n");
+            PendingCacheEntry entry = cache.beginEntry(url);
+            entry.setTtlMillis(1_000);
+            entry.setResponseHead(HttpHead.parse(head));
+            entry.append(head, 0, head.length);
+            entry.append(body, 0, received);
+            entry.abandon();
+            server.join(5_000);
+
+            byte[] stored = null;
+            for (int i = 0; i < 500 && stored == null; i++) {
+                Thread.sleep(10);
+                stored = cache.get(url);
+            }
+            assertTrue(request.get().contains("Range: bytes=" + received + "-\r\n"));
+            assertTrue(request.get().contains("If-Range: \"r1\"\r\n"));
+            byte[] expected = new byte[head.length + body.length];
+            System.arraycopy(head, 0, expected, 0, head.length);
+            System.arraycopy(body, 0, expected, head.length, body.length);
+            assertArrayEquals(expected, stored);
+            // Fresh for the hour the 206 gave, not the second the broken response had
+            assertTrue(cache.lookup(url).getExpiresAtMillis() > System.currentTimeMillis() + 3_000_000);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.proxy.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.proxy.core.http.HttpHead;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class RangeResponseTest {
+
+    private static final String BODY = "0123456789abcdefghijklmnopqrstuvwxyz";
+
+    private static CachedResponse stored() {
+        byte[] response = ("HTTP/1.1 200 OK\r\nContent-Type: application/octet-stream\r\nETag: \"v1\"\r\n"
+                + "Content-Length: " + BODY.length() + "\r\n\r\n" + BODY).getBytes(StandardCharsets.ISO_8859_1);
+        HttpHead head = HttpHead.parse(Arrays.copyOf(response, HttpHead.findEnd(response)));
+        SlabAllocator slabs = new SlabAllocator(64 * 1024, 1);
+        return new CachedResponse(slabs.allocate(response, 0, response.length), head, 60_000);
+    }
+
+    private static String write(RangeResponse response) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        WritableByteChannel channel = Channels.newChannel(out);
+        long position = 0;
+        while (position < response.size()) {
+            position += response.writeTo(channel, position);
+        }
+        return out.toString(StandardCharsets.ISO_8859_1);
+    }
+
+    @Test
+    public void slicesSingleRanges() throws Exception {
+        RangeResponse response = RangeResponse.of(stored(), "bytes=10-15", null, false);
+        assertEquals(206, response.getStatusCode());
+        String text = write(response);
+        assertTrue(text.startsWith("HTTP/1.1 206 Partial Content\r\n"));
+        assertTrue(text.contains("Content-Range: bytes 10-15/36\r\nContent-Length: 6\r\n\r\nabcdef"));
+        assertTrue(text.endsWith("\r\n\r\nabcdef"));
+
+        assertTrue(write(RangeResponse.of(stored(), "bytes=-4", "\"v1\"", false)).endsWith("\r\n\r\nwxyz"));
+        assertTrue(write(RangeResponse.of(stored(), "bytes=30-", null, false)).endsWith("\r\n\r\nuvwxyz"));
+    }
+
+    @Test
+    public void answersMultipleRangesAsMultipart() throws Exception {
+        String text = write(RangeResponse.of(stored(), "bytes=0-1, 34-99", null, false));
+        int bodyStart = text.indexOf("\r\n\r\n") + 4;
+        String boundary = text.substring(text.indexOf("boundary=") + 9, text.indexOf("\r\n", text.indexOf("boundary=")));
+        assertTrue(text.contains("Content-Length: " + (text.length() - bodyStart) + "\r\n"));
+        assertEquals("\r\n--" + boundary + "\r\nContent-Type: application/octet-stream\r\nContent-Range: bytes 0-1/36\r\n\r\n01"
+                + "\r\n--" + boundary + "\r\nContent-Type: application/octet-stream\r\nContent-Range: bytes 34-35/36\r\n\r\nyz"
+                + "\r\n--" + boundary + "--\r\n", text.substring(bodyStart));
+    }
+
+    @Test
+    public void fallsBackToTheWholeResponse() throws Exception {
+        RangeResponse unsatisfiable = RangeResponse.of(stored(), "bytes=36-", null, false);
+        assertEquals(416, unsatisfiable.getStatusCode());
+        assertTrue(write(unsatisfiable).contains("Content-Range: bytes */36\r\n"));
+
+        assertNull(RangeResponse.of(stored(), "bytes=0-1", "\"v2\"", false));
+        assertNull(RangeResponse.of(stored(), "bytes=0-5,3-8", null, false));
+        assertNull(RangeResponse.of(stored(), "items=0-5", null, false));
+        assertNull(RangeResponse.of(stored(), "bytes=5-2", null, false));
+    }
+}
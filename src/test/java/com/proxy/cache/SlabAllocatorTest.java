@@ -0,0 +1,53 @@
+package com.proxy.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class SlabAllocatorTest {
+
+    private static byte[] bytes(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) i;
+        }
+        return data;
+    }
+
+    @Test
+    public void storesBytesOffHeapRoundedToSizeClass() {
+        SlabAllocator slabs = new SlabAllocator(64 * 1024, 4);
+        byte[] data = "HTTP/1.1 200 OK\r\n\r\nbody".getBytes(StandardCharsets.ISO_8859_1);
+        SlabAllocator.Chunk chunk = slabs.allocate(data, 0, data.length);
+
+        ByteBuffer view = chunk.buffer();
+        assertEquals(data.length, view.remaining());
+        byte[] copy = new byte[data.length];
+        view.get(copy);
+        assertEquals(new String(data, StandardCharsets.ISO_8859_1), new String(copy, StandardCharsets.ISO_8859_1));
+        assertEquals(64, chunk.capacity());
+        assertEquals(64 * 1024, slabs.getReservedBytes());
+        assertEquals(1 - data.length / 64.0, slabs.getInternalFragmentation(), 1e-9);
+    }
+
+    @Test
+    public void emptySlabsAreReusedByOtherSizeClasses() {
+        SlabAllocator slabs = new SlabAllocator(64 * 1024, 1);
+        SlabAllocator.Chunk small = slabs.allocate(bytes(100), 0, 100);
+        assertNotNull(small);
+        // The only slab is carved for small chunks
+        assertNull(slabs.allocate(bytes(40_000), 0, 40_000));
+        assertEquals(1, slabs.getFailures());
+
+        small.free();
+        SlabAllocator.Chunk large = slabs.allocate(bytes(40_000), 0, 40_000);
+        assertNotNull(large);
+        assertEquals(39_999 & 0xff, large.buffer().get(39_999) & 0xff);
+        assertEquals(64 * 1024, slabs.getReservedBytes());
+    }
+}
@@ -0,0 +1,79 @@
+package com.proxy.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class WTinyLfuPolicyTest {
+
+    @Test
+    public void sketchCountsAndSaturates() {
+        FrequencySketch sketch = new FrequencySketch(1024);
+        for (int i = 0; i < 20; i++) {
+            sketch.increment("hot");
+        }
+        sketch.increment("warm");
+        assertEquals(15, sketch.frequency("hot"));
+        assertEquals(1, sketch.frequency("warm"));
+        assertEquals(0, sketch.frequency("cold"));
+    }
+
+    @Test
+    public void staysWithinByteBudget() {
+        Set<String> cached = new HashSet<>();
+        WTinyLfuPolicy<String> policy = new WTinyLfuPolicy<>(10_000, 1024);
+        for (int i = 0; i < 100; i++) {
+            String key = "k" + i;
+            policy.recordAccess(key);
+            cached.add(key);
+            policy.add(key, key, 700, (k, v) -> cached.remove(k));
+            assertTrue(policy.weightedSize() <= 10_000);
+        }
+        assertEquals(policy.size(), cached.size());
+        assertEquals(100 - cached.size(), policy.evictions());
+    }
+
+    @Test
+    public void scanDoesNotFlushFrequentEntries() {
+        Set<String> cached = new HashSet<>();
+        WTinyLfuPolicy<String> policy = new WTinyLfuPolicy<>(100_000, 1024);
+        for (int i = 0; i < 10; i++) {
+            String key = "hot" + i;
+            policy.recordAccess(key);
+            cached.add(key);
+            policy.add(key, key, 1_000, (k, v) -> cached.remove(k));
+        }
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 10; i++) {
+                policy.recordAccess("hot" + i);
+            }
+        }
+        // One-off URLs, together far larger than the budget
+        for (int i = 0; i < 1_000; i++) {
+            String key = "scan" + i;
+            policy.recordAccess(key);
+            cached.add(key);
+            policy.add(key, key, 1_000, (k, v) -> cached.remove(k));
+        }
+        for (int i = 0; i < 10; i++) {
+            assertTrue(cached.contains("hot" + i));
+        }
+        assertTrue(policy.weightedSize() <= 100_000);
+        assertTrue(policy.rejected() > 0);
+    }
+
+    @Test
+    public void removeIgnoresReplacedValues() {
+        WTinyLfuPolicy<String> policy = new WTinyLfuPolicy<>(10_000, 1024);
+        policy.add("k", "v1", 100, (k, v) -> { });
+        policy.add("k", "v2", 300, (k, v) -> { });
+        policy.remove("k", "v1");
+        assertEquals(300, policy.weightedSize());
+        policy.remove("k", "v2");
+        assertEquals(0, policy.weightedSize());
+    }
+}
@@ -0,0 +1,98 @@
+package com.proxy.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import com.proxy.cache.CacheManager;
+import com.proxy.io.ConnectionEstablisher;
+import com.proxy.io.TunnelingHelper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class HttpRequestProcessorTest {
+
+    private final HttpRequestProcessor processor = new HttpRequestProcessor(CacheManager.getInstance(),
+            new ConnectionEstablisher(), new TunnelingHelper());
+
+    @Test
+    public void connectionAfterAnUnforwardedRequestBodyIsNotPooled() throws Exception {
+        try (ServerSocket origin = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            origin.setSoTimeout(10_000);
+            String url = "http://127.0.0.1:" + origin.getLocalPort() + "/upload";
+            try (Socket client = process("POST " + url + " HTTP/1.1\r\nHost: 127.0.0.1\r\nContent-Length: 5\r\n\r\nhello");
+                 Socket fetch = origin.accept()) {
+                fetch.setSoTimeout(10_000);
+                readHead(fetch.getInputStream());
+                // Answered before the body arrived: the origin would read the next request as the body
+                fetch.getOutputStream().write(
+                        "HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\nok".getBytes(StandardCharsets.ISO_8859_1));
+                assertEquals(-1, fetch.getInputStream().read());
+            }
+        }
+    }
+
+    @Test
+    public void chunkedResponsesEndAtTheirLastChunkAndAreCached() throws Exception {
+        try (ServerSocket origin = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            origin.setSoTimeout(10_000);
+            String url = "http://127.0.0.1:" + origin.getLocalPort() + "/chunked";
+            try (Socket client = process("GET " + url + " HTTP/1.1\r\nHost: 127.0.0.1\r\n\r\n");
+                 Socket fetch = origin.accept()) {
+                readHead(fetch.getInputStream());
+                // The origin keeps the connection open: only the framing says where the body ends
+                fetch.getOutputStream().write(("HTTP/1.1 200 OK\r\nCache-Control: max-age=60\r\n"
+                        + "Transfer-Encoding: chunked\r\n\r\n5\r\nhello\r\n0\r\n\r\n")
+                        .getBytes(StandardCharsets.ISO_8859_1));
+                readHead(client.getInputStream());
+                // The proxy ends the exchange at the last chunk, stored by then
+                assertEquals("5\r\nhello\r\n0\r\n\r\n",
+                        new String(client.getInputStream().readAllBytes(), StandardCharsets.ISO_8859_1));
+            }
+            assertNotNull(CacheManager.getInstance().lookup(url));
+        }
+    }
+
+    /**
+     * Send the request and run its exchange on a background thread
+     * @return the client end, closed by the proxy once the exchange is over
+     */
+    private Socket process(String request) throws IOException {
+        try (ServerSocket listener = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            Socket client = new Socket(InetAddress.getLoopbackAddress(), listener.getLocalPort());
+            client.setSoTimeout(10_000);
+            Socket accepted = listener.accept();
+            client.getOutputStream().write(request.getBytes(StandardCharsets.ISO_8859_1));
+            new Thread(() -> {
+                try (accepted) {
+                    processor.process(accepted);
+                } catch (IOException | InterruptedException ignored) {
+                }
+            }).start();
+            return client;
+        }
+    }
+
+    /**
+     * Bytes up to and including the blank line ending a head
+     */
+    private static String readHead(InputStream in) throws IOException {
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1) {
+            head.write(b);
+            if (head.toString(StandardCharsets.ISO_8859_1).endsWith("\r\n\r\n")) break;
+        }
+        String text = head.toString(StandardCharsets.ISO_8859_1);
+        assertTrue(text, text.endsWith("\r\n\r\n"));
+        return text;
+    }
+}
@@ -0,0 +1,109 @@
+package com.proxy.core.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.proxy.io.RingBuffer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class BodyFramerTest {
+
+    private static void append(RingBuffer ring, String text) {
+        ring.put(ByteBuffer.wrap(text.getBytes(StandardCharsets.ISO_8859_1)));
+    }
+
+    private static HttpHead head(String text) {
+        return HttpHead.parse(text.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    @Test
+    public void framesChunkedBodiesWithTrailersAcrossReads() throws IOException {
+        String body = "4;ext=1\r\nWiki\r\n5\r\npedia\r\n0\r\nExpires: never\r\nX-Sum: 1\r\n\r\n";
+        RingBuffer ring = new RingBuffer(ByteBuffer.allocate(256));
+        BodyFramer framer = BodyFramer.chunked(0);
+        for (int i = 0; i < body.length(); i++) {
+            append(ring, body.substring(i, i + 1));
+            assertEquals(i + 1, framer.advance(ring));
+            assertEquals(i == body.length() - 1, framer.isComplete());
+        }
+        // Bytes of the next message are not claimed
+        append(ring, "HTTP/1.1 200 OK\r\n");
+        assertEquals(body.length(), framer.advance(ring));
+
+        RingBuffer bad = new RingBuffer(ByteBuffer.allocate(64));
+        append(bad, "4\r\nWikiX");
+        try {
+            BodyFramer.chunked(0).advance(bad);
+            throw new AssertionError("missing CRLF after chunk data accepted");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void framesContentLengthAndBodylessResponses() throws IOException {
+        RingBuffer ring = new RingBuffer(ByteBuffer.allocate(64));
+        append(ring, "hello world");
+        BodyFramer framer = head("HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\n").responseBodyFramer(0, "GET");
+        assertEquals(5, framer.advance(ring));
+        assertTrue(framer.isComplete());
+
+        HttpHead withLength = head("HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\n");
+        assertTrue(withLength.responseBodyFramer(0, "HEAD").isComplete());
+        for (String status : new String[] { "204 No Content", "304 Not Modified", "100 Continue" }) {
+            BodyFramer bodyless = head("HTTP/1.1 " + status + "\r\nTransfer-Encoding: chunked\r\n\r\n").responseBodyFramer(0, "GET");
+            assertTrue(status, bodyless.isComplete());
+            assertEquals(0, bodyless.advance(ring));
+        }
+
+        BodyFramer untilClose = head("HTTP/1.0 200 OK\r\n\r\n").responseBodyFramer(0, "GET");
+        assertFalse(untilClose.isSelfDelimited());
+        assertEquals(11, untilClose.advance(ring));
+        untilClose.onEndOfStream();
+        assertTrue(untilClose.isComplete());
+    }
+
+    @Test
+    public void transferEncodingOverridesContentLengthOnlyWhenChunkedIsFinal() {
+        HttpHead chunked = head("HTTP/1.1 200 OK\r\nTransfer-Encoding: gzip, chunked\r\nContent-Length: 5\r\n\r\n");
+        assertTrue(chunked.responseBodyFramer(0, "GET").isSelfDelimited());
+        assertFalse(chunked.responseBodyFramer(0, "GET").isComplete());
+        // Any other final coding leaves the length to the connection closing
+        HttpHead gzip = head("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked, gzip\r\nContent-Length: 5\r\n\r\n");
+        assertFalse(gzip.responseBodyFramer(0, "GET").isSelfDelimited());
+
+        assertNull(head("POST / HTTP/1.1\r\nTransfer-Encoding: gzip\r\n\r\n").requestBodyFramer(0));
+        assertFalse(head("POST / HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n").requestBodyFramer(0).isComplete());
+        assertNull(head("POST / HTTP/1.1\r\nTransfer-Encoding: chunked\r\nContent-Length: 5\r\n\r\n").requestBodyFramer(0));
+        assertNull(head("POST / HTTP/1.1\r\nContent-Length: -1\r\n\r\n").requestBodyFramer(0));
+        assertNull(head("POST / HTTP/1.1\r\nContent-Length: 5\r\nContent-Length: 6\r\n\r\n").requestBodyFramer(0));
+        assertFalse(head("POST / HTTP/1.1\r\nContent-Length: 5, 5\r\n\r\n").requestBodyFramer(0).isComplete());
+    }
+
+    @Test
+    public void framesPipelinedRequestsOneAfterAnother() throws IOException {
+        RingBuffer ring = new RingBuffer(ByteBuffer.allocate(512));
+        RequestHeadParser parser = new RequestHeadParser(256, 8, new HostInterner(4));
+        append(ring, "POST http://a.example/ HTTP/1.1\r\nContent-Length: 3\r\n\r\nabc"
+                + "POST http://a.example/ HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n2\r\nhi\r\n0\r\n\r\n"
+                + "GET http://a.example/ HTTP/1.1\r\n\r\n");
+
+        String[] bodies = { "abc", "2\r\nhi\r\n0\r\n\r\n", "" };
+        for (String body : bodies) {
+            assertEquals(RequestHeadParser.Result.COMPLETE, parser.parse(ring));
+            BodyFramer framer = parser.bodyFramer();
+            long end = framer.advance(ring);
+            assertTrue(framer.isComplete());
+            assertEquals(parser.getEnd() + body.length(), end);
+            ring.skip((int) (end - ring.readSequence()));
+            parser.reset();
+        }
+        assertTrue(ring.isEmpty());
+    }
+}
@@ -0,0 +1,142 @@
+package com.proxy.core.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.proxy.core.http.RequestHeadParser.Result;
+import com.proxy.core.usecase.ProxyRequestUseCase.HostPort;
+import com.proxy.io.RingBuffer;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class RequestHeadParserTest {
+
+    private final HostInterner interner = new HostInterner(16);
+
+    private static void append(RingBuffer ring, String text) {
+        ring.put(ByteBuffer.wrap(text.getBytes(StandardCharsets.ISO_8859_1)));
+    }
+
+    private RequestHeadParser parse(String head) {
+        RingBuffer ring = new RingBuffer(ByteBuffer.allocate(1024));
+        RequestHeadParser parser = new RequestHeadParser(512, 8, interner);
+        append(ring, head);
+        assertEquals(Result.COMPLETE, parser.parse(ring));
+        return parser;
+    }
+
+    @Test
+    public void resumesAcrossPartialReads() {
+        String head = "POST http://Example.COM:8080/a?b=1 HTTP/1.1\r\nHost: example.com\r\n"
+                + "Content-Length:  12 \r\nConnection: keep-alive, Upgrade\r\n\r\n";
+        RingBuffer ring = new RingBuffer(ByteBuffer.allocate(1024));
+        RequestHeadParser parser = new RequestHeadParser(512, 8, interner);
+        for (int i = 0; i < head.length(); i++) {
+            Result expected = i == head.length() - 1 ? Result.COMPLETE : Result.INCOMPLETE;
+            append(ring, head.substring(i, i + 1));
+            assertEquals(expected, parser.parse(ring));
+        }
+
+        assertSame("POST", parser.getMethod());
+        assertEquals(head.length(), parser.getLength());
+        assertEquals("http://Example.COM:8080/a?b=1", parser.getTargetString());
+        HostPort target = parser.getTarget();
+        assertEquals("example.com", target.getHost());
+        assertEquals(8080, target.getPort());
+        assertFalse(target.isTunneling());
+        assertEquals('/', ring.get(parser.getPathStart()));
+        assertEquals(12, parser.getContentLength());
+        assertEquals("12", parser.getHeader("content-length"));
+        assertTrue(parser.hasToken("Connection", "upgrade"));
+        assertTrue(parser.isKeepAlive());
+    }
+
+    @Test
+    public void resolvesConnectAndDefaultPorts() {
+        HostPort tunnel = parse("CONNECT secure.example:8443 HTTP/1.1\r\n\r\n").getTarget();
+        assertEquals("secure.example", tunnel.getHost());
+        assertEquals(8443, tunnel.getPort());
+        assertTrue(tunnel.isTunneling());
+
+        assertEquals(443, parse("CONNECT secure.example HTTP/1.1\r\n\r\n").getTarget().getPort());
+        assertEquals(80, parse("GET http://user@plain.example HTTP/1.0\r\n\r\n").getTarget().getPort());
+        assertEquals("::1", parse("GET http://[::1]:81/ HTTP/1.1\r\n\r\n").getTarget().getHost());
+        // Origin-form targets name no origin server
+        assertNull(parse("GET /index.html HTTP/1.1\r\n\r\n").getTarget());
+        assertFalse(parse("GET http://plain.example/ HTTP/1.0\r\n\r\n").isKeepAlive());
+    }
+
+    @Test
+    public void internsRepeatedHosts() {
+        HostPort first = parse("GET http://cdn.example/a HTTP/1.1\r\n\r\n").getTarget();
+        HostPort second = parse("GET http://CDN.example/b HTTP/1.1\r\n\r\n").getTarget();
+        assertSame(first, second);
+        assertEquals(1, interner.getHits());
+    }
+
+    @Test
+    public void rejectsOversizedAndMalformedHeads() {
+        RingBuffer ring = new RingBuffer(ByteBuffer.allocate(1024));
+        RequestHeadParser parser = new RequestHeadParser(64, 8, interner);
+        append(ring, "GET http://a.example/ HTTP/1.1\r\nX-Filler: " + "x".repeat(64) + "\r\n\r\n");
+        assertEquals(Result.TOO_LARGE, parser.parse(ring));
+
+        StringBuilder manyHeaders = new StringBuilder("GET http://a.example/ HTTP/1.1\r\n");
+        for (int i = 0; i < 9; i++) {
+            manyHeaders.append("X-").append(i).append(": v\r\n");
+        }
+        ring = new RingBuffer(ByteBuffer.allocate(1024));
+        parser = new RequestHeadParser(512, 8, interner);
+        append(ring, manyHeaders + "\r\n");
+        assertEquals(Result.TOO_LARGE, parser.parse(ring));
+
+        ring = new RingBuffer(ByteBuffer.allocate(1024));
+        parser = new RequestHeadParser(512, 8, interner);
+        append(ring, "GET http://a.example/ FTP/1.1\r\n\r\n");
+        assertEquals(Result.MALFORMED, parser.parse(ring));
+    }
+
+    @Test
+    public void rejectsTransferEncodingNotEndingInChunked() {
+        assertFalse(parse("POST http://a.example/ HTTP/1.1\r\nTransfer-Encoding: gzip, chunked\r\n\r\n").bodyFramer().isComplete());
+        for (String encoding : new String[] { "Transfer-Encoding: chunked, gzip\r\n",
+                "Transfer-Encoding: chunked\r\nTransfer-Encoding: identity\r\n",
+                "Transfer-Encoding: chunked\r\nContent-Length: 5\r\n" }) {
+            RingBuffer ring = new RingBuffer(ByteBuffer.allocate(1024));
+            append(ring, "POST http://a.example/ HTTP/1.1\r\n" + encoding + "\r\n");
+            assertEquals(encoding, Result.MALFORMED, new RequestHeadParser(512, 8, interner).parse(ring));
+        }
+    }
+
+    @Test
+    public void rejectsInvalidOrConflictingContentLength() {
+        assertEquals(5, parse("POST http://a.example/ HTTP/1.1\r\nContent-Length: 5, 5\r\nContent-Length: 5\r\n\r\n")
+                .getContentLength());
+        for (String length : new String[] { "Content-Length: abc\r\n", "Content-Length: -1\r\n",
+                "Content-Length: +5\r\n", "Content-Length: 1234567890123456789\r\n", "Content-Length: 5, 6\r\n",
+                "Content-Length: \r\n", "Content-Length: 5\r\nContent-Length: 6\r\n" }) {
+            RingBuffer ring = new RingBuffer(ByteBuffer.allocate(1024));
+            append(ring, "POST http://a.example/ HTTP/1.1\r\n" + length + "\r\n");
+            assertEquals(length, Result.MALFORMED, new RequestHeadParser(512, 8, interner).parse(ring));
+        }
+    }
+
+    @Test
+    public void copiesTheHeadWithoutHopByHopHeaders() {
+        RequestHeadParser plain = parse("GET http://a.example/ HTTP/1.1\r\nHost: a.example\r\nConnection: keep-alive\r\n\r\n");
+        assertFalse(plain.hasHopByHopHeaders());
+
+        RequestHeadParser parser = parse("GET http://a.example/ HTTP/1.1\r\nProxy-Connection: keep-alive\r\nHost: a.example\r\n"
+                + "Connection: X-Trace, Content-Length, keep-alive\r\nX-Trace: 1\r\nKeep-Alive: 5\r\n\r\n");
+        assertTrue(parser.hasHopByHopHeaders());
+        byte[] forwarded = parser.copyForwardedHead("If-None-Match: \"v1\"\r\n".getBytes(StandardCharsets.ISO_8859_1));
+        assertEquals("GET http://a.example/ HTTP/1.1\r\nHost: a.example\r\nConnection: X-Trace, Content-Length, keep-alive\r\n"
+                + "If-None-Match: \"v1\"\r\n\r\n", new String(forwarded, StandardCharsets.ISO_8859_1));
+    }
+}
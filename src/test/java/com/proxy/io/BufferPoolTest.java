@@ -0,0 +1,59 @@
+package com.proxy.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class BufferPoolTest {
+
+    @Test
+    public void recyclesReleasedBuffersAndCountsLeases() {
+        BufferPool pool = new BufferPool(8192, 1024 * 1024);
+        ByteBuffer first = pool.acquire();
+        ByteBuffer second = pool.acquire();
+        assertNotSame(first, second);
+        assertEquals(2, pool.getLeasedCount());
+        assertEquals(128, pool.getCapacity());
+
+        first.put((byte) 1);
+        pool.release(first);
+        assertEquals(1, pool.getLeasedCount());
+        ByteBuffer again = pool.acquire();
+        assertSame(first, again);
+        assertEquals(0, again.position()); // Handed out cleared
+        assertEquals(3, pool.getTotalLeases());
+        assertEquals(2, pool.getPeakLeasedCount());
+
+        pool.release(again);
+        pool.release(again);
+        pool.release(ByteBuffer.allocate(8));
+        assertEquals(2, pool.getInvalidReleases());
+        assertEquals(1, pool.getLeasedCount());
+    }
+
+    @Test
+    public void fallsBackToUnpooledBuffersAtTheCap() {
+        // One slab of 1 MB in 512 KB buffers
+        BufferPool pool = new BufferPool(512 * 1024, 1024 * 1024);
+        ByteBuffer a = pool.acquire();
+        ByteBuffer b = pool.acquire();
+        ByteBuffer c = pool.acquire();
+        assertEquals(1, pool.getUnpooledAllocations());
+        assertEquals(1024 * 1024, pool.getAllocatedBytes());
+
+        // The unpooled buffer is not kept: the pool never grows past its cap
+        pool.release(c);
+        pool.release(a);
+        pool.release(b);
+        assertEquals(0, pool.getLeasedCount());
+        pool.acquire();
+        pool.acquire();
+        pool.acquire();
+        assertEquals(2, pool.getUnpooledAllocations());
+        assertEquals(1024 * 1024, pool.getAllocatedBytes());
+    }
+}
@@ -0,0 +1,166 @@
+package com.proxy.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class DnsResolverTest {
+
+    private static final InetAddress STUB_ADDRESS = address(10, 0, 0, 1);
+
+    @Test
+    public void cachesPositiveAnswers() throws Exception {
+        AtomicInteger queries = new AtomicInteger();
+        DnsResolver resolver = new DnsResolver(host -> {
+            queries.incrementAndGet();
+            return new DnsResolver.Resolution(STUB_ADDRESS, 60_000);
+        }, 1, 1_000);
+
+        assertEquals(STUB_ADDRESS, resolveBlocking(resolver, "origin.test"));
+        assertEquals(STUB_ADDRESS, resolveBlocking(resolver, "ORIGIN.test"));
+        assertEquals(1, queries.get());
+        assertEquals(1, resolver.getCacheHits());
+        resolver.shutdown();
+    }
+
+    @Test
+    public void expiresAnswersAfterTtl() throws Exception {
+        AtomicInteger queries = new AtomicInteger();
+        DnsResolver resolver = new DnsResolver(host -> {
+            queries.incrementAndGet();
+            return new DnsResolver.Resolution(STUB_ADDRESS, 0);
+        }, 1, 1_000);
+
+        resolveBlocking(resolver, "origin.test");
+        Thread.sleep(5);
+        resolveBlocking(resolver, "origin.test");
+        assertEquals(2, queries.get());
+        resolver.shutdown();
+    }
+
+    @Test
+    public void cachesFailures() throws Exception {
+        AtomicInteger queries = new AtomicInteger();
+        DnsResolver resolver = new DnsResolver(host -> {
+            queries.incrementAndGet();
+            throw new UnknownHostException(host);
+        }, 1, 60_000);
+
+        assertNull(resolveBlocking(resolver, "missing.test"));
+        assertNull(resolveBlocking(resolver, "missing.test"));
+        assertEquals(1, queries.get());
+        assertEquals(1, resolver.getFailures());
+        resolver.shutdown();
+    }
+
+    @Test
+    public void deduplicatesConcurrentLookups() throws Exception {
+        AtomicInteger queries = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        DnsResolver resolver = new DnsResolver(host -> {
+            queries.incrementAndGet();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return new DnsResolver.Resolution(STUB_ADDRESS, 60_000);
+        }, 4, 1_000);
+
+        int askers = 10;
+        CountDownLatch done = new CountDownLatch(askers);
+        AtomicInteger resolved = new AtomicInteger();
+        for (int i = 0; i < askers; i++) {
+            resolver.resolve("slow.test", Runnable::run, (address, error) -> {
+                if (address != null) resolved.incrementAndGet();
+                done.countDown();
+            });
+        }
+        release.countDown();
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(askers, resolved.get());
+        assertEquals(1, queries.get());
+        resolver.shutdown();
+    }
+
+    @Test
+    public void boundsTheCacheByEvictingAnswersClosestToExpiry() throws Exception {
+        DnsResolver resolver = new DnsResolver(host -> new DnsResolver.Resolution(STUB_ADDRESS,
+                host.equals("short.test") ? 1_000 : 60_000), 1, 1_000, 2);
+
+        resolveBlocking(resolver, "short.test");
+        resolveBlocking(resolver, "long.test");
+        resolveBlocking(resolver, "other.test");
+
+        assertEquals(2, resolver.getCacheSize());
+        assertEquals(1, resolver.getEvictions());
+        long lookups = resolver.getLookups();
+        resolveBlocking(resolver, "long.test");
+        assertEquals(lookups, resolver.getLookups());
+        resolver.shutdown();
+    }
+
+    @Test
+    public void sweepsExpiredAnswersOfHostsNotAskedForAgain() throws Exception {
+        DnsResolver resolver = new DnsResolver(host -> {
+            if (host.startsWith("missing")) throw new UnknownHostException(host);
+            return new DnsResolver.Resolution(STUB_ADDRESS, 60_000);
+        }, 1, 1, 2);
+
+        resolveBlocking(resolver, "missing-1.test");
+        resolveBlocking(resolver, "missing-2.test");
+        Thread.sleep(5);
+        resolveBlocking(resolver, "origin.test");
+
+        // Both negative answers had expired: sweeping them made room without evicting anything live
+        assertEquals(1, resolver.getCacheSize());
+        assertEquals(0, resolver.getEvictions());
+        resolver.shutdown();
+    }
+
+    @Test
+    public void resolvesIpLiteralsInline() {
+        DnsResolver resolver = new DnsResolver(host -> {
+            throw new AssertionError("literal must not be looked up");
+        }, 1, 1_000);
+
+        AtomicReference<InetAddress> result = new AtomicReference<>();
+        resolver.resolve("127.0.0.1", task -> {
+            throw new AssertionError("literal must complete inline");
+        }, (address, error) -> result.set(address));
+
+        assertNotNull(result.get());
+        assertEquals(0, resolver.getLookups());
+        resolver.shutdown();
+    }
+
+    private static InetAddress resolveBlocking(DnsResolver resolver, String host) throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicReference<InetAddress> result = new AtomicReference<>();
+        resolver.resolve(host, Runnable::run, (address, error) -> {
+            result.set(address);
+            done.countDown();
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        return result.get();
+    }
+
+    private static InetAddress address(int a, int b, int c, int d) {
+        try {
+            return InetAddress.getByAddress(new byte[] { (byte) a, (byte) b, (byte) c, (byte) d });
+        } catch (UnknownHostException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
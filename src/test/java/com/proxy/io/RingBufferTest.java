@@ -0,0 +1,84 @@
+package com.proxy.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class RingBufferTest {
+
+    private static ByteBuffer bytes(String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    private static String drain(Pipe pipe, int count) throws Exception {
+        ByteBuffer out = ByteBuffer.allocate(count);
+        while (out.hasRemaining()) {
+            pipe.source().read(out);
+        }
+        return new String(out.array(), StandardCharsets.ISO_8859_1);
+    }
+
+    @Test
+    public void wrapsAroundTheEndOfTheBuffer() throws Exception {
+        RingBuffer ring = new RingBuffer(ByteBuffer.allocate(8));
+        Pipe pipe = Pipe.open();
+        assertEquals(6, ring.put(bytes("abcdef")));
+        assertEquals(4, ring.writeTo(pipe.sink(), 4));
+        assertEquals("abcd", drain(pipe, 4));
+
+        // Stored across the end: "ef" at 4..5, then "ghijkl" at 6..7 and 0..3
+        assertEquals(6, ring.put(bytes("ghijklmn")));
+        assertTrue(ring.isFull());
+        assertEquals(4, ring.readSequence());
+        assertEquals(12, ring.writeSequence());
+        assertEquals('h', ring.get(7));
+        assertEquals('i', ring.get(8));
+
+        byte[] copy = new byte[4];
+        ring.copy(6, copy, 0, 4);
+        assertArrayEquals("ghij".getBytes(StandardCharsets.ISO_8859_1), copy);
+        assertEquals(4, ring.readSequence()); // copy() does not consume
+
+        assertEquals(8, ring.writeTo(pipe.sink()));
+        assertEquals("efghijkl", drain(pipe, 8));
+        assertTrue(ring.isEmpty());
+    }
+
+    @Test
+    public void readsIntoTheFreeRegionAcrossTheEnd() throws Exception {
+        RingBuffer ring = new RingBuffer(ByteBuffer.allocate(8));
+        ring.put(bytes("xxxxxx"));
+        ring.skip(6);
+        Pipe pipe = Pipe.open();
+        pipe.sink().write(bytes("12345"));
+        assertEquals(5, ring.readFrom(pipe.source()));
+        byte[] copy = new byte[5];
+        ring.copy(ring.readSequence(), copy, 0, 5);
+        assertArrayEquals("12345".getBytes(StandardCharsets.ISO_8859_1), copy);
+    }
+
+    @Test
+    public void skipAndClearMoveTheReadSequenceOnly() {
+        RingBuffer ring = new RingBuffer(ByteBuffer.allocate(16));
+        ring.put(bytes("0123456789"));
+        ring.skip(3);
+        assertEquals(3, ring.readSequence());
+        assertEquals('3', ring.get(ring.readSequence()));
+        ring.skip(100); // At most what is stored
+        assertEquals(10, ring.readSequence());
+        assertTrue(ring.isEmpty());
+
+        ring.put(bytes("abc"));
+        ring.clear();
+        assertTrue(ring.isEmpty());
+        assertEquals(13, ring.readSequence());
+        assertEquals(13, ring.writeSequence());
+        assertEquals(16, ring.free());
+    }
+}
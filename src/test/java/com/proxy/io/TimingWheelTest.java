@@ -0,0 +1,73 @@
+package com.proxy.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TimingWheelTest {
+
+    @Test
+    public void expiresOnlyElapsedDeadlines() {
+        TimingWheel wheel = new TimingWheel(10, 8, 0);
+        List<String> fired = new ArrayList<>();
+        wheel.schedule(25, 0, () -> fired.add("a"));
+        wheel.schedule(55, 0, () -> fired.add("b"));
+
+        assertEquals(0, wheel.advance(20));
+        assertEquals(1, wheel.advance(30));
+        assertEquals(List.of("a"), fired);
+        assertEquals(1, wheel.advance(60));
+        assertEquals(List.of("a", "b"), fired);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void keepsDeadlinesBeyondOneRotation() {
+        TimingWheel wheel = new TimingWheel(10, 8, 0);
+        List<String> fired = new ArrayList<>();
+        // 8 buckets x 10 ms: 205 ms needs more than two rotations
+        wheel.schedule(205, 0, () -> fired.add("late"));
+
+        wheel.advance(100);
+        wheel.advance(200);
+        assertTrue(fired.isEmpty());
+        wheel.advance(210);
+        assertEquals(List.of("late"), fired);
+    }
+
+    @Test
+    public void cancelledTimeoutDoesNotRun() {
+        TimingWheel wheel = new TimingWheel(10, 8, 0);
+        List<String> fired = new ArrayList<>();
+        TimingWheel.Timeout timeout = wheel.schedule(15, 0, () -> fired.add("x"));
+
+        assertTrue(timeout.cancel());
+        assertFalse(timeout.cancel());
+        wheel.advance(100);
+        assertTrue(fired.isEmpty());
+        assertEquals(0, wheel.millisUntilNextTick(100));
+    }
+
+    @Test
+    public void taskCanRescheduleItself() {
+        TimingWheel wheel = new TimingWheel(10, 8, 0);
+        List<Long> fired = new ArrayList<>();
+        long[] now = { 0 };
+        Runnable[] task = new Runnable[1];
+        task[0] = () -> {
+            fired.add(now[0]);
+            if (fired.size() < 3) wheel.schedule(20, now[0], task[0]);
+        };
+        wheel.schedule(20, 0, task[0]);
+
+        for (now[0] = 0; now[0] <= 100; now[0] += 10) {
+            wheel.advance(now[0]);
+        }
+        assertEquals(List.of(20L, 40L, 60L), fired);
+    }
+}
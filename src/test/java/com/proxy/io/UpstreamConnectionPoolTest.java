@@ -0,0 +1,123 @@
+package com.proxy.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.proxy.core.usecase.ProxyRequestUseCase.HostPort;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class UpstreamConnectionPoolTest {
+
+    private static final HostPort A = new HostPort("a.example", 80, false);
+    private static final HostPort B = new HostPort("b.example", 80, false);
+
+    private final List<String> closed = new ArrayList<>();
+    private final Set<String> dead = new HashSet<>();
+
+    private UpstreamConnectionPool<String> pool(int perHost, int total) {
+        return new UpstreamConnectionPool<>(perHost, total, 1000, c -> !dead.contains(c), closed::add);
+    }
+
+    @Test
+    public void reusesMostRecentlyReleasedConnectionPerHost() {
+        UpstreamConnectionPool<String> pool = pool(4, 16);
+        pool.release(A, "a1", 0);
+        pool.release(A, "a2", 10);
+        pool.release(B, "b1", 20);
+
+        // Host names compare case-insensitively
+        assertEquals("a2", pool.acquire(new HostPort("A.EXAMPLE", 80, false), 30));
+        assertEquals("a1", pool.acquire(A, 30));
+        assertNull(pool.acquire(A, 30));
+        assertEquals(1, pool.getIdleCount());
+        assertEquals(2, pool.getReused());
+        assertEquals(1, pool.getMisses());
+    }
+
+    @Test
+    public void enforcesPerHostAndGlobalCaps() {
+        UpstreamConnectionPool<String> pool = pool(2, 3);
+        assertTrue(pool.release(A, "a1", 0));
+        assertTrue(pool.release(A, "a2", 1));
+        assertFalse(pool.release(A, "a3", 2));
+        assertEquals(List.of("a3"), closed);
+
+        pool.release(B, "b1", 3);
+        pool.release(B, "b2", 4);
+        // Global cap of 3: the least recently released connection of any host goes
+        assertEquals(List.of("a3", "a1"), closed);
+        assertEquals(3, pool.getIdleCount());
+    }
+
+    @Test
+    public void evictsIdleAndDeadConnections() {
+        UpstreamConnectionPool<String> pool = pool(4, 16);
+        pool.release(A, "a1", 0);
+        pool.release(A, "a2", 600);
+        pool.release(B, "b1", 700);
+
+        assertEquals(1, pool.evictIdle(1000));
+        assertEquals(List.of("a1"), closed);
+
+        dead.add("a2");
+        assertNull(pool.acquire(A, 1100));
+        assertEquals(1, pool.getDeadOnAcquire());
+        // Expired by the time it is asked for, even without a sweep
+        assertNull(pool.acquire(B, 1700));
+        assertEquals(List.of("a1", "a2", "b1"), closed);
+        assertEquals(0, pool.getIdleCount());
+    }
+
+    @Test
+    public void probesOnlyConnectionsIdleLongEnough() {
+        List<String> probed = new ArrayList<>();
+        UpstreamConnectionPool<String> pool = new UpstreamConnectionPool<>(4, 16, 1000, 100,
+                c -> probed.add(c) && !dead.contains(c), closed::add);
+        dead.add("a1");
+        dead.add("a2");
+        pool.release(A, "a1", 0);
+        pool.release(A, "a2", 50);
+
+        // Released 50 ms ago: handed out without a probe
+        assertEquals("a2", pool.acquire(A, 100));
+        assertNull(pool.acquire(A, 100));
+        assertEquals(List.of("a1"), probed);
+        assertEquals(List.of("a1"), closed);
+    }
+
+    @Test
+    public void poolsSharingAnIdleCountShareTheTotalCap() {
+        AtomicInteger idle = new AtomicInteger();
+        UpstreamConnectionPool<String> first = new UpstreamConnectionPool<>(4, 3, idle, 1000, 0, c -> true, closed::add);
+        UpstreamConnectionPool<String> second = new UpstreamConnectionPool<>(4, 3, idle, 1000, 0, c -> true, closed::add);
+        first.release(A, "a1", 0);
+        first.release(A, "a2", 1);
+        second.release(B, "b1", 2);
+        assertTrue(closed.isEmpty());
+
+        // The cap is reached across both pools: the releasing pool makes room among its own connections
+        assertTrue(second.release(B, "b2", 3));
+        assertEquals(List.of("b1"), closed);
+        assertEquals(3, idle.get());
+
+        // With none of its own left to close, the releasing pool closes the connection it was given
+        assertEquals("b2", second.acquire(B, 4));
+        first.release(A, "a3", 5);
+        assertFalse(second.release(B, "b2", 6));
+        assertEquals(List.of("b1", "b2"), closed);
+        assertEquals(3, idle.get());
+        assertEquals(0, second.getIdleCount());
+
+        first.closeAll();
+        assertEquals(second.getIdleCount(), idle.get());
+    }
+}
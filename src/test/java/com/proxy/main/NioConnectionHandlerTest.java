@@ -0,0 +1,146 @@
+package com.proxy.main;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import com.proxy.cache.CacheManager;
+import com.proxy.core.http.RequestHeadParser;
+import com.proxy.core.usecase.ProxyRequestUseCase;
+import com.proxy.io.DnsResolver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class NioConnectionHandlerTest {
+
+    private final CacheManager cache = CacheManager.getInstance();
+
+    @Test
+    public void collapsedRequestFallingBackStripsHopByHopHeaders() throws Exception {
+        DnsResolver resolver = DnsResolver.createSystemResolver(1);
+        try (ServerSocket origin = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+             ServerSocketChannel listener = ServerSocketChannel.open()) {
+            origin.setSoTimeout(10_000);
+            listener.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            NioReactor reactor = new NioReactor("test-reactor", allowAll(), cache, resolver);
+            reactor.bindListener(listener);
+            reactor.start();
+
+            String host = "127.0.0.1:" + origin.getLocalPort();
+            String url = "http://" + host + "/collapse/fallback";
+            try (Socket leader = connect(listener); Socket follower = connect(listener)) {
+                send(leader, "GET " + url + " HTTP/1.1\r\nHost: " + host + "\r\n\r\n");
+                Socket leaderFetch = origin.accept();
+                readHead(leaderFetch);
+
+                int followers = cache.getCollapsedFollowers();
+                send(follower, "GET " + url + " HTTP/1.1\r\nHost: " + host + "\r\nProxy-Connection: keep-alive\r\n"
+                        + "Connection: X-Trace\r\nX-Trace: 1\r\n\r\n");
+                long deadline = System.currentTimeMillis() + 10_000;
+                while (cache.getCollapsedFollowers() == followers && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(5);
+                }
+
+                // The leader's origin goes away before answering: the follower fetches on its own
+                leaderFetch.close();
+                try (Socket followerFetch = origin.accept()) {
+                    String head = readHead(followerFetch);
+                    assertTrue(head, head.startsWith("GET " + url + " HTTP/1.1\r\n"));
+                    assertTrue(head, head.contains("Host: " + host + "\r\n"));
+                    assertFalse(head, head.contains("Proxy-Connection"));
+                    assertFalse(head, head.contains("X-Trace: 1"));
+
+                    followerFetch.getOutputStream().write(
+                            "HTTP/1.1 200 OK\r\nCache-Control: no-store\r\nContent-Length: 2\r\n\r\nok"
+                                    .getBytes(StandardCharsets.ISO_8859_1));
+                    String response = readHead(follower);
+                    assertTrue(response, response.startsWith("HTTP/1.1 200 OK\r\n"));
+                }
+            } finally {
+                reactor.shutdown();
+            }
+        } finally {
+            resolver.shutdown();
+        }
+    }
+
+    @Test
+    public void lengthDelimitedResponsesEndingTheConnectionAreCached() throws Exception {
+        DnsResolver resolver = DnsResolver.createSystemResolver(1);
+        try (ServerSocket origin = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+             ServerSocketChannel listener = ServerSocketChannel.open()) {
+            origin.setSoTimeout(10_000);
+            listener.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            NioReactor reactor = new NioReactor("test-reactor", allowAll(), cache, resolver);
+            reactor.bindListener(listener);
+            reactor.start();
+
+            String host = "127.0.0.1:" + origin.getLocalPort();
+            String url = "http://" + host + "/connection/close";
+            try (Socket client = connect(listener)) {
+                send(client, "GET " + url + " HTTP/1.1\r\nHost: " + host + "\r\n\r\n");
+                try (Socket fetch = origin.accept()) {
+                    readHead(fetch);
+                    fetch.getOutputStream().write(("HTTP/1.0 200 OK\r\nCache-Control: max-age=60\r\n"
+                            + "Connection: close\r\nContent-Length: 2\r\n\r\nok").getBytes(StandardCharsets.ISO_8859_1));
+                }
+                assertTrue(readHead(client).startsWith("HTTP/1.0 200 OK\r\n"));
+                // The client connection closes once the response is delivered, and it is stored by then
+                while (client.getInputStream().read() != -1) {
+                }
+            } finally {
+                reactor.shutdown();
+            }
+            assertNotNull(cache.lookup(url));
+        } finally {
+            resolver.shutdown();
+        }
+    }
+
+    private static ProxyRequestUseCase allowAll() {
+        return new ProxyRequestUseCase(null, null) {
+            @Override
+            public HostPort processInitialRequest(RequestHeadParser requestHead) {
+                return requestHead.getTarget();
+            }
+        };
+    }
+
+    private static Socket connect(ServerSocketChannel listener) throws IOException {
+        Socket socket = new Socket();
+        socket.connect(listener.getLocalAddress(), 10_000);
+        socket.setSoTimeout(10_000);
+        return socket;
+    }
+
+    private static void send(Socket socket, String text) throws IOException {
+        socket.getOutputStream().write(text.getBytes(StandardCharsets.ISO_8859_1));
+        socket.getOutputStream().flush();
+    }
+
+    /**
+     * Bytes up to and including the blank line ending a head
+     */
+    private static String readHead(Socket socket) throws IOException {
+        InputStream in = socket.getInputStream();
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
+        while (true) {
+            int b = in.read();
+            if (b == -1) break;
+            head.write(b);
+            String text = head.toString(StandardCharsets.ISO_8859_1);
+            if (text.endsWith("\r\n\r\n")) return text;
+        }
+        return head.toString(StandardCharsets.ISO_8859_1);
+    }
+}